@@ -8,4 +8,16 @@ cd "${STARTDIR}"
 # Compiler reads option flags and one or more source files from command line
 # arguments
 
+# If COMPILER488_SOCKET names the socket of a running compiler daemon
+#   java -cp dist/compiler488.jar compiler488.compiler.CompilerDaemon socket
+# the compile runs there, without starting and warming up a compiler
+if [ -n "${COMPILER488_SOCKET}" ] && [ -S "${COMPILER488_SOCKET}" ]; then
+    java -cp "${BASEDIR}/dist/compiler488.jar" compiler488.compiler.CompilerClient "${COMPILER488_SOCKET}" "$@"
+    STATUS=$?
+    # 111: no daemon listening after all
+    if [ ${STATUS} -ne 111 ]; then
+        exit ${STATUS}
+    fi
+fi
+
 java -jar "${BASEDIR}/dist/compiler488.jar" "$@"
@@ -0,0 +1,239 @@
+package compiler488.bench;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import compiler488.ast.AST;
+import compiler488.ast.ASTList;
+import compiler488.ast.Printable;
+import compiler488.ast.decl.Declaration;
+import compiler488.ast.decl.ScalarDecl;
+import compiler488.ast.expn.ArithExpn;
+import compiler488.ast.expn.CompareExpn;
+import compiler488.ast.expn.Expn;
+import compiler488.ast.expn.IdentExpn;
+import compiler488.ast.expn.IntConstExpn;
+import compiler488.ast.expn.TextConstExpn;
+import compiler488.ast.stmt.AssignStmt;
+import compiler488.ast.stmt.IfStmt;
+import compiler488.ast.stmt.ProcedureCallStmt;
+import compiler488.ast.stmt.Program;
+import compiler488.ast.stmt.Stmt;
+import compiler488.ast.stmt.WriteStmt;
+import compiler488.ast.type.IntegerType;
+
+/**
+ * AST Memory Benchmark: the lists of the AST of a large machine generated
+ * program as linked lists, as ASTLists built by appending and as trimmed
+ * ASTLists.
+ *
+ * The program is built the way the parser builds it, appending one element
+ * at a time: a few hundred variable declarations, then a mix of
+ * assignments, two item puts, two argument calls and one statement ifs, so
+ * most lists are short. The score of copy is the time to copy every list
+ * into the representation, and of iterate the time to visit every element
+ * of the copies. Both report bytesPerList, the heap the copies retain
+ * divided by the number of lists, measured once after forcing garbage
+ * collections; it is steadier with a fixed heap size, such as
+ * -Dbench.options="-jvmArgs -Xms1g -jvmArgs -Xmx1g".
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ASTMemoryBenchmark {
+	@Param({ "50000" })
+	public int statements;
+
+	@Param({ "linked", "array", "trimmed" })
+	public String representation;
+
+	/** Number of variables declared. */
+	private static final int VARIABLES = 500;
+
+	/** Every list in the AST. */
+	private List<ASTList<?>> lists;
+
+	/** The AST, kept reachable while the copies are measured. */
+	private Program program;
+
+	/** Copies of the lists in the representation. */
+	private List<Iterable<AST>> copies;
+
+	/** Number of elements in all the lists. */
+	private long elements;
+
+	/** Heap the copies retain, per list. */
+	private double bytesPerList;
+
+	/** The heap retained per list, reported next to the score. */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class Footprint {
+		public double bytesPerList;
+	}
+
+	@Setup
+	public void setUp() {
+		lists = new ArrayList<ASTList<?>>();
+		program = buildProgram(statements, lists);
+		elements = 0;
+		for (ASTList<?> list : lists) {
+			elements += list.size();
+		}
+
+		long before = usedHeap();
+
+		copies = copyAll();
+		bytesPerList = (double) (usedHeap() - before) / lists.size();
+
+		if (program.getStatements().size() != statements || visitAll() != elements) {
+			throw new AssertionError("lost statements or elements");
+		}
+	}
+
+	/** @return the copies */
+	@Benchmark
+	public Object copy(Footprint footprint) {
+		footprint.bytesPerList = bytesPerList;
+		return copyAll();
+	}
+
+	/** @return number of elements visited */
+	@Benchmark
+	public long iterate(Footprint footprint) {
+		footprint.bytesPerList = bytesPerList;
+		return visitAll();
+	}
+
+	/** @return number of elements in the copies */
+	private long visitAll() {
+		long visited = 0;
+
+		for (Iterable<AST> copy : copies) {
+			for (AST node : copy) {
+				if (node != null) {
+					visited++;
+				}
+			}
+		}
+		return visited;
+	}
+
+	/** Copy every list into the representation. */
+	private List<Iterable<AST>> copyAll() {
+		List<Iterable<AST>> result = new ArrayList<Iterable<AST>>(lists.size());
+
+		for (ASTList<?> list : lists) {
+			if (representation.equals("linked")) {
+				result.add(new LinkedList<AST>(list));
+			} else {
+				ASTList<AST> copy = new ASTList<AST>();
+
+				for (AST node : list) {
+					copy.append(node);
+				}
+				if (representation.equals("trimmed")) {
+					copy.trimToSize();
+				}
+				result.add(copy);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Build the AST of a program, appending list elements one at a time.
+	 *
+	 * @param statements
+	 *            number of statements in the program
+	 * @param lists
+	 *            receives every list in the AST
+	 * @return the program
+	 */
+	private static Program buildProgram(int statements, List<ASTList<?>> lists) {
+		Program program = new Program();
+		ASTList<Declaration> declarations = new ASTList<Declaration>();
+		ASTList<Stmt> body = new ASTList<Stmt>();
+
+		for (int i = 0; i < VARIABLES; i++) {
+			declarations.append(new ScalarDecl("v" + i, new IntegerType()));
+		}
+
+		for (int i = 0; i < statements; i++) {
+			Expn variable = new IdentExpn("v" + (i % VARIABLES));
+
+			switch (i % 4) {
+			case 0:
+				body.append(new AssignStmt(variable,
+						new ArithExpn(ArithExpn.OP_PLUS, new IdentExpn("v" + (i * 7 % VARIABLES)), new IntConstExpn(i))));
+				break;
+			case 1: {
+				ASTList<Printable> outputs = new ASTList<Printable>();
+
+				outputs.append(new TextConstExpn("v = ")).append(variable);
+				lists.add(outputs);
+				body.append(new WriteStmt(outputs));
+				break;
+			}
+			case 2: {
+				ASTList<Expn> arguments = new ASTList<Expn>();
+
+				arguments.append(variable).append(new IntConstExpn(i));
+				lists.add(arguments);
+				body.append(new ProcedureCallStmt("p" + (i % 10), arguments));
+				break;
+			}
+			default: {
+				ASTList<Stmt> whenTrue = new ASTList<Stmt>();
+
+				whenTrue.append(new AssignStmt(variable, new IntConstExpn(0)));
+				lists.add(whenTrue);
+				body.append(new IfStmt(new CompareExpn(CompareExpn.OP_LESS, new IdentExpn("v" + (i % VARIABLES)),
+						new IntConstExpn(i)), whenTrue));
+				break;
+			}
+			}
+		}
+
+		program.setDeclarations(declarations);
+		program.setStatements(body);
+		lists.add(declarations);
+		lists.add(body);
+		return program;
+	}
+
+	/** Heap in use after collecting garbage. */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+
+		for (int i = 0; i < 5; i++) {
+			System.gc();
+			try {
+				Thread.sleep(20);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			used = Math.min(used, runtime.totalMemory() - runtime.freeMemory());
+		}
+		return used;
+	}
+}
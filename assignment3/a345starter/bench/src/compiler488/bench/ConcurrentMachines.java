@@ -0,0 +1,193 @@
+package compiler488.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import compiler488.runtime.ExecutionException;
+import compiler488.runtime.JitMachine;
+import compiler488.runtime.Machine;
+import compiler488.runtime.MachineExecutor;
+import compiler488.runtime.MemoryAddressException;
+
+/**
+ * Concurrent Machines: stress check that many machines can run at the same
+ * time in one JVM without interfering with each other.
+ *
+ * Each task builds its own machine and runs a counting loop whose variables
+ * are addressed through a display entry and frame address unique to the
+ * task, so any machine state shared between instances shows up as wrong
+ * output. Execution modes (interpreted, decoded, fused, JIT) are mixed.
+ *
+ *      $ ant check
+ *      $ java -cp bin/:bench/bin/ compiler488.bench.ConcurrentMachines [machines] [threads]
+ *
+ * Exits with status 1 if any machine produced unexpected output, which fails
+ * the check target.
+ */
+public class ConcurrentMachines {
+	/** Iterations of the counting loop in each program. */
+	private static final int ITERATIONS = 500;
+
+	public static void main(String[] args) throws Exception {
+		int machines = args.length > 0 ? Integer.parseInt(args[0]) : 400;
+		int threads = args.length > 1 ? Integer.parseInt(args[1])
+				: Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<String>> results = new ArrayList<Future<String>>();
+
+		try {
+			for (int i = 0; i < machines; i++) {
+				final int task = i;
+				results.add(pool.submit(() -> runOne(task)));
+			}
+
+			int failures = 0;
+
+			for (int i = 0; i < machines; i++) {
+				String expected = expectedOutput(i);
+				String actual;
+
+				try {
+					actual = results.get(i).get();
+				} catch (java.util.concurrent.ExecutionException e) {
+					actual = e.getCause().toString();
+				}
+
+				if (!expected.equals(actual)) {
+					failures++;
+					System.err.println("machine " + i + ": expected " + expected.trim() + " got " + actual.trim());
+				}
+			}
+
+			System.out.println(machines + " machines on " + threads + " threads, " + failures + " failures");
+
+			if (failures > 0) {
+				System.exit(1);
+			}
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/** Output the program for task i must produce. */
+	private static String expectedOutput(int task) {
+		return (task + ITERATIONS) + "\n";
+	}
+
+	/** Build and run the program for one task, returning its output. */
+	private static String runOne(int task) throws ExecutionException, MemoryAddressException {
+		ByteArrayOutputStream status = new ByteArrayOutputStream();
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		PrintStream statusOutput = new PrintStream(status, true);
+		PrintStream machineOutput = new PrintStream(output, true);
+		ByteArrayInputStream machineInput = new ByteArrayInputStream(new byte[0]);
+
+		MachineExecutor machine;
+
+		switch (task % 4) {
+		case 0:
+			machine = new MachineExecutor(statusOutput, machineOutput, machineInput);
+			break;
+		case 1:
+			machine = new MachineExecutor(statusOutput, machineOutput, machineInput);
+			machine.setDecodingEnabled(true);
+			break;
+		case 2:
+			machine = new MachineExecutor(statusOutput, machineOutput, machineInput);
+			machine.setFusionEnabled(true);
+			break;
+		default:
+			machine = new JitMachine(statusOutput, machineOutput, machineInput);
+			break;
+		}
+
+		short end = emitProgram(machine, task);
+
+		machine.setPC((short) 0);
+		machine.setMSP(end);
+		machine.setMLP((short) (Machine.MEMORY_SIZE - 1));
+		machine.run();
+
+		return output.toString();
+	}
+
+	/**
+	 * Emit the program for one task:
+	 *
+	 * <pre>
+	 *  reserve (task % 50 + 1) words so each frame starts at its own address
+	 *  display[task % DISPLAY_SIZE] = frame
+	 *  var0 := task, var1 := 0
+	 *  while var1 < ITERATIONS: var0 := var0 + 1, var1 := var1 + 1
+	 *  print var0, newline
+	 * </pre>
+	 *
+	 * @return first address past the program
+	 */
+	private static short emitProgram(Machine machine, int task) throws MemoryAddressException {
+		Emitter e = new Emitter(machine);
+		int ll = task % Machine.DISPLAY_SIZE;
+
+		e.emit(Machine.PUSH, 0);
+		e.emit(Machine.PUSH, task % 50 + 1);
+		e.emit(Machine.DUPN);
+		e.emit(Machine.PUSHMT);
+		e.emit(Machine.SETD, ll);
+		e.emit(Machine.PUSH, task);
+		e.emit(Machine.PUSH, 0);
+
+		int loop = e.addr;
+		e.emit(Machine.ADDR, ll, 1);
+		e.emit(Machine.LOAD);
+		e.emit(Machine.PUSH, ITERATIONS);
+		e.emit(Machine.LT);
+		int exit = e.addr + 1;
+		e.emit(Machine.PUSH, 0); // patched below
+		e.emit(Machine.BF);
+
+		for (int var = 0; var <= 1; var++) {
+			e.emit(Machine.ADDR, ll, var);
+			e.emit(Machine.ADDR, ll, var);
+			e.emit(Machine.LOAD);
+			e.emit(Machine.PUSH, 1);
+			e.emit(Machine.ADD);
+			e.emit(Machine.STORE);
+		}
+
+		e.emit(Machine.PUSH, loop);
+		e.emit(Machine.BR);
+
+		machine.writeMemory((short) exit, (short) e.addr);
+		e.emit(Machine.ADDR, ll, 0);
+		e.emit(Machine.LOAD);
+		e.emit(Machine.PRINTI);
+		e.emit(Machine.PUSH, '\n');
+		e.emit(Machine.PRINTC);
+		e.emit(Machine.HALT);
+
+		return (short) e.addr;
+	}
+
+	/** Writes instructions into consecutive machine memory words. */
+	private static class Emitter {
+		private final Machine machine;
+		int addr = 0;
+
+		Emitter(Machine machine) {
+			this.machine = machine;
+		}
+
+		void emit(int... words) throws MemoryAddressException {
+			for (int word : words) {
+				machine.writeMemory((short) addr++, (short) word);
+			}
+		}
+	}
+}
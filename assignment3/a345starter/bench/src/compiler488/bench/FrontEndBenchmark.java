@@ -0,0 +1,76 @@
+package compiler488.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.util.concurrent.TimeUnit;
+
+import java_cup.runtime.Symbol;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import compiler488.compiler.CompilationContext;
+import compiler488.parser.Lexer;
+import compiler488.parser.Source488Parser;
+import compiler488.parser.sym;
+
+/**
+ * Front End Benchmark: lexing and parsing throughput on programs from
+ * {@link SourceGenerator}.
+ *
+ * The score is the time to scan (or scan and parse) the whole program.
+ * Parsing needs the completed grammar in csc488.cup; with the skeleton
+ * grammar the parse benchmark stops at the first syntax error.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FrontEndBenchmark {
+	@Param({ "100", "2000" })
+	public int blocks;
+
+	private String source;
+
+	/** Discards the syntax error messages. */
+	private CompilationContext context;
+
+	@Setup
+	public void setUp() {
+		source = SourceGenerator.generate(blocks);
+		context = new CompilationContext(new PrintStream(OutputStream.nullOutputStream()));
+	}
+
+	/** @return number of tokens scanned */
+	@Benchmark
+	public int lex() throws Exception {
+		Lexer lexer = new Lexer(new StringReader(source));
+		int tokens = 0;
+
+		while (lexer.next_token().sym != sym.EOF) {
+			tokens++;
+		}
+		return tokens;
+	}
+
+	/** @return value of the start symbol, normally the AST */
+	@Benchmark
+	public Object parse() throws Exception {
+		Source488Parser parser = new Source488Parser(new Lexer(new StringReader(source)), context);
+		Symbol value = parser.parse();
+
+		return value == null ? null : value.value;
+	}
+}
@@ -0,0 +1,131 @@
+package compiler488.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import compiler488.runtime.BaseMachine;
+import compiler488.runtime.ExecutionException;
+import compiler488.runtime.JitMachine;
+import compiler488.runtime.Machine;
+import compiler488.runtime.MachineExecutor;
+import compiler488.runtime.MachineSnapshot;
+import compiler488.runtime.MemoryAddressException;
+import compiler488.runtime.PagedMachine;
+
+/**
+ * Machine Benchmark: interpreter throughput on the hand-assembled programs
+ * in {@link Programs}, in each execution mode.
+ *
+ * The score of run is the time for one complete run of the program,
+ * including the machine reset and program load that precede it; rerun
+ * restores a snapshot of the loaded program instead.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MachineBenchmark {
+	@Param({ "loop", "recursion", "array", "io" })
+	public String program;
+
+	@Param({ "interpreted", "decoded", "verified", "fused", "jit", "paged" })
+	public String mode;
+
+	private Programs.Program code;
+	private BaseMachine machine;
+	private MachineSnapshot loaded;
+	private File inputFile;
+
+	@Setup
+	public void setUp() throws IOException, MemoryAddressException {
+		PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+		ByteArrayInputStream noInput = new ByteArrayInputStream(new byte[0]);
+
+		code = Programs.get(program);
+		machine = createMachine(mode, nowhere, nowhere, noInput);
+
+		if (code.input.length() > 0) {
+			inputFile = File.createTempFile("bench", ".txt");
+			try (FileWriter writer = new FileWriter(inputFile)) {
+				writer.write(code.input);
+			}
+			machine.setInputFile(inputFile);
+		}
+
+		machine.reset();
+		code.load(machine);
+		loaded = machine.snapshot();
+	}
+
+	@TearDown
+	public void tearDown() {
+		if (inputFile != null) {
+			inputFile.delete();
+		}
+	}
+
+	/** @return instructions executed, so the run cannot be optimized away */
+	@Benchmark
+	public long run() throws ExecutionException, MemoryAddressException {
+		machine.reset();
+		code.load(machine);
+		machine.run();
+		return machine.getInstructionCount();
+	}
+
+	/** @return instructions executed */
+	@Benchmark
+	public long rerun() throws ExecutionException {
+		machine.restore(loaded);
+		machine.run();
+		return machine.getInstructionCount();
+	}
+
+	static BaseMachine createMachine(String mode, PrintStream statusOutput, PrintStream machineOutput,
+			ByteArrayInputStream machineInput) {
+		MachineExecutor executor;
+
+		switch (mode) {
+		case "interpreted":
+			return new MachineExecutor(statusOutput, machineOutput, machineInput);
+		case "decoded":
+			executor = new MachineExecutor(statusOutput, machineOutput, machineInput);
+			executor.setDecodingEnabled(true);
+			return executor;
+		case "verified":
+			executor = new MachineExecutor(statusOutput, machineOutput, machineInput);
+			executor.setVerificationEnabled(true);
+			return executor;
+		case "fused":
+			executor = new MachineExecutor(statusOutput, machineOutput, machineInput);
+			executor.setFusionEnabled(true);
+			return executor;
+		case "jit":
+			return new JitMachine(statusOutput, machineOutput, machineInput);
+		case "paged":
+			return new PagedMachine(statusOutput, machineOutput, machineInput, Machine.MEMORY_SIZE);
+		default:
+			throw new IllegalArgumentException("Unknown machine mode " + mode);
+		}
+	}
+}
@@ -0,0 +1,123 @@
+package compiler488.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import compiler488.runtime.ExecutionException;
+import compiler488.runtime.Machine;
+import compiler488.runtime.MachineExecutor;
+import compiler488.runtime.MemoryAddressException;
+
+/**
+ * Output Benchmark: PRINTC/PRINTI throughput of the machine with and
+ * without output buffering.
+ *
+ * The program prints a line of text and a number per loop iteration (about
+ * 1.5 MB for 30000 lines; at most 32767 lines fit in a machine word) to a
+ * file opened the way Main.openSink opens the -O file, an autoflush
+ * PrintStream over a FileOutputStream. A buffer size of 1 writes every
+ * character as soon as it is printed, which is what the machine did before
+ * output was buffered.
+ *
+ * The score is the time for one run of the program, from opening the file
+ * to flushing it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputBenchmark {
+	@Param({ "30000" })
+	public int lines;
+
+	@Param({ "1", "8192", "65536" })
+	public int bufferSize;
+
+	private static final String LINE = "The quick brown fox jumps over the lazy dog ";
+
+	private File file;
+
+	private PrintStream status;
+
+	@Setup
+	public void setUp() throws IOException {
+		file = File.createTempFile("output", ".txt");
+		status = new PrintStream(OutputStream.nullOutputStream());
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	/** @return bytes written */
+	@Benchmark
+	public long run() throws IOException, ExecutionException, MemoryAddressException {
+		try (PrintStream output = new PrintStream(new FileOutputStream(file), true)) {
+			MachineExecutor machine = new MachineExecutor(status, output, new ByteArrayInputStream(new byte[0]));
+
+			machine.setOutputBufferSize(bufferSize);
+			emitProgram(machine, lines);
+			machine.run();
+			output.flush();
+		}
+		return file.length();
+	}
+
+	/**
+	 * Emit: for i := lines downto 1: print LINE, i, newline.
+	 */
+	private static void emitProgram(MachineExecutor machine, int lines) throws MemoryAddressException {
+		short addr = 0;
+
+		addr = emit(machine, addr, Machine.PUSH, lines);
+
+		short loop = addr;
+		addr = emit(machine, addr, Machine.DUP, Machine.PUSH, 0, Machine.EQ);
+		short bodyTarget = (short) (addr + 1);
+		short endTarget = (short) (addr + 4);
+		addr = emit(machine, addr, Machine.PUSH, 0, Machine.BF, Machine.PUSH, 0, Machine.BR);
+
+		machine.writeMemory(bodyTarget, addr);
+
+		for (int i = 0; i < LINE.length(); i++) {
+			addr = emit(machine, addr, Machine.PUSH, LINE.charAt(i), Machine.PRINTC);
+		}
+		addr = emit(machine, addr, Machine.DUP, Machine.PRINTI, Machine.PUSH, '\n', Machine.PRINTC);
+		addr = emit(machine, addr, Machine.PUSH, 1, Machine.SUB, Machine.PUSH, loop, Machine.BR);
+
+		machine.writeMemory(endTarget, addr);
+		addr = emit(machine, addr, Machine.HALT);
+
+		machine.setPC((short) 0);
+		machine.setMSP(addr);
+		machine.setMLP((short) (Machine.MEMORY_SIZE - 1));
+	}
+
+	private static short emit(MachineExecutor machine, short addr, int... words) throws MemoryAddressException {
+		for (int word : words) {
+			machine.writeMemory(addr++, (short) word);
+		}
+		return addr;
+	}
+}
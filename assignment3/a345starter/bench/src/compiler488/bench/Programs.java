@@ -0,0 +1,298 @@
+package compiler488.bench;
+
+import java.util.Arrays;
+
+import compiler488.runtime.Machine;
+import compiler488.runtime.MemoryAddressException;
+
+/**
+ * Programs: hand-assembled machine programs for the interpreter benchmarks.
+ *
+ * Each program is assembled once into an image of machine words and loaded
+ * into a freshly reset machine before every run, so the benchmarks measure
+ * execution only.
+ */
+public final class Programs {
+	/** Iterations of the arithmetic loop. */
+	static final int LOOP_ITERATIONS = 30000;
+
+	/** Argument of the recursive Fibonacci function; fib(20) = 6765. */
+	static final int FIB_ARGUMENT = 20;
+
+	/** Words in the array of the array program. */
+	static final int ARRAY_SIZE = 1000;
+
+	/** Times the array program reverses its array. */
+	static final int ARRAY_PASSES = 30;
+
+	/** Numbers read and printed by the I/O program. */
+	static final int IO_NUMBERS = 20000;
+
+	/** An assembled program. */
+	static final class Program {
+		final short[] code;
+
+		/** Text the program reads, or the empty string. */
+		final String input;
+
+		Program(short[] code, String input) {
+			this.code = code;
+			this.input = input;
+		}
+
+		/**
+		 * Load the program into a machine that has been reset, and set the
+		 * registers to run it.
+		 */
+		void load(Machine machine) throws MemoryAddressException {
+			for (int addr = 0; addr < code.length; addr++) {
+				machine.writeMemory((short) addr, code[addr]);
+			}
+			machine.setPC((short) 0);
+			machine.setMSP((short) code.length);
+			machine.setMLP((short) (Machine.MEMORY_SIZE - 1));
+		}
+	}
+
+	private Programs() {
+	}
+
+	/**
+	 * The program with a given name: loop, recursion, array or io.
+	 */
+	static Program get(String name) {
+		switch (name) {
+		case "loop":
+			return loop();
+		case "recursion":
+			return recursion();
+		case "array":
+			return array();
+		case "io":
+			return io();
+		default:
+			throw new IllegalArgumentException("Unknown program " + name);
+		}
+	}
+
+	/**
+	 * Arithmetic in a counted loop, with the counter on the stack:
+	 *
+	 * <pre>
+	 *  for k := LOOP_ITERATIONS downto 1: (k / 4) * 3 + 7
+	 * </pre>
+	 */
+	static Program loop() {
+		Assembler a = new Assembler();
+
+		a.emit(Machine.PUSH, LOOP_ITERATIONS);
+
+		int loop = a.addr;
+		a.emit(Machine.DUP, Machine.PUSH, 0, Machine.EQ);
+		int body = a.reference();
+		a.emit(Machine.BF);
+		int end = a.reference();
+		a.emit(Machine.BR);
+
+		a.patch(body);
+		a.emit(Machine.DUP, Machine.PUSH, 4, Machine.DIV, Machine.PUSH, 3, Machine.MUL, Machine.PUSH, 7, Machine.ADD);
+		a.emit(Machine.POP);
+		a.emit(Machine.PUSH, 1, Machine.SUB, Machine.PUSH, loop, Machine.BR);
+
+		a.patch(end);
+		a.emit(Machine.POP, Machine.HALT);
+
+		return new Program(a.code(), "");
+	}
+
+	/**
+	 * Recursive Fibonacci. A call pushes the return address and the
+	 * argument and branches to the function, which leaves its result in
+	 * place of both:
+	 *
+	 * <pre>
+	 *  fib(n) = n &lt; 2 ? n : fib(n - 1) + fib(n - 2)
+	 * </pre>
+	 */
+	static Program recursion() {
+		Assembler a = new Assembler();
+
+		int done = a.reference();
+		a.emit(Machine.PUSH, FIB_ARGUMENT);
+		int call = a.reference();
+		a.emit(Machine.BR);
+
+		a.patch(done);
+		a.emit(Machine.POP, Machine.HALT);
+
+		// fib: stack is ret, n
+		int fib = a.addr;
+		a.patch(call);
+		a.emit(Machine.DUP, Machine.PUSH, 2, Machine.LT);
+		int recurse = a.reference();
+		a.emit(Machine.BF);
+		a.emit(Machine.SWAP, Machine.BR);
+
+		// ret, n -> ret, n, r1, n - 1
+		a.patch(recurse);
+		a.emit(Machine.DUP, Machine.PUSH, 1, Machine.SUB);
+		int r1 = a.reference();
+		a.emit(Machine.SWAP, Machine.PUSH, fib, Machine.BR);
+
+		// ret, n, fib(n - 1) -> ret, fib(n - 1), r2, n - 2
+		a.patch(r1);
+		a.emit(Machine.SWAP, Machine.PUSH, 2, Machine.SUB);
+		int r2 = a.reference();
+		a.emit(Machine.SWAP, Machine.PUSH, fib, Machine.BR);
+
+		// ret, fib(n - 1), fib(n - 2) -> fib(n)
+		a.patch(r2);
+		a.emit(Machine.ADD, Machine.SWAP, Machine.BR);
+
+		return new Program(a.code(), "");
+	}
+
+	/**
+	 * Array access through the display: reverse an array in place
+	 * ARRAY_PASSES times.
+	 *
+	 * <pre>
+	 *  for i := 0 to ARRAY_SIZE - 1: a[i] := i
+	 *  for p := 0 to ARRAY_PASSES - 1:
+	 *      for i := 0 to ARRAY_SIZE / 2 - 1: swap a[i], a[ARRAY_SIZE - 1 - i]
+	 * </pre>
+	 */
+	static Program array() {
+		final int i = ARRAY_SIZE;
+		final int p = ARRAY_SIZE + 1;
+		Assembler a = new Assembler();
+
+		a.emit(Machine.PUSHMT, Machine.SETD, 0);
+		a.emit(Machine.PUSH, 0, Machine.PUSH, ARRAY_SIZE + 2, Machine.DUPN);
+
+		a.emit(Machine.ADDR, 0, i, Machine.PUSH, 0, Machine.STORE);
+		int fill = a.addr;
+		a.emit(Machine.ADDR, 0, i, Machine.LOAD, Machine.PUSH, ARRAY_SIZE, Machine.LT);
+		int filled = a.reference();
+		a.emit(Machine.BF);
+		a.element(i);
+		a.emit(Machine.ADDR, 0, i, Machine.LOAD, Machine.STORE);
+		a.increment(i);
+		a.emit(Machine.PUSH, fill, Machine.BR);
+
+		a.patch(filled);
+		a.emit(Machine.ADDR, 0, p, Machine.PUSH, 0, Machine.STORE);
+		int pass = a.addr;
+		a.emit(Machine.ADDR, 0, p, Machine.LOAD, Machine.PUSH, ARRAY_PASSES, Machine.LT);
+		int end = a.reference();
+		a.emit(Machine.BF);
+
+		a.emit(Machine.ADDR, 0, i, Machine.PUSH, 0, Machine.STORE);
+		int swap = a.addr;
+		a.emit(Machine.ADDR, 0, i, Machine.LOAD, Machine.PUSH, ARRAY_SIZE / 2, Machine.LT);
+		int swapped = a.reference();
+		a.emit(Machine.BF);
+
+		// a[i], a[j] := a[j], a[i] as: &a[i], a[j], &a[j], a[i], STORE, STORE
+		a.element(i);
+		a.mirror(i);
+		a.emit(Machine.LOAD);
+		a.mirror(i);
+		a.element(i);
+		a.emit(Machine.LOAD, Machine.STORE, Machine.STORE);
+		a.increment(i);
+		a.emit(Machine.PUSH, swap, Machine.BR);
+
+		a.patch(swapped);
+		a.increment(p);
+		a.emit(Machine.PUSH, pass, Machine.BR);
+
+		a.patch(end);
+		a.emit(Machine.HALT);
+
+		return new Program(a.code(), "");
+	}
+
+	/**
+	 * Read a count and then that many numbers, printing each on a line of
+	 * its own.
+	 */
+	static Program io() {
+		Assembler a = new Assembler();
+
+		a.emit(Machine.READI);
+
+		int loop = a.addr;
+		a.emit(Machine.DUP, Machine.PUSH, 0, Machine.EQ);
+		int body = a.reference();
+		a.emit(Machine.BF);
+		int end = a.reference();
+		a.emit(Machine.BR);
+
+		a.patch(body);
+		a.emit(Machine.READI, Machine.PRINTI, Machine.PUSH, '\n', Machine.PRINTC);
+		a.emit(Machine.PUSH, 1, Machine.SUB, Machine.PUSH, loop, Machine.BR);
+
+		a.patch(end);
+		a.emit(Machine.POP, Machine.HALT);
+
+		StringBuilder input = new StringBuilder();
+
+		input.append(IO_NUMBERS).append('\n');
+		for (int n = 0; n < IO_NUMBERS; n++) {
+			input.append(n * 7 % 10007).append('\n');
+		}
+
+		return new Program(a.code(), input.toString());
+	}
+
+	/** Assembles words into a program image, patching forward references. */
+	private static class Assembler {
+		private short[] words = new short[256];
+		int addr = 0;
+
+		void emit(int... code) {
+			for (int word : code) {
+				if (addr == words.length) {
+					words = Arrays.copyOf(words, addr * 2);
+				}
+				words[addr++] = (short) word;
+			}
+		}
+
+		/**
+		 * Emit a PUSH of an address not known yet.
+		 *
+		 * @return the reference to give to {@link #patch}
+		 */
+		int reference() {
+			emit(Machine.PUSH, 0);
+			return addr - 1;
+		}
+
+		/** Make a reference push the current address. */
+		void patch(int reference) {
+			words[reference] = (short) addr;
+		}
+
+		/** Push the address of a[var]. */
+		void element(int var) {
+			emit(Machine.ADDR, 0, 0, Machine.ADDR, 0, var, Machine.LOAD, Machine.ADD);
+		}
+
+		/** Push the address of a[ARRAY_SIZE - 1 - var]. */
+		void mirror(int var) {
+			emit(Machine.ADDR, 0, ARRAY_SIZE - 1, Machine.ADDR, 0, var, Machine.LOAD, Machine.SUB);
+		}
+
+		/** var := var + 1 */
+		void increment(int var) {
+			emit(Machine.ADDR, 0, var, Machine.ADDR, 0, var, Machine.LOAD, Machine.PUSH, 1, Machine.ADD,
+					Machine.STORE);
+		}
+
+		short[] code() {
+			return Arrays.copyOf(words, addr);
+		}
+	}
+}
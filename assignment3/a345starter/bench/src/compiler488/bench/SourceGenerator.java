@@ -0,0 +1,63 @@
+package compiler488.bench;
+
+/**
+ * SourceGenerator: large 488 source programs for the front end benchmarks.
+ *
+ * The program is one scope holding a few declarations, a function and a
+ * procedure, followed by the requested number of statement blocks. Every
+ * block uses assignments, loops, conditionals, calls, array subscripts,
+ * text constants and comments, so the token mix is that of a real program
+ * rather than of one repeated construct.
+ */
+public final class SourceGenerator {
+	private SourceGenerator() {
+	}
+
+	/**
+	 * Generate a program.
+	 *
+	 * @param blocks
+	 *            number of statement blocks, about 16 lines each
+	 * @return the program text
+	 */
+	public static String generate(int blocks) {
+		StringBuilder s = new StringBuilder(blocks * 400 + 1024);
+
+		s.append("% Generated benchmark program, ").append(blocks).append(" blocks\n");
+		s.append("{\n");
+		s.append("    var i, n, total : integer\n");
+		s.append("    var done : boolean\n");
+		s.append("    var v[100] : integer\n");
+		s.append("\n");
+		s.append("    integer function square(x : integer) {\n");
+		s.append("        return with x * x\n");
+		s.append("    }\n");
+		s.append("\n");
+		s.append("    procedure report(k : integer, t : integer) {\n");
+		s.append("        write \"block \", k, \" total \", t, newline\n");
+		s.append("    }\n");
+
+		for (int k = 1; k <= blocks; k++) {
+			int bound = k % 90 + 10;
+
+			s.append("\n");
+			s.append("    % block ").append(k).append('\n');
+			s.append("    n := ").append(bound).append('\n');
+			s.append("    total := 0\n");
+			s.append("    i := 1\n");
+			s.append("    done := false\n");
+			s.append("    while i < n and not done do {\n");
+			s.append("        v[i] := square(i) - total / (i + 1)\n");
+			s.append("        total := total + v[i] - i * ").append(k % 7 + 1).append('\n');
+			s.append("        if total > 10000 or total < -10000 then done := true\n");
+			s.append("        i := i + 1\n");
+			s.append("    }\n");
+			s.append("    repeat n := n - 1 until n = 0 or v[n] > total\n");
+			s.append("    if not done then report(").append(k).append(", total)\n");
+			s.append("    else write (total > 0 ? total : -total), newline\n");
+		}
+
+		s.append("}\n");
+		return s.toString();
+	}
+}
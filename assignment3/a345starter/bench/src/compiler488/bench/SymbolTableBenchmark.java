@@ -0,0 +1,252 @@
+package compiler488.bench;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import compiler488.compiler.CompilationContext;
+import compiler488.symbol.SymbolEntry;
+import compiler488.symbol.SymbolTable;
+
+/**
+ * Symbol Table Benchmark: analyse synthetic deeply nested programs with the
+ * hashed SymbolTable and with a stack of scopes searched innermost first,
+ * which is what each analysis did before there was a symbol table.
+ *
+ * Each program nests routines to the given depth. Every routine declares
+ * some variables, drawn from a pool of names so that inner routines shadow
+ * outer ones, looks up names used in its body, and has a few small nested
+ * scopes, each declaring and using a couple of names of its own. Half the
+ * names looked up are declared a few levels out, and the rest are spread
+ * over the whole nesting, as references to globals and outer routines are.
+ *
+ * The score is the time to analyse the whole program with a new table.
+ * Setup checks that the table finds the same bindings as the linear scopes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SymbolTableBenchmark {
+	@Param({ "10", "100", "1000" })
+	public int depth;
+
+	@Param({ "linear", "hashed" })
+	public String table;
+
+	/** Variables declared by each routine. */
+	private static final int VARIABLES = 8;
+
+	/** Names looked up in the body of each routine. */
+	private static final int LOOKUPS = 200;
+
+	/** Nested scopes in each routine. */
+	private static final int BLOCKS = 10;
+
+	/** Distinct variable names. */
+	private static final int POOL = 4000;
+
+	private Program program;
+
+	/** Discards the trace. */
+	private PrintStream sink;
+
+	/** The operations of analysis on a table of symbols. */
+	private interface Table {
+		void enter(boolean major);
+
+		void exit();
+
+		void declare(String name);
+
+		/** @return lexical level of the binding found, -1 if none */
+		int lookup(String name);
+	}
+
+	@Setup
+	public void setUp() {
+		program = new Program(depth);
+		sink = new PrintStream(OutputStream.nullOutputStream());
+
+		if (program.analyse(createTable()) != program.analyse(new LinearTable())) {
+			throw new AssertionError("tables found different bindings");
+		}
+	}
+
+	/** @return checksum of the bindings found */
+	@Benchmark
+	public long analyse() {
+		return program.analyse(createTable());
+	}
+
+	private Table createTable() {
+		return table.equals("linear") ? new LinearTable() : new HashedTable(sink);
+	}
+
+	/**
+	 * A synthetic program: the names each routine declares and looks up. The
+	 * names looked up are the instances declared, as the lexer interning the
+	 * identifiers of the compilation gives.
+	 */
+	private static class Program {
+		final String[][] declared;
+
+		final String[][] used;
+
+		final String[][] blockNames;
+
+		Program(int depth) {
+			Random random = new Random(depth);
+			String[] pool = new String[POOL];
+
+			for (int i = 0; i < POOL; i++) {
+				pool[i] = "name" + i;
+			}
+
+			declared = new String[depth][VARIABLES];
+			used = new String[depth][LOOKUPS];
+			blockNames = new String[depth][BLOCKS * 2];
+
+			for (int level = 0; level < depth; level++) {
+				for (int i = 0; i < VARIABLES; i++) {
+					declared[level][i] = pool[random.nextInt(POOL)];
+				}
+				for (int i = 0; i < LOOKUPS; i++) {
+					int outer = i % 2 == 0 ? Math.max(0, level - random.nextInt(4)) : random.nextInt(level + 1);
+
+					used[level][i] = declared[outer][random.nextInt(VARIABLES)];
+				}
+				for (int i = 0; i < BLOCKS * 2; i++) {
+					blockNames[level][i] = "b" + i;
+				}
+			}
+		}
+
+		/** @return checksum of the levels of the bindings found */
+		long analyse(Table table) {
+			long checksum = 0;
+
+			for (int level = 0; level < declared.length; level++) {
+				table.enter(true);
+				for (String name : declared[level]) {
+					table.declare(name);
+				}
+				for (String name : used[level]) {
+					checksum += table.lookup(name);
+				}
+				for (int block = 0; block < BLOCKS; block++) {
+					String first = blockNames[level][block * 2];
+					String second = blockNames[level][block * 2 + 1];
+
+					table.enter(false);
+					table.declare(first);
+					table.declare(second);
+					checksum += table.lookup(first) + table.lookup(second);
+					checksum += table.lookup(first) + table.lookup(second);
+					table.exit();
+				}
+			}
+			for (int level = 0; level < declared.length; level++) {
+				table.exit();
+			}
+			return checksum;
+		}
+	}
+
+	/** The SymbolTable. */
+	private static class HashedTable implements Table {
+		private final SymbolTable table;
+
+		HashedTable(PrintStream sink) {
+			table = new SymbolTable(new CompilationContext(sink));
+		}
+
+		@Override
+		public void enter(boolean major) {
+			table.enterScope(major);
+		}
+
+		@Override
+		public void exit() {
+			table.exitScope();
+		}
+
+		@Override
+		public void declare(String name) {
+			// A routine can declare a name from the pool twice; keep the first
+			table.declare(name, SymbolTable.VARIABLE, null, null, 1);
+		}
+
+		@Override
+		public int lookup(String name) {
+			SymbolEntry entry = table.lookup(name);
+
+			return entry == null ? -1 : entry.getLexicalLevel();
+		}
+	}
+
+	/** A stack of scopes, each a list of names, searched innermost first. */
+	private static class LinearTable implements Table {
+		private final List<List<String>> scopes = new ArrayList<List<String>>();
+
+		private final List<Integer> levels = new ArrayList<Integer>();
+
+		private int level = -1;
+
+		@Override
+		public void enter(boolean major) {
+			if (major) {
+				level++;
+			}
+			scopes.add(new ArrayList<String>());
+			levels.add(level);
+		}
+
+		@Override
+		public void exit() {
+			scopes.remove(scopes.size() - 1);
+			levels.remove(levels.size() - 1);
+			level = levels.isEmpty() ? -1 : levels.get(levels.size() - 1);
+		}
+
+		@Override
+		public void declare(String name) {
+			List<String> scope = scopes.get(scopes.size() - 1);
+
+			if (!scope.contains(name)) {
+				scope.add(name);
+			}
+		}
+
+		@Override
+		public int lookup(String name) {
+			for (int i = scopes.size() - 1; i >= 0; i--) {
+				List<String> scope = scopes.get(i);
+
+				for (int j = scope.size() - 1; j >= 0; j--) {
+					if (scope.get(j).equals(name)) {
+						return levels.get(i);
+					}
+				}
+			}
+			return -1;
+		}
+	}
+}
@@ -0,0 +1,282 @@
+package compiler488.bench;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import compiler488.runtime.ExecutionException;
+import compiler488.runtime.JitMachine;
+import compiler488.runtime.Machine;
+import compiler488.runtime.MachineExecutor;
+import compiler488.runtime.MemoryAddressException;
+
+/**
+ * Verified Execution: regression check that the verified mode faults
+ * exactly where the other execution modes do.
+ *
+ * Each program is run in every mode (interpreted, decoded, fused, JIT and
+ * verified) and must leave the same status and output in all of them. The
+ * hand written programs branch to computed addresses into code the
+ * verification pass reached with a different constant on top of the stack,
+ * underflow the stack and set an instruction limit in the middle of
+ * verified code. They are followed by random programs from a fixed seed,
+ * each starting with an ILIMIT so it stops; programs that branch back to it
+ * are left out.
+ *
+ *      $ ant check
+ *      $ java -cp bin/:bench/bin/ compiler488.bench.VerifiedExecution [programs [seed]]
+ *
+ * Exits with status 1 if any mode disagrees, which fails the check target.
+ */
+public class VerifiedExecution {
+	/**
+	 * Programs, with the code area ending at their length.
+	 * <ol>
+	 * <li>Takes BF to 13, computes 11 and branches there with 3 on top of
+	 * the stack, where the verification pass saw the PUSH 1 before it; POPN
+	 * then underflows the stack.
+	 * <li>Starts with a SWAP on an empty stack, which turns the DIV in the
+	 * next to last code word into a HALT.
+	 * <li>Takes BF to a computed 15 with 7 on top of the stack, where the
+	 * verification pass only saw the fall through path push 1; POPN
+	 * underflows the stack.
+	 * <li>Takes BF to 13 and branches to a computed 9 with 3 on top of the
+	 * stack, where the verification pass saw the PUSH 1 before it; DUPN
+	 * leaves three copies of 9 instead of one.
+	 * <li>Pops more than it pushed.
+	 * <li>Turns the trace on and off and sets an instruction limit of 9 in
+	 * verified straight line code, then loops until it is exceeded.
+	 * </ol>
+	 */
+	private static final short[][] PROGRAMS = {
+			{ 4, 0, 4, 0, 4, 0, 4, 13, 12, 4, 1, 8, 0, 4, 3, 4, 11, 4, 0, 14, 11, 0 },
+			{ 21, 4, 13207, 18, 1, 0, 0, 4, 1, 4, 1, 1, 0, 0, 9, 4, 0, 17, 0 },
+			{ 4, 7, 4, 7, 4, 0, 4, 7, 4, 8, 14, 12, 7, 4, 1, 8, 0, 0, 0 },
+			{ 4, 0, 4, 13, 12, 4, 9, 4, 1, 10, 25, 0, 0, 4, 9, 4, 3, 4, 4, 4, 5, 14, 11, 0, 0 },
+			{ 4, 1, 7, 7, 0, 0, 0 },
+			{ 4, 0, 26, 4, 1, 14, 27, 28, 9, 4, 1, 14, 4, 9, 11, 0, 0, 0 }, };
+
+	/** Status each program must leave in every mode. */
+	private static final String[] EXPECTED = { "Run stack underflow.", "End Execution.", "Run stack underflow.",
+			"End Execution.", "Run stack underflow.", "Instruction execution limit (9) exceeded" };
+
+	private static final String[] MODES = { "interpreted", "decoded", "fused", "JIT", "verified" };
+
+	/** Default number of random programs and their seed. */
+	private static final int RANDOM_PROGRAMS = 2000;
+	private static final long SEED = 488;
+
+	/** Random programs are at most this long, and stop after this many instructions. */
+	private static final int MAX_LENGTH = 48;
+	private static final int MAX_INSTRUCTIONS = 400;
+
+	/**
+	 * Input for READC and READI: one integer per line, more than a program
+	 * can read, since reading past the end or a token that is not an
+	 * integer is an error of the host rather than the machine.
+	 */
+	private static final byte[] INPUT = input();
+
+	public static void main(String[] args) throws Exception {
+		int programs = args.length > 0 ? Integer.parseInt(args[0]) : RANDOM_PROGRAMS;
+		long seed = args.length > 1 ? Long.parseLong(args[1]) : SEED;
+		int failures = 0;
+
+		for (int p = 0; p < PROGRAMS.length; p++) {
+			String reference = run(PROGRAMS[p], Machine.MEMORY_SIZE - 1, false, 0);
+
+			if (!reference.contains(EXPECTED[p])) {
+				failures++;
+				System.err.println("program " + p + " " + MODES[0] + ": expected " + EXPECTED[p] + " got "
+						+ reference.trim());
+			}
+
+			failures += compare("program " + p, PROGRAMS[p], Machine.MEMORY_SIZE - 1, false, reference);
+		}
+
+		Random random = new Random(seed);
+
+		for (int p = 0; p < programs; p++) {
+			short[] program;
+			int mlp;
+
+			do {
+				program = randomProgram(random);
+				// Mostly room to spare, sometimes a stack a few words deep
+				mlp = random.nextInt(4) == 0 ? program.length + random.nextInt(16) : Machine.MEMORY_SIZE - 1;
+			} while (!stops(program, mlp));
+
+			boolean tracing = random.nextInt(8) == 0;
+			String name = "random program " + p + " " + Arrays.toString(program) + " mlp " + mlp
+					+ (tracing ? " traced" : "");
+
+			failures += compare(name, program, mlp, tracing, run(program, mlp, tracing, 0));
+		}
+
+		System.out.println((PROGRAMS.length + programs) + " programs in " + MODES.length + " modes, " + failures
+				+ " failures");
+
+		if (failures > 0) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Run a program in every mode but the interpreted one.
+	 *
+	 * @return number of modes that disagree with the interpreted mode
+	 */
+	private static int compare(String name, short[] program, int mlp, boolean tracing, String reference)
+			throws ExecutionException, MemoryAddressException {
+		int failures = 0;
+
+		for (int mode = 1; mode < MODES.length; mode++) {
+			String actual = run(program, mlp, tracing, mode);
+
+			if (!reference.equals(actual)) {
+				failures++;
+				System.err.println(name + " " + MODES[mode] + ": expected " + reference.trim() + " got "
+						+ actual.trim());
+			}
+		}
+		return failures;
+	}
+
+	/**
+	 * A random program: an ILIMIT, then instructions with mostly small
+	 * constants and addresses in or just past the program as operands. The
+	 * ILIMIT is the only one, so the program stops unless it branches back
+	 * to it.
+	 */
+	private static short[] randomProgram(Random random) {
+		short[] program = new short[4 + random.nextInt(MAX_LENGTH - 3)];
+
+		program[0] = Machine.ILIMIT;
+		program[1] = (short) (1 + random.nextInt(MAX_INSTRUCTIONS));
+
+		int addr = 2;
+
+		while (addr < program.length) {
+			// Now and then an illegal instruction code
+			int opCode = random.nextInt(40) == 0 ? Machine.ILIMIT + 1 : random.nextInt(Machine.ILIMIT + 8);
+
+			if (opCode > Machine.ILIMIT || opCode == Machine.ILIMIT) {
+				opCode = Machine.PUSH; // half the instructions or so
+			}
+			program[addr++] = (short) opCode;
+
+			for (int i = 1; i < Machine.INSTRUCTION_LENGTHS[opCode] && addr < program.length; i++) {
+				program[addr++] = randomOperand(random, program.length);
+			}
+		}
+		return program;
+	}
+
+	/** A small constant, a code or stack address, or any word. */
+	private static short randomOperand(Random random, int length) {
+		switch (random.nextInt(8)) {
+		case 0:
+		case 1:
+		case 2:
+			return (short) (random.nextInt(7) - 2);
+		case 3:
+		case 4:
+		case 5:
+			return (short) random.nextInt(length);
+		case 6:
+			return (short) (length + random.nextInt(8));
+		default:
+			return (short) random.nextInt(1 << 16);
+		}
+	}
+
+	/** @return lines of integers between -100 and 100 */
+	private static byte[] input() {
+		StringBuilder input = new StringBuilder();
+
+		for (int i = 0; i <= MAX_INSTRUCTIONS; i++) {
+			input.append(i * 37 % 201 - 100).append('\n');
+		}
+		return input.toString().getBytes();
+	}
+
+	/** Run a program in one mode, returning its status and output. */
+	private static String run(short[] program, int mlp, boolean tracing, int mode)
+			throws ExecutionException, MemoryAddressException {
+		ByteArrayOutputStream status = new ByteArrayOutputStream();
+		PrintStream statusOutput = new PrintStream(status, true);
+		ByteArrayInputStream machineInput = new ByteArrayInputStream(INPUT);
+
+		MachineExecutor machine;
+
+		if (mode == 3) {
+			machine = new JitMachine(statusOutput, statusOutput, machineInput);
+		} else {
+			machine = new MachineExecutor(statusOutput, statusOutput, machineInput);
+			machine.setDecodingEnabled(mode == 1);
+			machine.setFusionEnabled(mode == 2);
+			machine.setVerificationEnabled(mode == 4);
+		}
+		execute(machine, statusOutput, program, mlp, tracing);
+
+		// The fused mode adds a count of the superinstructions it executed
+		return status.toString().replaceAll("Fused instructions executed: \\d+\\R", "");
+	}
+
+	/**
+	 * Test that a random program stops: it runs forever if it branches back
+	 * to its ILIMIT often enough.
+	 */
+	private static boolean stops(short[] program, int mlp) throws ExecutionException, MemoryAddressException {
+		PrintStream nowhere = new PrintStream(OutputStream.nullOutputStream());
+		SingleLimit machine = new SingleLimit(nowhere, new ByteArrayInputStream(INPUT));
+
+		execute(machine, nowhere, program, mlp, false);
+		return !machine.limitRepeated;
+	}
+
+	/** Load a program into a machine and run it, printing any error. */
+	private static void execute(MachineExecutor machine, PrintStream statusOutput, short[] program, int mlp,
+			boolean tracing) throws MemoryAddressException {
+		machine.setTracingEnabled(tracing);
+
+		for (int addr = 0; addr < program.length; addr++) {
+			machine.writeMemory((short) addr, program[addr]);
+		}
+
+		machine.setPC((short) 0);
+		machine.setMSP((short) program.length);
+		machine.setMLP((short) mlp);
+		try {
+			machine.run();
+		} catch (ExecutionException e) {
+			statusOutput.println(e.getMessage());
+		}
+	}
+
+	/** The interpreted machine, stopping at a second ILIMIT. */
+	private static class SingleLimit extends MachineExecutor {
+		private boolean limitRepeated = false;
+
+		private boolean limitSet = false;
+
+		SingleLimit(PrintStream statusOutput, ByteArrayInputStream machineInput) {
+			super(statusOutput, statusOutput, machineInput);
+		}
+
+		@Override
+		protected void executeInstruction(short opCode, short operand1, short operand2) throws ExecutionException {
+			if (opCode == ILIMIT) {
+				limitRepeated = limitSet;
+				limitSet = true;
+				if (limitRepeated) {
+					runError("ILIMIT executed again.");
+				}
+			}
+			super.executeInstruction(opCode, operand1, operand2);
+		}
+	}
+}
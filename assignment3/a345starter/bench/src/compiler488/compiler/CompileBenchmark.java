@@ -0,0 +1,73 @@
+package compiler488.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import compiler488.bench.SourceGenerator;
+import compiler488.runtime.BaseMachine;
+
+/**
+ * Compile Benchmark: end to end compile latency of a source file, from
+ * opening it through code generation, as Main compiles each file named on
+ * the command line. The compiler's messages are discarded.
+ *
+ * It is in this package because Main.compileProgram is package private.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+@Fork(1)
+public class CompileBenchmark {
+	@Param({ "10", "100", "2000" })
+	public int blocks;
+
+	private File sourceFile;
+	private BaseMachine machine;
+	private PrintStream messages;
+	private CompilationContext context;
+
+	@Setup
+	public void setUp() throws IOException {
+		sourceFile = File.createTempFile("bench", ".488");
+		try (FileWriter writer = new FileWriter(sourceFile)) {
+			writer.write(SourceGenerator.generate(blocks));
+		}
+
+		messages = new PrintStream(OutputStream.nullOutputStream());
+		context = new CompilationContext(messages);
+		machine = Main.createMachine(context.getOptions(), messages, messages, new ByteArrayInputStream(new byte[0]));
+	}
+
+	@TearDown
+	public void tearDown() {
+		sourceFile.delete();
+	}
+
+	/** @return true iff the program compiled without errors */
+	@Benchmark
+	public boolean compile() {
+		// A context per compilation, so one failure does not set the error
+		// flag of the next
+		return Main.compileProgram(context.derive(messages, messages), machine, sourceFile.getPath());
+	}
+}
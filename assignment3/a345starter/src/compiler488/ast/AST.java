@@ -4,16 +4,82 @@ package compiler488.ast;
  * Common interface for all Abstract Syntax Tree nodes.
  *
  * <p>
- * Every node must be able to pretty-print itself
+ * Every node must be able to pretty-print itself, accept an
+ * {@link ASTVisitor} and list its children, which is how an
+ * {@link ASTWalker} traverses the tree. Every node also carries the source
+ * position it was parsed from, which code generation records so that
+ * runtime errors and profiles can report source lines.
  * </p>
  *
  * <p>
- * Consider adding further support for visitor patterns, type checking
- * information and source coordinates here.
+ * Consider adding further support for type checking information here.
  * </p>
  *
  * @see compiler488.ast.BaseAST
  */
 public interface AST extends PrettyPrintable {
 	public void prettyPrint(PrettyPrinter p);
+
+	/**
+	 * Call the method of the visitor for the class of this node.
+	 *
+	 * @param visitor
+	 *            the visitor
+	 * @param context
+	 *            context passed on to the visitor
+	 * @return the result of the visit
+	 */
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context);
+
+	/**
+	 * @return the number of children of this node, counting absent
+	 *         optional children
+	 */
+	public int getChildCount();
+
+	/**
+	 * Return a child of this node. The children come in source order; an
+	 * absent optional child, such as a missing else part, is null.
+	 *
+	 * @param index
+	 *            0 .. getChildCount() - 1
+	 * @return the child, or null
+	 */
+	public AST getChild(int index);
+
+	/**
+	 * @return the source position of this node, packed by
+	 *         {@link SourcePosition}; SourcePosition.UNKNOWN if not set
+	 */
+	public int getPosition();
+
+	/**
+	 * Set the source position of this node.
+	 *
+	 * @param position
+	 *            position packed by {@link SourcePosition}
+	 */
+	public void setPosition(int position);
+
+	/**
+	 * Set the source position of this node.
+	 *
+	 * @param line
+	 *            line, from 1
+	 * @param column
+	 *            column, from 1
+	 */
+	public default void setPosition(int line, int column) {
+		setPosition(SourcePosition.pack(line, column));
+	}
+
+	/** @return the source line of this node, 0 if unknown */
+	public default int getLine() {
+		return SourcePosition.line(getPosition());
+	}
+
+	/** @return the source column of this node, 0 if unknown */
+	public default int getColumn() {
+		return SourcePosition.column(getPosition());
+	}
 }
@@ -1,24 +1,50 @@
 package compiler488.ast;
 
-import java.util.LinkedList;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.function.Consumer;
 
 /**
  * A list of AST nodes.
  *
  * <p>
- * This is implemented by extending {@link java.util.LinkedList}. Thanks to
- * this, any method that expects to take an instance of
- * {@link java.util.Collection} or {@link java.util.List} can take an
- * <code>ASTList</code> as well. You can also directly iterate over it using an
- * enhanced Java <code>for</code>.
+ * This is implemented as a {@link java.util.List} holding its elements in
+ * one array, so a list costs two objects however long it is, rather than an
+ * object per element as a linked list would. Any method that expects to take
+ * an instance of {@link java.util.Collection} or {@link java.util.List} can
+ * take an <code>ASTList</code> as well. You can also directly iterate over it
+ * using an enhanced Java <code>for</code>.
+ *
+ * <p>
+ * The array grows by half as elements are appended, so up to a third of it
+ * may be unused; {@link #trimToSize()} gives the spare room back once a list
+ * is complete.
+ * </p>
  *
  * <p>
  * This list is itself an AST node as well, since it implements the AST
  * interface.
  * </p>
  */
-public class ASTList<E extends AST> extends LinkedList<E> implements AST {
-	private static final long serialVersionUID = 1L;
+public class ASTList<E extends AST> extends AbstractList<E> implements RandomAccess, AST {
+	/** Elements of every empty list. */
+	private static final Object[] EMPTY = {};
+
+	/** Room for the first elements appended to an empty list. */
+	private static final int INITIAL_CAPACITY = 4;
+
+	/** The elements, in elements[0 .. size - 1]. */
+	private Object[] elements = EMPTY;
+
+	/** Number of elements. */
+	private int size = 0;
+
+	/** Source position, packed by SourcePosition. */
+	private int position = SourcePosition.UNKNOWN;
 
 	/**
 	 * Create an empty AST list
@@ -36,7 +62,8 @@ public class ASTList<E extends AST> extends LinkedList<E> implements AST {
 	public ASTList(E elem) {
 		this();
 
-		append(elem);
+		elements = new Object[] { elem };
+		size = 1;
 	}
 
 	/**
@@ -53,11 +80,179 @@ public class ASTList<E extends AST> extends LinkedList<E> implements AST {
 	 * @return the list itself
 	 */
 	public ASTList<E> append(E elem) {
-		addLast(elem);
+		add(elem);
 
 		return this;
 	}
 
+	@Override
+	public int size() {
+		return size;
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		return (E) elements[index];
+	}
+
+	@Override
+	public E set(int index, E elem) {
+		E old = get(index);
+
+		elements[index] = elem;
+		return old;
+	}
+
+	@Override
+	public boolean add(E elem) {
+		if (size == elements.length) {
+			grow();
+		}
+		elements[size++] = elem;
+		modCount++;
+		return true;
+	}
+
+	@Override
+	public void add(int index, E elem) {
+		if (index < 0 || index > size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		if (size == elements.length) {
+			grow();
+		}
+		System.arraycopy(elements, index, elements, index + 1, size - index);
+		elements[index] = elem;
+		size++;
+		modCount++;
+	}
+
+	@Override
+	public E remove(int index) {
+		E old = get(index);
+
+		System.arraycopy(elements, index + 1, elements, index, size - index - 1);
+		elements[--size] = null;
+		modCount++;
+		return old;
+	}
+
+	@Override
+	public void clear() {
+		elements = EMPTY;
+		size = 0;
+		modCount++;
+	}
+
+	/** Make room for at least one more element. */
+	private void grow() {
+		int capacity = Math.max(INITIAL_CAPACITY, elements.length + (elements.length >> 1));
+
+		elements = Arrays.copyOf(elements, capacity);
+	}
+
+	/**
+	 * Shrink the array to the elements the list holds, once nothing more
+	 * will be appended.
+	 */
+	public void trimToSize() {
+		if (size < elements.length) {
+			elements = (size == 0 ? EMPTY : Arrays.copyOf(elements, size));
+		}
+	}
+
+	/** Iterate over the array directly. */
+	@Override
+	public Iterator<E> iterator() {
+		return new Iterator<E>() {
+			private int next = 0;
+			private int last = -1;
+			private int expectedModCount = modCount;
+
+			@Override
+			public boolean hasNext() {
+				return next < size;
+			}
+
+			@Override
+			@SuppressWarnings("unchecked")
+			public E next() {
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				if (next >= size) {
+					throw new NoSuchElementException();
+				}
+				last = next++;
+				return (E) elements[last];
+			}
+
+			@Override
+			public void remove() {
+				if (last < 0) {
+					throw new IllegalStateException();
+				}
+				if (modCount != expectedModCount) {
+					throw new ConcurrentModificationException();
+				}
+				ASTList.this.remove(last);
+				next = last;
+				last = -1;
+				expectedModCount = modCount;
+			}
+		};
+	}
+
+	@Override
+	@SuppressWarnings("unchecked")
+	public void forEach(Consumer<? super E> action) {
+		int expectedModCount = modCount;
+
+		for (int i = 0; i < size && modCount == expectedModCount; i++) {
+			action.accept((E) elements[i]);
+		}
+		if (modCount != expectedModCount) {
+			throw new ConcurrentModificationException();
+		}
+	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
+
+	/** The elements of a list are its children. */
+	@Override
+	public int getChildCount() {
+		return size;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		return get(index);
+	}
+
+	/**
+	 * The position set for the list, or else the position of its first
+	 * element, so the parser need not set positions on lists.
+	 */
+	@Override
+	public int getPosition() {
+		if (position != SourcePosition.UNKNOWN || size == 0 || elements[0] == null) {
+			return position;
+		}
+		return ((AST) elements[0]).getPosition();
+	}
+
+	@Override
+	public void setPosition(int position) {
+		this.position = position;
+	}
+
 	/**
 	 * By default, pretty-print the list with one element per line.
 	 *
@@ -0,0 +1,124 @@
+package compiler488.ast;
+
+import compiler488.ast.decl.ArrayDeclPart;
+import compiler488.ast.decl.MultiDeclarations;
+import compiler488.ast.decl.RoutineDecl;
+import compiler488.ast.decl.ScalarDecl;
+import compiler488.ast.decl.ScalarDeclPart;
+import compiler488.ast.expn.ArithExpn;
+import compiler488.ast.expn.BoolConstExpn;
+import compiler488.ast.expn.BoolExpn;
+import compiler488.ast.expn.CompareExpn;
+import compiler488.ast.expn.ConditionalExpn;
+import compiler488.ast.expn.EqualsExpn;
+import compiler488.ast.expn.FunctionCallExpn;
+import compiler488.ast.expn.IdentExpn;
+import compiler488.ast.expn.IntConstExpn;
+import compiler488.ast.expn.NotExpn;
+import compiler488.ast.expn.SkipConstExpn;
+import compiler488.ast.expn.SubsExpn;
+import compiler488.ast.expn.TextConstExpn;
+import compiler488.ast.expn.UnaryMinusExpn;
+import compiler488.ast.stmt.AssignStmt;
+import compiler488.ast.stmt.ExitStmt;
+import compiler488.ast.stmt.IfStmt;
+import compiler488.ast.stmt.ProcedureCallStmt;
+import compiler488.ast.stmt.Program;
+import compiler488.ast.stmt.ReadStmt;
+import compiler488.ast.stmt.RepeatUntilStmt;
+import compiler488.ast.stmt.ReturnStmt;
+import compiler488.ast.stmt.Scope;
+import compiler488.ast.stmt.WhileDoStmt;
+import compiler488.ast.stmt.WriteStmt;
+import compiler488.ast.type.BooleanType;
+import compiler488.ast.type.IntegerType;
+
+/**
+ * A pass over the AST, with a method for each kind of node.
+ *
+ * <p>
+ * A node calls the method for its own class from
+ * {@link AST#accept(ASTVisitor, Object)}, so a pass is dispatched on the node
+ * class without <code>instanceof</code> tests or casts. A visit method may
+ * recurse into the children of its node by calling their accept methods, or
+ * leave the traversal to an {@link ASTWalker}, which needs no stack for deep
+ * trees.
+ * </p>
+ *
+ * @param <R>
+ *            result of a visit
+ * @param <C>
+ *            context passed down to each visit
+ * @see compiler488.ast.BaseASTVisitor
+ */
+public interface ASTVisitor<R, C> {
+	public R visit(ASTList<? extends AST> list, C context);
+
+	/* Declarations */
+	public R visit(ArrayDeclPart part, C context);
+
+	public R visit(MultiDeclarations decl, C context);
+
+	public R visit(RoutineDecl decl, C context);
+
+	public R visit(ScalarDecl decl, C context);
+
+	public R visit(ScalarDeclPart part, C context);
+
+	/* Expressions */
+	public R visit(ArithExpn expn, C context);
+
+	public R visit(BoolConstExpn expn, C context);
+
+	public R visit(BoolExpn expn, C context);
+
+	public R visit(CompareExpn expn, C context);
+
+	public R visit(ConditionalExpn expn, C context);
+
+	public R visit(EqualsExpn expn, C context);
+
+	public R visit(FunctionCallExpn expn, C context);
+
+	public R visit(IdentExpn expn, C context);
+
+	public R visit(IntConstExpn expn, C context);
+
+	public R visit(NotExpn expn, C context);
+
+	public R visit(SkipConstExpn expn, C context);
+
+	public R visit(SubsExpn expn, C context);
+
+	public R visit(TextConstExpn expn, C context);
+
+	public R visit(UnaryMinusExpn expn, C context);
+
+	/* Statements */
+	public R visit(AssignStmt stmt, C context);
+
+	public R visit(ExitStmt stmt, C context);
+
+	public R visit(IfStmt stmt, C context);
+
+	public R visit(ProcedureCallStmt stmt, C context);
+
+	public R visit(Program program, C context);
+
+	public R visit(ReadStmt stmt, C context);
+
+	public R visit(RepeatUntilStmt stmt, C context);
+
+	public R visit(ReturnStmt stmt, C context);
+
+	public R visit(Scope scope, C context);
+
+	public R visit(WhileDoStmt stmt, C context);
+
+	public R visit(WriteStmt stmt, C context);
+
+	/* Types */
+	public R visit(BooleanType type, C context);
+
+	public R visit(IntegerType type, C context);
+}
@@ -0,0 +1,130 @@
+package compiler488.ast;
+
+import java.util.Arrays;
+
+/**
+ * Walks an AST depth first without recursion, so trees of any depth, such as
+ * long chains of binary expressions, can be traversed without overflowing
+ * the Java stack.
+ *
+ * <p>
+ * The path from the root to the current node is kept in two arrays that
+ * grow with the depth of the tree and are kept from one walk to the next, so
+ * a walk allocates nothing per node. A walker is not thread safe; give each
+ * thread its own.
+ * </p>
+ *
+ * <p>
+ * Lists are nodes of the walk like any other, with their elements as
+ * children. Absent optional children are skipped.
+ * </p>
+ */
+public class ASTWalker {
+	/** Receives the nodes of a walk. */
+	public interface Listener<C> {
+		/**
+		 * Called before the children of a node are walked.
+		 *
+		 * @param node
+		 *            the node
+		 * @param context
+		 *            context of the walk
+		 * @return false to skip the children of the node
+		 */
+		public boolean enter(AST node, C context);
+
+		/**
+		 * Called after the children of a node have been walked, or skipped.
+		 *
+		 * @param node
+		 *            the node
+		 * @param context
+		 *            context of the walk
+		 */
+		public default void exit(AST node, C context) {
+		}
+	}
+
+	/** Nodes on the path from the root to the current node. */
+	private AST[] path = new AST[64];
+
+	/** Index of the next child to walk of each node on the path. */
+	private int[] next = new int[64];
+
+	/** Number of nodes on the path. */
+	private int depth = 0;
+
+	/**
+	 * Walk a tree, calling the listener on the way into and out of each node.
+	 *
+	 * @param root
+	 *            root of the tree
+	 * @param listener
+	 *            receives the nodes
+	 * @param context
+	 *            context passed on to the listener
+	 */
+	public <C> void walk(AST root, Listener<C> listener, C context) {
+		if (depth != 0) {
+			throw new IllegalStateException("walker is already walking");
+		}
+
+		try {
+			enter(root, listener, context);
+
+			while (depth > 0) {
+				AST node = path[depth - 1];
+				int index = next[depth - 1];
+
+				if (index < node.getChildCount()) {
+					AST child = node.getChild(index);
+
+					next[depth - 1] = index + 1;
+					if (child != null) {
+						enter(child, listener, context);
+					}
+				} else {
+					path[--depth] = null;
+					listener.exit(node, context);
+				}
+			}
+		} finally {
+			while (depth > 0) {
+				path[--depth] = null;
+			}
+		}
+	}
+
+	/**
+	 * Visit every node of a tree in preorder, dispatching each to the method
+	 * of the visitor for its class. The visit methods should not visit the
+	 * children themselves.
+	 *
+	 * @param root
+	 *            root of the tree
+	 * @param visitor
+	 *            the visitor; a visit returning Boolean.FALSE skips the
+	 *            children of the node
+	 * @param context
+	 *            context passed on to the visitor
+	 */
+	public <C> void visit(AST root, final ASTVisitor<?, C> visitor, C context) {
+		walk(root, (node, c) -> !Boolean.FALSE.equals(node.accept(visitor, c)), context);
+	}
+
+	/** Enter a node, putting it on the path unless its children are skipped. */
+	private <C> void enter(AST node, Listener<C> listener, C context) {
+		if (!listener.enter(node, context)) {
+			listener.exit(node, context);
+			return;
+		}
+
+		if (depth == path.length) {
+			path = Arrays.copyOf(path, depth * 2);
+			next = Arrays.copyOf(next, depth * 2);
+		}
+		path[depth] = node;
+		next[depth] = 0;
+		depth++;
+	}
+}
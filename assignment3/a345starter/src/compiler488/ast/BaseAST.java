@@ -8,6 +8,9 @@ package compiler488.ast;
  * @author Dave Wortman, Marsha Chechik, Danny House, Peter McCormick
  */
 public abstract class BaseAST implements AST {
+	/** Source position, packed by SourcePosition. */
+	private int position = SourcePosition.UNKNOWN;
+
 	/**
 	 * Default constructor.
 	 *
@@ -28,4 +31,25 @@ public abstract class BaseAST implements AST {
 	public void prettyPrint(PrettyPrinter p) {
 		p.print(toString());
 	}
+
+	/** By default, a node has no children. */
+	@Override
+	public int getChildCount() {
+		return 0;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		throw new IndexOutOfBoundsException("Child: " + index + ", Children: " + getChildCount());
+	}
+
+	@Override
+	public int getPosition() {
+		return position;
+	}
+
+	@Override
+	public void setPosition(int position) {
+		this.position = position;
+	}
 }
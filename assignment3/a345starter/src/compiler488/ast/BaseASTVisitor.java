@@ -0,0 +1,225 @@
+package compiler488.ast;
+
+import compiler488.ast.decl.ArrayDeclPart;
+import compiler488.ast.decl.MultiDeclarations;
+import compiler488.ast.decl.RoutineDecl;
+import compiler488.ast.decl.ScalarDecl;
+import compiler488.ast.decl.ScalarDeclPart;
+import compiler488.ast.expn.ArithExpn;
+import compiler488.ast.expn.BoolConstExpn;
+import compiler488.ast.expn.BoolExpn;
+import compiler488.ast.expn.CompareExpn;
+import compiler488.ast.expn.ConditionalExpn;
+import compiler488.ast.expn.EqualsExpn;
+import compiler488.ast.expn.FunctionCallExpn;
+import compiler488.ast.expn.IdentExpn;
+import compiler488.ast.expn.IntConstExpn;
+import compiler488.ast.expn.NotExpn;
+import compiler488.ast.expn.SkipConstExpn;
+import compiler488.ast.expn.SubsExpn;
+import compiler488.ast.expn.TextConstExpn;
+import compiler488.ast.expn.UnaryMinusExpn;
+import compiler488.ast.stmt.AssignStmt;
+import compiler488.ast.stmt.ExitStmt;
+import compiler488.ast.stmt.IfStmt;
+import compiler488.ast.stmt.ProcedureCallStmt;
+import compiler488.ast.stmt.Program;
+import compiler488.ast.stmt.ReadStmt;
+import compiler488.ast.stmt.RepeatUntilStmt;
+import compiler488.ast.stmt.ReturnStmt;
+import compiler488.ast.stmt.Scope;
+import compiler488.ast.stmt.WhileDoStmt;
+import compiler488.ast.stmt.WriteStmt;
+import compiler488.ast.type.BooleanType;
+import compiler488.ast.type.IntegerType;
+
+/**
+ * An <code>ASTVisitor</code> whose every visit method returns
+ * {@link #defaultVisit(AST, Object)}, so a pass only overrides the methods
+ * for the nodes it cares about. A Program is visited as the Scope it is
+ * unless visit(Program, C) is overridden.
+ *
+ * @param <R>
+ *            result of a visit
+ * @param <C>
+ *            context passed down to each visit
+ */
+public abstract class BaseASTVisitor<R, C> implements ASTVisitor<R, C> {
+	/**
+	 * Visit a node that has no visit method of its own in the subclass.
+	 *
+	 * @param node
+	 *            the node
+	 * @param context
+	 *            context of the visit
+	 * @return null, unless overridden
+	 */
+	protected R defaultVisit(AST node, C context) {
+		return null;
+	}
+
+	@Override
+	public R visit(ASTList<? extends AST> list, C context) {
+		return defaultVisit(list, context);
+	}
+
+	@Override
+	public R visit(ArrayDeclPart part, C context) {
+		return defaultVisit(part, context);
+	}
+
+	@Override
+	public R visit(MultiDeclarations decl, C context) {
+		return defaultVisit(decl, context);
+	}
+
+	@Override
+	public R visit(RoutineDecl decl, C context) {
+		return defaultVisit(decl, context);
+	}
+
+	@Override
+	public R visit(ScalarDecl decl, C context) {
+		return defaultVisit(decl, context);
+	}
+
+	@Override
+	public R visit(ScalarDeclPart part, C context) {
+		return defaultVisit(part, context);
+	}
+
+	@Override
+	public R visit(ArithExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(BoolConstExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(BoolExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(CompareExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(ConditionalExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(EqualsExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(FunctionCallExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(IdentExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(IntConstExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(NotExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(SkipConstExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(SubsExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(TextConstExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(UnaryMinusExpn expn, C context) {
+		return defaultVisit(expn, context);
+	}
+
+	@Override
+	public R visit(AssignStmt stmt, C context) {
+		return defaultVisit(stmt, context);
+	}
+
+	@Override
+	public R visit(ExitStmt stmt, C context) {
+		return defaultVisit(stmt, context);
+	}
+
+	@Override
+	public R visit(IfStmt stmt, C context) {
+		return defaultVisit(stmt, context);
+	}
+
+	@Override
+	public R visit(ProcedureCallStmt stmt, C context) {
+		return defaultVisit(stmt, context);
+	}
+
+	@Override
+	public R visit(Program program, C context) {
+		return visit((Scope) program, context);
+	}
+
+	@Override
+	public R visit(ReadStmt stmt, C context) {
+		return defaultVisit(stmt, context);
+	}
+
+	@Override
+	public R visit(RepeatUntilStmt stmt, C context) {
+		return defaultVisit(stmt, context);
+	}
+
+	@Override
+	public R visit(ReturnStmt stmt, C context) {
+		return defaultVisit(stmt, context);
+	}
+
+	@Override
+	public R visit(Scope scope, C context) {
+		return defaultVisit(scope, context);
+	}
+
+	@Override
+	public R visit(WhileDoStmt stmt, C context) {
+		return defaultVisit(stmt, context);
+	}
+
+	@Override
+	public R visit(WriteStmt stmt, C context) {
+		return defaultVisit(stmt, context);
+	}
+
+	@Override
+	public R visit(BooleanType type, C context) {
+		return defaultVisit(type, context);
+	}
+
+	@Override
+	public R visit(IntegerType type, C context) {
+		return defaultVisit(type, context);
+	}
+}
@@ -0,0 +1,69 @@
+package compiler488.ast;
+
+/**
+ * Packs a source position, a line and a column, into one int, so every AST
+ * node can carry its position in a single field.
+ *
+ * <p>
+ * Lines and columns count from 1. The line takes the upper 20 bits and the
+ * column the lower 12; larger values are clamped, so a column past 4095 is
+ * reported as 4095. The packed value 0 means the position is unknown, and a
+ * column of 0 that only the line is known.
+ * </p>
+ *
+ * <p>
+ * The parser sets positions from the tokens, whose left and right values
+ * are the 0 based line and column the lexer counted:
+ * {@code node.setPosition(xleft + 1, xright + 1)}.
+ * </p>
+ */
+public final class SourcePosition {
+	/** The unknown position. */
+	public static final int UNKNOWN = 0;
+
+	/** Bits of the column. */
+	private static final int COLUMN_BITS = 12;
+
+	/** Largest line that can be packed. */
+	public static final int MAX_LINE = (1 << (32 - COLUMN_BITS)) - 1;
+
+	/** Largest column that can be packed. */
+	public static final int MAX_COLUMN = (1 << COLUMN_BITS) - 1;
+
+	private SourcePosition() {
+	}
+
+	/**
+	 * Pack a position.
+	 *
+	 * @param line
+	 *            line, from 1; 0 or less for an unknown position
+	 * @param column
+	 *            column, from 1; 0 or less if unknown
+	 * @return the packed position
+	 */
+	public static int pack(int line, int column) {
+		if (line <= 0) {
+			return UNKNOWN;
+		}
+		return Math.min(line, MAX_LINE) << COLUMN_BITS | Math.max(0, Math.min(column, MAX_COLUMN));
+	}
+
+	/** @return the line of a packed position, 0 if unknown */
+	public static int line(int position) {
+		return position >>> COLUMN_BITS;
+	}
+
+	/** @return the column of a packed position, 0 if unknown */
+	public static int column(int position) {
+		return position & MAX_COLUMN;
+	}
+
+	/** @return "line:column", "line" or "unknown" */
+	public static String toString(int position) {
+		if (position == UNKNOWN) {
+			return "unknown";
+		}
+		return column(position) == 0 ? Integer.toString(line(position)) : line(position) + ":" + column(position);
+	}
+}
@@ -1,5 +1,6 @@
 package compiler488.ast.decl;
 
+import compiler488.ast.ASTVisitor;
 import compiler488.ast.PrettyPrinter;
 
 /**
@@ -100,4 +101,9 @@ public class ArrayDeclPart extends DeclarationPart {
 
 		p.print("]");
 	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
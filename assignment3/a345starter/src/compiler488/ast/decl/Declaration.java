@@ -1,5 +1,6 @@
 package compiler488.ast.decl;
 
+import compiler488.ast.AST;
 import compiler488.ast.BaseAST;
 import compiler488.ast.type.Type;
 
@@ -27,4 +28,19 @@ public abstract class Declaration extends BaseAST {
 	public Type getType() {
 		return type;
 	}
+
+	@Override
+	public int getChildCount() {
+		return 1;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		switch (index) {
+		case 0:
+			return type;
+		default:
+			return super.getChild(index);
+		}
+	}
 }
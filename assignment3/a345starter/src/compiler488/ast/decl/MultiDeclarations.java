@@ -1,6 +1,8 @@
 package compiler488.ast.decl;
 
+import compiler488.ast.AST;
 import compiler488.ast.ASTList;
+import compiler488.ast.ASTVisitor;
 import compiler488.ast.PrettyPrinter;
 import compiler488.ast.type.Type;
 
@@ -26,4 +28,26 @@ public class MultiDeclarations extends Declaration {
 		elements.prettyPrintCommas(p);
 		p.print(" : " + type);
 	}
+
+	@Override
+	public int getChildCount() {
+		return 2;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		switch (index) {
+		case 0:
+			return elements;
+		case 1:
+			return type;
+		default:
+			return super.getChild(index);
+		}
+	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
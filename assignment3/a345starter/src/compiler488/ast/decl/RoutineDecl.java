@@ -1,6 +1,8 @@
 package compiler488.ast.decl;
 
+import compiler488.ast.AST;
 import compiler488.ast.ASTList;
+import compiler488.ast.ASTVisitor;
 import compiler488.ast.PrettyPrinter;
 import compiler488.ast.stmt.Scope;
 import compiler488.ast.type.Type;
@@ -117,4 +119,28 @@ public class RoutineDecl extends Declaration {
 			body.prettyPrint(p);
 		}
 	}
+
+	@Override
+	public int getChildCount() {
+		return 3;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		switch (index) {
+		case 0:
+			return parameters;
+		case 1:
+			return type;
+		case 2:
+			return body;
+		default:
+			return super.getChild(index);
+		}
+	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
@@ -1,5 +1,6 @@
 package compiler488.ast.decl;
 
+import compiler488.ast.ASTVisitor;
 import compiler488.ast.PrettyPrinter;
 import compiler488.ast.type.Type;
 
@@ -15,4 +16,9 @@ public class ScalarDecl extends Declaration {
 	public void prettyPrint(PrettyPrinter p) {
 		p.print(name + " : " + type);
 	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
@@ -1,5 +1,7 @@
 package compiler488.ast.decl;
 
+import compiler488.ast.ASTVisitor;
+
 /**
  * Represents the declaration of a simple variable.
  */
@@ -15,4 +17,9 @@ public class ScalarDeclPart extends DeclarationPart {
 	public String toString() {
 		return name;
 	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
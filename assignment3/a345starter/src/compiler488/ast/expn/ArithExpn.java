@@ -1,5 +1,7 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.ASTVisitor;
+
 /**
  * Place holder for all binary expression where both operands must be integer
  * expressions.
@@ -18,4 +20,9 @@ public class ArithExpn extends BinaryExpn {
                 (opSymbol == OP_TIMES) ||
                 (opSymbol == OP_DIVIDE));
     }
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
@@ -1,5 +1,6 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.AST;
 import compiler488.ast.PrettyPrinter;
 
 /**
@@ -50,4 +51,21 @@ public abstract class BinaryExpn extends Expn {
 		right.prettyPrint(p);
 		p.print(")");
 	}
+
+	@Override
+	public int getChildCount() {
+		return 2;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		switch (index) {
+		case 0:
+			return left;
+		case 1:
+			return right;
+		default:
+			return super.getChild(index);
+		}
+	}
 }
@@ -1,5 +1,7 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.ASTVisitor;
+
 /**
  * Boolean literal constants.
  */
@@ -21,4 +23,9 @@ public class BoolConstExpn extends ConstExpn {
 	public String toString() {
 		return value ? "true" : "false";
 	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
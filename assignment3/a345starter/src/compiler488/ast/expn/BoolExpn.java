@@ -1,5 +1,7 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.ASTVisitor;
+
 /**
  * Place holder for all binary expression where both operands must be boolean
  * expressions.
@@ -14,4 +16,9 @@ public class BoolExpn extends BinaryExpn {
         assert ((opSymbol == OP_OR) ||
                 (opSymbol == OP_AND));
     }
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
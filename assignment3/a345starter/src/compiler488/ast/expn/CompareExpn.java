@@ -1,5 +1,7 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.ASTVisitor;
+
 /**
  * Place holder for all ordered comparisons expression where both operands must
  * be integer expressions. e.g. &lt; , &gt;  etc. comparisons
@@ -18,4 +20,9 @@ public class CompareExpn extends BinaryExpn {
                 (opSymbol == OP_GREATER) ||
                 (opSymbol == OP_GREATER_EQUAL));
     }
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
@@ -1,5 +1,8 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.AST;
+import compiler488.ast.ASTVisitor;
+
 /** Represents a conditional expression (i.e., x>0?3:4). */
 public class ConditionalExpn extends Expn {
 	private Expn condition; // Evaluate this to decide which value to yield.
@@ -37,4 +40,28 @@ public class ConditionalExpn extends Expn {
 	public void setTrueValue(Expn trueValue) {
 		this.trueValue = trueValue;
 	}
+
+	@Override
+	public int getChildCount() {
+		return 3;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		switch (index) {
+		case 0:
+			return condition;
+		case 1:
+			return trueValue;
+		case 2:
+			return falseValue;
+		default:
+			return super.getChild(index);
+		}
+	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
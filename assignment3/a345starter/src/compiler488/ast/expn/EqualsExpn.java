@@ -1,5 +1,7 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.ASTVisitor;
+
 /**
  * Place holder for all binary expression where both operands could be either
  * integer or boolean expressions. e.g. = and != comparisons
@@ -14,4 +16,9 @@ public class EqualsExpn extends BinaryExpn {
         assert ((opSymbol == OP_EQUAL) ||
                 (opSymbol == OP_NOT_EQUAL));
     }
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
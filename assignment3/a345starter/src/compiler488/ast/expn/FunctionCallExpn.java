@@ -1,6 +1,8 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.AST;
 import compiler488.ast.ASTList;
+import compiler488.ast.ASTVisitor;
 import compiler488.ast.PrettyPrinter;
 
 /**
@@ -37,4 +39,24 @@ public class FunctionCallExpn extends Expn {
 			p.print(")");
 		}
 	}
+
+	@Override
+	public int getChildCount() {
+		return 1;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		switch (index) {
+		case 0:
+			return arguments;
+		default:
+			return super.getChild(index);
+		}
+	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
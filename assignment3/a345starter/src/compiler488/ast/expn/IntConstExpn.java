@@ -1,5 +1,7 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.ASTVisitor;
+
 /**
  * Represents a literal integer constant.
  */
@@ -23,4 +25,9 @@ public class IntConstExpn extends ConstExpn {
 	public String toString() {
 		return value.toString();
 	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
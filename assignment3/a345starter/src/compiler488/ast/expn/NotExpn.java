@@ -1,5 +1,7 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.ASTVisitor;
+
 /**
  * Represents the boolean negation of an expression.
  */
@@ -7,4 +9,9 @@ public class NotExpn extends UnaryExpn {
 	public NotExpn(Expn operand) {
 		super(UnaryExpn.OP_NOT, operand);
 	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
@@ -1,5 +1,6 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.ASTVisitor;
 import compiler488.ast.Printable;
 
 /**
@@ -15,4 +16,9 @@ public class SkipConstExpn extends ConstExpn implements Printable {
 	public String toString() {
 		return "newline";
 	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
@@ -1,5 +1,7 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.AST;
+import compiler488.ast.ASTVisitor;
 import compiler488.ast.PrettyPrinter;
 import compiler488.ast.Readable;
 
@@ -58,4 +60,26 @@ public class SubsExpn extends Expn implements Readable {
 
 		p.print("]");
 	}
+
+	@Override
+	public int getChildCount() {
+		return 2;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		switch (index) {
+		case 0:
+			return subscript1;
+		case 1:
+			return subscript2;
+		default:
+			return super.getChild(index);
+		}
+	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
@@ -1,5 +1,6 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.ASTVisitor;
 import compiler488.ast.Printable;
 
 /**
@@ -26,4 +27,9 @@ public class TextConstExpn extends ConstExpn implements Printable {
 	public String toString() {
 		return "\"" + value + "\"";
 	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
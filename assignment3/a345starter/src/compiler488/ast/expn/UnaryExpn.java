@@ -1,5 +1,6 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.AST;
 import compiler488.ast.PrettyPrinter;
 
 /**
@@ -47,4 +48,19 @@ public abstract class UnaryExpn extends Expn {
 		p.print(")");
 
 	}
+
+	@Override
+	public int getChildCount() {
+		return 1;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		switch (index) {
+		case 0:
+			return operand;
+		default:
+			return super.getChild(index);
+		}
+	}
 }
@@ -1,5 +1,7 @@
 package compiler488.ast.expn;
 
+import compiler488.ast.ASTVisitor;
+
 /**
  * Represents negation of an integer expression
  */
@@ -7,4 +9,9 @@ public class UnaryMinusExpn extends UnaryExpn {
 	public UnaryMinusExpn(Expn operand) {
 		super(UnaryExpn.OP_MINUS, operand);
 	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
@@ -1,5 +1,7 @@
 package compiler488.ast.stmt;
 
+import compiler488.ast.AST;
+import compiler488.ast.ASTVisitor;
 import compiler488.ast.PrettyPrinter;
 import compiler488.ast.expn.Expn;
 
@@ -34,4 +36,26 @@ public class AssignStmt extends Stmt {
 		p.print(" : = ");
 		rval.prettyPrint(p);
 	}
+
+	@Override
+	public int getChildCount() {
+		return 2;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		switch (index) {
+		case 0:
+			return lval;
+		case 1:
+			return rval;
+		default:
+			return super.getChild(index);
+		}
+	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
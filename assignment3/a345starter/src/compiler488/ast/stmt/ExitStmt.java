@@ -1,5 +1,7 @@
 package compiler488.ast.stmt;
 
+import compiler488.ast.AST;
+import compiler488.ast.ASTVisitor;
 import compiler488.ast.expn.*;
 
 /**
@@ -46,4 +48,24 @@ public class ExitStmt extends Stmt {
 	public void setLevel(Integer level) {
 		this.level = level;
 	}
+
+	@Override
+	public int getChildCount() {
+		return 1;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		switch (index) {
+		case 0:
+			return expn;
+		default:
+			return super.getChild(index);
+		}
+	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
@@ -1,6 +1,8 @@
 package compiler488.ast.stmt;
 
+import compiler488.ast.AST;
 import compiler488.ast.ASTList;
+import compiler488.ast.ASTVisitor;
 import compiler488.ast.PrettyPrinter;
 import compiler488.ast.expn.Expn;
 
@@ -60,4 +62,28 @@ public class IfStmt extends Stmt {
 
 		p.println("end");
 	}
+
+	@Override
+	public int getChildCount() {
+		return 3;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		switch (index) {
+		case 0:
+			return condition;
+		case 1:
+			return whenTrue;
+		case 2:
+			return whenFalse;
+		default:
+			return super.getChild(index);
+		}
+	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
@@ -1,5 +1,6 @@
 package compiler488.ast.stmt;
 
+import compiler488.ast.AST;
 import compiler488.ast.ASTList;
 import compiler488.ast.expn.Expn;
 
@@ -31,4 +32,21 @@ public abstract class LoopingStmt extends Stmt {
 	public ASTList<Stmt> getBody() {
 		return body;
 	}
+
+	@Override
+	public int getChildCount() {
+		return 2;
+	}
+
+	@Override
+	public AST getChild(int index) {
+		switch (index) {
+		case 0:
+			return expn;
+		case 1:
+			return body;
+		default:
+			return super.getChild(index);
+		}
+	}
 }
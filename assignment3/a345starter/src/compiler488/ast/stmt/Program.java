@@ -1,7 +1,13 @@
 package compiler488.ast.stmt;
 
+import compiler488.ast.ASTVisitor;
+
 /**
  * Placeholder for the scope that is the entire program
  */
 public class Program extends Scope {
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
@@ -1,5 +1,7 @@
 package compiler488.ast.type;
 
+import compiler488.ast.ASTVisitor;
+
 /**
  * The type of things that may be true or false.
  */
@@ -8,4 +10,9 @@ public class BooleanType extends Type {
 	public String toString() {
 		return "boolean";
 	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
@@ -1,5 +1,7 @@
 package compiler488.ast.type;
 
+import compiler488.ast.ASTVisitor;
+
 /**
  * Used to declare objects that yield integers.
  */
@@ -7,4 +9,9 @@ public class IntegerType extends Type {
 	public String toString() {
 		return "integer";
 	}
+
+	@Override
+	public <R, C> R accept(ASTVisitor<R, C> visitor, C context) {
+		return visitor.visit(this, context);
+	}
 }
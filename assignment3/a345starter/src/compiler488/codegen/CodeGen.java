@@ -2,7 +2,8 @@ package compiler488.codegen;
 
 import java.io.*;
 import java.util.*;
-import compiler488.compiler.Main;
+import compiler488.ast.AST;
+import compiler488.compiler.CompilationContext;
 import compiler488.runtime.Machine;
 import compiler488.runtime.MemoryAddressException;
 
@@ -52,21 +53,55 @@ public class CodeGen {
 	private short startMLP;
 
 	/** flag for tracing code generation */
-	private boolean traceCodeGen = Main.traceCodeGen;
+	private boolean traceCodeGen;
 
 	private Machine machine;
 
+	/** the compilation, with its options, streams and error flag */
+	private CompilationContext context;
+
+	/** address and line of the last entry of the source line table */
+	private int sourceAddr = -1;
+	private int sourceLine = 0;
+
 	/**
 	 * Constructor to initialize code generation
 	 */
-	public CodeGen(Machine machine) {
+	public CodeGen(Machine machine, CompilationContext context) {
 		this.machine = machine;
+		this.context = context;
+		this.traceCodeGen = context.getOptions().getTraceCodeGen();
 
 		// YOUR CONSTRUCTOR GOES HERE.
 	}
 
 	// Utility procedures used for code generation GO HERE.
 
+	/**
+	 * Record that the code generated from an address on comes from the source
+	 * line of a node. Call it with the address of the first instruction of
+	 * each statement, and of any other node a runtime error should be
+	 * reported at; the line table goes into the compiled program, so runtime
+	 * errors and profiles report source lines.
+	 *
+	 * @param addr
+	 *            address of the first instruction generated for the node
+	 * @param node
+	 *            the node, which may have no position
+	 */
+	void markSource(int addr, AST node) {
+		int line = node.getLine();
+
+		// Code following on from the same line needs no entry of its own
+		if (line <= 0 || line == sourceLine && addr >= sourceAddr) {
+			return;
+		}
+
+		machine.addSourceLine(addr, line);
+		sourceAddr = addr;
+		sourceLine = line;
+	}
+
 	/**
 	 * Additional intialization for gode generation. Called once at the start of
 	 * code generation. May be unnecesary if constructor does everything.
@@ -116,7 +151,7 @@ public class CodeGen {
 	void generateCode(int actionNumber) {
 		if (traceCodeGen) {
 			// output the standard trace stream
-			Main.traceStream.println("CodeGen: C" + actionNumber);
+			context.getTrace().println("CodeGen: C" + actionNumber);
 		}
 
 		/****************************************************************/
@@ -127,7 +162,7 @@ public class CodeGen {
 		/* FEEL FREE TO ignore or replace this procedure */
 		/****************************************************************/
 
-		System.out.println("Codegen: C" + actionNumber);
+		context.getOutput().println("Codegen: C" + actionNumber);
 	}
 
 	// ADDITIONAL FUNCTIONS TO IMPLEMENT CODE GENERATION GO HERE
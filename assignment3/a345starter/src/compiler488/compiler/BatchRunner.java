@@ -0,0 +1,327 @@
+package compiler488.compiler;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import compiler488.runtime.BaseMachine;
+import compiler488.runtime.ExecutionException;
+import compiler488.runtime.MachineSnapshot;
+
+/**
+ * BatchRunner: compiles and executes every source file in a directory,
+ * running the compiled programs concurrently on a bounded thread pool.
+ *
+ * <pre>
+ *  For each source file  name.488  in the directory:
+ *
+ *    name.in   program input (optional, empty input if absent)
+ *    name.out  program output (and the code dump, if requested)
+ *    name.log  compiler messages, execution status and execution trace
+ *    name.trace  binary execution trace (with -T b)
+ *    name.profile  execution profile as collapsed stacks (with -P)
+ *
+ *    name.tag.in  input for another run of the program, whose output
+ *                 goes to name.tag.out, name.tag.log and so on
+ * </pre>
+ *
+ * A program with several inputs is compiled once; each further run
+ * restores a snapshot of the compiled code into a machine of its own.
+ *
+ * Every program gets its own machine, its own streams and a compilation
+ * context of its own; nothing goes through System.in or System.out, so
+ * compilations and executions alike run in parallel.
+ *
+ * When all programs have finished a report is written with the outcome,
+ * compile and run wall time and instruction count of each program, and
+ * the overall throughput.
+ */
+public class BatchRunner {
+	/** Suffix of the source files run in batch mode. */
+	public static final String SOURCE_SUFFIX = ".488";
+
+	/** Suffix of the input files of the programs. */
+	public static final String INPUT_SUFFIX = ".in";
+
+	/** Context of the run, whose options and cache every program shares. */
+	private final CompilationContext context;
+
+	/** Directory holding the source files. */
+	private final File directory;
+
+	/** Number of programs executed at the same time. */
+	private final int threads;
+
+	/** Stream receiving the batch report. */
+	private final PrintStream report;
+
+	/** Outcome of one program. */
+	private static class Result {
+		String name;
+		String status;
+		long compileNanos;
+		long runNanos;
+		long instructions;
+	}
+
+	/**
+	 * @param context
+	 *            context of the run; the report goes to its output
+	 * @param directory
+	 *            directory holding the source files
+	 * @param threads
+	 *            number of programs run at the same time
+	 */
+	public BatchRunner(CompilationContext context, File directory, int threads) {
+		this.context = context;
+		this.directory = directory;
+		this.threads = threads;
+		this.report = context.getOutput();
+	}
+
+	/**
+	 * Compile and run every source file in the directory, then write the
+	 * report.
+	 *
+	 * @return number of runs that failed, a program that did not compile
+	 *         counting as one
+	 */
+	public int run() {
+		File[] sources = directory.listFiles();
+
+		if (sources == null) {
+			report.println("Unable to read batch directory " + directory);
+			return 1;
+		}
+
+		List<File> programs = new ArrayList<File>();
+
+		Arrays.sort(sources);
+		for (File source : sources) {
+			if (source.isFile() && source.getName().endsWith(SOURCE_SUFFIX)) {
+				programs.add(source);
+			}
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<List<Result>>> futures = new ArrayList<Future<List<Result>>>();
+		long start = System.nanoTime();
+
+		try {
+			for (final File source : programs) {
+				futures.add(pool.submit(() -> runOne(source)));
+			}
+
+			report.println(String.format("%-32s %-14s %12s %12s %14s", "Program", "Status", "Compile ms",
+					"Run ms", "Instructions"));
+
+			int runs = 0;
+			int failures = 0;
+			long totalInstructions = 0;
+
+			for (int i = 0; i < programs.size(); i++) {
+				List<Result> results;
+
+				try {
+					results = futures.get(i).get();
+				} catch (java.util.concurrent.ExecutionException e) {
+					Result result = new Result();
+
+					result.name = programs.get(i).getName();
+					result.status = "crashed";
+					results = Arrays.asList(result);
+					report.println(programs.get(i) + ": " + e.getCause());
+				}
+
+				for (Result result : results) {
+					runs++;
+					if (!result.status.equals("ok")) {
+						failures++;
+					}
+					totalInstructions += result.instructions;
+
+					report.println(String.format("%-32s %-14s %12.3f %12.3f %14d", result.name, result.status,
+							result.compileNanos / 1e6, result.runNanos / 1e6, result.instructions));
+				}
+			}
+
+			double seconds = (System.nanoTime() - start) / 1e9;
+
+			report.println(String.format("%d programs, %d runs (%d failed) in %.3f s on %d threads", programs.size(),
+					runs, failures, seconds, threads));
+			report.println(String.format("Throughput: %.1f runs/s, %.0f instructions/s", runs / seconds,
+					totalInstructions / seconds));
+
+			return failures;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			report.println("Batch run interrupted");
+			return programs.size();
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Compile one source file and run it with its own streams, once for each
+	 * of its input files. The compiled code is snapshotted, so every run
+	 * after the first restores it instead of compiling the program again.
+	 *
+	 * @param source
+	 *            the source file
+	 * @return the outcome of each run
+	 */
+	private List<Result> runOne(File source) {
+		String path = source.getPath();
+		String base = path.substring(0, path.length() - SOURCE_SUFFIX.length());
+		File inputFile = new File(base + ".in");
+		List<Result> results = new ArrayList<Result>();
+		Result result = new Result();
+
+		result.name = source.getName();
+		results.add(result);
+
+		try (PrintStream log = new PrintStream(new BufferedOutputStream(new FileOutputStream(base + ".log")));
+				PrintStream output = new PrintStream(new BufferedOutputStream(new FileOutputStream(base + ".out")))) {
+			BaseMachine machine = Main.createMachine(context.getOptions(), log, output,
+					new ByteArrayInputStream(new byte[0]));
+
+			long start = System.nanoTime();
+			boolean compiled = Main.compileProgram(context.derive(log, log), machine, path);
+
+			result.compileNanos = System.nanoTime() - start;
+
+			if (!compiled) {
+				result.status = "compile error";
+				return results;
+			}
+
+			MachineSnapshot compiledCode = machine.snapshot();
+
+			execute(machine, inputFile, base, log, result);
+
+			for (String tag : inputTags(source)) {
+				results.add(runAgain(compiledCode, source.getName(), base + "." + tag));
+			}
+		} catch (IOException e) {
+			result.status = "I/O error";
+		}
+
+		return results;
+	}
+
+	/**
+	 * Run a compiled program again, on a machine of its own, with the input
+	 * from base.in and output to base.out and base.log.
+	 *
+	 * @param compiledCode
+	 *            snapshot of the machine the program was compiled into
+	 * @param name
+	 *            name of the source file
+	 * @param base
+	 *            path of the input file less its suffix
+	 * @return the outcome
+	 */
+	private Result runAgain(MachineSnapshot compiledCode, String name, String base) {
+		Result result = new Result();
+
+		result.name = name + " " + base.substring(base.lastIndexOf('.') + 1);
+
+		try (PrintStream log = new PrintStream(new BufferedOutputStream(new FileOutputStream(base + ".log")));
+				PrintStream output = new PrintStream(new BufferedOutputStream(new FileOutputStream(base + ".out")))) {
+			BaseMachine machine = Main.createMachine(context.getOptions(), log, output,
+					new ByteArrayInputStream(new byte[0]));
+
+			machine.restore(compiledCode);
+			execute(machine, new File(base + ".in"), base, log, result);
+		} catch (IOException e) {
+			result.status = "I/O error";
+		}
+
+		return result;
+	}
+
+	/**
+	 * Execute the program in a machine and record the outcome.
+	 *
+	 * @param machine
+	 *            machine holding the compiled program
+	 * @param inputFile
+	 *            program input, used if it exists
+	 * @param base
+	 *            path of the trace and profile files less their suffix
+	 * @param log
+	 *            stream for the profile report
+	 * @param result
+	 *            receives the status, run time and instruction count
+	 */
+	private void execute(BaseMachine machine, File inputFile, String base, PrintStream log, Result result) {
+		if (inputFile.isFile()) {
+			machine.setInputFile(inputFile);
+		}
+
+		if (context.getOptions().getTraceBinary()) {
+			Main.setTraceBuffer(machine, base + ".trace", log);
+		}
+
+		long start = System.nanoTime();
+
+		try {
+			machine.run();
+			result.status = "ok";
+		} catch (ExecutionException e) {
+			// Run error has already dumped machine state to the log
+			result.status = "run error";
+		} catch (RuntimeException e) {
+			// Such as reading past the end of the input; the other runs go on
+			log.println("Unexpected Exception during Machine Execution");
+			e.printStackTrace(log);
+			result.status = "crashed";
+		} finally {
+			Main.writeProfile(machine, log, base + ".profile", log);
+		}
+
+		result.runNanos = System.nanoTime() - start;
+		result.instructions = machine.getInstructionCount();
+	}
+
+	/**
+	 * Tags of the extra input files of a source file: name.tag.in for
+	 * name.488, unless name.tag.488 is a program of its own.
+	 *
+	 * @param source
+	 *            the source file
+	 * @return the tags, sorted
+	 */
+	private List<String> inputTags(File source) {
+		String prefix = source.getName().substring(0, source.getName().length() - SOURCE_SUFFIX.length()) + ".";
+		String[] names = directory.list();
+		List<String> tags = new ArrayList<String>();
+
+		if (names == null) {
+			return tags;
+		}
+
+		Arrays.sort(names);
+		for (String name : names) {
+			if (name.startsWith(prefix) && name.endsWith(INPUT_SUFFIX)
+					&& name.length() > prefix.length() + INPUT_SUFFIX.length()) {
+				String tag = name.substring(prefix.length(), name.length() - INPUT_SUFFIX.length());
+
+				if (!new File(directory, prefix + tag + SOURCE_SUFFIX).exists()) {
+					tags.add(tag);
+				}
+			}
+		}
+		return tags;
+	}
+}
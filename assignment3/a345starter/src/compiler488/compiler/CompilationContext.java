@@ -0,0 +1,152 @@
+package compiler488.compiler;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+import compiler488.parser.InternTable;
+
+/**
+ * Everything one compilation needs besides its source file: the options,
+ * the streams it writes on, the compile cache and the table interning its
+ * identifiers. It is passed to the
+ * parser, semantic analysis, the symbol table and code generation, which
+ * keep no global state, so compilations with contexts of their own can run
+ * at the same time in one JVM.
+ *
+ * The error flag and the identifiers are the only things in a context that
+ * change; a context is used by one compilation at a time, and derive()
+ * makes another, with no identifiers, for the next.
+ */
+public class CompilationContext {
+	/** Options of the compilation. */
+	private final CompilerOptions options;
+
+	/** Stream for compiler output and program output. */
+	private final PrintStream output;
+
+	/** Stream for error messages. */
+	private final PrintStream errors;
+
+	/** Stream for program input. */
+	private final InputStream input;
+
+	/** Console output, receiving the AST dumps and cache statistics. */
+	private final PrintStream console;
+
+	/**
+	 * PrintStream for trace output. <BR>
+	 * All implementations of tracing should write on this stream
+	 */
+	private final PrintStream trace;
+
+	/** Cache of compiled programs, or null when not caching */
+	private final CompileCache cache;
+
+	/**
+	 * Identifiers of the compilation, interned by the lexer; the symbol
+	 * table keys its bindings on their ids.
+	 */
+	private final InternTable identifiers = new InternTable();
+
+	/**
+	 * Error flag. Setting this flag to true will suppress further
+	 * processing. This can be used by parsing, semantic analysis or code
+	 * generation to quit early if errors have occurred.
+	 */
+	private boolean errorOccurred = false;
+
+	/**
+	 * @param options
+	 *            options of the compilation
+	 * @param output
+	 *            stream for compiler and program output
+	 * @param errors
+	 *            stream for error messages
+	 * @param input
+	 *            stream for program input
+	 * @param console
+	 *            stream for AST dumps and cache statistics
+	 * @param trace
+	 *            stream for trace output
+	 * @param cache
+	 *            compile cache, or null
+	 */
+	public CompilationContext(CompilerOptions options, PrintStream output, PrintStream errors, InputStream input,
+			PrintStream console, PrintStream trace, CompileCache cache) {
+		this.options = options;
+		this.output = output;
+		this.errors = errors;
+		this.input = input;
+		this.console = console;
+		this.trace = trace;
+		this.cache = cache;
+	}
+
+	/**
+	 * A context for a compilation with the defaults for every option,
+	 * writing everything on one stream and reading no input.
+	 *
+	 * @param messages
+	 *            stream for output, errors and trace
+	 */
+	public CompilationContext(PrintStream messages) {
+		this(CompilerOptions.DEFAULTS, messages, messages, new ByteArrayInputStream(new byte[0]), messages, messages,
+				null);
+	}
+
+	/**
+	 * Make a context for another compilation with the same options, trace,
+	 * console and cache as this one, different output and error streams, and
+	 * no error yet.
+	 *
+	 * @param output
+	 *            stream for compiler and program output
+	 * @param errors
+	 *            stream for error messages
+	 * @return the new context
+	 */
+	public CompilationContext derive(PrintStream output, PrintStream errors) {
+		return new CompilationContext(options, output, errors, input, console, trace, cache);
+	}
+
+	public CompilerOptions getOptions() {
+		return options;
+	}
+
+	public PrintStream getOutput() {
+		return output;
+	}
+
+	public PrintStream getErrors() {
+		return errors;
+	}
+
+	public InputStream getInput() {
+		return input;
+	}
+
+	public PrintStream getConsole() {
+		return console;
+	}
+
+	public PrintStream getTrace() {
+		return trace;
+	}
+
+	public CompileCache getCache() {
+		return cache;
+	}
+
+	public InternTable getIdentifiers() {
+		return identifiers;
+	}
+
+	public boolean getErrorOccurred() {
+		return errorOccurred;
+	}
+
+	public void setErrorOccurred(boolean errorOccurred) {
+		this.errorOccurred = errorOccurred;
+	}
+}
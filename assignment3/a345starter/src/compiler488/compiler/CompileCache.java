@@ -0,0 +1,520 @@
+package compiler488.compiler;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.URISyntaxException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import compiler488.runtime.ObjectFile;
+
+/**
+ * CompileCache: a directory of compiled programs keyed by a hash of their
+ * source, so that compiling an unchanged source again skips the compiler
+ * and loads the code it generated last time.
+ *
+ * <p>
+ * The key is the SHA-256 of the source bytes, the name the source was
+ * compiled under (it appears in the messages), the options that shape the
+ * memory image (the machine memory size) and a stamp of the compiler build,
+ * so rebuilding the compiler makes every entry stale. An entry holds
+ * the messages the compiler printed, in order and each on the stream it was
+ * printed on, and the generated code as an object file if the source
+ * compiled without errors.
+ * </p>
+ *
+ * <pre>
+ *  Entry file  key.entry  (all ints big endian):
+ *
+ *    header    MAGIC, VERSION, flags, message bytes, CRC32 of everything
+ *              after the header
+ *    messages  stream (1 byte, OUTPUT or ERRORS), length, bytes; repeated
+ *    code      object file (with the COMPILED flag), to the end
+ * </pre>
+ *
+ * <p>
+ * Several compilers may share the directory. An entry is written to a
+ * temporary file and renamed into place, so readers see a whole entry or
+ * none; a damaged or vanished entry is a miss, and so is one whose code the
+ * compiler cannot load, which it rejects. A hit sets the
+ * modification time of the entry, and when a store takes the directory over
+ * its size bound the least recently used entries are deleted.
+ * </p>
+ */
+public class CompileCache {
+	/** First int of an entry, "488C". */
+	public static final int MAGIC = 0x34383843;
+
+	public static final int VERSION = 1;
+
+	/** Suffix of entry files. */
+	public static final String SUFFIX = ".entry";
+
+	/** Bytes in the header. */
+	public static final int HEADER_SIZE = 20;
+
+	/** Flag: the entry holds generated code. */
+	public static final int COMPILED = 1;
+
+	/** Message streams. */
+	static final int OUTPUT = 1;
+	static final int ERRORS = 2;
+
+	/** Default bound on the size of the directory, in bytes. */
+	public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+	/** Directory holding the entries. */
+	private final Path directory;
+
+	/** Bound on the total size of the entries. */
+	private final long maxBytes;
+
+	/**
+	 * Stamp of the compiler build, hashed into every key. Computed once: a
+	 * long running compiler keeps running the build it was started with.
+	 */
+	private static final String COMPILER_STAMP = compilerStamp();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong stores = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+
+	/** A cached compilation. */
+	public static class Entry {
+		/** Messages, as in the entry file. */
+		private final ByteBuffer messages;
+
+		/** The generated code, or null if the source did not compile. */
+		private final ObjectFile code;
+
+		Entry(ByteBuffer messages, ObjectFile code) {
+			this.messages = messages;
+			this.code = code;
+		}
+
+		/** @return the generated code, or null if the source had errors */
+		public ObjectFile getCode() {
+			return code;
+		}
+
+		/**
+		 * Print the messages again, each on the stream it was first printed
+		 * on.
+		 *
+		 * @param out
+		 *            stream for the compiler output
+		 * @param err
+		 *            stream for the error messages
+		 */
+		public void replay(PrintStream out, PrintStream err) {
+			CompileCache.replay(messages.duplicate(), out, err);
+		}
+	}
+
+	/** Print recorded messages, each on the stream it was recorded from. */
+	private static void replay(ByteBuffer buffer, PrintStream out, PrintStream err) {
+		while (buffer.hasRemaining()) {
+			PrintStream stream = (buffer.get() == OUTPUT ? out : err);
+			byte[] bytes = new byte[buffer.getInt()];
+
+			buffer.get(bytes);
+			stream.write(bytes, 0, bytes.length);
+		}
+		out.flush();
+		err.flush();
+	}
+
+	/**
+	 * Records the messages printed on two streams, in order, while passing
+	 * them on.
+	 */
+	public static class Recorder {
+		private final ByteArrayOutputStream record = new ByteArrayOutputStream();
+
+		/**
+		 * A stream that prints to another and records what it prints.
+		 *
+		 * @param stream
+		 *            OUTPUT or ERRORS
+		 * @param target
+		 *            the stream printed to
+		 */
+		PrintStream tee(final int stream, final PrintStream target) {
+			return new PrintStream(new OutputStream() {
+				@Override
+				public void write(int b) {
+					write(new byte[] { (byte) b }, 0, 1);
+				}
+
+				@Override
+				public void write(byte[] bytes, int offset, int length) {
+					target.write(bytes, offset, length);
+					synchronized (record) {
+						record.write(stream);
+						record.write(length >>> 24);
+						record.write(length >>> 16);
+						record.write(length >>> 8);
+						record.write(length);
+						record.write(bytes, offset, length);
+					}
+				}
+
+				@Override
+				public void flush() {
+					target.flush();
+				}
+			}, true);
+		}
+
+		/**
+		 * A stream that records what it prints without printing it anywhere,
+		 * to hold messages back until replay.
+		 *
+		 * @param stream
+		 *            OUTPUT or ERRORS
+		 */
+		PrintStream record(int stream) {
+			return tee(stream, new PrintStream(OutputStream.nullOutputStream()));
+		}
+
+		/**
+		 * Print the recorded messages, each on the stream it was recorded
+		 * from.
+		 *
+		 * @param out
+		 *            stream for the OUTPUT messages
+		 * @param err
+		 *            stream for the ERRORS messages
+		 */
+		void replay(PrintStream out, PrintStream err) {
+			CompileCache.replay(ByteBuffer.wrap(toByteArray()), out, err);
+		}
+
+		byte[] toByteArray() {
+			synchronized (record) {
+				return record.toByteArray();
+			}
+		}
+	}
+
+	/**
+	 * Open a cache, creating its directory if necessary.
+	 *
+	 * @param directory
+	 *            directory holding the entries
+	 * @param maxBytes
+	 *            bound on the total size of the entries
+	 * @throws IOException
+	 *             the directory cannot be created
+	 */
+	public CompileCache(File directory, long maxBytes) throws IOException {
+		this.directory = directory.toPath();
+		this.maxBytes = maxBytes;
+		Files.createDirectories(this.directory);
+	}
+
+	/**
+	 * A stamp that changes whenever the compiler is rebuilt: the size and
+	 * modification time of the jar the compiler was loaded from, or the
+	 * latest modification time of its class files.
+	 */
+	private static String compilerStamp() {
+		CodeSource source = CompileCache.class.getProtectionDomain().getCodeSource();
+
+		try {
+			Path location = Path.of(source.getLocation().toURI());
+
+			if (Files.isRegularFile(location)) {
+				return Files.size(location) + "@" + Files.getLastModifiedTime(location).toMillis();
+			}
+			try (Stream<Path> files = Files.walk(location)) {
+				return "@" + files.filter(path -> path.toString().endsWith(".class")).mapToLong(path -> {
+					try {
+						return Files.getLastModifiedTime(path).toMillis();
+					} catch (IOException e) {
+						return 0;
+					}
+				}).max().orElse(0);
+			}
+		} catch (IOException | URISyntaxException | RuntimeException e) {
+			// Unknown build: entries stay valid until the cache is cleared
+			return "unknown";
+		}
+	}
+
+	/**
+	 * The key of a source.
+	 *
+	 * @param sourceName
+	 *            name the source is compiled under
+	 * @param options
+	 *            options of the compilation
+	 * @param source
+	 *            the source bytes
+	 * @return the key, as hex digits
+	 */
+	public String key(String sourceName, CompilerOptions options, byte[] source) {
+		MessageDigest digest;
+
+		try {
+			digest = MessageDigest.getInstance("SHA-256");
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("SHA-256 is not available", e);
+		}
+
+		String salt = MAGIC + "/" + VERSION + "/" + ObjectFile.VERSION + "/" + COMPILER_STAMP + "/"
+				+ options.getMachineMemorySize() + "/" + sourceName;
+
+		digest.update(salt.getBytes(StandardCharsets.UTF_8));
+		digest.update((byte) 0);
+		digest.update(source);
+
+		StringBuilder hex = new StringBuilder();
+
+		for (byte b : digest.digest()) {
+			hex.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+		}
+		return hex.toString();
+	}
+
+	/**
+	 * Look up a key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return the entry, or null on a miss
+	 */
+	public Entry lookup(String key) {
+		Path path = directory.resolve(key + SUFFIX);
+		ByteBuffer buffer;
+
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (channel.size() < HEADER_SIZE || channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(path + " is not a cache entry");
+			}
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		} catch (IOException e) {
+			misses.incrementAndGet();
+			return null;
+		}
+
+		Entry entry;
+
+		try {
+			entry = decode(buffer, path.toString());
+		} catch (IOException e) {
+			misses.incrementAndGet();
+			delete(path);
+			return null;
+		}
+
+		hits.incrementAndGet();
+		try {
+			// Most recently used
+			Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis()));
+		} catch (IOException e) {
+			// Evicted since it was mapped; the mapping is still good
+		}
+		return entry;
+	}
+
+	/**
+	 * Reject the entry a lookup returned, because its code cannot be used:
+	 * count the lookup as a miss instead of a hit, and delete the entry so
+	 * the next store replaces it.
+	 *
+	 * @param key
+	 *            the key looked up
+	 */
+	public void reject(String key) {
+		hits.decrementAndGet();
+		misses.incrementAndGet();
+		delete(directory.resolve(key + SUFFIX));
+	}
+
+	private static Entry decode(ByteBuffer buffer, String name) throws IOException {
+		if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+			throw new IOException(name + " is not a cache entry of this version");
+		}
+
+		CRC32 crc = new CRC32();
+
+		crc.update(buffer.duplicate().position(HEADER_SIZE));
+		if ((int) crc.getValue() != buffer.getInt(16)) {
+			throw new IOException(name + " is damaged (checksum mismatch)");
+		}
+
+		int flags = buffer.getInt(8);
+		int messageBytes = buffer.getInt(12);
+
+		if (messageBytes < 0 || messageBytes > buffer.limit() - HEADER_SIZE) {
+			throw new IOException(name + " is damaged (bad message size)");
+		}
+
+		ByteBuffer messages = buffer.duplicate().position(HEADER_SIZE).limit(HEADER_SIZE + messageBytes).slice();
+		ObjectFile code = null;
+
+		if ((flags & COMPILED) != 0) {
+			code = ObjectFile.decode(buffer.duplicate().position(HEADER_SIZE + messageBytes), name);
+		}
+		return new Entry(messages, code);
+	}
+
+	/**
+	 * Store a compilation, then evict entries until the directory is within
+	 * its size bound. A failure to store is not an error; the source is just
+	 * compiled again next time.
+	 *
+	 * @param key
+	 *            the key of the source
+	 * @param messages
+	 *            the messages printed while compiling it
+	 * @param code
+	 *            the generated code, or null if the source had errors
+	 */
+	public void store(String key, Recorder messages, ObjectFile code) {
+		byte[] text = messages.toByteArray();
+		ByteBuffer object = (code != null ? code.encode() : ByteBuffer.allocate(0));
+		ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + text.length + object.remaining());
+
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(code != null ? COMPILED : 0);
+		buffer.putInt(text.length);
+		buffer.putInt(0); // checksum
+		buffer.put(text);
+		buffer.put(object);
+
+		CRC32 crc = new CRC32();
+
+		crc.update(buffer.duplicate().position(HEADER_SIZE).limit(buffer.position()));
+		buffer.putInt(16, (int) crc.getValue());
+		buffer.flip();
+
+		Path temporary = null;
+
+		try {
+			temporary = Files.createTempFile(directory, key, ".tmp");
+			try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.WRITE)) {
+				while (buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+			}
+			move(temporary, directory.resolve(key + SUFFIX));
+			stores.incrementAndGet();
+		} catch (IOException e) {
+			if (temporary != null) {
+				delete(temporary);
+			}
+			return;
+		}
+
+		evict();
+	}
+
+	private static void move(Path from, Path to) throws IOException {
+		try {
+			Files.move(from, to, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(from, to, StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+
+	/** Delete the least recently used entries until within maxBytes. */
+	private void evict() {
+		List<Path> entries = new ArrayList<Path>();
+		List<Long> used = new ArrayList<Long>();
+		long total = 0;
+
+		try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+			for (Path path : files) {
+				try {
+					total += Files.size(path);
+					entries.add(path);
+					used.add(Files.getLastModifiedTime(path).toMillis());
+				} catch (IOException e) {
+					// Deleted by another compiler
+				}
+			}
+		} catch (IOException e) {
+			return;
+		}
+
+		if (total <= maxBytes) {
+			return;
+		}
+
+		Integer[] order = new Integer[entries.size()];
+
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Long.compare(used.get(a), used.get(b)));
+
+		for (int i = 0; i < order.length && total > maxBytes; i++) {
+			Path path = entries.get(order[i]);
+
+			try {
+				long size = Files.size(path);
+
+				if (Files.deleteIfExists(path)) {
+					total -= size;
+					evictions.incrementAndGet();
+				}
+			} catch (IOException e) {
+				// Already gone
+			}
+		}
+	}
+
+	private static void delete(Path path) {
+		try {
+			Files.deleteIfExists(path);
+		} catch (IOException e) {
+			// Another compiler's problem now
+		}
+	}
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public long getStores() {
+		return stores.get();
+	}
+
+	public long getEvictions() {
+		return evictions.get();
+	}
+
+	@Override
+	public String toString() {
+		return "Compile cache " + directory + ": " + hits + " hits, " + misses + " misses, " + stores + " stores, "
+				+ evictions + " evictions";
+	}
+}
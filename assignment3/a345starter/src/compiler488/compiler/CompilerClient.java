@@ -0,0 +1,146 @@
+package compiler488.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Paths;
+
+/**
+ * CompilerClient: runs a Main command line in a CompilerDaemon, forwarding
+ * the arguments, standard input, output and error, and exiting with the
+ * status of the request.
+ *
+ * <pre>
+ *  Usage:  java compiler488.compiler.CompilerClient socketFile [ Main arguments ]
+ * </pre>
+ *
+ * Exits with status 111 if the daemon cannot be reached, so a script can
+ * fall back to running Main itself.
+ */
+public class CompilerClient {
+	/** Exit status when there is no daemon on the socket. */
+	public static final int NO_DAEMON = 111;
+
+	private CompilerClient() {
+	}
+
+	/**
+	 * Run a request.
+	 *
+	 * @param channel
+	 *            channel connected to the daemon
+	 * @param argv
+	 *            Main command line
+	 * @return exit status of the request
+	 * @throws IOException
+	 *             the daemon went away
+	 */
+	static int run(SocketChannel channel, String[] argv) throws IOException {
+		try {
+			DataInputStream input = new DataInputStream(
+					new BufferedInputStream(new CompilerDaemon.ChannelInput(channel)));
+			final DataOutputStream output = new DataOutputStream(
+					new BufferedOutputStream(new CompilerDaemon.ChannelOutput(channel)));
+
+			ByteArrayOutputStream args = new ByteArrayOutputStream();
+			DataOutputStream argsOutput = new DataOutputStream(args);
+
+			argsOutput.writeUTF(Paths.get("").toAbsolutePath().toString());
+			argsOutput.writeInt(argv.length);
+			for (String arg : argv) {
+				argsOutput.writeUTF(arg);
+			}
+			output.writeByte(CompilerDaemon.ARGS);
+			output.writeInt(args.size());
+			args.writeTo(output);
+			output.flush();
+
+			Thread forward = new Thread(() -> forwardInput(System.in, output), "stdin");
+
+			forward.setDaemon(true);
+			forward.start();
+
+			while (true) {
+				byte tag = input.readByte();
+				byte[] bytes = new byte[input.readInt()];
+
+				input.readFully(bytes);
+
+				if (tag == CompilerDaemon.OUTPUT) {
+					System.out.write(bytes, 0, bytes.length);
+					System.out.flush();
+				} else if (tag == CompilerDaemon.ERRORS) {
+					System.err.write(bytes, 0, bytes.length);
+					System.err.flush();
+				} else if (tag == CompilerDaemon.EXIT) {
+					return ByteBuffer.wrap(bytes).getInt();
+				} else {
+					throw new IOException("unexpected frame from daemon");
+				}
+			}
+		} finally {
+			channel.close();
+		}
+	}
+
+	/** Send standard input to the daemon, then an empty frame at its end. */
+	private static void forwardInput(InputStream in, DataOutputStream output) {
+		byte[] buffer = new byte[CompilerDaemon.MAX_FRAME];
+
+		try {
+			int count;
+
+			do {
+				count = Math.max(in.read(buffer), 0);
+				output.writeByte(CompilerDaemon.INPUT);
+				output.writeInt(count);
+				output.write(buffer, 0, count);
+				output.flush();
+			} while (count > 0);
+		} catch (IOException e) {
+			// The request is over
+		}
+	}
+
+	public static void main(String argv[]) {
+		if (argv.length < 1) {
+			System.err.println("Usage: java compiler488.compiler.CompilerClient socketFile [ arguments ]");
+			System.exit(1);
+		}
+
+		String[] arguments = new String[argv.length - 1];
+
+		System.arraycopy(argv, 1, arguments, 0, arguments.length);
+
+		SocketChannel channel;
+
+		try {
+			channel = SocketChannel.open(StandardProtocolFamily.UNIX);
+			channel.connect(UnixDomainSocketAddress.of(argv[0]));
+		} catch (IOException e) {
+			System.err.println("Unable to reach compiler daemon on " + argv[0]);
+			System.err.println(e.getClass().getName() + ": " + e.getMessage());
+			System.exit(NO_DAEMON);
+			return;
+		}
+
+		int status;
+
+		try {
+			status = run(channel, arguments);
+		} catch (IOException e) {
+			System.err.println("Compiler daemon on " + argv[0] + " failed");
+			System.err.println(e.getClass().getName() + ": " + e.getMessage());
+			status = 1;
+		}
+		System.exit(status);
+	}
+}
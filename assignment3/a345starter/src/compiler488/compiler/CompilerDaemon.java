@@ -0,0 +1,351 @@
+package compiler488.compiler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CompilerDaemon: keeps the compiler resident and runs compile and execute
+ * requests sent over a Unix domain socket by CompilerClient, so a compile
+ * does not pay for starting a JVM, loading the scanner and parser tables and
+ * warming up the JIT.
+ *
+ * <pre>
+ *  Usage:  java compiler488.compiler.CompilerDaemon socketFile
+ * </pre>
+ *
+ * <p>
+ * A request is a Main command line, run as Main would with the client's
+ * standard input, output and error. Relative file names on the command line
+ * are taken relative to the client's working directory. Each request runs on
+ * a thread of its own with options and streams of its own (see Main.run), so
+ * requests run at the same time and nothing carries over from one to the
+ * next.
+ * </p>
+ *
+ * <pre>
+ *  Protocol: frames of  tag (1 byte), length (int), bytes
+ *
+ *    client to daemon:  ARGS     working directory and arguments, as
+ *                                a count and DataOutput UTF strings
+ *                       INPUT    standard input; an empty frame is the end
+ *    daemon to client:  OUTPUT   standard output
+ *                       ERRORS   standard error
+ *                       EXIT     exit status (int); the last frame
+ * </pre>
+ *
+ * <p>
+ * The daemon runs until it is killed; the socket file is deleted when it
+ * exits normally and replaced when it starts.
+ * </p>
+ */
+public class CompilerDaemon {
+	/** Frame tags. */
+	static final byte ARGS = 'A';
+	static final byte INPUT = 'I';
+	static final byte OUTPUT = 'O';
+	static final byte ERRORS = 'E';
+	static final byte EXIT = 'X';
+
+	/** Largest frame sent, to bound the buffering of output. */
+	static final int MAX_FRAME = 64 * 1024;
+
+	/** Options of Main whose argument is a file or directory name. */
+	private static final String FILE_OPTIONS = " -E -O -R -S -U -I -P -B -o -L -C ";
+
+	/** Options of Main with any other argument. */
+	private static final String VALUE_OPTIONS = " -D -T -M -W -j ";
+
+	private final Path socketFile;
+
+	public CompilerDaemon(Path socketFile) {
+		this.socketFile = socketFile;
+	}
+
+	/**
+	 * Accept and run requests until the JVM is stopped.
+	 *
+	 * @throws IOException
+	 *             the socket cannot be bound or accepting fails
+	 */
+	public void serve() throws IOException {
+		Files.deleteIfExists(socketFile);
+
+		try (ServerSocketChannel server = ServerSocketChannel.open(StandardProtocolFamily.UNIX)) {
+			server.bind(UnixDomainSocketAddress.of(socketFile));
+			socketFile.toFile().deleteOnExit();
+
+			while (true) {
+				final SocketChannel client = server.accept();
+				Thread request = new Thread(() -> serve(client), "request");
+
+				request.setDaemon(true);
+				request.start();
+			}
+		}
+	}
+
+	/** Run one request and close its channel. */
+	private void serve(SocketChannel client) {
+		try (SocketChannel channel = client) {
+			serveOne(channel);
+		} catch (IOException | RuntimeException e) {
+			// The client went away; the daemon carries on
+			System.err.println("Request failed: " + e);
+		}
+	}
+
+	/** Run one request. */
+	private void serveOne(SocketChannel client) throws IOException {
+		DataInputStream input = new DataInputStream(new BufferedInputStream(new ChannelInput(client)));
+		DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new ChannelOutput(client)));
+
+		if (input.readByte() != ARGS) {
+			throw new IOException("request does not start with its arguments");
+		}
+		input.readInt(); // frame length
+
+		Path directory = Paths.get(input.readUTF());
+		String[] argv = new String[input.readInt()];
+
+		for (int i = 0; i < argv.length; i++) {
+			argv[i] = input.readUTF();
+		}
+
+		PrintStream out = new PrintStream(new FrameOutput(output, OUTPUT), true);
+		PrintStream err = new PrintStream(new FrameOutput(output, ERRORS), true);
+		int status;
+
+		try {
+			status = Main.run(resolve(argv, directory), new FrameInput(input), out, err);
+		} catch (RuntimeException e) {
+			err.println("Unexpected Exception in compiler");
+			err.println(e.getClass().getName() + ": " + e.getMessage());
+			e.printStackTrace(err);
+			status = 1;
+		}
+
+		out.flush();
+		err.flush();
+		synchronized (output) {
+			output.writeByte(EXIT);
+			output.writeInt(4);
+			output.writeInt(status);
+			output.flush();
+		}
+	}
+
+	/**
+	 * Make the file names in a Main command line absolute.
+	 *
+	 * @param argv
+	 *            the command line
+	 * @param directory
+	 *            directory relative names are relative to
+	 * @return the command line with absolute file names
+	 */
+	static String[] resolve(String[] argv, Path directory) {
+		List<String> resolved = new ArrayList<String>();
+		boolean binaryTrace = false;
+		boolean traceFile = false;
+		int i = 0;
+
+		for (; i < argv.length && argv[i].startsWith("-"); i++) {
+			resolved.add(argv[i]);
+
+			if (i + 1 < argv.length && FILE_OPTIONS.contains(" " + argv[i] + " ")) {
+				traceFile |= argv[i].equals("-S");
+				resolved.add(directory.resolve(argv[++i]).toString());
+			} else if (i + 1 < argv.length && VALUE_OPTIONS.contains(" " + argv[i] + " ")) {
+				binaryTrace |= argv[i].equals("-T") && argv[i + 1].indexOf('b') >= 0;
+				resolved.add(argv[++i]);
+			}
+		}
+
+		// The default binary trace file belongs in the client's directory too
+		if (binaryTrace && !traceFile) {
+			resolved.add("-S");
+			resolved.add(directory.resolve(Main.DEFAULT_TRACE_FILE).toString());
+		}
+
+		for (; i < argv.length; i++) {
+			resolved.add(directory.resolve(argv[i]).toString());
+		}
+		return resolved.toArray(new String[resolved.size()]);
+	}
+
+	/**
+	 * Reads a socket channel. Unlike Channels.newInputStream it does not
+	 * hold a lock writers need while blocked reading.
+	 */
+	static class ChannelInput extends InputStream {
+		private final SocketChannel channel;
+
+		ChannelInput(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			return length == 0 ? 0 : channel.read(ByteBuffer.wrap(bytes, offset, length));
+		}
+	}
+
+	/** Writes a socket channel. */
+	static class ChannelOutput extends OutputStream {
+		private final SocketChannel channel;
+
+		ChannelOutput(SocketChannel channel) {
+			this.channel = channel;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			ByteBuffer buffer = ByteBuffer.wrap(bytes, offset, length);
+
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/** Sends what is written as frames of one tag. */
+	static class FrameOutput extends OutputStream {
+		private final DataOutputStream output;
+		private final byte tag;
+
+		FrameOutput(DataOutputStream output, byte tag) {
+			this.output = output;
+			this.tag = tag;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+
+		@Override
+		public void write(byte[] bytes, int offset, int length) throws IOException {
+			while (length > 0) {
+				int chunk = Math.min(length, MAX_FRAME);
+
+				synchronized (output) {
+					output.writeByte(tag);
+					output.writeInt(chunk);
+					output.write(bytes, offset, chunk);
+					output.flush();
+				}
+				offset += chunk;
+				length -= chunk;
+			}
+		}
+	}
+
+	/** Standard input of a request, read from INPUT frames as needed. */
+	static class FrameInput extends InputStream {
+		private final DataInputStream input;
+
+		/** Bytes left in the current frame. */
+		private int remaining = 0;
+
+		private boolean ended = false;
+
+		FrameInput(DataInputStream input) {
+			this.input = input;
+		}
+
+		@Override
+		public int read() throws IOException {
+			byte[] b = new byte[1];
+
+			return read(b, 0, 1) < 0 ? -1 : b[0] & 0xFF;
+		}
+
+		@Override
+		public int read(byte[] bytes, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			while (remaining == 0) {
+				if (ended) {
+					return -1;
+				}
+				try {
+					if (input.readByte() != INPUT) {
+						throw new IOException("unexpected frame from client");
+					}
+					remaining = input.readInt();
+				} catch (EOFException e) {
+					remaining = 0;
+				}
+				ended = (remaining == 0);
+			}
+
+			int count = input.read(bytes, offset, Math.min(length, remaining));
+
+			if (count < 0) {
+				ended = true;
+				remaining = 0;
+				return -1;
+			}
+			remaining -= count;
+			return count;
+		}
+
+		@Override
+		public int available() {
+			return remaining;
+		}
+	}
+
+	public static void main(String argv[]) {
+		if (argv.length != 1) {
+			System.err.println("Usage: java compiler488.compiler.CompilerDaemon socketFile");
+			System.exit(1);
+		}
+
+		// Load the parser tables now rather than on the first request
+		try {
+			Class.forName("compiler488.parser.Source488Parser");
+		} catch (ClassNotFoundException | LinkageError e) {
+			// Loaded by the first request instead
+		}
+
+		try {
+			new CompilerDaemon(new File(argv[0]).toPath().toAbsolutePath()).serve();
+		} catch (IOException e) {
+			System.err.println("Unable to serve on " + argv[0]);
+			System.err.println(e.getClass().getName() + ": " + e.getMessage());
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,407 @@
+package compiler488.compiler;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import compiler488.runtime.Machine;
+import compiler488.runtime.PagedMachine;
+
+/**
+ * The options of one run of the compiler, as given on the command line.
+ *
+ * An instance cannot be changed once the command line has been parsed, so
+ * it may be shared by any number of compilations running at the same time.
+ * See the compiler man page for the meaning of each option.
+ */
+public final class CompilerOptions {
+	/** Every option at its default, with no source files. */
+	public static final CompilerOptions DEFAULTS = new CompilerOptions();
+
+	/** User option -- suppress execution */
+	private boolean supressExecution = false;
+
+	// DUMP Options
+	/** User option -- dump AST after parsing */
+	private boolean dumpAST1 = false;
+	/** User option -- dump AST after semantic analysis */
+	private boolean dumpAST2 = false;
+	/** User option -- dump compiled code before execution */
+	private boolean dumpCode = false;
+	/** User option -- dump symbol table after semantic analysis */
+	private boolean dumpSymbolTable = false;
+
+	/* TRACE options switches */
+	/** User option -- trace lexical analysis */
+	private boolean traceLexical = false;
+	/** User option -- trace syntax analysis */
+	private boolean traceSyntax = false;
+	/** User option -- trace AST operations */
+	private boolean traceAST = false;
+	/** User option -- trace semantic analysis */
+	private boolean traceSemantics = false;
+	/** User option -- trace symbol table operations */
+	private boolean traceSymbols = false;
+	/** User option -- trace code generation */
+	private boolean traceCodeGen = false;
+	/** User option -- trace program execution */
+	private boolean traceExecution = false;
+	/** User option -- trace program execution as binary records */
+	private boolean traceBinary = false;
+	/** User option -- trace compile cache statistics */
+	private boolean traceStats = false;
+
+	/* MACHINE options switches */
+	/** User option -- execute from a pre-decoded copy of the code area */
+	private boolean machineDecode = false;
+	/** User option -- execute common instruction sequences as superinstructions */
+	private boolean machineFuse = false;
+	/** User option -- compile frequently executed blocks to JVM bytecode */
+	private boolean machineJit = false;
+	/** User option -- skip run time checks the code is verified not to need */
+	private boolean machineVerify = false;
+	/** User option -- check the code for errors before execution */
+	private boolean machineCheck = false;
+	/** User option -- execute the programs of several source files in parallel */
+	private boolean machineParallel = false;
+	/** User option -- words of memory for a paged machine, 0 for the classic machine */
+	private int machineMemorySize = 0;
+	/** User option -- programs compiled at the same time, 0 for one per processor */
+	private int compileJobs = 0;
+
+	/* FILE NAMES supplied by the user */
+	/** User option -- alternative file sink for compiler error messages */
+	private String errorFileName = "";
+	/** User option -- alternative file sink for compiler output */
+	private String compilerOutputFileName = "";
+	/** User option -- alternative file sink for compiler trace output */
+	private String compilerTraceFileName = "";
+	/** User option -- alternative file sink for compiler dump output */
+	private String compilerDumpFileName = "";
+	/** User option -- alternative file sink for program trace output */
+	private String executeTraceFileName = "";
+	/** User option -- alternative file sink for program execution input */
+	private String executeInputFileName = "";
+	/** User option -- file receiving the execution profile as collapsed stacks */
+	private String profileFileName = "";
+	/** User option -- directory of source files to compile and run in batch */
+	private String batchDirectoryName = "";
+	/** User option -- object file receiving the compiled program */
+	private String objectFileName = "";
+	/** User option -- object file to load and run instead of compiling */
+	private String loadFileName = "";
+	/** User option -- directory of the compile cache */
+	private String cacheDirectoryName = "";
+
+	/** Source files to be compiled, in command line order */
+	private List<String> sourceFileNames = Collections.emptyList();
+
+	private CompilerOptions() {
+	}
+
+	/**
+	 * process command line arguments to Main program. <BR>
+	 * Will accept any name as a file argument, if the name is invalid the error
+	 * will be caught where the file is used.<BR>
+	 * Everything from the first argument not beginning with '-' on is taken
+	 * to be a source file.
+	 *
+	 * @param arguments
+	 *            is an array of strings containing command line arguments.
+	 * @param err
+	 *            stream for complaints about the arguments
+	 * @return the options, or null if the command line is in error
+	 */
+	public static CompilerOptions parse(String arguments[], PrintStream err) {
+		CompilerOptions options = new CompilerOptions();
+		int length = arguments.length; // number of command line arguments
+										// passed
+
+		int i, j, k; // just a counter
+		String argTmp; // temp argument strings for -D and -T
+		final String badUsage = "Incorrect usage of command line arguments."
+				+ " Please refer to the compiler man page.";
+
+		try { // catch arrayOutOfBoundsException for bad argument list
+			for (i = 0; i < length; i++) {
+				if (arguments[i].equals("-X")) {
+					options.supressExecution = true;
+				} else if (arguments[i].equals("-D")) {
+					i++; // advance to next argument
+					argTmp = arguments[i];
+					options.dumpAST1 = argTmp.indexOf('a') >= 0;
+					options.dumpAST2 = argTmp.indexOf('b') >= 0;
+					options.dumpCode = argTmp.indexOf('x') >= 0;
+					options.dumpSymbolTable = argTmp.indexOf('y') >= 0;
+					k = argTmp.length();
+					for (j = 0; j < k; j++) {
+						if ("abxy".indexOf(argTmp.charAt(j)) < 0) {
+							err.println("Invalid flag '" + argTmp.charAt(j) + "' for -D option (ignored)");
+						}
+					}
+				} else if (arguments[i].equals("-T")) {
+					i++; // advance to next argument
+					argTmp = arguments[i];
+					options.traceLexical = argTmp.indexOf('l') >= 0;
+					options.traceSyntax = argTmp.indexOf('p') >= 0;
+					options.traceAST = argTmp.indexOf('a') >= 0;
+					options.traceSemantics = argTmp.indexOf('s') >= 0;
+					options.traceSymbols = argTmp.indexOf('y') >= 0;
+					options.traceCodeGen = argTmp.indexOf('c') >= 0;
+					options.traceExecution = argTmp.indexOf('x') >= 0;
+					options.traceBinary = argTmp.indexOf('b') >= 0;
+					options.traceStats = argTmp.indexOf('t') >= 0;
+					k = argTmp.length();
+					for (j = 0; j < k; j++) {
+						if ("lpasycxbt".indexOf(argTmp.charAt(j)) < 0) {
+							err.println("Invalid flag '" + argTmp.charAt(j) + "' for -T option (ignored)");
+						}
+					}
+				} else if (arguments[i].equals("-M")) {
+					i++; // advance to next argument
+					argTmp = arguments[i];
+					options.machineDecode = argTmp.indexOf('d') >= 0;
+					options.machineFuse = argTmp.indexOf('f') >= 0;
+					options.machineJit = argTmp.indexOf('j') >= 0;
+					options.machineVerify = argTmp.indexOf('v') >= 0;
+					options.machineCheck = argTmp.indexOf('c') >= 0;
+					options.machineParallel = argTmp.indexOf('p') >= 0;
+					k = argTmp.length();
+					for (j = 0; j < k; j++) {
+						if ("cdfjpv".indexOf(argTmp.charAt(j)) < 0) {
+							err.println("Invalid flag '" + argTmp.charAt(j) + "' for -M option (ignored)");
+						}
+					}
+				} else if (arguments[i].equals("-W")) {
+					i++; // advance to next argument
+					try {
+						options.machineMemorySize = Integer.parseInt(arguments[i]);
+					} catch (NumberFormatException e) {
+						options.machineMemorySize = -1;
+					}
+					if (options.machineMemorySize < Machine.MEMORY_SIZE
+							|| options.machineMemorySize > PagedMachine.MAX_MEMORY_SIZE) {
+						err.println("Memory size for -W option must be " + Machine.MEMORY_SIZE + " .. "
+								+ PagedMachine.MAX_MEMORY_SIZE + " words");
+						return null;
+					}
+				} else if (arguments[i].equals("-j")) {
+					i++; // advance to next argument
+					try {
+						options.compileJobs = Integer.parseInt(arguments[i]);
+					} catch (NumberFormatException e) {
+						options.compileJobs = 0;
+					}
+					if (options.compileJobs < 1) {
+						err.println("Number of jobs for -j option must be at least 1");
+						return null;
+					}
+				} else if (arguments[i].equals("-E")) {
+					i++; // advance to next argument
+					options.errorFileName = arguments[i];
+				} else if (arguments[i].equals("-O")) {
+					i++; // advance to next argument
+					options.compilerOutputFileName = arguments[i];
+				} else if (arguments[i].equals("-R")) {
+					i++; // advance to next argument
+					options.compilerTraceFileName = arguments[i];
+				} else if (arguments[i].equals("-S")) {
+					i++; // advance to next argument
+					options.executeTraceFileName = arguments[i];
+				} else if (arguments[i].equals("-U")) {
+					i++; // advance to next argument
+					options.compilerDumpFileName = arguments[i];
+				} else if (arguments[i].equals("-I")) {
+					i++;
+					options.executeInputFileName = arguments[i];
+				} else if (arguments[i].equals("-P")) {
+					i++;
+					options.profileFileName = arguments[i];
+				} else if (arguments[i].equals("-B")) {
+					i++;
+					options.batchDirectoryName = arguments[i];
+				} else if (arguments[i].equals("-o")) {
+					i++;
+					options.objectFileName = arguments[i];
+				} else if (arguments[i].equals("-L")) {
+					i++;
+					options.loadFileName = arguments[i];
+				} else if (arguments[i].equals("-C")) {
+					i++;
+					options.cacheDirectoryName = arguments[i];
+				}
+
+				// if the argument does not begin with '-' then it must be
+				// a source file
+				else if (arguments[i].charAt(0) != '-') {
+					List<String> sources = new ArrayList<String>();
+
+					// stop command processing at first non command.
+					for (; i < length; i++) {
+						sources.add(arguments[i]);
+					}
+					options.sourceFileNames = Collections.unmodifiableList(sources);
+				} else {
+					// Unrecognized command flag
+					err.println(badUsage);
+					return null;
+				}
+			} // end for length loop
+		}
+		// ran off end of argv
+		catch (ArrayIndexOutOfBoundsException arrayBounds) {
+			err.println(badUsage);
+			return null;
+		}
+
+		return options;
+	}
+
+	public boolean getSupressExecution() {
+		return supressExecution;
+	}
+
+	public boolean getDumpAST1() {
+		return dumpAST1;
+	}
+
+	public boolean getDumpAST2() {
+		return dumpAST2;
+	}
+
+	public boolean getDumpCode() {
+		return dumpCode;
+	}
+
+	public boolean getDumpSymbolTable() {
+		return dumpSymbolTable;
+	}
+
+	public boolean getTraceLexical() {
+		return traceLexical;
+	}
+
+	public boolean getTraceSyntax() {
+		return traceSyntax;
+	}
+
+	public boolean getTraceAST() {
+		return traceAST;
+	}
+
+	public boolean getTraceSemantics() {
+		return traceSemantics;
+	}
+
+	public boolean getTraceSymbols() {
+		return traceSymbols;
+	}
+
+	public boolean getTraceCodeGen() {
+		return traceCodeGen;
+	}
+
+	public boolean getTraceExecution() {
+		return traceExecution;
+	}
+
+	public boolean getTraceBinary() {
+		return traceBinary;
+	}
+
+	public boolean getTraceStats() {
+		return traceStats;
+	}
+
+	/**
+	 * @return true iff any dump or trace of the compiler itself was asked
+	 *         for, which only a run of the compiler can produce
+	 */
+	public boolean getCompilerTracing() {
+		return dumpAST1 || dumpAST2 || dumpSymbolTable || traceLexical || traceSyntax || traceAST || traceSemantics
+				|| traceSymbols || traceCodeGen;
+	}
+
+	public boolean getMachineDecode() {
+		return machineDecode;
+	}
+
+	public boolean getMachineFuse() {
+		return machineFuse;
+	}
+
+	public boolean getMachineJit() {
+		return machineJit;
+	}
+
+	public boolean getMachineVerify() {
+		return machineVerify;
+	}
+
+	public boolean getMachineCheck() {
+		return machineCheck;
+	}
+
+	public boolean getMachineParallel() {
+		return machineParallel;
+	}
+
+	public int getMachineMemorySize() {
+		return machineMemorySize;
+	}
+
+	/** @return the number of programs to compile at the same time */
+	public int getCompileJobs() {
+		return compileJobs > 0 ? compileJobs : Runtime.getRuntime().availableProcessors();
+	}
+
+	public String getErrorFileName() {
+		return errorFileName;
+	}
+
+	public String getCompilerOutputFileName() {
+		return compilerOutputFileName;
+	}
+
+	public String getCompilerTraceFileName() {
+		return compilerTraceFileName;
+	}
+
+	public String getCompilerDumpFileName() {
+		return compilerDumpFileName;
+	}
+
+	public String getExecuteTraceFileName() {
+		return executeTraceFileName;
+	}
+
+	public String getExecuteInputFileName() {
+		return executeInputFileName;
+	}
+
+	public String getProfileFileName() {
+		return profileFileName;
+	}
+
+	public String getBatchDirectoryName() {
+		return batchDirectoryName;
+	}
+
+	public String getObjectFileName() {
+		return objectFileName;
+	}
+
+	public String getLoadFileName() {
+		return loadFileName;
+	}
+
+	public String getCacheDirectoryName() {
+		return cacheDirectoryName;
+	}
+
+	/** @return the source files to compile, unmodifiable */
+	public List<String> getSourceFileNames() {
+		return sourceFileNames;
+	}
+}
@@ -1,12 +1,21 @@
 package compiler488.compiler;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FileReader;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import java_cup.runtime.Symbol;
 import compiler488.parser.*;
@@ -43,374 +52,201 @@ public class Main {
 	private Main() {
 	}
 
-	/**
-	 * public error flag Setting this flag to true will suppress further
-	 * processing This can be used by parsing, semantic analysis or code
-	 * generation to quit early if errors have occurred.
-	 */
-	public static boolean errorOccurred = false;
-
-	/*
-	 * Options set by the user
-	 */
-
-	/** User option -- suppress execution */
-	public static boolean supressExecution = false;
-
-	// DUMP Options
-	/** User option -- dump AST after parsing */
-	private static boolean dumpAST1 = false;
-	/** User option -- dump AST after semantic analysis */
-	private static boolean dumpAST2 = false;
-	/** User option -- dump compiled code before execution */
-	public static boolean dumpCode = false;
-	/** User option -- dump symbol table after semantic analysis */
-	public static boolean dumpSymbolTable = false;
-
-	/* TRACE options switches */
-	/** User option -- trace lexical analysis */
-	public static boolean traceLexical = false;
-	/** User option -- trace syntax analysis */
-	public static boolean traceSyntax = false;
-	/** User option -- trace AST operations */
-	public static boolean traceAST = false;
-	/** User option -- trace semantic analysis */
-	public static boolean traceSemantics = false;
-	/** User option -- trace symbol table operations */
-	public static boolean traceSymbols = false;
-	/** User option -- trace code generation */
-	public static boolean traceCodeGen = false;
-	/** User option -- trace program execution */
-	public static boolean traceExecution = false;
-
-	/* FILE NAMES supplied by the user */
-	/** Source file to be compiled */
-	private static String sourceFileName = new String();
-	/** User option -- alternative file sink for compiler error messages */
-	private static String errorFileName = new String();
-	/** User option -- alternative file sink for compiler output */
-	private static String compilerOutputFileName = new String();
-	/** User option -- alternative file sink for compiler trace output */
-	private static String compilerTraceFileName = new String();
-	/** User option -- alternative file sink for compiler dump output */
-	private static String compilerDumpFileName = new String();
-	/** User option -- alternative file sink for program trace output */
-	private static String executeTraceFileName = new String();
-	/** User option -- alternative file sink for program execution input */
-	private static String executeInputFileName = new String();
-
-	/* FILES and STREAMS */
-	/** compiler and program input file */
-	private static File inputFile = null;
-	/** stream source for compiler or program input */
-	private static FileInputStream inputStream = null;
-	/** file sink for compiler or program output */
-	private static File outputFile = null;
-	/** stream sink for compiler and program output */
-	private static FileOutputStream outputStream = null;
-	/** file sink for error messages */
-	private static File errorFile = null;
-	/** stream sink for error messages */
-	private static FileOutputStream errorStream = null;
-	/** file sink for dumps */
-	private static File dumpFile = null;
-	/** file stream sink for dumps */
-	private static FileOutputStream dumpFileStream = null;
-
-	/* Save settings before tampering */
-	private static InputStream saveSysIn = System.in;
-	private static PrintStream saveSysOut = System.out;
-	private static PrintStream saveSysErr = System.err;
+	/** Binary execution trace file used when no -S file is given */
+	static final String DEFAULT_TRACE_FILE = "execution.trace";
 
 	/**
-	 * stream for doing dumps <BR>
-	 * All implementations of dump should write on this stream
+	 * Thrown to abandon a run of the compiler with an exit status, which run
+	 * returns.
 	 */
-	public static PrintStream dumpStream = null;
+	private static class ExitException extends RuntimeException {
+		private static final long serialVersionUID = 1L;
 
-	/**
-	 * PrintStream for trace output. <BR>
-	 * All implementations of tracing should write on this stream
-	 */
-	public static PrintStream traceStream = null;
+		final int status;
 
-	/** index of compiler source file in argv */
-	private static int sourceFileIndex = -1;
+		ExitException(int status) {
+			super("exit " + status);
+			this.status = status;
+		}
+	}
 
 	/**
-	 * process command line arguments to Main program. <BR>
-	 * Will accept any name as a file argument, if the name is invalid the error
-	 * will be caught where the file is used.<BR>
-	 * Sets boolean flags to activate compiler options
+	 * Abandon the current run of the compiler.
 	 *
-	 * @param arguments
-	 *            is an array of strings containing command line arguments.
+	 * @param status
+	 *            exit status
 	 */
-	private static void commandLineArgs(String arguments[]) {
-		int length = arguments.length; // number of command line arguments
-										// passed
-		int optionLen = 0; // number of arguments passed
-		// for current option
-
-		int i, j, k; // just a counter
-		String argTmp; // temp argument strings for -D and -T
-		final String badUsage = "Incorrect usage of command line arguments."
-				+ " Please refer to the compiler man page.";
-
-		if (length > 0) {
-			try { // catch arrayOutOfBoundsException for bad argument list
-				for (i = 0; i < length; i++) {
-					if (arguments[i].equals("-X")) {
-						supressExecution = true;
-					} else if (arguments[i].equals("-D")) {
-						i++; // advance to next argument
-						argTmp = arguments[i];
-						dumpAST1 = argTmp.indexOf('a') >= 0;
-						dumpAST2 = argTmp.indexOf('b') >= 0;
-						dumpCode = argTmp.indexOf('x') >= 0;
-						dumpSymbolTable = argTmp.indexOf('y') >= 0;
-						k = argTmp.length();
-						for (j = 0; j < k; j++) {
-							if ("abxy".indexOf(argTmp.charAt(j)) < 0) {
-								System.err.println("Invalid flag '" + argTmp.charAt(j) + "' for -D option (ignored)");
-							}
-						}
-					} else if (arguments[i].equals("-T")) {
-						i++; // advance to next argument
-						argTmp = arguments[i];
-						traceLexical = argTmp.indexOf('l') >= 0;
-						traceSyntax = argTmp.indexOf('p') >= 0;
-						traceAST = argTmp.indexOf('a') >= 0;
-						traceSemantics = argTmp.indexOf('s') >= 0;
-						traceSymbols = argTmp.indexOf('y') >= 0;
-						traceCodeGen = argTmp.indexOf('c') >= 0;
-						traceExecution = argTmp.indexOf('x') >= 0;
-						k = argTmp.length();
-						for (j = 0; j < k; j++) {
-							if ("lpasycx".indexOf(argTmp.charAt(j)) < 0) {
-								System.err.println("Invalid flag '" + argTmp.charAt(j) + "' for -T option (ignored)");
-							}
-						}
-					} else if (arguments[i].equals("-E")) {
-						i++; // advance to next argument
-						errorFileName = new String(arguments[i]);
-					} else if (arguments[i].equals("-O")) {
-						i++; // advance to next argument
-						compilerOutputFileName = new String(arguments[i]);
-					} else if (arguments[i].equals("-R")) {
-						i++; // advance to next argument
-						compilerTraceFileName = new String(arguments[i]);
-					} else if (arguments[i].equals("-S")) {
-						i++; // advance to next argument
-						executeTraceFileName = new String(arguments[i]);
-					} else if (arguments[i].equals("-U")) {
-						i++; // advance to next argument
-						compilerDumpFileName = new String(arguments[i]);
-					} else if (arguments[i].equals("-I")) {
-						i++;
-						executeInputFileName = new String(arguments[i]);
-					}
-
-					// if the argument does not begin with '-' then it must be
-					// a source file
-					else if (arguments[i].charAt(0) != '-') {
-						sourceFileIndex = i;
-						// stop command processing at first non command.
-						return;
-					} else {
-						// Unrecognized command flag
-						System.err.println(badUsage);
-						errorOccurred = true;
-						return;
-					}
-				} // end for length loop
-			}
-			// ran off end of argv
-			catch (ArrayIndexOutOfBoundsException arrayBounds) {
-				System.err.println(badUsage);
-				errorOccurred = true;
-				return;
-			}
-		}
+	private static void exit(int status) {
+		throw new ExitException(status);
 	}
 
+
 	/**
-	 * Set System.in to be the specified file
+	 * Have the machine read program input from the specified file. The
+	 * machine opens the file when it runs (memory mapping a regular file) and
+	 * falls back to its input stream if it cannot.
 	 *
+	 * @param machine
+	 *            the machine executing the program
 	 * @param fileName
 	 *            - the input file
 	 */
-	private static void setInputSource(String fileName) {
+	private static void setInputSource(BaseMachine machine, String fileName) {
 		if (fileName.length() == 0) {
-			return; // use existing System.in
+			return; // use the machine's input stream
 		}
 
-		/* set System.in to point at specifed file */
-		try {
-			inputFile = new File(fileName);
-		} catch (Exception e) {
-			System.err.println("Unable to open file " + fileName);
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			return; // continue with System.in unchanged
-		}
-		try {
-			inputStream = new FileInputStream(inputFile);
-			System.setIn(inputStream);
-		} catch (Exception e) {
-			System.err.println("Unable to set input stream to  file " + fileName);
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			return; // continue with System.in unchanged
-		}
+		machine.setInputFile(new File(fileName));
 	}
 
 	/**
-	 * Set System.out to point at the specified file
+	 * Have the machine record its execution trace in a memory mapped trace
+	 * file. Falls back to the text trace if the file cannot be mapped.
 	 *
+	 * @param machine
+	 *            the machine executing the program
 	 * @param fileName
-	 *            name of the output file
+	 *            name of the trace file
+	 * @param errors
+	 *            stream for error messages
 	 */
-	private static void setOutputSink(String fileName) {
-		/* set System.out to point at specifed file */
+	static void setTraceBuffer(BaseMachine machine, String fileName, PrintStream errors) {
 		try {
-			outputFile = new File(fileName);
-		} catch (Exception e) {
-			System.err.println("Unable to open file " + fileName);
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			return; // continue with System.out unchanged
-		}
-		try {
-			outputStream = new FileOutputStream(outputFile);
-			// use autoflush for more accurate output
-			System.setOut(new PrintStream(outputStream, true));
-		} catch (Exception e) {
-			System.err.println("Unable to set output stream to  file " + fileName);
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			return; // continue with System.out unchanged
+			machine.setTraceBuffer(TraceBuffer.map(new File(fileName), TraceBuffer.DEFAULT_CAPACITY));
+		} catch (IOException e) {
+			errors.println("Unable to map trace file " + fileName + ", tracing as text");
+			errors.println(e.getClass().getName() + ": " + e.getMessage());
+			machine.setTraceBuffer(null);
 		}
 	}
 
 	/**
-	 * Set System.err to point at the specifed file
+	 * Write the profile of the last run, if the machine is profiling: the
+	 * report to a stream and the collapsed stacks to a file.
 	 *
+	 * @param machine
+	 *            the machine that ran the program
+	 * @param report
+	 *            stream receiving the report
 	 * @param fileName
-	 *            name of the error file
+	 *            name of the collapsed stack file
+	 * @param errors
+	 *            stream for error messages
 	 */
-	private static void setErrorSink(String fileName) {
-		/* set System.err to point at specifed file */
-		try {
-			errorFile = new File(fileName);
-		} catch (Exception e) {
-			System.err.println("Unable to open file " + fileName);
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			return; // continue with System.err unchanged
+	static void writeProfile(BaseMachine machine, PrintStream report, String fileName, PrintStream errors) {
+		MachineProfile profile = machine.getProfile();
+
+		if (profile == null) {
+			return;
 		}
-		try {
-			errorStream = new FileOutputStream(errorFile);
-			// use autoflush for more precise output
-			System.setErr(new PrintStream(errorStream, true));
-		} catch (Exception e) {
-			System.err.println("Unable to set error stream to  file " + fileName);
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			return; // continue with System.err unchanged
+
+		profile.report(report, machine.getSourceLines());
+
+		try (PrintStream stacks = new PrintStream(new FileOutputStream(fileName))) {
+			profile.writeCollapsed(stacks);
+		} catch (IOException e) {
+			errors.println("Unable to write profile file " + fileName);
+			errors.println(e.getClass().getName() + ": " + e.getMessage());
 		}
+
+		profile.reset();
 	}
 
 	/**
-	 * set traceStream to point at specifed file
+	 * Open a file to receive output, errors or trace.
 	 *
 	 * @param fileName
-	 *            name of trace file
+	 *            name of the file
+	 * @param what
+	 *            what the file receives, for the error message
+	 * @param fallback
+	 *            stream to use if the file cannot be opened
+	 * @param errors
+	 *            stream for error messages
+	 * @return the stream on the file, or fallback
 	 */
-	private static void setTraceStream(String fileName) {
-		File traceFile = null;
-		FileOutputStream traceFileStream;
-
-		if (fileName.length() == 0) {
-			traceStream = saveSysOut; // trace to System.out
-			return;
-		}
-
-		// otherwise set up the file
+	private static PrintStream openSink(String fileName, String what, PrintStream fallback, PrintStream errors) {
 		try {
-			traceFile = new File(fileName);
-		} catch (Exception e) {
-			System.err.println("Unable to open trace file " + fileName);
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-		}
-
-		try {
-			traceFileStream = new FileOutputStream(traceFile);
-			// use autoFlush for more accurate output
-			traceStream = new PrintStream(traceFileStream, true);
+			// use autoflush for more accurate output
+			return new PrintStream(new FileOutputStream(new File(fileName)), true);
 		} catch (Exception e) {
-			System.err.println("Unable to set trace stream to  file " + fileName);
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			traceStream = saveSysOut;
+			errors.println("Unable to set " + what + " stream to  file " + fileName);
+			errors.println(e.getClass().getName() + ": " + e.getMessage());
+			return fallback; // continue with the stream unchanged
 		}
 	}
 
 	/**
 	 * Procedure to dump the Abstract Syntax Tree
 	 *
+	 * @param context
+	 *            the compilation
 	 * @param programAST
 	 *            the abstract syntax tree to dump
 	 * @param whichDump
 	 *            message describing AST being dumped
 	 */
-	private static void dumpAST(Program programAST, String whichDump) {
+	private static void dumpAST(CompilationContext context, Program programAST, String whichDump) {
+		String dumpFileName = context.getOptions().getCompilerDumpFileName();
+
 		try {
-			if (compilerDumpFileName.length() > 0) {
-				dumpFile = new File(compilerDumpFileName);
-				dumpStream = new PrintStream(new FileOutputStream(dumpFile));
-				programAST.prettyPrint(new BasePrettyPrinter(dumpStream));
-				dumpStream.close();
+			if (dumpFileName.length() > 0) {
+				try (PrintStream dumpStream = new PrintStream(new FileOutputStream(new File(dumpFileName)))) {
+					programAST.prettyPrint(new BasePrettyPrinter(dumpStream));
+				}
 			} else {
-				programAST.prettyPrint(new BasePrettyPrinter(saveSysOut));
+				programAST.prettyPrint(new BasePrettyPrinter(context.getConsole()));
 			}
 		} catch (Exception e) {
-			System.err.println(whichDump);
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			e.printStackTrace();
-			System.exit(100);
+			context.getErrors().println(whichDump);
+			context.getErrors().println(e.getClass().getName() + ": " + e.getMessage());
+			e.printStackTrace(context.getErrors());
+			exit(100);
 		}
 	}
 
 	/**
 	 * function to perform semantic analysis on the scanned and parsed program
 	 *
+	 * @param context
+	 *            the compilation
 	 * @param programAST
 	 *            the Abstract Syntax Tree produced during parsing
 	 */
-	private static void semanticAnalysis(Program programAST) {
+	private static void semanticAnalysis(CompilationContext context, Program programAST) {
 		try {
 			// INSERT CODE HERE TO DO SEMANTIC ANALYSIS
 			// e.g.
 			//
-			// ASTVisitor visitor = new Semantics();
-			// programAST.accept(visitor);
+			// ASTVisitor<Void, CompilationContext> visitor = new Semantics(context);
+			// programAST.accept(visitor, context);
 			//
 			// or
 			//
-			// programAST.doSemantics() ;
+			// programAST.doSemantics(context) ;
 			//
 			// or
 			//
-			// Semantics.doIt( programAST );
+			// Semantics.doIt( programAST, context );
 		} catch (Exception e) {
-			System.err.println("Exception during Semantic Analysis");
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			e.printStackTrace();
-			errorOccurred = true;
+			context.getErrors().println("Exception during Semantic Analysis");
+			context.getErrors().println(e.getClass().getName() + ": " + e.getMessage());
+			e.printStackTrace(context.getErrors());
+			context.setErrorOccurred(true);
 		}
 	}
 
 	/**
 	 * function to do code generation
 	 *
+	 * @param context
+	 *            the compilation
+	 * @param machine
+	 *            machine to receive the generated code
 	 * @param programAST
 	 *            the Abstract Syntax Tree to generate code for
 	 */
-	private static void generateCode(Machine machine, Program programAST) {
+	private static void generateCode(CompilationContext context, Machine machine, Program programAST) {
 		// Reset machine before code generation
 		machine.reset();
 
@@ -418,57 +254,103 @@ public class Main {
 			// INSERT CODE HERE TO DO CODE GENERATION
 			// e.g.
 			//
-			// ASTVisitor visitor = new CodeGen(machine);
-			// programAST.accept(visitor);
+			// ASTVisitor<Void, CompilationContext> visitor = new CodeGen(machine, context);
+			// programAST.accept(visitor, context);
 			//
 			// or
 			//
-			// programAST.doCodeGen() ;
+			// programAST.doCodeGen(context) ;
 			//
 			// or
 			//
 			// codeGen.doIt(programAST);
 		} catch (Exception e) {
-			System.err.println("Exception during Code Generation");
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			e.printStackTrace();
-			errorOccurred = true;
+			context.getErrors().println("Exception during Code Generation");
+			context.getErrors().println(e.getClass().getName() + ": " + e.getMessage());
+			e.printStackTrace(context.getErrors());
+			context.setErrorOccurred(true);
+		}
+	}
+
+	/**
+	 * Write the program the machine holds after code generation to an object
+	 * file.
+	 *
+	 * @param context
+	 *            the compilation
+	 * @param machine
+	 *            the machine holding the compiled program
+	 * @param fileName
+	 *            name of the object file
+	 */
+	private static void writeObjectFile(CompilationContext context, BaseMachine machine, String fileName) {
+		try {
+			new ObjectFile(machine.snapshot()).write(new File(fileName));
+		} catch (Exception e) {
+			context.getErrors().println("Unable to write object file " + fileName);
+			context.getErrors().println(e.getClass().getName() + ": " + e.getMessage());
+			context.setErrorOccurred(true);
+		}
+	}
+
+	/**
+	 * Load a compiled program from an object file into the machine.
+	 *
+	 * @param context
+	 *            the run
+	 * @param machine
+	 *            the machine to run the program
+	 * @param fileName
+	 *            name of the object file
+	 */
+	private static void loadObjectFile(CompilationContext context, BaseMachine machine, String fileName) {
+		try {
+			ObjectFile.read(new File(fileName)).load(machine);
+		} catch (IOException e) {
+			context.getErrors().println("Unable to load object file " + fileName);
+			context.getErrors().println(e.getClass().getName() + ": " + e.getMessage());
+			context.setErrorOccurred(true);
 		}
 	}
 
 	/** Function to execute a compiled program */
-	private static void executeProgram(Machine machine) {
-		if (supressExecution & !dumpCode) {
-			System.out.println("Execution suppressed by control flag.\n");
+	private static void executeProgram(CompilationContext context, BaseMachine machine) {
+		CompilerOptions options = context.getOptions();
+		PrintStream out = context.getOutput();
+		PrintStream err = context.getErrors();
+
+		if (options.getSupressExecution() & !options.getDumpCode()) {
+			out.println("Execution suppressed by control flag.\n");
 			return;
 		}
 
-		System.out.println("Begin Execution");
-		// Set trace stream, input stream for execution
-		setTraceStream(executeTraceFileName);
-		setInputSource(executeInputFileName);
-		dumpStream = System.out;
+		out.println("Begin Execution");
+		// Set trace file, input file for execution
+		if (options.getTraceBinary()) {
+			String traceFileName = options.getExecuteTraceFileName();
+
+			setTraceBuffer(machine, traceFileName.length() > 0 ? traceFileName : DEFAULT_TRACE_FILE, err);
+		}
+		setInputSource(machine, options.getExecuteInputFileName());
 
 		// execute the compiled program
 		try {
 			machine.run();
 		} catch (ExecutionException e) {
-			System.err.println("Exception during Machine Execution" + e.getMessage());
+			err.println("Exception during Machine Execution" + e.getMessage());
 			// Run error has already dumped machine state.
 			return;
 		} catch (Exception e) {
-			System.err.println("Unexpected Exception during Machine Execution");
-			System.err.println("Please file a Bug Report with the course instructor");
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			e.printStackTrace();
-			System.exit(200);
+			err.println("Unexpected Exception during Machine Execution");
+			err.println("Please file a Bug Report with the course instructor");
+			err.println(e.getClass().getName() + ": " + e.getMessage());
+			e.printStackTrace(err);
+			exit(200);
+		} finally {
+			writeProfile(machine, err, options.getProfileFileName(), err);
 		}
 
-		if (traceStream != null && traceStream != saveSysOut) {
-			traceStream.close(); // finish execution trace
-		}
-
-		System.out.println("End of Execution");
+		out.println("End of Execution");
 	}
 
 	/*------------------------------------------------------------*/
@@ -480,32 +362,40 @@ public class Main {
 	/**
 	 * The processing for compiling one source program
 	 *
+	 * @param context
+	 *            the compilation, whose error flag is set if it fails
+	 * @param machine
+	 *            machine to receive the compiled code
 	 * @param sourceFileName
 	 *            name of file containing the program
 	 */
-	private static void compileOneProgram(Machine machine, String sourceFileName) {
+	private static void compileOneProgram(CompilationContext context, Machine machine, String sourceFileName) {
 		Object parserResult = null ; // the result of parsing and AST building
 		Program programAST = null;
+		CompilerOptions options = context.getOptions();
+		PrintStream out = context.getOutput();
+		PrintStream err = context.getErrors();
 
-		errorOccurred = false;
+		context.setErrorOccurred(false);
 
-		System.out.println(System.lineSeparator() + "Compiling file: " + sourceFileName);
+		out.println(System.lineSeparator() + "Compiling file: " + sourceFileName);
 
 		/* Scan and Parse the program */
 		try {
-			Source488Parser p = new Source488Parser(new Lexer(new FileReader(sourceFileName)));
+			Lexer lexer = new Lexer(new FileReader(sourceFileName), context.getIdentifiers());
+			Source488Parser p = new Source488Parser(lexer, context);
 
-			if (!errorOccurred) {
+			if (!context.getErrorOccurred()) {
 				Symbol value = null;
 
-				if (traceSyntax) {
+				if (options.getTraceSyntax()) {
 					value = p.debug_parse();
 				} else {
 					value = p.parse();
 				}
 
 				if (value == null) {
-					System.err.println("WARNING: Parser returned no value for 'start with' nonterminal");
+					err.println("WARNING: Parser returned no value for 'start with' nonterminal");
 				} else {
 					parserResult = value.value;
 				}
@@ -513,54 +403,178 @@ public class Main {
 
 			programAST = (Program) parserResult;
 		} catch (FileNotFoundException e) {
-			System.err.println("Unable to open file: " + sourceFileName);
-			errorOccurred = true;
+			err.println("Unable to open file: " + sourceFileName);
+			context.setErrorOccurred(true);
 		} catch (SyntaxErrorException e) {
 			// Parser has already printed an error message
-			errorOccurred = true;
+			context.setErrorOccurred(true);
 		} catch (Exception e) {
-			System.err.println("Exception during Parsing and AST building");
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			e.printStackTrace();
-			errorOccurred = true;
+			err.println("Exception during Parsing and AST building");
+			err.println(e.getClass().getName() + ": " + e.getMessage());
+			e.printStackTrace(err);
+			context.setErrorOccurred(true);
 		}
 
-		if (errorOccurred) {
-			System.out.println("Processing Terminated due to errors during parsing");
+		if (context.getErrorOccurred()) {
+			out.println("Processing Terminated due to errors during parsing");
 			return;
 		}
 
 		// Dump AST after parsing if requested
-		if (dumpAST1) {
-			dumpAST(programAST, "Exception during AST dump after AST building");
+		if (options.getDumpAST1()) {
+			dumpAST(context, programAST, "Exception during AST dump after AST building");
 		}
 
 		/* Do semantic analysis on the program */
-		semanticAnalysis(programAST);
+		semanticAnalysis(context, programAST);
 
-		if (errorOccurred) {
-			System.out.println("Processing Terminated due to errors during semantic analysis");
+		if (context.getErrorOccurred()) {
+			out.println("Processing Terminated due to errors during semantic analysis");
 			return;
 		}
 
 		// Dump AST after semantic analysis if requested
-		if (dumpAST2) {
-			dumpAST(programAST, "Exception during AST dump after semantic analysis");
+		if (options.getDumpAST2()) {
+			dumpAST(context, programAST, "Exception during AST dump after semantic analysis");
 		}
 
 		/* do code generation for the program */
-		generateCode(machine, programAST);
+		generateCode(context, machine, programAST);
 
-		if (errorOccurred) {
-			System.out.println("Processing Terminated due to errors during code generation");
+		if (context.getErrorOccurred()) {
+			out.println("Processing Terminated due to errors during code generation");
 			return;
 		} else {
-			System.out.println("End of Compilation");
+			out.println("End of Compilation");
+		}
+	}
+
+	/**
+	 * Compile one program, through the compile cache if there is one. On a
+	 * hit the messages of the cached compilation are printed again and its
+	 * code is loaded into the machine instead of compiling.
+	 *
+	 * Compiler traces and dumps need the compiler to run, so the cache is
+	 * not used when any is requested.
+	 *
+	 * Everything the compilation needs is in its context, so any number of
+	 * programs may be compiled at the same time, each with a context of its
+	 * own.
+	 *
+	 * @param context
+	 *            the compilation, whose error flag is set if it fails
+	 * @param machine
+	 *            machine to receive the compiled code
+	 * @param sourceFileName
+	 *            name of file containing the program
+	 * @return true iff the program compiled without errors
+	 */
+	static boolean compileProgram(CompilationContext context, BaseMachine machine, String sourceFileName) {
+		CompileCache compileCache = context.getCache();
+
+		if (compileCache == null || context.getOptions().getCompilerTracing()) {
+			compileOneProgram(context, machine, sourceFileName);
+			return !context.getErrorOccurred();
+		}
+
+		byte[] source;
+
+		try {
+			source = Files.readAllBytes(Paths.get(sourceFileName));
+		} catch (IOException | InvalidPathException e) {
+			// Let the compiler report it
+			compileOneProgram(context, machine, sourceFileName);
+			return !context.getErrorOccurred();
+		}
+
+		String key = compileCache.key(sourceFileName, context.getOptions(), source);
+		CompileCache.Entry entry = compileCache.lookup(key);
+
+		if (entry != null && entry.getCode() != null) {
+			try {
+				entry.getCode().load(machine);
+			} catch (IOException e) {
+				// The code does not fit this machine: compile it again
+				compileCache.reject(key);
+				entry = null;
+			}
+		}
+
+		if (context.getOptions().getTraceStats()) {
+			context.getTrace().println((entry != null ? "Cache hit: " : "Cache miss: ") + sourceFileName + " ("
+					+ compileCache.getHits() + " hits, " + compileCache.getMisses() + " misses)");
+		}
+
+		if (entry != null) {
+			entry.replay(context.getOutput(), context.getErrors());
+			context.setErrorOccurred(entry.getCode() == null);
+			return !context.getErrorOccurred();
+		}
+
+		CompileCache.Recorder messages = new CompileCache.Recorder();
+		CompilationContext recorded = context.derive(messages.tee(CompileCache.OUTPUT, context.getOutput()),
+				messages.tee(CompileCache.ERRORS, context.getErrors()));
+
+		compileOneProgram(recorded, machine, sourceFileName);
+		recorded.getOutput().flush();
+		recorded.getErrors().flush();
+		context.setErrorOccurred(recorded.getErrorOccurred());
+
+		ObjectFile code = null;
+
+		if (!context.getErrorOccurred()) {
+			try {
+				code = new ObjectFile(machine.snapshot());
+			} catch (IllegalArgumentException e) {
+				// No code was generated, so there is nothing to cache
+				return true;
+			}
 		}
+		compileCache.store(key, messages, code);
+		return !context.getErrorOccurred();
+	}
 
-		if (traceStream != null && traceStream != saveSysOut) {
-			traceStream.close(); // finish compilation trace
+	/**
+	 * Create a machine for executing compiled programs, set up as the user
+	 * options request.
+	 *
+	 * @param options
+	 *            the user options
+	 * @param statusOutput
+	 *            stream for execution status, dumps and trace
+	 * @param machineOutput
+	 *            stream for program output
+	 * @param machineInput
+	 *            stream for program input
+	 * @return the machine
+	 */
+	static BaseMachine createMachine(CompilerOptions options, PrintStream statusOutput, PrintStream machineOutput,
+			InputStream machineInput) {
+		BaseMachine machine;
+
+		if (options.getMachineMemorySize() > 0) {
+			// The paged machine has only the classic interpreter
+			machine = new PagedMachine(statusOutput, machineOutput, machineInput, options.getMachineMemorySize());
+		} else {
+			MachineExecutor executor;
+
+			if (options.getMachineJit()) {
+				executor = new JitMachine(statusOutput, machineOutput, machineInput);
+			} else {
+				executor = new MachineExecutor(statusOutput, machineOutput, machineInput);
+				executor.setDecodingEnabled(options.getMachineDecode());
+			}
+			executor.setFusionEnabled(options.getMachineFuse());
+			executor.setVerificationEnabled(options.getMachineVerify());
+			machine = executor;
 		}
+		machine.setTracingEnabled(options.getTraceExecution() || options.getTraceBinary());
+		machine.setProfile(options.getProfileFileName().length() > 0 ? new MachineProfile() : null);
+		machine.setDumpStream(options.getDumpCode() ? machineOutput : null);
+		machine.setExecutionSuppressed(options.getSupressExecution());
+		machine.setCodeCheckEnabled(options.getMachineCheck());
+
+		return machine;
 	}
 
 	/*------------------------------------------------------------*/
@@ -570,65 +584,286 @@ public class Main {
 	/*-----------------------------------------------------------*/
 
 	/**
-	 * The main driver for the system.
+	 * Run the compiler on a command line, with the given standard streams.
+	 * Everything a run changes belongs to it, so runs may go on at the same
+	 * time in one JVM, as they do in a CompilerDaemon.
 	 *
 	 * @param argv
 	 *            an array of strings containing command line arguments.
+	 * @param in
+	 *            standard input
+	 * @param out
+	 *            standard output
+	 * @param err
+	 *            standard error
+	 * @return exit status
 	 */
-	public static void main(String argv[]) {
+	public static int run(String argv[], InputStream in, PrintStream out, PrintStream err) {
+		CompilerOptions options = null;
+
 		/* Process user options and arguments */
 		try {
-			commandLineArgs(argv);
+			options = CompilerOptions.parse(argv, err);
 		} catch (Exception e) {
-			System.err.println("Exception during command line argument processing");
-			System.err.println(e.getClass().getName() + ": " + e.getMessage());
-			System.exit(90);
+			err.println("Exception during command line argument processing");
+			err.println(e.getClass().getName() + ": " + e.getMessage());
+			return 90;
 		}
 
-		if (errorOccurred) {
-			System.out.println("Processing Terminated due to command line errors");
-			return;
+		if (options == null) {
+			out.println("Processing Terminated due to command line errors");
+			return 0;
 		}
 
 		/* Setup files for compilation */
-		if (errorFileName.length() > 0) {
-			setErrorSink(errorFileName);
+		PrintStream errors = err;
+		PrintStream output = out;
+		PrintStream trace = out; // trace to standard output
+
+		if (options.getErrorFileName().length() > 0) {
+			errors = openSink(options.getErrorFileName(), "error", err, err);
 		}
 
-		if (compilerOutputFileName.length() > 0) {
-			setOutputSink(compilerOutputFileName);
+		if (options.getCompilerOutputFileName().length() > 0) {
+			output = openSink(options.getCompilerOutputFileName(), "output", out, errors);
+		}
+
+		if (options.getCompilerTraceFileName().length() > 0) {
+			trace = openSink(options.getCompilerTraceFileName(), "trace", out, errors);
+		}
+
+		CompileCache compileCache = null;
+
+		if (options.getCacheDirectoryName().length() > 0) {
+			try {
+				compileCache = new CompileCache(new File(options.getCacheDirectoryName()),
+						CompileCache.DEFAULT_MAX_BYTES);
+			} catch (IOException e) {
+				errors.println("Unable to open compile cache " + options.getCacheDirectoryName()
+						+ ", compiling everything");
+				errors.println(e.getClass().getName() + ": " + e.getMessage());
+			}
 		}
 
-		setTraceStream(compilerTraceFileName);
+		try {
+			run(new CompilationContext(options, output, errors, in, out, trace, compileCache));
+			return 0;
+		} catch (ExitException e) {
+			return e.status;
+		} finally {
+			// Close the files opened for the run
+			if (output != out) {
+				output.close();
+			}
+			if (errors != err) {
+				errors.close();
+			}
+			if (trace != out) {
+				trace.close();
+			}
+			out.flush();
+			err.flush();
+		}
+	}
+
+	/**
+	 * Compile and execute the programs of a run, or run it in batch, or load
+	 * and execute an object file, as the options ask.
+	 *
+	 * @param context
+	 *            the run
+	 */
+	private static void run(CompilationContext context) {
+		CompilerOptions options = context.getOptions();
+
+		// Batch mode: compile and run every program in a directory
+		if (options.getBatchDirectoryName().length() > 0) {
+			BatchRunner batch = new BatchRunner(context, new File(options.getBatchDirectoryName()),
+					Runtime.getRuntime().availableProcessors());
+			batch.run();
+			traceCacheStats(context);
+			return;
+		}
+
+		// Run a program compiled earlier
+		if (options.getLoadFileName().length() > 0) {
+			BaseMachine machine = createMachine(options, context.getErrors(), context.getOutput(), context.getInput());
+
+			loadObjectFile(context, machine, options.getLoadFileName());
+			if (!context.getErrorOccurred()) {
+				executeProgram(context, machine);
+			}
+			return;
+		}
+
+		List<String> sourceFileNames = options.getSourceFileNames();
+
+		if (sourceFileNames.isEmpty()) {
+			context.getErrors().println("No input file specified. Processing Terminated");
+			return;
+		}
+
+		if (options.getObjectFileName().length() > 0 && sourceFileNames.size() > 1) {
+			context.getErrors()
+					.println("Only one source file may be compiled to an object file. Processing Terminated");
+			return;
+		}
 
-		/*
-		 * Setup compiler input file for compilation sourceFileIndex points to
-		 * file name in argument list
-		 *
-		 * sourceFileIndex will be -1 if no input file was found during command
-		 * line processing and 0 if no arguments were given.
-		 */
-		if (sourceFileIndex < 0 || sourceFileIndex >= argv.length) {
-			System.err.println("No input file specified. Processing Terminated");
+		// Compiler traces and dumps would interleave, so they are never parallel
+		if (sourceFileNames.size() > 1 && options.getCompileJobs() > 1 && !options.getCompilerTracing()) {
+			runInParallel(context, sourceFileNames);
+			traceCacheStats(context);
 			return;
 		}
 
-		Machine machine = new MachineExecutor(System.err, System.out, System.in);
+		BaseMachine machine = createMachine(options, context.getErrors(), context.getOutput(), context.getInput());
 
 		// loop over list of files to compile
-		for (; sourceFileIndex < argv.length; sourceFileIndex++) {
-			// Compile the source program
-			machine.reset();
-			compileOneProgram(machine, argv[sourceFileIndex]);
+		for (String sourceFileName : sourceFileNames) {
+			// Each file has identifiers of its own, as when compiled in parallel
+			CompilationContext fileContext = context.derive(context.getOutput(), context.getErrors());
 
-			if (!errorOccurred) {
+			// Compile the source program (generateCode resets the machine)
+			compileProgram(fileContext, machine, sourceFileName);
+
+			if (!fileContext.getErrorOccurred() && options.getObjectFileName().length() > 0) {
+				writeObjectFile(fileContext, machine, options.getObjectFileName());
+			}
+
+			if (!fileContext.getErrorOccurred()) {
 				// Execute the compiled program
 				// Machine will handle supressExecution AFTER optional
 				// dump of compiled code.
-				executeProgram(machine);
+				executeProgram(fileContext, machine);
 			} else
-				System.err.println("Execution supressed due to errors during compilation");
+				fileContext.getErrors().println("Execution supressed due to errors during compilation");
 
 		} // end of loop to process one input file
+
+		traceCacheStats(context);
+	}
+
+	/**
+	 * A program compiled, and perhaps executed, with its messages held back.
+	 */
+	private static class BufferedRun {
+		/** Messages of the compilation and execution, in order */
+		final CompileCache.Recorder messages = new CompileCache.Recorder();
+
+		/** Context of the compilation, printing on messages */
+		final CompilationContext context;
+
+		/** Machine holding the compiled program */
+		final BaseMachine machine;
+
+		/** Set if the run was abandoned */
+		ExitException exit = null;
+
+		BufferedRun(CompilationContext parent, InputStream input) {
+			context = parent.derive(messages.record(CompileCache.OUTPUT), messages.record(CompileCache.ERRORS));
+			machine = createMachine(parent.getOptions(), context.getErrors(), context.getOutput(), input);
+		}
+	}
+
+	/**
+	 * Compile the source files on a pool of threads, each into a machine of
+	 * its own, holding back the messages of each until those of the files
+	 * before it have been printed, so the output is as if the files had been
+	 * compiled one after the other. The programs are then executed in order,
+	 * or with -M p also in parallel with their output held back the same way.
+	 *
+	 * Programs executed in parallel read their input from the -I file, or
+	 * have none; those executed in order run on one machine, reading
+	 * standard input in turn as they would compiled one at a time. Binary
+	 * traces and profiles go to one file, so programs are executed in order
+	 * when either is requested.
+	 *
+	 * @param context
+	 *            the run
+	 * @param sourceFileNames
+	 *            names of the files to compile
+	 */
+	private static void runInParallel(final CompilationContext context, List<String> sourceFileNames) {
+		CompilerOptions options = context.getOptions();
+		final boolean execute = options.getMachineParallel() && !options.getTraceBinary()
+				&& options.getProfileFileName().length() == 0;
+		final InputStream input = execute ? new ByteArrayInputStream(new byte[0]) : context.getInput();
+		int threads = Math.min(options.getCompileJobs(), sourceFileNames.size());
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		List<Future<BufferedRun>> futures = new ArrayList<Future<BufferedRun>>();
+		// One machine executes the programs in order, so its reader keeps
+		// what it has buffered of the input from one program to the next
+		final BaseMachine machine = execute ? null
+				: createMachine(options, context.getErrors(), context.getOutput(), context.getInput());
+
+		try {
+			for (final String sourceFileName : sourceFileNames) {
+				futures.add(pool.submit(() -> {
+					BufferedRun run = new BufferedRun(context, input);
+
+					try {
+						if (compileProgram(run.context, run.machine, sourceFileName) && execute) {
+							executeProgram(run.context, run.machine);
+						}
+					} catch (ExitException e) {
+						run.exit = e;
+					}
+					return run;
+				}));
+			}
+
+			for (int i = 0; i < futures.size(); i++) {
+				BufferedRun run;
+
+				try {
+					run = futures.get(i).get();
+				} catch (java.util.concurrent.ExecutionException e) {
+					context.getErrors().println("Exception during compilation of " + sourceFileNames.get(i));
+					context.getErrors().println(e.getCause().getClass().getName() + ": " + e.getCause().getMessage());
+					e.getCause().printStackTrace(context.getErrors());
+					continue;
+				}
+				futures.set(i, null); // done with the machine
+
+				run.messages.replay(context.getOutput(), context.getErrors());
+				if (run.exit != null) {
+					throw run.exit;
+				}
+
+				if (run.context.getErrorOccurred()) {
+					context.getErrors().println("Execution supressed due to errors during compilation");
+				} else if (!execute) {
+					// Execute the compiled program, reading the input of the run
+					machine.restore(run.machine.snapshot());
+					executeProgram(context, machine);
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			context.getErrors().println("Compilation interrupted. Processing Terminated");
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * The main driver for the system.
+	 *
+	 * @param argv
+	 *            an array of strings containing command line arguments.
+	 */
+	public static void main(String argv[]) {
+		int status = run(argv, System.in, System.out, System.err);
+
+		if (status != 0) {
+			System.exit(status);
+		}
+	}
+
+	/** Trace the compile cache totals, if requested. */
+	private static void traceCacheStats(CompilationContext context) {
+		if (context.getOptions().getTraceStats() && context.getCache() != null) {
+			context.getConsole().println(context.getCache());
+		}
 	}
 }
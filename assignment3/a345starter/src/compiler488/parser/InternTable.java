@@ -0,0 +1,190 @@
+package compiler488.parser;
+
+import java.util.Arrays;
+
+/**
+ * Interns the identifiers or text constants of one compilation: each
+ * distinct string is allocated once, the first time the lexer sees it, and
+ * given a dense id counting up from 0 in order of first appearance.
+ * Strings interned by one table can be compared by reference or by id.
+ *
+ * Lookups go straight from the characters in the lexer's buffer, so
+ * a string already in the table costs no allocation. The identifiers of a
+ * compilation are in the table of its CompilationContext, shared by the
+ * lexer and the symbol table, which keys its bindings on the ids. A table
+ * belongs to one compilation at a time and is not thread safe.
+ */
+public class InternTable {
+	/** Initial number of slots; a power of two. */
+	private static final int INITIAL_CAPACITY = 256;
+
+	/** Id plus one of the string in each slot, probed linearly; 0 if empty. */
+	private int[] slots = new int[INITIAL_CAPACITY];
+
+	/** Strings by id. */
+	private String[] strings = new String[INITIAL_CAPACITY / 2];
+
+	/** Hashes of the strings by id. */
+	private int[] hashes = new int[INITIAL_CAPACITY / 2];
+
+	/** Number of strings. */
+	private int size = 0;
+
+	/**
+	 * Intern the characters in part of a buffer.
+	 *
+	 * @param buffer
+	 *            the buffer
+	 * @param start
+	 *            index of the first character
+	 * @param length
+	 *            number of characters
+	 * @return id of the string
+	 */
+	public int internId(char[] buffer, int start, int length) {
+		int hash = 0;
+
+		for (int i = start; i < start + length; i++) {
+			hash = 31 * hash + buffer[i];
+		}
+
+		int mask = slots.length - 1;
+		int slot = mix(hash) & mask;
+		int entry;
+
+		while ((entry = slots[slot]) != 0) {
+			int id = entry - 1;
+
+			if (hashes[id] == hash && matches(strings[id], buffer, start, length)) {
+				return id;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		return add(new String(buffer, start, length), hash, slot);
+	}
+
+	/**
+	 * Intern the characters in part of a buffer.
+	 *
+	 * @return the string held by the table
+	 */
+	public String intern(char[] buffer, int start, int length) {
+		return strings[internId(buffer, start, length)];
+	}
+
+	/**
+	 * Intern a string.
+	 *
+	 * @return id of the string
+	 */
+	public int internId(String string) {
+		int hash = string.hashCode();
+		int slot = find(string, hash);
+
+		return slot < 0 ? add(string, hash, ~slot) : slots[slot] - 1;
+	}
+
+	/**
+	 * Intern a string.
+	 *
+	 * @return the string held by the table, which is this one if it is new
+	 */
+	public String intern(String string) {
+		return strings[internId(string)];
+	}
+
+	/**
+	 * The id of a string.
+	 *
+	 * @return the id, or -1 if the string has not been interned
+	 */
+	public int getId(String string) {
+		int slot = find(string, string.hashCode());
+
+		return slot < 0 ? -1 : slots[slot] - 1;
+	}
+
+	/** The string with an id. */
+	public String getString(int id) {
+		if (id < 0 || id >= size) {
+			throw new IndexOutOfBoundsException("Id: " + id + ", Size: " + size);
+		}
+		return strings[id];
+	}
+
+	/** Number of distinct strings interned; ids are below this. */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Find the slot of a string.
+	 *
+	 * @return the slot, or the complement of the empty slot where the string
+	 *         would go
+	 */
+	private int find(String string, int hash) {
+		int mask = slots.length - 1;
+		int slot = mix(hash) & mask;
+		int entry;
+
+		while ((entry = slots[slot]) != 0) {
+			String key = strings[entry - 1];
+
+			if (key == string || (hashes[entry - 1] == hash && key.equals(string))) {
+				return slot;
+			}
+			slot = (slot + 1) & mask;
+		}
+		return ~slot;
+	}
+
+	/** Add a new string in an empty slot, growing the table past half full. */
+	private int add(String string, int hash, int slot) {
+		if (size == strings.length) {
+			strings = Arrays.copyOf(strings, size * 2);
+			hashes = Arrays.copyOf(hashes, size * 2);
+		}
+		if ((size + 1) * 2 > slots.length) {
+			rehash(slots.length * 2);
+			slot = ~find(string, hash);
+		}
+
+		strings[size] = string;
+		hashes[size] = hash;
+		slots[slot] = ++size;
+		return size - 1;
+	}
+
+	/** Put every string in a new array of slots. */
+	private void rehash(int capacity) {
+		int mask = capacity - 1;
+
+		slots = new int[capacity];
+		for (int id = 0; id < size; id++) {
+			int slot = mix(hashes[id]) & mask;
+
+			while (slots[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			slots[slot] = id + 1;
+		}
+	}
+
+	private static boolean matches(String string, char[] buffer, int start, int length) {
+		if (string.length() != length) {
+			return false;
+		}
+		for (int i = 0; i < length; i++) {
+			if (string.charAt(i) != buffer[start + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private static int mix(int hash) {
+		return hash ^ (hash >>> 16);
+	}
+}
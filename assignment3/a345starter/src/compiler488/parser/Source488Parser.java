@@ -2,11 +2,28 @@ package compiler488.parser;
 
 import java_cup.runtime.Symbol;
 
+import compiler488.compiler.CompilationContext;
+
 public class Source488Parser extends BaseParser {
 	public String lastError;
 
-	public Source488Parser(Lexer lexer) {
+	/** the compilation, receiving the error messages */
+	private final CompilationContext context;
+
+	public Source488Parser(Lexer lexer, CompilationContext context) {
 		super(lexer);
+		this.context = context;
+	}
+
+	/**
+	 * Override the debug_message method so the trace of debug_parse goes to
+	 * the trace stream of the compilation.
+	 *
+	 * @param message
+	 *            trace message to print
+	 */
+	public void debug_message(String message) {
+		context.getTrace().println(message);
 	}
 
 	/**
@@ -46,7 +63,7 @@ public class Source488Parser extends BaseParser {
 		}
 
 		st += ": " + message;
-		System.err.println(st);
+		context.getErrors().println(st);
 		lastError = st;
 	}
 
@@ -0,0 +1,361 @@
+package compiler488.runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+
+import compiler488.runtime.verify.CodeVerifier;
+import compiler488.runtime.verify.VerificationProblem;
+
+/**
+ * BaseMachine: state and options shared by the implementations of the
+ * CSC488 pseudo machine, whatever their memory layout.
+ *
+ * Holds the input and output streams, the output buffer, the source of
+ * program input, the instruction counting registers, the source line table
+ * and the dump, trace and suppress options. Subclasses supply the memory, the registers and the
+ * instruction interpreter.
+ *
+ * @see MachineExecutor
+ * @see PagedMachine
+ */
+public abstract class BaseMachine implements Machine {
+	/**
+	 * Hardware executing flag, true while executing instructions.
+	 *
+	 * Set to false by runError and HALT instruction
+	 */
+	protected boolean executing;
+
+	/**
+	 * Hardware error flag. Set to true is an error occurred false at start of
+	 * execution, set to true only by runError.
+	 */
+	protected boolean errorOccurred;
+
+	/** Clean, printable input/output characters. */
+	protected final static int CHARMASK = 0x7F;
+
+	protected boolean tracingEnabled = false;
+
+	/** Receives the execution trace as binary records, or null for text. */
+	protected TraceBuffer traceBuffer = null;
+
+	/** Collects the execution profile, or null when not profiling. */
+	protected MachineProfile profile = null;
+
+	/** Stream receiving a dump of the code area before execution, or null. */
+	protected PrintStream dumpStream = null;
+
+	/** True if run() stops after the optional code dump. */
+	protected boolean executionSuppressed = false;
+
+	/** True if run() verifies the code area before execution. */
+	protected boolean codeCheckEnabled = false;
+
+	/** File to read program input from, or null to read machineInput. */
+	protected File inputFile = null;
+
+	/**
+	 * Source line of the code at each address, for runtime errors and
+	 * profiles. Once handed to a snapshot or a caller it is shared and never
+	 * written again; addSourceLine copies it first.
+	 */
+	private LineTable sourceLines = new LineTable();
+
+	/** True if sourceLines is shared and must be copied before writing. */
+	private boolean sourceLinesShared = false;
+
+	/** Source for all READ instructions during execution. */
+	protected BufferedTextReader inputSource;
+
+	/**
+	 * Reader for machineInput, kept from run to run so that input it has
+	 * buffered is not lost.
+	 */
+	private BufferedTextReader streamInput;
+
+	/** Instruction counting registers, set by the ILIMIT instruction. */
+	protected boolean counting; // count instructions to limit execution
+	protected long iCount; // count of instructions executed
+	protected long retiredInstructions; // executed before the last ILIMIT
+	protected int iLimit; // instruction execution limit
+
+	/**
+	 * The stream where machine output (i.e. from PRINTC and PRINTI
+	 * instructions) is sent.
+	 */
+	protected PrintStream machineOutput;
+
+	/** Buffer between PRINTC/PRINTI and machineOutput. */
+	protected OutputBuffer outputBuffer;
+
+	/** The stream where status output regarding execution is sent. */
+	protected PrintStream statusOutput;
+
+	/**
+	 * The stream where machine input (i.e. from the READI instruction) is drawn
+	 * from.
+	 */
+	protected InputStream machineInput;
+
+	protected BaseMachine(PrintStream statusOutput, PrintStream machineOutput, InputStream machineInput) {
+		this.statusOutput = statusOutput;
+		this.machineOutput = machineOutput;
+		this.outputBuffer = new OutputBuffer(machineOutput, OutputBuffer.DEFAULT_THRESHOLD);
+		this.machineInput = machineInput;
+	}
+
+	public boolean getTracingEnabled() {
+		return tracingEnabled;
+	}
+
+	public void setTracingEnabled(boolean tracingEnabled) {
+		this.tracingEnabled = tracingEnabled;
+	}
+
+	/**
+	 * Record the execution trace in a trace buffer instead of printing it.
+	 * TraceDecoder turns the records back into the text trace.
+	 *
+	 * @param traceBuffer
+	 *            the trace buffer, or null to print the trace
+	 */
+	public void setTraceBuffer(TraceBuffer traceBuffer) {
+		this.traceBuffer = traceBuffer;
+	}
+
+	public int getOutputBufferSize() {
+		return outputBuffer.getThreshold();
+	}
+
+	/**
+	 * Set how many bytes of PRINTC/PRINTI output are collected before they
+	 * are written to the machine output stream. Output is always written
+	 * when execution stops, before input is read and before status or
+	 * trace output.
+	 *
+	 * @param size
+	 *            buffer size in bytes, 1 to write every character at once
+	 */
+	public void setOutputBufferSize(int size) {
+		outputBuffer.flush();
+		outputBuffer = new OutputBuffer(machineOutput, size);
+	}
+
+	/**
+	 * Read program input from a file instead of machineInput. A regular file
+	 * is memory mapped.
+	 *
+	 * @param inputFile
+	 *            the input file, or null to read machineInput
+	 */
+	public void setInputFile(File inputFile) {
+		this.inputFile = inputFile;
+	}
+
+	/**
+	 * Open the source of input for a run: the input file if one has been
+	 * set and can be opened, otherwise machineInput.
+	 *
+	 * @return the reader
+	 */
+	protected BufferedTextReader openInput() {
+		if (inputFile != null) {
+			try {
+				return BufferedTextReader.open(inputFile);
+			} catch (IOException e) {
+				statusOutput.println("Unable to open input file " + inputFile + ", using standard input");
+				statusOutput.println(e.getClass().getName() + ": " + e.getMessage());
+			}
+		}
+
+		if (streamInput == null) {
+			streamInput = new BufferedTextReader(machineInput);
+		}
+		return streamInput;
+	}
+
+	/**
+	 * Close the source of input at the end of a run, unless it is the reader
+	 * for machineInput.
+	 */
+	protected void closeInput() {
+		if (inputSource != streamInput) {
+			inputSource.close();
+		}
+	}
+
+	public MachineProfile getProfile() {
+		return profile;
+	}
+
+	/**
+	 * Profile execution. Profiling runs every instruction through the
+	 * interpreter, as tracing does.
+	 *
+	 * @param profile
+	 *            profile to add the counts of each run to, or null
+	 */
+	public void setProfile(MachineProfile profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * Dump the code area before each run.
+	 *
+	 * @param dumpStream
+	 *            stream receiving the dump, or null for no dump
+	 */
+	public void setDumpStream(PrintStream dumpStream) {
+		this.dumpStream = dumpStream;
+	}
+
+	public boolean getExecutionSuppressed() {
+		return executionSuppressed;
+	}
+
+	/**
+	 * Suppress execution: run() only produces the optional code dump.
+	 *
+	 * @param executionSuppressed
+	 *            true to suppress execution
+	 */
+	public void setExecutionSuppressed(boolean executionSuppressed) {
+		this.executionSuppressed = executionSuppressed;
+	}
+
+	public boolean getCodeCheckEnabled() {
+		return codeCheckEnabled;
+	}
+
+	/**
+	 * Verify the code area before each run, after the optional code dump,
+	 * and refuse to run code with errors.
+	 *
+	 * @param codeCheckEnabled
+	 *            true to verify the code
+	 * @see CodeVerifier
+	 */
+	public void setCodeCheckEnabled(boolean codeCheckEnabled) {
+		this.codeCheckEnabled = codeCheckEnabled;
+	}
+
+	/**
+	 * Verify a code area, printing the errors and warnings found on the
+	 * status output.
+	 *
+	 * @param code
+	 *            copy of <code>memory[ 0 .. startMSP - 1 ]</code>
+	 * @param startPC
+	 *            address execution starts at
+	 * @throws ExecutionException
+	 *             the code has errors
+	 */
+	protected void checkCode(int[] code, int startPC) throws ExecutionException {
+		CodeVerifier verifier = new CodeVerifier(code, startPC);
+
+		for (VerificationProblem problem : verifier.getProblems()) {
+			statusOutput.println(problem);
+		}
+
+		if (verifier.hasErrors()) {
+			statusOutput.println("Execution refused: the code failed verification.\n");
+			throw new ExecutionException("  Code verification failed");
+		}
+	}
+
+	public void addSourceLine(int addr, int line) {
+		if (sourceLinesShared) {
+			sourceLines = new LineTable(sourceLines);
+			sourceLinesShared = false;
+		}
+		sourceLines.add(addr, line);
+	}
+
+	/**
+	 * Source line of the code at an address.
+	 *
+	 * @param addr
+	 *            code address
+	 * @return the line, or -1 if code generation recorded none
+	 */
+	public int getSourceLine(int addr) {
+		return sourceLines.getLine(addr);
+	}
+
+	/** @return the source line table, which no longer changes */
+	public LineTable getSourceLines() {
+		return shareSourceLines();
+	}
+
+	/** Share the source line table, for a snapshot or a caller. */
+	protected LineTable shareSourceLines() {
+		sourceLinesShared = true;
+		return sourceLines;
+	}
+
+	/** Use a source line table shared with a snapshot or object file. */
+	protected void useSourceLines(LineTable lines) {
+		sourceLines = lines;
+		sourceLinesShared = true;
+	}
+
+	/** Start an empty source line table, as reset() does. */
+	protected void clearSourceLines() {
+		sourceLines = new LineTable();
+		sourceLinesShared = false;
+	}
+
+	/**
+	 * Describe the source line of an address for a message.
+	 *
+	 * @return prefix, line and suffix, or "" if the line is not known
+	 */
+	protected String sourceLineOf(int addr, String prefix, String suffix) {
+		int line = sourceLines.getLine(addr);
+
+		return line < 0 ? "" : prefix + line + suffix;
+	}
+
+	/**
+	 * Reset the machine and load a compiled program: its code area and
+	 * initial registers.
+	 *
+	 * @param object
+	 *            the program
+	 * @throws IOException
+	 *             the program does not fit this machine
+	 * @see ObjectFile#load(BaseMachine)
+	 */
+	abstract void loadObject(ObjectFile object) throws IOException;
+
+	/**
+	 * Number of instructions the last run executed, up to and including the
+	 * one that stopped it.
+	 *
+	 * @return dynamic instruction count
+	 */
+	public long getInstructionCount() {
+		return retiredInstructions + iCount;
+	}
+
+	protected final static String Blanks = new String("                                           ");
+
+	/**
+	 * Pad string by appending blanks to specified size. <BR>
+	 * Does nothing if toPad is already longer than toSize.
+         * Assumes value of toSize is less than length of Blanks
+	 *
+	 * @param toPad
+	 *            string to be padded with blanks
+	 * @param toSize
+	 *            desired length of blank padded string
+	 */
+	protected static void padString(StringBuffer toPad, int toSize) {
+		if (toPad.length() < toSize && toSize - toPad.length() < Blanks.length() )
+			toPad.append(Blanks.substring(0, toSize - toPad.length()));
+		return;
+	}
+}
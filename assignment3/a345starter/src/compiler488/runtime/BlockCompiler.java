@@ -0,0 +1,942 @@
+package compiler488.runtime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.lang.invoke.MethodHandles;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * BlockCompiler: translates a basic block of decoded Machine code into a JVM
+ * class implementing <code>JitMachine.CompiledBlock</code>.
+ *
+ * <pre>
+ *  A block starts at the requested address and extends over the decoded
+ *  instructions that follow it, up to and including the first BR, BF or
+ *  POPN.  It stops early in front of any instruction the compiler does not
+ *  handle (HALT, DUPN, READC, READI, TRON, TROFF, ILIMIT, ADDR and SETD
+ *  with a bad display index, illegal or undecoded words).
+ *
+ *  The generated code works directly on machine memory, performing exactly
+ *  the memory writes the interpreter would, with stack offsets resolved at
+ *  compile time.  Every check the interpreter makes is kept:
+ *
+ *    - the run stack bounds checked before each instruction are checked
+ *      once on block entry, using the lowest and highest stack depth the
+ *      block reaches;
+ *    - address, UNDEFINED, overflow and operand checks stay in place.
+ *
+ *  Stack bounds are checked against stackLimit rather than mlp, and a STORE
+ *  to a page not yet marked dirty leaves the block, so every write the
+ *  block makes is to a page reset() already knows about.
+ *
+ *  Whenever a check would fail, the block sets pc and msp to the start of
+ *  the offending instruction and returns 0 without executing it, so that
+ *  the interpreter executes it and reports the error exactly as usual.
+ * </pre>
+ *
+ * The class files are assembled by hand (version 49, so no stack map frames
+ * are required) and defined as hidden classes of this package.
+ */
+final class BlockCompiler {
+	/**
+	 * Longest block compiled, in instructions. Keeps every jump in the
+	 * generated code within a 16 bit offset.
+	 */
+	static final int MAX_BLOCK_LENGTH = 256;
+
+	// Internal names used by the generated code
+	private static final String BLOCK_CLASS = "compiler488/runtime/JitBlock";
+	private static final String BLOCK_INTERFACE = "compiler488/runtime/JitMachine$CompiledBlock";
+	private static final String MACHINE_CLASS = "compiler488/runtime/MachineExecutor";
+	private static final String OUTPUT_BUFFER_CLASS = "compiler488/runtime/OutputBuffer";
+	private static final String OUTPUT_BUFFER_DESCRIPTOR = "L" + OUTPUT_BUFFER_CLASS + ";";
+	private static final String EXECUTE_DESCRIPTOR = "(Lcompiler488/runtime/JitMachine;)I";
+
+	// Local variables of the generated execute method
+	private static final int MACHINE = 1; // the JitMachine
+	private static final int MEMORY = 2; // machine memory
+	private static final int SP = 3; // msp on entry to the block
+	private static final int TEMP1 = 4;
+	private static final int TEMP2 = 5;
+
+	/** Lookup used to define the block classes in this package. */
+	private final MethodHandles.Lookup lookup = MethodHandles.lookup();
+
+	/**
+	 * Compile the block starting at <code>addr</code>.
+	 *
+	 * @param code
+	 *            decoded code area
+	 * @param addr
+	 *            address of the first instruction of the block
+	 * @return the compiled block, or <code>null</code> if the instruction at
+	 *         <code>addr</code> cannot be compiled or the JVM rejects the
+	 *         generated class
+	 */
+	JitMachine.CompiledBlock compile(DecodedProgram code, int addr) {
+		int[] pcs = new int[MAX_BLOCK_LENGTH];
+		int[] depths = new int[MAX_BLOCK_LENGTH];
+		int count = 0;
+		int depth = 0;
+		int next = addr;
+		boolean terminated = false;
+
+		// Find the extent of the block and the stack depth before each
+		// instruction, relative to msp on entry
+		while (count < MAX_BLOCK_LENGTH && isCompilable(code, next)) {
+			short opCode = code.opCodes[next];
+
+			pcs[count] = next;
+			depths[count] = depth;
+			count++;
+			depth += stackEffect(opCode);
+
+			if (opCode == Machine.BR || opCode == Machine.BF || opCode == Machine.POPN) {
+				terminated = true;
+				break;
+			}
+
+			next += code.lengths[next];
+		}
+
+		if (count == 0) {
+			return null;
+		}
+
+		try {
+			byte[] classFile = assemble(code, pcs, depths, count, terminated ? -1 : next, depth);
+			Class<?> blockClass = lookup.defineHiddenClass(classFile, true).lookupClass();
+
+			return (JitMachine.CompiledBlock) blockClass.getDeclaredConstructor().newInstance();
+		} catch (ReflectiveOperationException e) {
+			return null;
+		} catch (LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Test whether the instruction at an address can be part of a block.
+	 *
+	 * @param code
+	 *            decoded code area
+	 * @param addr
+	 *            address of the instruction
+	 * @return true iff the instruction can be compiled
+	 */
+	private static boolean isCompilable(DecodedProgram code, int addr) {
+		if (addr >= code.limit || code.lengths[addr] == DecodedProgram.UNDECODED) {
+			return false;
+		}
+
+		switch (code.opCodes[addr]) {
+		case Machine.ADDR:
+		case Machine.SETD:
+			return 0 <= code.operand1[addr] && code.operand1[addr] < Machine.DISPLAY_SIZE;
+
+		case Machine.LOAD:
+		case Machine.STORE:
+		case Machine.PUSH:
+		case Machine.PUSHMT:
+		case Machine.POP:
+		case Machine.POPN:
+		case Machine.DUP:
+		case Machine.BR:
+		case Machine.BF:
+		case Machine.NEG:
+		case Machine.ADD:
+		case Machine.SUB:
+		case Machine.MUL:
+		case Machine.DIV:
+		case Machine.EQ:
+		case Machine.LT:
+		case Machine.OR:
+		case Machine.SWAP:
+		case Machine.PRINTC:
+		case Machine.PRINTI:
+			return true;
+
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Change in stack depth made by a compilable instruction. POPN ends its
+	 * block, so its dynamic effect is never needed.
+	 *
+	 * @param opCode
+	 *            instruction code
+	 * @return words pushed minus words popped
+	 */
+	private static int stackEffect(short opCode) {
+		switch (opCode) {
+		case Machine.ADDR:
+		case Machine.PUSH:
+		case Machine.PUSHMT:
+		case Machine.DUP:
+			return 1;
+
+		case Machine.SETD:
+		case Machine.POP:
+		case Machine.BR:
+		case Machine.ADD:
+		case Machine.SUB:
+		case Machine.MUL:
+		case Machine.DIV:
+		case Machine.EQ:
+		case Machine.LT:
+		case Machine.OR:
+		case Machine.PRINTC:
+		case Machine.PRINTI:
+			return -1;
+
+		case Machine.STORE:
+		case Machine.BF:
+			return -2;
+
+		default:
+			return 0;
+		}
+	}
+
+	/**
+	 * Assemble the class file for a block.
+	 *
+	 * @param code
+	 *            decoded code area
+	 * @param pcs
+	 *            address of each instruction in the block
+	 * @param depths
+	 *            stack depth before each instruction
+	 * @param count
+	 *            number of instructions in the block
+	 * @param fallThrough
+	 *            address execution continues at after the block, or -1 if
+	 *            the block ends in a branch or POPN
+	 * @param endDepth
+	 *            stack depth after the block, if it falls through
+	 * @return the class file
+	 */
+	private byte[] assemble(DecodedProgram code, int[] pcs, int[] depths, int count, int fallThrough, int endDepth) {
+		ConstantPool pool = new ConstantPool();
+		Bytecode c = new Bytecode(pool, count);
+
+		int minDepth = 0;
+		int maxDepth = 0;
+
+		for (int i = 0; i < count; i++) {
+			minDepth = Math.min(minDepth, depths[i]);
+			maxDepth = Math.max(maxDepth, depths[i]);
+		}
+
+		// short[] memory = machine.memory; int sp = machine.msp;
+		c.op(ALOAD, MACHINE);
+		c.getField("memory", "[S");
+		c.op(ASTORE, MEMORY);
+		c.op(ALOAD, MACHINE);
+		c.getField("msp", "S");
+		c.op(ISTORE, SP);
+
+		// Stack bounds for every instruction of the block
+		c.spPlus(minDepth);
+		c.op(ALOAD, MACHINE);
+		c.getField("bottomOfStack", "S");
+		c.jump(IF_ICMPLT, c.bail(0));
+		c.spPlus(maxDepth);
+		c.op(ALOAD, MACHINE);
+		c.getField("stackLimit", "S");
+		c.jump(IF_ICMPGE, c.bail(0));
+
+		for (int i = 0; i < count; i++) {
+			compileInstruction(c, code, pcs[i], depths[i], i);
+		}
+
+		if (fallThrough >= 0) {
+			c.exit(endDepth, fallThrough, count);
+		}
+
+		// Bail out points: resume in the interpreter at instruction i
+		for (int i = 0; i < count; i++) {
+			if (c.bails[i] != null) {
+				c.mark(c.bails[i]);
+
+				if (i > 0) {
+					c.setRegister("msp", depths[i]);
+					c.op(ALOAD, MACHINE);
+					c.constant(pcs[i]);
+					c.setField("pc", "S");
+					c.countInstructions(i);
+				}
+
+				c.op(ICONST_0);
+				c.op(IRETURN);
+			}
+		}
+
+		return pool.classFile(c);
+	}
+
+	/**
+	 * Generate the code for one instruction.
+	 *
+	 * @param c
+	 *            code being generated
+	 * @param code
+	 *            decoded code area
+	 * @param pc
+	 *            address of the instruction
+	 * @param d
+	 *            stack depth before the instruction
+	 * @param i
+	 *            index of the instruction in the block
+	 */
+	private void compileInstruction(Bytecode c, DecodedProgram code, int pc, int d, int i) {
+		int ll;
+		Label skip, done;
+
+		switch (code.opCodes[pc]) {
+		// ADDR LL ON: push display[LL] + ON
+		case Machine.ADDR:
+			c.slotAddress(d);
+			c.getDisplay();
+			c.constant(code.operand1[pc]);
+			c.op(IALOAD);
+			c.constant(code.operand2[pc]);
+			c.op(IADD);
+			c.op(I2S);
+			c.op(SASTORE);
+			break;
+
+		// LOAD: replace the top of stack address by its contents
+		case Machine.LOAD:
+			c.loadSlot(d - 1);
+			c.op(ISTORE, TEMP1);
+			c.op(ILOAD, TEMP1);
+			c.jump(IFLT, c.bail(i));
+			c.op(ILOAD, TEMP1);
+			c.constant(Machine.MEMORY_SIZE);
+			c.jump(IF_ICMPGE, c.bail(i));
+			c.op(ALOAD, MEMORY);
+			c.op(ILOAD, TEMP1);
+			c.op(SALOAD);
+			c.op(ISTORE, TEMP2);
+			c.op(ILOAD, TEMP2);
+			c.constant(Machine.UNDEFINED);
+			c.jump(IF_ICMPEQ, c.bail(i));
+			c.slotAddress(d - 1);
+			c.op(ILOAD, TEMP2);
+			c.op(SASTORE);
+			break;
+
+		// STORE: memory[next to top] = top
+		case Machine.STORE:
+			c.loadSlot(d - 2);
+			c.op(ISTORE, TEMP1);
+			c.op(ILOAD, TEMP1);
+			c.op(ALOAD, MACHINE);
+			c.getField("bottomOfStack", "S");
+			c.op(ICONST_1);
+			c.op(ISUB);
+			c.jump(IF_ICMPLT, c.bail(i));
+			c.op(ILOAD, TEMP1);
+			c.constant(Machine.MEMORY_SIZE - 1);
+			c.jump(IF_ICMPGT, c.bail(i));
+			// Stores to a page not yet marked dirty are left to the
+			// interpreter, which marks it
+			c.op(ALOAD, MACHINE);
+			c.getField("dirtyPages", "J");
+			c.op(ILOAD, TEMP1);
+			c.constant(MachineExecutor.DIRTY_PAGE_SHIFT);
+			c.op(ISHR);
+			c.op(LUSHR);
+			c.op(L2I);
+			c.op(ICONST_1);
+			c.op(IAND);
+			c.jump(IFEQ, c.bail(i));
+			c.op(ALOAD, MEMORY);
+			c.op(ILOAD, TEMP1);
+			c.loadSlot(d - 1);
+			c.op(SASTORE);
+			break;
+
+		case Machine.PUSH:
+			c.slotAddress(d);
+			c.constant(code.operand1[pc]);
+			c.op(SASTORE);
+			break;
+
+		case Machine.PUSHMT:
+			c.slotAddress(d);
+			c.spPlus(d);
+			c.op(I2S);
+			c.op(SASTORE);
+			break;
+
+		// SETD LL: display[LL] = top
+		case Machine.SETD:
+			ll = code.operand1[pc];
+			skip = c.label();
+			done = c.label();
+			c.loadSlot(d - 1);
+			c.op(ISTORE, TEMP1);
+			c.op(ILOAD, TEMP1);
+			c.constant(Machine.MIN_INTEGER);
+			c.jump(IF_ICMPEQ, skip);
+			c.op(ILOAD, TEMP1);
+			c.op(ALOAD, MACHINE);
+			c.getField("bottomOfStack", "S");
+			c.jump(IF_ICMPLT, c.bail(i));
+			c.op(ILOAD, TEMP1);
+			c.op(ALOAD, MACHINE);
+			c.getField("mlp", "S");
+			c.jump(IF_ICMPGT, c.bail(i));
+			c.mark(skip);
+			c.op(ALOAD, MACHINE);
+			c.getField("displayMax", "I");
+			c.constant(ll);
+			c.jump(IF_ICMPGE, done);
+			c.op(ALOAD, MACHINE);
+			c.constant(ll);
+			c.setField("displayMax", "I");
+			c.mark(done);
+			c.getDisplay();
+			c.constant(ll);
+			c.op(ILOAD, TEMP1);
+			c.op(IASTORE);
+			break;
+
+		case Machine.POP:
+			break;
+
+		// POPN: ends the block, the new msp is only known at run time
+		case Machine.POPN:
+			c.op(ALOAD, MACHINE);
+			c.spPlus(d - 1);
+			c.loadSlot(d - 1);
+			c.op(ISUB);
+			c.op(I2S);
+			c.setField("msp", "S");
+			c.exitPC(pc + 1, i + 1);
+			break;
+
+		case Machine.DUP:
+			c.slotAddress(d);
+			c.loadSlot(d - 1);
+			c.op(SASTORE);
+			break;
+
+		// BR: ends the block
+		case Machine.BR:
+			c.setRegister("msp", d - 1);
+			c.op(ALOAD, MACHINE);
+			c.loadSlot(d - 1);
+			c.setField("pc", "S");
+			c.countInstructions(i + 1);
+			c.op(ICONST_1);
+			c.op(IRETURN);
+			break;
+
+		// BF: ends the block
+		case Machine.BF:
+			skip = c.label();
+			c.setRegister("msp", d - 2);
+			c.loadSlot(d - 2);
+			c.jump(IFNE, skip);
+			c.op(ALOAD, MACHINE);
+			c.loadSlot(d - 1);
+			c.setField("pc", "S");
+			c.countInstructions(i + 1);
+			c.op(ICONST_1);
+			c.op(IRETURN);
+			c.mark(skip);
+			c.exitPC(pc + 1, i + 1);
+			break;
+
+		case Machine.NEG:
+			c.loadSlot(d - 1);
+			c.op(ISTORE, TEMP1);
+			c.op(ILOAD, TEMP1);
+			c.constant(Machine.UNDEFINED);
+			c.jump(IF_ICMPEQ, c.bail(i));
+			c.slotAddress(d - 1);
+			c.op(ILOAD, TEMP1);
+			c.op(INEG);
+			c.op(I2S);
+			c.op(SASTORE);
+			break;
+
+		case Machine.ADD:
+			compileArithmetic(c, IADD, d, i);
+			break;
+
+		case Machine.SUB:
+			compileArithmetic(c, ISUB, d, i);
+			break;
+
+		case Machine.MUL:
+			compileArithmetic(c, IMUL, d, i);
+			break;
+
+		case Machine.DIV:
+			c.loadSlot(d - 1);
+			c.op(ISTORE, TEMP2);
+			c.op(ILOAD, TEMP2);
+			c.jump(IFEQ, c.bail(i));
+			c.loadSlot(d - 2);
+			c.op(ILOAD, TEMP2);
+			c.op(IDIV);
+			c.op(ISTORE, TEMP1);
+			compileRangeCheck(c, d, i);
+			break;
+
+		case Machine.EQ:
+			compileComparison(c, IF_ICMPNE, d);
+			break;
+
+		case Machine.LT:
+			compileComparison(c, IF_ICMPGE, d);
+			break;
+
+		// OR: both operands must be MACHINE_FALSE or MACHINE_TRUE
+		case Machine.OR:
+			c.loadSlot(d - 2);
+			c.op(ISTORE, TEMP1);
+			c.loadSlot(d - 1);
+			c.op(ISTORE, TEMP2);
+			c.op(ILOAD, TEMP1);
+			c.jump(IFLT, c.bail(i));
+			c.op(ILOAD, TEMP1);
+			c.op(ICONST_1);
+			c.jump(IF_ICMPGT, c.bail(i));
+			c.op(ILOAD, TEMP2);
+			c.jump(IFLT, c.bail(i));
+			c.op(ILOAD, TEMP2);
+			c.op(ICONST_1);
+			c.jump(IF_ICMPGT, c.bail(i));
+			c.slotAddress(d - 2);
+			c.op(ILOAD, TEMP1);
+			c.op(ILOAD, TEMP2);
+			c.op(IOR);
+			c.op(SASTORE);
+			break;
+
+		case Machine.SWAP:
+			c.loadSlot(d - 2);
+			c.op(ISTORE, TEMP1);
+			c.slotAddress(d - 2);
+			c.loadSlot(d - 1);
+			c.op(SASTORE);
+			c.slotAddress(d - 1);
+			c.op(ILOAD, TEMP1);
+			c.op(SASTORE);
+			break;
+
+		case Machine.PRINTC:
+			c.op(ALOAD, MACHINE);
+			c.getField("outputBuffer", OUTPUT_BUFFER_DESCRIPTOR);
+			c.loadSlot(d - 1);
+			c.constant(MachineExecutor.CHARMASK);
+			c.op(IAND);
+			c.invokeOutput("printChar");
+			break;
+
+		case Machine.PRINTI:
+			c.op(ALOAD, MACHINE);
+			c.getField("outputBuffer", OUTPUT_BUFFER_DESCRIPTOR);
+			c.loadSlot(d - 1);
+			c.invokeOutput("printInt");
+			break;
+
+		default:
+			throw new IllegalStateException("not compilable: " + code.opCodes[pc]);
+		}
+	}
+
+	/**
+	 * ADD, SUB, MUL: combine the top two stack words with a range check.
+	 */
+	private void compileArithmetic(Bytecode c, int operator, int d, int i) {
+		c.loadSlot(d - 2);
+		c.loadSlot(d - 1);
+		c.op(operator);
+		c.op(ISTORE, TEMP1);
+		compileRangeCheck(c, d, i);
+	}
+
+	/**
+	 * Check the result in TEMP1 against the machine integer range and store
+	 * it as the new top of stack.
+	 */
+	private void compileRangeCheck(Bytecode c, int d, int i) {
+		c.op(ILOAD, TEMP1);
+		c.constant(Machine.MIN_INTEGER);
+		c.jump(IF_ICMPLT, c.bail(i));
+		c.op(ILOAD, TEMP1);
+		c.constant(Machine.MAX_INTEGER);
+		c.jump(IF_ICMPGT, c.bail(i));
+		c.slotAddress(d - 2);
+		c.op(ILOAD, TEMP1);
+		c.op(I2S);
+		c.op(SASTORE);
+	}
+
+	/**
+	 * EQ, LT: replace the top two stack words by MACHINE_TRUE or
+	 * MACHINE_FALSE.
+	 *
+	 * @param falseJump
+	 *            comparison that is true when the result is MACHINE_FALSE
+	 */
+	private void compileComparison(Bytecode c, int falseJump, int d) {
+		Label isFalse = c.label();
+		Label done = c.label();
+
+		c.slotAddress(d - 2);
+		c.loadSlot(d - 2);
+		c.loadSlot(d - 1);
+		c.jump(falseJump, isFalse);
+		c.constant(Machine.MACHINE_TRUE);
+		c.jump(GOTO, done);
+		c.mark(isFalse);
+		c.constant(Machine.MACHINE_FALSE);
+		c.mark(done);
+		c.op(SASTORE);
+	}
+
+	// JVM instruction codes used by the generated code
+	private static final int ICONST_0 = 0x03;
+	private static final int ICONST_1 = 0x04;
+	private static final int BIPUSH = 0x10;
+	private static final int SIPUSH = 0x11;
+	private static final int LDC_W = 0x13;
+	private static final int ILOAD = 0x15;
+	private static final int ALOAD = 0x19;
+	private static final int IALOAD = 0x2e;
+	private static final int SALOAD = 0x35;
+	private static final int ISTORE = 0x36;
+	private static final int ASTORE = 0x3a;
+	private static final int IASTORE = 0x4f;
+	private static final int SASTORE = 0x56;
+	private static final int DUP = 0x59;
+	private static final int IADD = 0x60;
+	private static final int LADD = 0x61;
+	private static final int ISUB = 0x64;
+	private static final int IMUL = 0x68;
+	private static final int IDIV = 0x6c;
+	private static final int INEG = 0x74;
+	private static final int ISHR = 0x7a;
+	private static final int LUSHR = 0x7d;
+	private static final int IAND = 0x7e;
+	private static final int IOR = 0x80;
+	private static final int I2L = 0x85;
+	private static final int L2I = 0x88;
+	private static final int I2S = 0x93;
+	private static final int IFEQ = 0x99;
+	private static final int IFNE = 0x9a;
+	private static final int IFLT = 0x9b;
+	private static final int IF_ICMPEQ = 0x9f;
+	private static final int IF_ICMPNE = 0xa0;
+	private static final int IF_ICMPLT = 0xa1;
+	private static final int IF_ICMPGE = 0xa2;
+	private static final int IF_ICMPGT = 0xa3;
+	private static final int GOTO = 0xa7;
+	private static final int IRETURN = 0xac;
+	private static final int RETURN = 0xb1;
+	private static final int GETFIELD = 0xb4;
+	private static final int PUTFIELD = 0xb5;
+	private static final int INVOKEVIRTUAL = 0xb6;
+	private static final int INVOKESPECIAL = 0xb7;
+
+	/** A jump target in the generated code. */
+	private static final class Label {
+		/** Offset of the target, -1 until marked. */
+		int position = -1;
+
+		/** Offsets of the jump instructions that refer to this label. */
+		final List<Integer> jumps = new ArrayList<Integer>();
+	}
+
+	/** The code of the generated execute method. */
+	private static final class Bytecode {
+		private final ConstantPool pool;
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final List<Label> labels = new ArrayList<Label>();
+
+		/** Bail out label for each instruction of the block (if used). */
+		final Label[] bails;
+
+		Bytecode(ConstantPool pool, int count) {
+			this.pool = pool;
+			bails = new Label[count];
+		}
+
+		void op(int opCode) {
+			bytes.write(opCode);
+		}
+
+		void op(int opCode, int local) {
+			bytes.write(opCode);
+			bytes.write(local);
+		}
+
+		void u2(int value) {
+			bytes.write(value >> 8);
+			bytes.write(value);
+		}
+
+		/** Push an integer constant. */
+		void constant(int value) {
+			if (-1 <= value && value <= 5) {
+				op(ICONST_0 + value);
+			} else if (Byte.MIN_VALUE <= value && value <= Byte.MAX_VALUE) {
+				op(BIPUSH);
+				op(value & 0xff);
+			} else if (Short.MIN_VALUE <= value && value <= Short.MAX_VALUE) {
+				op(SIPUSH);
+				u2(value);
+			} else {
+				op(LDC_W);
+				u2(pool.integer(value));
+			}
+		}
+
+		/** Push sp + offset. */
+		void spPlus(int offset) {
+			op(ILOAD, SP);
+			if (offset != 0) {
+				constant(offset);
+				op(IADD);
+			}
+		}
+
+		/** Push memory and the index of stack slot sp + offset. */
+		void slotAddress(int offset) {
+			op(ALOAD, MEMORY);
+			spPlus(offset);
+		}
+
+		/** Push the contents of stack slot sp + offset. */
+		void loadSlot(int offset) {
+			slotAddress(offset);
+			op(SALOAD);
+		}
+
+		void getField(String name, String descriptor) {
+			op(GETFIELD);
+			u2(pool.field(MACHINE_CLASS, name, descriptor));
+		}
+
+		void setField(String name, String descriptor) {
+			op(PUTFIELD);
+			u2(pool.field(MACHINE_CLASS, name, descriptor));
+		}
+
+		/** Push the display registers. */
+		void getDisplay() {
+			op(ALOAD, MACHINE);
+			getField("display", "[I");
+		}
+
+		void invokeOutput(String name) {
+			op(INVOKEVIRTUAL);
+			u2(pool.method(OUTPUT_BUFFER_CLASS, name, "(I)V"));
+		}
+
+		/** Set a short register of the machine to sp + offset. */
+		void setRegister(String name, int offset) {
+			op(ALOAD, MACHINE);
+			spPlus(offset);
+			op(I2S);
+			setField(name, "S");
+		}
+
+		/** Add the instructions executed by the block to the machine's count. */
+		void countInstructions(int executed) {
+			op(ALOAD, MACHINE);
+			op(DUP);
+			getField("iCount", "J");
+			constant(executed);
+			op(I2L);
+			op(LADD);
+			setField("iCount", "J");
+		}
+
+		/** Set pc, count the instructions executed and return 1 (block completed). */
+		void exitPC(int pc, int executed) {
+			op(ALOAD, MACHINE);
+			constant(pc);
+			setField("pc", "S");
+			countInstructions(executed);
+			op(ICONST_1);
+			op(IRETURN);
+		}
+
+		/** Set msp and pc, count the instructions executed and return 1. */
+		void exit(int depth, int pc, int executed) {
+			setRegister("msp", depth);
+			exitPC(pc, executed);
+		}
+
+		Label label() {
+			Label label = new Label();
+			labels.add(label);
+			return label;
+		}
+
+		Label bail(int i) {
+			if (bails[i] == null) {
+				bails[i] = label();
+			}
+			return bails[i];
+		}
+
+		void mark(Label label) {
+			label.position = bytes.size();
+		}
+
+		void jump(int opCode, Label target) {
+			target.jumps.add(bytes.size());
+			op(opCode);
+			u2(0); // patched by toByteArray
+		}
+
+		byte[] toByteArray() {
+			byte[] code = bytes.toByteArray();
+
+			for (Label label : labels) {
+				for (int at : label.jumps) {
+					int offset = label.position - at;
+					code[at + 1] = (byte) (offset >> 8);
+					code[at + 2] = (byte) offset;
+				}
+			}
+			return code;
+		}
+	}
+
+	/** Constant pool of a block class, and the class file around it. */
+	private static final class ConstantPool {
+		private final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		private final DataOutputStream out = new DataOutputStream(bytes);
+		private final Map<String, Integer> entries = new HashMap<String, Integer>();
+		private int count = 1;
+
+		private int entry(String key, int tag, int a, int b, String utf) {
+			Integer index = entries.get(key);
+
+			if (index != null) {
+				return index;
+			}
+
+			try {
+				out.writeByte(tag);
+				if (utf != null) {
+					out.writeUTF(utf);
+				} else if (tag == 3) {
+					out.writeInt(a);
+				} else {
+					out.writeShort(a);
+					if (b >= 0) {
+						out.writeShort(b);
+					}
+				}
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+
+			entries.put(key, count);
+			return count++;
+		}
+
+		int utf8(String s) {
+			return entry("U" + s, 1, 0, 0, s);
+		}
+
+		int integer(int value) {
+			return entry("I" + value, 3, value, -1, null);
+		}
+
+		int type(String name) {
+			return entry("C" + name, 7, utf8(name), -1, null);
+		}
+
+		private int nameAndType(String name, String descriptor) {
+			return entry("N" + name + ":" + descriptor, 12, utf8(name), utf8(descriptor), null);
+		}
+
+		int field(String owner, String name, String descriptor) {
+			return entry("F" + owner + "." + name, 9, type(owner), nameAndType(name, descriptor), null);
+		}
+
+		int method(String owner, String name, String descriptor) {
+			return entry("M" + owner + "." + name + descriptor, 10, type(owner), nameAndType(name, descriptor), null);
+		}
+
+		/** Build the class file around the code of the execute method. */
+		byte[] classFile(Bytecode execute) {
+			byte[] executeCode = execute.toByteArray();
+			byte[] constructorCode = { (byte) ALOAD, 0, (byte) INVOKESPECIAL, 0, 0, (byte) RETURN };
+			int objectInit = method("java/lang/Object", "<init>", "()V");
+
+			constructorCode[3] = (byte) (objectInit >> 8);
+			constructorCode[4] = (byte) objectInit;
+
+			int thisClass = type(BLOCK_CLASS);
+			int superClass = type("java/lang/Object");
+			int blockInterface = type(BLOCK_INTERFACE);
+			int codeName = utf8("Code");
+			int initName = utf8("<init>");
+			int initDescriptor = utf8("()V");
+			int executeName = utf8("execute");
+			int executeDescriptor = utf8(EXECUTE_DESCRIPTOR);
+
+			try {
+				ByteArrayOutputStream classBytes = new ByteArrayOutputStream();
+				DataOutputStream file = new DataOutputStream(classBytes);
+
+				file.writeInt(0xCAFEBABE);
+				file.writeShort(0); // minor version
+				file.writeShort(49); // major version
+				file.writeShort(count);
+				out.flush();
+				bytes.writeTo(file);
+				file.writeShort(0x0030); // ACC_FINAL | ACC_SUPER
+				file.writeShort(thisClass);
+				file.writeShort(superClass);
+				file.writeShort(1);
+				file.writeShort(blockInterface);
+				file.writeShort(0); // fields
+				file.writeShort(2); // methods
+				writeMethod(file, initName, initDescriptor, codeName, 1, 1, constructorCode);
+				writeMethod(file, executeName, executeDescriptor, codeName, 8, 6, executeCode);
+				file.writeShort(0); // attributes
+				file.flush();
+
+				return classBytes.toByteArray();
+			} catch (IOException e) {
+				throw new IllegalStateException(e);
+			}
+		}
+
+		private static void writeMethod(DataOutputStream file, int name, int descriptor, int codeName, int maxStack,
+				int maxLocals, byte[] code) throws IOException {
+			file.writeShort(0x0001); // ACC_PUBLIC
+			file.writeShort(name);
+			file.writeShort(descriptor);
+			file.writeShort(1);
+			file.writeShort(codeName);
+			file.writeInt(12 + code.length);
+			file.writeShort(maxStack);
+			file.writeShort(maxLocals);
+			file.writeInt(code.length);
+			file.write(code);
+			file.writeShort(0); // exception table
+			file.writeShort(0); // attributes
+		}
+	}
+}
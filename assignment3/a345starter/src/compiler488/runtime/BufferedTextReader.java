@@ -0,0 +1,301 @@
+package compiler488.runtime;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * BufferedTextReader: the source of input for the READC and READI
+ * instructions.
+ *
+ * <p>
+ * Reads exactly like TextReader: "\r" is skipped, a virtual "\n" is
+ * inserted before end of file, a newline is consumed lazily (the next line
+ * is not read until it is needed, so console input works), and readInt
+ * reads a whitespace delimited token, skips trailing whitespace on the line
+ * and consumes the newline after it.
+ * </p>
+ *
+ * <p>
+ * Unlike TextReader it reads its input a block at a time, and readInt
+ * parses the token from a reusable buffer without creating any objects. A
+ * token that is not a valid int is handed to Integer.parseInt, so the
+ * exception thrown is the one TextReader would throw. A regular file is
+ * memory mapped and read without any copying.
+ * </p>
+ */
+public class BufferedTextReader {
+	/** Size of the read buffer for streams. */
+	private static final int BUFFER_SIZE = 65536;
+
+	/** Character.isWhitespace for every byte value. */
+	private static final boolean[] WHITESPACE = new boolean[256];
+
+	static {
+		for (int c = 0; c < WHITESPACE.length; c++) {
+			WHITESPACE[c] = Character.isWhitespace((char) c);
+		}
+	}
+
+	/** Stream being read, or null for a mapped file. */
+	private final InputStream input;
+
+	/** Input bytes not yet read. */
+	private ByteBuffer buffer;
+
+	/** One character lookahead, -1 at end of file. */
+	private int nextChar;
+
+	/** True while nextChar has not been read yet (lazy input). */
+	private boolean undefinedState = true;
+
+	/** Characters of the token being read by readInt. */
+	private char[] token = new char[16];
+
+	/**
+	 * Create a reader for a stream.
+	 *
+	 * @param input
+	 *            the stream to read from
+	 */
+	public BufferedTextReader(InputStream input) {
+		this.input = input;
+		buffer = ByteBuffer.allocate(BUFFER_SIZE);
+		buffer.limit(0);
+	}
+
+	/**
+	 * Create a reader for input that is already in memory.
+	 *
+	 * @param contents
+	 *            the input; read from its position to its limit
+	 */
+	public BufferedTextReader(ByteBuffer contents) {
+		input = null;
+		buffer = contents;
+	}
+
+	/**
+	 * Create a reader for a file, memory mapping it if it is a regular file.
+	 *
+	 * @param file
+	 *            the file to read
+	 * @return the reader
+	 * @throws IOException
+	 *             the file cannot be opened
+	 */
+	public static BufferedTextReader open(File file) throws IOException {
+		if (file.isFile()) {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				long size = channel.size();
+
+				if (size <= Integer.MAX_VALUE) {
+					// The mapping stays valid after the channel is closed
+					return new BufferedTextReader(channel.map(FileChannel.MapMode.READ_ONLY, 0, size));
+				}
+			}
+		}
+
+		return new BufferedTextReader(new FileInputStream(file));
+	}
+
+	/**
+	 * Close the underlying stream, if there is one.
+	 */
+	public void close() {
+		if (input != null) {
+			try {
+				input.close();
+			} catch (IOException e) {
+				throw new RuntimeException(e.toString());
+			}
+		}
+	}
+
+	/** Next byte of input, or -1 at end of file. */
+	private int nextByte() {
+		if (!buffer.hasRemaining()) {
+			if (input == null) {
+				return -1;
+			}
+
+			try {
+				// Returns as soon as some input is available
+				int count = input.read(buffer.array(), 0, buffer.capacity());
+
+				if (count <= 0) {
+					return -1;
+				}
+				buffer.position(0);
+				buffer.limit(count);
+			} catch (IOException e) {
+				throw new RuntimeException(e.toString());
+			}
+		}
+
+		return buffer.get() & 0xff;
+	}
+
+	/** Next character, converting "\r\n" into "\n". */
+	private int read() {
+		int result = nextByte();
+
+		if (result == '\r') {
+			result = nextByte();
+		}
+		return result;
+	}
+
+	/** Read the lookahead character if it is still undefined. */
+	private void checkState() {
+		if (undefinedState) {
+			undefinedState = false;
+			nextChar = read();
+		}
+	}
+
+	/**
+	 * Read a single character (including whitespace).
+	 *
+	 * @return next character in the stream
+	 * @throws RuntimeException
+	 *             if end-of-file
+	 */
+	public char readChar() {
+		checkState();
+		if (nextChar == -1) {
+			throw new RuntimeException("Attempt to read past end of file");
+		}
+
+		char result = (char) nextChar;
+
+		if (nextChar == '\n') {
+			// lazy input, don't read yet
+			undefinedState = true;
+		} else {
+			nextChar = read();
+			if (nextChar == -1) {
+				// unexpected end-of-file, insert virtual \n
+				nextChar = '\n';
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Peek ahead one character.
+	 *
+	 * @return the character that a subsequent call on readChar() would return
+	 * @throws RuntimeException
+	 *             if end-of-file
+	 */
+	public char peek() {
+		checkState();
+		if (nextChar == -1) {
+			throw new RuntimeException("Attempt to peek past end of file");
+		}
+		return (char) nextChar;
+	}
+
+	/**
+	 * Tell whether this stream is ready to be read.
+	 *
+	 * @return true if ready, false at end of file
+	 */
+	public boolean ready() {
+		checkState();
+		return nextChar != -1;
+	}
+
+	/**
+	 * Skip whitespace.
+	 *
+	 * @param skipEoln
+	 *            whether or not to skip end-of-line characters
+	 */
+	public void skipWhite(boolean skipEoln) {
+		while (ready() && WHITESPACE[nextChar] && (skipEoln || nextChar != '\n')) {
+			readChar();
+		}
+	}
+
+	/**
+	 * Read the next whitespace delimited token as an integer.
+	 *
+	 * @return next integer in input stream
+	 * @throws NumberFormatException
+	 *             if no token or next token not an integer
+	 */
+	public int readInt() {
+		int length = 0;
+
+		skipWhite(true);
+		while (ready() && !WHITESPACE[nextChar]) {
+			if (length == token.length) {
+				char[] larger = new char[2 * length];
+				System.arraycopy(token, 0, larger, 0, length);
+				token = larger;
+			}
+			token[length++] = readChar();
+		}
+		skipWhite(false);
+		if (ready() && nextChar == '\n') {
+			readChar();
+		}
+
+		return parseToken(length);
+	}
+
+	/**
+	 * Parse the token read by readInt, with the result and exceptions of
+	 * Integer.parseInt.
+	 *
+	 * @param length
+	 *            length of the token
+	 * @return the value of the token
+	 */
+	private int parseToken(int length) {
+		int i = 0;
+		boolean negative = false;
+
+		if (length > 0 && (token[0] == '-' || token[0] == '+')) {
+			negative = token[0] == '-';
+			i = 1;
+		}
+
+		if (i == length) {
+			return slowParse(length);
+		}
+
+		// Accumulate negatively so that MIN_VALUE can be represented
+		int limit = negative ? Integer.MIN_VALUE : -Integer.MAX_VALUE;
+		int multiplyMin = limit / 10;
+		int result = 0;
+
+		for (; i < length; i++) {
+			int digit = token[i] - '0';
+
+			if (digit < 0 || digit > 9 || result < multiplyMin) {
+				return slowParse(length);
+			}
+
+			result *= 10;
+
+			if (result < limit + digit) {
+				return slowParse(length);
+			}
+			result -= digit;
+		}
+
+		return negative ? result : -result;
+	}
+
+	/** Let Integer.parseInt produce the result (or exception) for a token. */
+	private int slowParse(int length) {
+		return Integer.parseInt(new String(token, 0, length));
+	}
+}
@@ -0,0 +1,482 @@
+package compiler488.runtime;
+
+import java.util.Arrays;
+
+/**
+ * DecodedProgram: the code area of a Machine memory image, decoded once
+ * before execution.
+ *
+ * <p>
+ * Every address in <code>memory[ 0 .. limit - 1 ]</code> is decoded as if an
+ * instruction started there, so a branch to any address in the region finds
+ * its decoded form. Each entry holds the instruction code, its (up to two)
+ * operands and the number of words it occupies.
+ * </p>
+ *
+ * <p>
+ * The last two words of the code area, <code>memory[ startMSP - 2 ]</code>
+ * and <code>memory[ startMSP - 1 ]</code>, are never decoded: they are the
+ * code words a program can overwrite. <code>STORE</code> reaches down to
+ * <code>startMSP - 1</code>, and an instruction entered on an empty stack
+ * that pops two words and writes its result (ADD, SUB, MUL, DIV, EQ, LT, OR,
+ * SWAP and DUPN) writes <code>startMSP - 2</code> before the underflow is
+ * reported. No instruction can write below that, so the decoded form never
+ * goes stale. An instruction whose operands would reach those words or
+ * beyond is marked <code>UNDECODED</code>, and the interpreter executes it
+ * straight from memory.
+ * </p>
+ *
+ * <p>
+ * An optional fusion pass recognizes short instruction sequences that code
+ * generators emit over and over and records a superinstruction for the address
+ * where each sequence starts. The plain decoded entries are kept, so a
+ * branch into the middle of a sequence, or a superinstruction whose guards
+ * fail at run time, still executes one instruction at a time.
+ * </p>
+ *
+ * <p>
+ * An optional verification pass follows the code from the start address,
+ * through fall-throughs and branches to constant addresses, and computes the
+ * exact stack depth on entry to each instruction where it is the same on
+ * every path. An instruction with a known depth whose successors are all
+ * known, at the depth it leaves the stack, is a verified exit: when it was
+ * entered at its known depth, the next instruction cannot fault on the
+ * program counter or on the stack bounds, and the interpreter skips those
+ * checks. BR and BF to a computed address, and POPN and DUPN with a computed
+ * count, are never verified exits.
+ * </p>
+ *
+ * <p>
+ * The constant the pass finds on top of the stack holds only on the paths it
+ * follows, and a branch to a computed address can enter any instruction at
+ * its known depth with anything on top. So a BR, BF, POPN or DUPN whose exits
+ * rest on a constant top is verified only when the top still holds that
+ * constant at run time; <code>exitTops</code> records the constant.
+ * </p>
+ */
+public final class DecodedProgram {
+	/** Marker in <code>lengths</code> for an entry that was not decoded. */
+	public static final byte UNDECODED = -1;
+
+	/** Instruction code at each address. */
+	final short[] opCodes;
+
+	/** First operand (if any) of the instruction at each address. */
+	final short[] operand1;
+
+	/** Second operand (if any) of the instruction at each address. */
+	final short[] operand2;
+
+	/**
+	 * Amount to advance the program counter after the instruction at each
+	 * address, or <code>UNDECODED</code>.
+	 */
+	final byte[] lengths;
+
+	/** First address past the decoded region. */
+	final int limit;
+
+	// Superinstructions recorded by the fusion pass.
+	/** No superinstruction starts at this address. */
+	static final byte NOT_FUSED = 0;
+	/** <code>ADDR LL ON; LOAD</code> */
+	static final byte ADDR_LOAD = 1;
+	/** <code>PUSH addr; BF</code> */
+	static final byte PUSH_BF = 2;
+	/** <code>PUSH n; POPN</code> */
+	static final byte PUSH_POPN = 3;
+	/** <code>DUP; PUSH 0; EQ</code> */
+	static final byte DUP_PUSH0_EQ = 4;
+	/** A run of <code>PUSH c; PRINTC</code> pairs. */
+	static final byte PRINT_STRING = 5;
+
+	/**
+	 * Superinstruction starting at each address, or <code>null</code> if the
+	 * fusion pass has not been run.
+	 */
+	byte[] fusedOps;
+
+	/**
+	 * Number of <code>PUSH c; PRINTC</code> pairs in the
+	 * <code>PRINT_STRING</code> superinstruction at each address.
+	 */
+	int[] printRuns;
+
+	/** Entry in <code>stackDepths</code> for an unverified instruction. */
+	public static final int UNVERIFIED = -1;
+
+	/**
+	 * Stack depth (<code>msp - bottomOfStack</code>) on entry to each
+	 * instruction, or <code>UNVERIFIED</code>; <code>null</code> if the
+	 * verification pass has not been run.
+	 */
+	int[] stackDepths;
+
+	/**
+	 * True at each verified exit: the instruction, entered at its verified
+	 * depth, can only be followed by verified instructions at theirs.
+	 */
+	boolean[] verifiedExits;
+
+	/** Entry in <code>exitTops</code> for an exit that does not rest on the top. */
+	public static final int ANY_TOP = Integer.MIN_VALUE;
+
+	/**
+	 * At each verified exit that rests on a constant top of the stack, that
+	 * constant; <code>ANY_TOP</code> elsewhere.
+	 */
+	int[] exitTops;
+
+	/** Largest verified stack depth, or <code>UNVERIFIED</code>. */
+	int maxStackDepth = UNVERIFIED;
+
+	private DecodedProgram(int limit) {
+		this.limit = limit;
+		opCodes = new short[limit];
+		operand1 = new short[limit];
+		operand2 = new short[limit];
+		lengths = new byte[limit];
+	}
+
+	/**
+	 * Decode the code area of a memory image.
+	 *
+	 * @param memory
+	 *            machine memory holding the program
+	 * @param startMSP
+	 *            first address past the code area
+	 * @return the decoded code area
+	 */
+	public static DecodedProgram decode(short[] memory, int startMSP) {
+		int limit = startMSP - 2;
+
+		if (limit < 0) {
+			limit = 0;
+		}
+
+		DecodedProgram code = new DecodedProgram(limit);
+
+		for (int addr = 0; addr < limit; addr++) {
+			code.decodeAt(memory, addr);
+		}
+
+		return code;
+	}
+
+	/**
+	 * Decode the single instruction at <code>addr</code>.
+	 *
+	 * @param memory
+	 *            machine memory holding the program
+	 * @param addr
+	 *            address of the instruction to decode
+	 */
+	void decodeAt(short[] memory, int addr) {
+		short opCode = memory[addr];
+
+		opCodes[addr] = opCode;
+		operand1[addr] = 0;
+		operand2[addr] = 0;
+
+		if (opCode < 0 || opCode >= Machine.INSTRUCTION_LENGTHS.length) {
+			// Illegal instruction, let the interpreter report it
+			lengths[addr] = UNDECODED;
+			return;
+		}
+
+		int length = Machine.INSTRUCTION_LENGTHS[opCode];
+
+		// BR, BF and HALT have length 0 but no operands
+		if (addr + (length > 0 ? length : 1) > limit) {
+			lengths[addr] = UNDECODED;
+			return;
+		}
+
+		if (length >= 2) {
+			operand1[addr] = memory[addr + 1];
+		}
+
+		if (length >= 3) {
+			operand2[addr] = memory[addr + 2];
+		}
+
+		lengths[addr] = (byte) length;
+	}
+
+	/**
+	 * Recognize fusable instruction sequences in the decoded code area and
+	 * record a superinstruction for each address where one starts.
+	 */
+	public void fuse() {
+		fusedOps = new byte[limit];
+		printRuns = new int[limit];
+
+		// Scan backwards so each PUSH c; PRINTC pair extends the run after it
+		for (int addr = limit - 1; addr >= 0; addr--) {
+			if (is(addr, Machine.PUSH) && is(addr + 2, Machine.PRINTC)) {
+				printRuns[addr] = 1 + (addr + 3 < limit ? printRuns[addr + 3] : 0);
+				fusedOps[addr] = PRINT_STRING;
+			} else if (is(addr, Machine.ADDR) && is(addr + 3, Machine.LOAD)) {
+				// A bad display index must be reported by the plain ADDR
+				if (0 <= operand1[addr] && operand1[addr] < Machine.DISPLAY_SIZE) {
+					fusedOps[addr] = ADDR_LOAD;
+				}
+			} else if (is(addr, Machine.PUSH) && is(addr + 2, Machine.BF)) {
+				fusedOps[addr] = PUSH_BF;
+			} else if (is(addr, Machine.PUSH) && is(addr + 2, Machine.POPN)) {
+				fusedOps[addr] = PUSH_POPN;
+			} else if (is(addr, Machine.DUP) && is(addr + 1, Machine.PUSH) && operand1[addr + 1] == 0
+					&& is(addr + 3, Machine.EQ)) {
+				fusedOps[addr] = DUP_PUSH0_EQ;
+			}
+		}
+	}
+
+	// Abstract state of the verification pass.
+	/** No path reaches the address. */
+	private static final int UNREACHED = Integer.MIN_VALUE;
+	/** Paths reach the address with different or invalid depths. */
+	private static final int CONFLICT = Integer.MAX_VALUE;
+	/** The top of the stack is not a known constant. */
+	private static final int NOT_CONSTANT = Integer.MIN_VALUE;
+
+	/**
+	 * Compute the stack depth on entry to each instruction reachable from the
+	 * start address, and the verified exits.
+	 *
+	 * @param startPC
+	 *            address execution starts at, with an empty stack
+	 * @param stackSize
+	 *            words between the bottom of the stack and mlp; a depth
+	 *            must be less than this to be verified
+	 */
+	public void verify(int startPC, int stackSize) {
+		int[] depth = new int[limit];
+		int[] top = new int[limit];
+		int[] pending = new int[limit];
+		boolean[] queued = new boolean[limit];
+		int[] exit = new int[EXIT_SIZE];
+		int count = 0;
+
+		Arrays.fill(depth, UNREACHED);
+		Arrays.fill(top, NOT_CONSTANT);
+
+		if (0 <= startPC && startPC < limit && lengths[startPC] != UNDECODED) {
+			depth[startPC] = 0;
+			pending[count++] = startPC;
+			queued[startPC] = true;
+		}
+
+		// Propagate until nothing changes; an address changes state at most
+		// three times (reached, top no longer constant, conflict)
+		while (count > 0) {
+			int addr = pending[--count];
+
+			queued[addr] = false;
+
+			int successors = exits(addr, depth[addr], top[addr], exit);
+			int d = exit[EXIT_DEPTH];
+
+			if (d != CONFLICT && (d < 0 || d >= stackSize)) {
+				d = CONFLICT;
+			}
+
+			for (int i = 0; i < successors; i++) {
+				int next = exit[i];
+
+				if (next < 0 || next >= limit || lengths[next] == UNDECODED) {
+					continue;
+				}
+
+				int oldDepth = depth[next];
+				int oldTop = top[next];
+
+				depth[next] = (oldDepth == UNREACHED || oldDepth == d ? d : CONFLICT);
+				top[next] = (oldDepth == UNREACHED || oldTop == exit[EXIT_TOP] ? exit[EXIT_TOP] : NOT_CONSTANT);
+
+				if ((depth[next] != oldDepth || top[next] != oldTop) && !queued[next]) {
+					pending[count++] = next;
+					queued[next] = true;
+				}
+			}
+		}
+
+		stackDepths = new int[limit];
+		verifiedExits = new boolean[limit];
+		exitTops = new int[limit];
+		maxStackDepth = UNVERIFIED;
+
+		for (int addr = 0; addr < limit; addr++) {
+			int d = depth[addr];
+
+			stackDepths[addr] = (d != UNREACHED && d != CONFLICT ? d : UNVERIFIED);
+			maxStackDepth = Math.max(maxStackDepth, stackDepths[addr]);
+		}
+
+		for (int addr = 0; addr < limit; addr++) {
+			exitTops[addr] = ANY_TOP;
+			if (stackDepths[addr] == UNVERIFIED) {
+				continue;
+			}
+
+			int successors = exits(addr, stackDepths[addr], top[addr], exit);
+			boolean verified = !(usesTop(addr) && top[addr] == NOT_CONSTANT);
+
+			for (int i = 0; i < successors && verified; i++) {
+				int next = exit[i];
+
+				verified = 0 <= next && next < limit && stackDepths[next] != UNVERIFIED
+						&& stackDepths[next] == exit[EXIT_DEPTH];
+			}
+
+			verifiedExits[addr] = verified;
+			if (verified && usesTop(addr)) {
+				exitTops[addr] = top[addr];
+			}
+		}
+	}
+
+	// Layout of the exit array filled by exits()
+	private static final int EXIT_DEPTH = 2;
+	private static final int EXIT_TOP = 3;
+	private static final int EXIT_SIZE = 4;
+
+	/**
+	 * The statically known successors of an instruction and the stack it
+	 * leaves them.
+	 *
+	 * @param addr
+	 *            address of the instruction
+	 * @param depth
+	 *            stack depth on entry, or CONFLICT
+	 * @param top
+	 *            constant on top of the stack on entry, or NOT_CONSTANT
+	 * @param exit
+	 *            receives the successor addresses, then the depth on entry
+	 *            to them (CONFLICT if not known) and the constant on top of
+	 *            the stack (NOT_CONSTANT if none)
+	 * @return number of successor addresses
+	 */
+	private int exits(int addr, int depth, int top, int[] exit) {
+		int delta = 0;
+		int successors = 1;
+
+		exit[0] = addr + lengths[addr];
+		exit[EXIT_TOP] = NOT_CONSTANT;
+
+		switch (opCodes[addr]) {
+		case Machine.PUSH:
+			delta = 1;
+			exit[EXIT_TOP] = operand1[addr];
+			break;
+
+		case Machine.DUP:
+			delta = 1;
+			exit[EXIT_TOP] = top;
+			break;
+
+		case Machine.ADDR:
+		case Machine.PUSHMT:
+		case Machine.READC:
+		case Machine.READI:
+			delta = 1;
+			break;
+
+		case Machine.STORE:
+			delta = -2;
+			break;
+
+		case Machine.SETD:
+		case Machine.POP:
+		case Machine.ADD:
+		case Machine.SUB:
+		case Machine.MUL:
+		case Machine.DIV:
+		case Machine.EQ:
+		case Machine.LT:
+		case Machine.OR:
+		case Machine.PRINTC:
+		case Machine.PRINTI:
+			delta = -1;
+			break;
+
+		case Machine.POPN:
+			if (top == NOT_CONSTANT) {
+				depth = CONFLICT;
+			}
+			delta = -1 - top;
+			break;
+
+		case Machine.DUPN:
+			if (top == NOT_CONSTANT) {
+				depth = CONFLICT;
+			}
+			delta = top - 2;
+			break;
+
+		case Machine.BR:
+			delta = -1;
+			exit[0] = top;
+			successors = (top == NOT_CONSTANT ? 0 : 1);
+			break;
+
+		case Machine.BF:
+			delta = -2;
+			exit[0] = addr + 1;
+			exit[1] = top;
+			successors = (top == NOT_CONSTANT ? 1 : 2);
+			break;
+
+		case Machine.HALT:
+			successors = 0;
+			break;
+
+		default:
+			// LOAD, NEG, SWAP, TRON, TROFF and ILIMIT leave the depth alone
+			break;
+		}
+
+		exit[EXIT_DEPTH] = (depth == CONFLICT ? CONFLICT : depth + delta);
+		return successors;
+	}
+
+	/**
+	 * Test for an instruction whose successor or stack depth comes from the
+	 * top of the stack: BR and BF take their address from it, and POPN and
+	 * DUPN their count.
+	 */
+	private boolean usesTop(int addr) {
+		switch (opCodes[addr]) {
+		case Machine.BR:
+		case Machine.BF:
+		case Machine.POPN:
+		case Machine.DUPN:
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	/**
+	 * Test for a decoded instruction at an address.
+	 *
+	 * @param addr
+	 *            address to test
+	 * @param opCode
+	 *            expected instruction code
+	 * @return true iff <code>opCode</code> has been decoded at
+	 *         <code>addr</code>
+	 */
+	private boolean is(int addr, short opCode) {
+		return addr < limit && lengths[addr] != UNDECODED && opCodes[addr] == opCode;
+	}
+
+	/**
+	 * Number of decoded words.
+	 *
+	 * @return first address past the decoded region
+	 */
+	public int getLimit() {
+		return limit;
+	}
+}
@@ -0,0 +1,142 @@
+package compiler488.runtime;
+
+import java.io.InputStream;
+import java.io.PrintStream;
+
+/**
+ * JitMachine: an implementation of the CSC488 pseudo machine that compiles
+ * frequently executed basic blocks of machine code to JVM bytecode.
+ *
+ * <p>
+ * Execution starts out in the decoded interpreter of MachineExecutor. Each
+ * time control reaches a branch target the entry is counted, and once an
+ * address has been reached <code>COMPILE_THRESHOLD</code> times the block
+ * starting there is handed to BlockCompiler. From then on the compiled block
+ * runs instead of the interpreter whenever control reaches that address.
+ * </p>
+ *
+ * <p>
+ * Compiled blocks produce exactly the output and errors of the interpreter:
+ * a block that would fail a check returns to the interpreter in front of
+ * the failing instruction. Blocks are not used while tracing or profiling
+ * or while an ILIMIT instruction limit is active, and all compiled blocks
+ * are discarded when the program writes into its own code area.
+ * </p>
+ */
+public class JitMachine extends MachineExecutor {
+	/** A block of machine code compiled to a JVM class. */
+	interface CompiledBlock {
+		/**
+		 * Execute the block on a machine.
+		 *
+		 * @param machine
+		 *            the machine, with pc at the start of the block
+		 * @return 1 if the whole block was executed, 0 if execution must
+		 *         continue in the interpreter at the (updated) pc
+		 */
+		int execute(JitMachine machine);
+	}
+
+	/** Number of times an address is reached before its block is compiled. */
+	public static final int COMPILE_THRESHOLD = 32;
+
+	/** Stands in for blocks that are not (yet) compiled. */
+	private static final CompiledBlock INTERPRETED = new CompiledBlock() {
+		public int execute(JitMachine machine) {
+			return 0;
+		}
+	};
+
+	private final BlockCompiler compiler = new BlockCompiler();
+
+	/** Decoded code area the compiled blocks belong to. */
+	private DecodedProgram compiledCode;
+
+	/** Compiled block at each address of the code area (or null). */
+	private CompiledBlock[] blocks;
+
+	/** Number of times each address has been reached as a block entry. */
+	private int[] entryCounts;
+
+	/** Number of blocks compiled during the last run. */
+	private int compiledBlockCount;
+
+	public JitMachine(PrintStream statusOutput, PrintStream machineOutput, InputStream machineInput) {
+		super(statusOutput, machineOutput, machineInput);
+		decodingEnabled = true;
+		returnAtBranches = true;
+	}
+
+	/**
+	 * Number of blocks compiled.
+	 *
+	 * @return blocks compiled to bytecode during the last run
+	 */
+	public int getCompiledBlockCount() {
+		return compiledBlockCount;
+	}
+
+	/**
+	 * Execute the decoded code area, running compiled blocks where there are
+	 * some and interpreting up to the next branch elsewhere.
+	 *
+	 * @param code
+	 *            decoded code area
+	 * @return the code area
+	 * @throws ExecutionException
+	 *             from runError
+	 */
+	@Override
+	protected DecodedProgram executeDecoded(DecodedProgram code) throws ExecutionException {
+		if (code != compiledCode) {
+			compiledCode = code;
+			blocks = new CompiledBlock[code.limit];
+			entryCounts = new int[code.limit];
+			compiledBlockCount = 0;
+		}
+
+		while (executing) {
+			if (pc < 0 || pc >= code.limit || code.lengths[pc] == DecodedProgram.UNDECODED) {
+				return code;
+			}
+
+			if (!tracingEnabled && !counting && profile == null && blockAt(pc).execute(this) != 0) {
+				continue;
+			}
+
+			code = super.executeDecoded(code);
+		}
+
+		return code;
+	}
+
+	/**
+	 * Find the compiled block at an address, compiling it once the address
+	 * has been reached often enough.
+	 *
+	 * @param addr
+	 *            address of the block
+	 * @return the compiled block, or INTERPRETED
+	 */
+	private CompiledBlock blockAt(int addr) {
+		CompiledBlock block = blocks[addr];
+
+		if (block == null) {
+			if (++entryCounts[addr] < COMPILE_THRESHOLD) {
+				return INTERPRETED;
+			}
+
+			block = compiler.compile(compiledCode, addr);
+
+			if (block == null) {
+				block = INTERPRETED;
+			} else {
+				compiledBlockCount++;
+			}
+
+			blocks[addr] = block;
+		}
+
+		return block;
+	}
+}
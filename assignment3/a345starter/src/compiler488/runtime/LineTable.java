@@ -0,0 +1,122 @@
+package compiler488.runtime;
+
+import java.util.Arrays;
+
+/**
+ * LineTable: maps code addresses to the source lines they were generated
+ * from. Each entry says that the code from its address on, up to the next
+ * entry, comes from its line, so code generation only records an entry
+ * where the line changes.
+ *
+ * <p>
+ * Entries are kept sorted by address in two int arrays; code generated in
+ * address order appends, and a lookup is a binary search. Machines share
+ * their table with snapshots and object files and copy it before adding to
+ * it, so a table handed out by a machine does not change.
+ * </p>
+ */
+public final class LineTable {
+	/** Initial capacity of the arrays. */
+	private static final int INITIAL_CAPACITY = 16;
+
+	/** Addresses of the entries, in increasing order. */
+	private int[] addresses;
+
+	/** Source line of each entry. */
+	private int[] lines;
+
+	/** Number of entries. */
+	private int size;
+
+	/** An empty table. */
+	public LineTable() {
+		addresses = new int[INITIAL_CAPACITY];
+		lines = new int[INITIAL_CAPACITY];
+		size = 0;
+	}
+
+	/**
+	 * A copy of a table.
+	 *
+	 * @param table
+	 *            the table to copy
+	 */
+	public LineTable(LineTable table) {
+		addresses = Arrays.copyOf(table.addresses, Math.max(table.size, INITIAL_CAPACITY));
+		lines = Arrays.copyOf(table.lines, addresses.length);
+		size = table.size;
+	}
+
+	/**
+	 * Record that the code from an address on comes from a source line,
+	 * replacing any entry at the same address.
+	 *
+	 * @param addr
+	 *            code address
+	 * @param line
+	 *            source line number
+	 */
+	public void add(int addr, int line) {
+		int index = size > 0 && addresses[size - 1] < addr ? -size - 1 : Arrays.binarySearch(addresses, 0, size, addr);
+
+		if (index >= 0) {
+			lines[index] = line;
+			return;
+		}
+
+		index = -index - 1;
+		if (size == addresses.length) {
+			addresses = Arrays.copyOf(addresses, size * 2);
+			lines = Arrays.copyOf(lines, size * 2);
+		}
+		System.arraycopy(addresses, index, addresses, index + 1, size - index);
+		System.arraycopy(lines, index, lines, index + 1, size - index);
+		addresses[index] = addr;
+		lines[index] = line;
+		size++;
+	}
+
+	/**
+	 * Source line of the code at an address.
+	 *
+	 * @param addr
+	 *            code address
+	 * @return the line, or -1 if the table does not cover addr
+	 */
+	public int getLine(int addr) {
+		int index = Arrays.binarySearch(addresses, 0, size, addr);
+
+		if (index < 0) {
+			index = -index - 2;
+		}
+		return index < 0 ? -1 : lines[index];
+	}
+
+	/** @return number of entries */
+	public int size() {
+		return size;
+	}
+
+	/** @return true iff the table has no entries */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/** @return address of the entry at an index, in address order */
+	public int getAddress(int index) {
+		checkIndex(index);
+		return addresses[index];
+	}
+
+	/** @return line of the entry at an index, in address order */
+	public int getLineAt(int index) {
+		checkIndex(index);
+		return lines[index];
+	}
+
+	private void checkIndex(int index) {
+		if (index < 0 || index >= size) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+	}
+}
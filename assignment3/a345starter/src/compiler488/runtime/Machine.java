@@ -4,6 +4,13 @@ package compiler488.runtime;
  * Machine: a pseudo machine definition for the CSC488 course project.
  *
  * Include constant definitions and a control interface.
+ *
+ * <p>
+ * <strong>Thread safety:</strong> implementations keep all machine state
+ * (memory, registers, display and options) in the instance, so separate
+ * machines share nothing and may run concurrently. An individual machine is
+ * not synchronized and must be used by at most one thread at a time.
+ * </p>
  */
 public interface Machine {
 	/** Size of machine memory */
@@ -144,11 +151,42 @@ public interface Machine {
 	 */
 	void setMLP(short addr);
 
+	/**
+	 * Record that the code generated from an address on comes from a source
+	 * line, so that runtime errors and profiles can report the line.
+	 *
+	 * @param addr
+	 *            address of the first instruction generated for the line
+	 * @param line
+	 *            source line number, from 1
+	 */
+	void addSourceLine(int addr, int line);
+
 	/**
 	 * Reset the machine back into a default, empty state.
 	 */
 	void reset();
 
+	/**
+	 * Take a snapshot of the memory, initial registers, display and source
+	 * line table, normally once code generation is complete.
+	 *
+	 * @return the snapshot, unaffected by anything the machine does later
+	 */
+	MachineSnapshot snapshot();
+
+	/**
+	 * Put the machine in the state a snapshot recorded, ready to run the
+	 * program again. Restoring copies only what differs from the snapshot.
+	 *
+	 * @param snapshot
+	 *            a snapshot taken of a machine of the same kind and memory
+	 *            size
+	 * @throws IllegalArgumentException
+	 *             the snapshot is of a different kind of machine
+	 */
+	void restore(MachineSnapshot snapshot);
+
 	/**
 	 * Execute the object code instructions stored in the machines' memory.
 	 *
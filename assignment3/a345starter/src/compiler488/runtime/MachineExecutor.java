@@ -1,15 +1,23 @@
 package compiler488.runtime;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintStream;
-import compiler488.compiler.Main;
+import java.nio.IntBuffer;
+import java.util.Arrays;
 
 /**
  * MachineExecutor: an interpreted implementation of the CSC488 pseudo machine.
  *
+ * All machine state, including the display, belongs to the instance, so any
+ * number of MachineExecutors can run concurrently in separate threads. A
+ * single instance must only be used by one thread at a time.
+ *
+ * @see JitMachine
+ *
  * @author Dave Wortman
  */
-public final class MachineExecutor implements Machine {
+public class MachineExecutor extends BaseMachine {
 	/** Initial value of program counter. */
 	protected short startPC;
 
@@ -20,7 +28,7 @@ public final class MachineExecutor implements Machine {
 	protected short startMLP;
 
 	/** Hardware display registers. */
-	protected static int[] display;
+	protected int[] display;
 
 	/** Index of top entry in the display (for checking, dumps.) */
 	protected int displayMax;
@@ -46,78 +54,220 @@ public final class MachineExecutor implements Machine {
 	protected short bottomOfStack;
 
 	/**
-	 * Hardware executing flag, true while executing instructions.
-	 *
-	 * Set to false by runError and HALT instruction
+	 * Words per page for reset. reset() only sets the pages written since
+	 * the last reset back to UNDEFINED; there are 64 pages, one bit each in
+	 * dirtyPages.
+	 */
+	protected static final int DIRTY_PAGE_SIZE = Machine.MEMORY_SIZE / Long.SIZE;
+
+	static final int DIRTY_PAGE_SHIFT = Integer.numberOfTrailingZeros(DIRTY_PAGE_SIZE);
+
+	/**
+	 * Pages of memory written since the last reset, or since the last
+	 * restore of the baseline snapshot.
 	 */
-	protected boolean executing;
+	protected long dirtyPages;
 
 	/**
-	 * Hardware error flag. Set to true is an error occurred false at start of
-	 * execution, set to true only by runError.
+	 * Snapshot memory was last restored from, or null. Memory outside
+	 * dirtyPages is the same as the baseline's.
 	 */
-	protected boolean errorOccurred;
+	protected MachineSnapshot baseline;
 
-	/** Clean, printable input/output characters. */
-	protected final static int CHARMASK = 0x7F;
+	/**
+	 * End of the part of the run stack already marked dirty. The stack
+	 * overflow checks compare msp with stackLimit instead of mlp and only
+	 * look at mlp when stackLimit is reached, so the stack is marked dirty a
+	 * page at a time as it grows, at no cost per instruction.
+	 * bottomOfStack &lt;= stackLimit &lt;= mlp during execution.
+	 */
+	protected short stackLimit;
 
-	protected boolean tracingEnabled = false;
+	/** True if the code area is decoded once before execution starts. */
+	protected boolean decodingEnabled = false;
 
 	/**
-	 * The stream where machine output (i.e. from PRINTC and PRINTI
-	 * instructions) is sent.
+	 * True if executeDecoded returns to its caller after every branch, so a
+	 * subclass can take over at branch targets.
 	 */
-	protected PrintStream machineOutput;
+	protected boolean returnAtBranches = false;
 
-	/** The stream where status output regarding execution is sent. */
-	protected PrintStream statusOutput;
+	/** True if common instruction sequences execute as superinstructions. */
+	protected boolean fusionEnabled = false;
+
+	/** Number of instructions executed as part of a superinstruction. */
+	protected long fusedInstructions;
 
 	/**
-	 * The stream where machine input (i.e. from the READI instruction) is drawn
-	 * from.
+	 * True if the decoded code area is verified before execution, so the
+	 * per-instruction checks are skipped where they cannot fail.
 	 */
-	protected InputStream machineInput;
+	protected boolean verificationEnabled = false;
 
 	public MachineExecutor(PrintStream statusOutput, PrintStream machineOutput, InputStream machineInput) {
-		this.statusOutput = statusOutput;
-		this.machineOutput = machineOutput;
-		this.machineInput = machineInput;
+		super(statusOutput, machineOutput, machineInput);
 
 		display = new int[Machine.DISPLAY_SIZE];
 		memory = new short[Machine.MEMORY_SIZE];
+
+		// Nothing is initialized yet
+		displayMax = Machine.DISPLAY_SIZE - 1;
+		dirtyPages = -1L;
 		reset();
 	}
 
-	public boolean getTracingEnabled() {
-		return tracingEnabled;
+	public boolean getDecodingEnabled() {
+		return decodingEnabled;
+	}
+
+	public void setDecodingEnabled(boolean decodingEnabled) {
+		this.decodingEnabled = decodingEnabled;
+	}
+
+	public boolean getFusionEnabled() {
+		return fusionEnabled;
+	}
+
+	/**
+	 * Execute common instruction sequences as superinstructions. Implies
+	 * decoding of the code area.
+	 *
+	 * @param fusionEnabled
+	 *            true to enable fusion
+	 */
+	public void setFusionEnabled(boolean fusionEnabled) {
+		this.fusionEnabled = fusionEnabled;
+	}
+
+	public boolean getVerificationEnabled() {
+		return verificationEnabled;
 	}
 
-	public void setTracingEnabled(boolean tracingEnabled) {
-		this.tracingEnabled = tracingEnabled;
+	/**
+	 * Verify the code area before execution and skip the program counter,
+	 * stack bound and instruction limit checks before instructions proven
+	 * safe. Implies decoding of the code area.
+	 *
+	 * @param verificationEnabled
+	 *            true to enable verification
+	 */
+	public void setVerificationEnabled(boolean verificationEnabled) {
+		this.verificationEnabled = verificationEnabled;
+	}
+
+	/**
+	 * Number of instructions the last run executed as part of a
+	 * superinstruction rather than one at a time.
+	 *
+	 * @return dynamic count of fused instructions
+	 */
+	public long getFusedInstructionCount() {
+		return fusedInstructions;
 	}
 
 	public void reset() {
-		// Initialize display
-		for (int i = 0; i < Machine.DISPLAY_SIZE; i++) {
-			display[i] = Machine.MIN_INTEGER;
-		}
+		// Initialize display. SETD raises displayMax, so no entry above it
+		// has been set.
+		Arrays.fill(display, 0, displayMax + 1, Machine.MIN_INTEGER);
 
 		// Forces error if unfilled display entry is used
 		displayMax = -1; // top of display
 
-		// Initialize memory
-		for (int i = 0; i < Machine.MEMORY_SIZE; i++) {
-			memory[i] = Machine.UNDEFINED;
+		// Initialize the memory written since the last reset
+		long written = dirtyPages | (baseline != null ? baseline.pages : 0L);
+
+		for (long dirty = written; dirty != 0; dirty &= dirty - 1) {
+			int start = Long.numberOfTrailingZeros(dirty) << DIRTY_PAGE_SHIFT;
+
+			Arrays.fill(memory, start, start + DIRTY_PAGE_SIZE, Machine.UNDEFINED);
 		}
+		dirtyPages = 0;
+		baseline = null;
 
 		// Just in case...
 		memory[0] = Machine.HALT;
+		markDirty(0, 1);
 
 		// Initialize start variables to force error if they
 		// are not set by code generation
 		startPC = -1;
 		startMSP = -1;
 		startMLP = -1;
+		clearSourceLines();
+	}
+
+	public MachineSnapshot snapshot() {
+		long written = dirtyPages | (baseline != null ? baseline.pages : 0L);
+
+		return new MachineSnapshot(startPC, startMSP, startMLP, Machine.MEMORY_SIZE, display, displayMax,
+				memory.clone(), written, null, shareSourceLines());
+	}
+
+	public void restore(MachineSnapshot snapshot) {
+		if (snapshot.memory == null) {
+			throw new IllegalArgumentException("Snapshot is not of a MachineExecutor");
+		}
+
+		// Memory differs from the snapshot only where it was written since
+		// the snapshot was last restored
+		long stale = dirtyPages;
+
+		if (baseline != snapshot) {
+			stale |= snapshot.pages | (baseline != null ? baseline.pages : 0L);
+		}
+
+		for (long dirty = stale; dirty != 0; dirty &= dirty - 1) {
+			int start = Long.numberOfTrailingZeros(dirty) << DIRTY_PAGE_SHIFT;
+
+			System.arraycopy(snapshot.memory, start, memory, start, DIRTY_PAGE_SIZE);
+		}
+		dirtyPages = 0;
+		baseline = snapshot;
+
+		System.arraycopy(snapshot.display, 0, display, 0, Machine.DISPLAY_SIZE);
+		displayMax = snapshot.displayMax;
+
+		startPC = (short) snapshot.startPC;
+		startMSP = (short) snapshot.startMSP;
+		startMLP = (short) snapshot.startMLP;
+		useSourceLines(snapshot.lines);
+	}
+
+	/**
+	 * Load a compiled program. Narrow code words are copied in bulk from the
+	 * object file; wide ones must fit a machine word.
+	 */
+	void loadObject(ObjectFile object) throws IOException {
+		int length = object.startMSP;
+
+		object.checkFits(Machine.MEMORY_SIZE);
+		reset();
+
+		if (!object.isWide()) {
+			object.shortWords().get(memory, 0, length);
+		} else {
+			IntBuffer words = object.intWords();
+
+			for (int addr = 0; addr < length; addr++) {
+				int word = words.get(addr);
+
+				if (word == PagedMachine.UNDEFINED_WORD) {
+					memory[addr] = Machine.UNDEFINED;
+				} else if (word > Machine.UNDEFINED && word <= Short.MAX_VALUE) {
+					memory[addr] = (short) word;
+				} else {
+					throw new IOException("Code word " + word + " at " + addr + " does not fit a machine word");
+				}
+			}
+		}
+		if (length > 0) {
+			markDirty(0, length);
+		}
+
+		startPC = (short) object.startPC;
+		startMSP = (short) object.startMSP;
+		startMLP = (short) object.startMLP(Machine.MEMORY_SIZE);
+		useSourceLines(object.copyLines());
 	}
 
 	public void writeMemory(short addr, short value) throws MemoryAddressException {
@@ -128,6 +278,35 @@ public final class MachineExecutor implements Machine {
 
 		// Policy: do not check for UNDEFINED
 		memory[addr] = value;
+		dirtyPages |= 1L << (addr >> DIRTY_PAGE_SHIFT);
+	}
+
+	/**
+	 * Mark memory[from .. to - 1] as written since the last reset.
+	 *
+	 * @param from
+	 *            first address written
+	 * @param to
+	 *            last address written + 1
+	 */
+	protected void markDirty(int from, int to) {
+		for (int page = from >> DIRTY_PAGE_SHIFT; page <= (to - 1) >> DIRTY_PAGE_SHIFT; page++) {
+			dirtyPages |= 1L << page;
+		}
+	}
+
+	/**
+	 * Raise stackLimit so the run stack can grow to memory[end - 1], with a
+	 * page to spare, marking the stack pages it takes in dirty.
+	 *
+	 * @param end
+	 *            new top of the stack + 1, at most mlp
+	 */
+	protected void extendStack(int end) {
+		int limit = Math.min(mlp, ((end + DIRTY_PAGE_SIZE - 1) & -DIRTY_PAGE_SIZE) + DIRTY_PAGE_SIZE);
+
+		markDirty(stackLimit, Math.min(limit, Machine.MEMORY_SIZE));
+		stackLimit = (short) limit;
 	}
 
 	public short readMemory(short addr) throws MemoryAddressException {
@@ -152,24 +331,6 @@ public final class MachineExecutor implements Machine {
 		startMLP = addr;
 	}
 
-	protected static String Blanks = new String("                                           ");
-
-	/**
-	 * Pad string by appending blanks to specified size. <BR>
-	 * Does nothing if toPad is already longer than toSize.
-         * Assumes value of toSize is less than length of Blanks
-	 *
-	 * @param toPad
-	 *            string to be padded with blanks
-	 * @param toSize
-	 *            desired length of blank padded string
-	 */
-	protected static void padString(StringBuffer toPad, int toSize) {
-		if (toPad.length() < toSize && toSize - toPad.length() < Blanks.length() )
-			toPad.append(Blanks.substring(0, toSize - toPad.length()));
-		return;
-	}
-
 	/**
 	 * Dump all machine instructions.
 	 *
@@ -254,9 +415,11 @@ public final class MachineExecutor implements Machine {
 	 */
 	public void dumpMachineState(String msg, int pc, int msp, int mlp) {
 		StringBuffer S = new StringBuffer("\t");
+		outputBuffer.flush(); // keep program output ahead of the dump
 		statusOutput.print("\n" + msg);
 		// dump control of registers
-		statusOutput.print("  pc = " + pc + ", msp = " + msp + ", mlp = " + mlp + "\n");
+		statusOutput.print("  pc = " + pc + sourceLineOf(pc, " (line ", ")") + ", msp = " + msp + ", mlp = " + mlp
+				+ "\n");
 
 		// Dump the active display
 		if (displayMax >= 0) {
@@ -289,7 +452,7 @@ public final class MachineExecutor implements Machine {
 
 		dumpMachineState(msgBuff, pc, msp, mlp);
 
-		throw new ExecutionException("  " + msg);
+		throw new ExecutionException("  " + sourceLineOf(pc, "line ", ": ") + msg);
 	}
 
 	/**
@@ -356,6 +519,44 @@ public final class MachineExecutor implements Machine {
 		}
 	}
 
+	/**
+	 * Trace the instruction at pc: print it with the top of the stack, or
+	 * record it in the trace buffer if there is one.
+	 *
+	 * @throws ExecutionException
+	 *             from formatInstruction
+	 */
+	protected void traceInstruction() throws ExecutionException {
+		if (traceBuffer == null) {
+			StringBuffer printThis = new StringBuffer();
+			formatInstruction(pc, printThis);
+			printThis.insert(0, pc + ": ");
+			padString(printThis, 20);
+			dumpStack(printThis, 8);
+			outputBuffer.flush();
+			statusOutput.println(printThis);
+			return;
+		}
+
+		short opCode = memory[pc];
+		int length = (0 <= opCode && opCode < Machine.INSTRUCTION_LENGTHS.length ? Machine.INSTRUCTION_LENGTHS[opCode] : 1);
+		int first = 0;
+		int count = 0;
+
+		// The stack words dumpStack would show
+		if (0 <= msp && msp < Machine.MEMORY_SIZE) {
+			first = Math.max(Math.max(msp - TraceBuffer.STACK_WORDS, 0), bottomOfStack);
+			count = Math.max(msp - first, 0);
+		}
+
+		traceBuffer.begin(pc, opCode, length >= 2 ? memory[pc + 1] : 0, length >= 3 ? memory[pc + 2] : 0, msp, first,
+				count);
+		for (int i = 0; i < count; i++) {
+			traceBuffer.word(i, memory[first + i]);
+		}
+		traceBuffer.end();
+	}
+
 	// Functions for manipulating the machine stack.
 	// Note: the convention is that msp refers to the first UNUSED entry in
 	// the stack.
@@ -403,14 +604,12 @@ public final class MachineExecutor implements Machine {
 	}
 
 	public void run() throws ExecutionException {
-		// Source for all READ instructions
-		TextReader inputSource = new TextReader(machineInput);
-
-		int intInput; // input for READI
 		// counting, iLimit set by ILIMIT instruction
-		boolean counting = false; // count instructions to limit execution
-		int iCount = 0; // count of instructions executed
-		int iLimit = Integer.MAX_VALUE; // instruction execution limit
+		counting = false;
+		iCount = 0;
+		iLimit = Integer.MAX_VALUE;
+		retiredInstructions = 0;
+		fusedInstructions = 0;
 
 		// Initialize registers. Validate initial execution state.
 		mlp = startMLP;
@@ -423,16 +622,30 @@ public final class MachineExecutor implements Machine {
 		// Must be set before dumpInstructions is called
 		bottomOfStack = startMSP;
 
+		// STORE may write the word below the stack; the stack itself is
+		// marked dirty as it grows
+		stackLimit = bottomOfStack;
+		markDirty(Math.max(bottomOfStack - 1, 0), bottomOfStack);
+
 		pc = startPC; // Execution starts here.
 		rangeCheck(pc, 0, Machine.MEMORY_SIZE - 1, "Initial value of pc outside memory");
 
 		// Dump instruction memory if requested.
 
-		if (Main.dumpCode) {
-			dumpInstructions(Main.dumpStream);
+		if (dumpStream != null) {
+			dumpInstructions(dumpStream);
 		}
 
-		if (Main.supressExecution) {
+		if (codeCheckEnabled) {
+			int[] code = new int[startMSP];
+
+			for (int addr = 0; addr < startMSP; addr++) {
+				code[addr] = memory[addr];
+			}
+			checkCode(code, startPC);
+		}
+
+		if (executionSuppressed) {
 			statusOutput.println("Execution suppressed by control flag.\n");
 			return;
 		}
@@ -447,314 +660,692 @@ public final class MachineExecutor implements Machine {
 
 		// This instance variable can be set to false by HALT or by a runError.
 		executing = true;
-		while (executing) {
-			// Validate current state of the machine
-			// Execute one instruction from memory
 
-			rangeCheck(pc, 0, Machine.MEMORY_SIZE - 1, "Program counter outside memory.\n");
+		// Decode the code area once if requested. The classic loop takes over
+		// wherever the decoded form does not apply.
+		DecodedProgram code = null;
 
-			if (msp < bottomOfStack) {
-				runError("Run stack underflow.");
-				return;
-			}
+		if (decodingEnabled || fusionEnabled || verificationEnabled) {
+			code = DecodedProgram.decode(memory, startMSP);
 
-			if (msp >= mlp) {
-				runError("Run stack overflow.");
-				return;
+			if (fusionEnabled) {
+				code.fuse();
 			}
 
-			iCount++; // Count instructions executed
-			if (counting) {
-				if (iCount > iLimit) // count exceeded
-					runError("Instruction execution limit (" + iLimit + ") exceeded");
+			// Verified instructions skip the overflow check, so the stack
+			// pages they can reach are taken in now
+			if (verificationEnabled) {
+				code.verify(startPC, mlp - bottomOfStack);
+
+				if (code.maxStackDepth != DecodedProgram.UNVERIFIED) {
+					extendStack(bottomOfStack + code.maxStackDepth + 1);
+				}
 			}
+		}
 
-			if (tracingEnabled) {
-				StringBuffer printThis = new StringBuffer();
-				formatInstruction(pc, printThis);
-				printThis.insert(0, pc + ": ");
-				padString(printThis, 20);
-				dumpStack(printThis, 8);
-				statusOutput.println(printThis);
+		// Source for all READ instructions
+		inputSource = openInput();
+
+		try {
+			while (executing) {
+				if (code != null) {
+					code = executeDecoded(code);
+				}
+
+				if (executing) {
+					executeClassic(code);
+				}
 			}
+		} finally {
+			outputBuffer.flush();
+			closeInput();
+		}
 
-			short n, v, ll, addr;
-			int atemp;
+		// Clean up after execution
+		dumpMachineState("End Execution.\n", pc, msp, mlp);
+
+		if (fusionEnabled) {
+			statusOutput.println("Fused instructions executed: " + fusedInstructions);
+		}
+	}
 
-			// Fetch and execute the next instruction
-			short opCode = memory[pc];
+	/**
+	 * The interpreter main loop: fetch, decode and execute instructions
+	 * straight from memory.
+	 *
+	 * @param code
+	 *            decoded code area to hand control back to as soon as the
+	 *            program counter re-enters it, or <code>null</code> to run
+	 *            until the machine stops
+	 * @throws ExecutionException
+	 *             from runError
+	 */
+	protected void executeClassic(DecodedProgram code) throws ExecutionException {
+		// Working copies of the instruction counting registers
+		boolean counting = this.counting;
+		long iCount = this.iCount;
+		int iLimit = this.iLimit;
 
-			switch (opCode) {
-			// ADDR LL on: push value of display[LL] + ON to stack
-			case ADDR:
-				ll = memory[pc + 1];
-				rangeCheck(ll, 0, Machine.DISPLAY_SIZE - 1, "ADDR: Display index out of range.\n");
-				spush();
-				memory[msp - 1] = (short) (display[ll] + memory[pc + 2]);
-				break;
+		try {
+			while (executing) {
+				// Validate current state of the machine
+				// Execute one instruction from memory
 
-			// LOAD: push the value of memory[TOP] to the stack
-			case LOAD:
-				addr = memory[msp - 1];
-				rangeCheck(addr, 0, Machine.MEMORY_SIZE - 1, "LOAD address out of range.\n");
-				if (memory[addr] == UNDEFINED) {
-					runError("Attempt to LOAD undefined value.\n");
-				} else {
-					memory[msp - 1] = memory[addr];
+				rangeCheck(pc, 0, Machine.MEMORY_SIZE - 1, "Program counter outside memory.\n");
+
+				if (msp < bottomOfStack) {
+					runError("Run stack underflow.");
+					return;
 				}
-				break;
-
-			// STORE: store a value on top of the stack in memory
-			case STORE:
-				v = memory[msp - 1];
-				spop();
-				addr = memory[msp - 1];
-				spop();
-				// rangeCheck(addr, 0, Machine.MEMORY_SIZE-1,
-				// Disallow stores into code area.
-				rangeCheck(addr, bottomOfStack - 1, Machine.MEMORY_SIZE - 1, "STORE address out of range.\n");
-				memory[addr] = v;
-				break;
-
-			// PUSH V: push V to the stack
-			case PUSH:
-				spush();
-				memory[msp - 1] = memory[pc + 1];
-				break;
-
-			// PUSHMT: effectively, push MT to the top of the stack
-			case PUSHMT:
-				spush();
-				memory[msp - 1] = (short) (msp - 1);
-				break;
-
-			// SETD LL: set display[LL] to the top of the stack
-			case SETD:
-				addr = memory[msp - 1];
-				spop();
-				ll = memory[pc + 1];
-				rangeCheck(ll, 0, Machine.DISPLAY_SIZE - 1, "SETD display index out of range.\n");
-				if (addr != MIN_INTEGER) { // special case - uninitialized
-					rangeCheck(addr, bottomOfStack, mlp, "SETD display entry out of range.\n");
+
+				if (msp >= stackLimit) {
+					if (msp >= mlp) {
+						runError("Run stack overflow.");
+						return;
+					}
+					extendStack(msp + 1);
 				}
-				displayMax = (displayMax > ll ? displayMax : ll);
-				display[ll] = addr;
-				break;
-
-			// POPN: do n pops, where n is the value on top of the stack
-			// Underflow error will be caught before next instruction
-			case POPN:
-				msp -= memory[msp - 1];
-				spop();
-				break;
-
-			// POP: pop the top of the machine stack
-			case POP:
-				spop();
-				break;
-
-			/*
-			 * DUPN: leave n copies of the next-to-the -top stack item on the
-			 * top of the stack, where n is the initial top of the stack value
-			 */
-			case DUPN:
-				n = memory[msp - 1];
-				spop();
-				v = memory[msp - 1];
-				spop();
-				rangeCheck(msp + n, bottomOfStack, mlp, "DUPN stack overflow.\n");
-				for (int i = msp; i <= msp - 1 + n; i++) {
-					memory[i] = v;
+
+				iCount++; // Count instructions executed
+				if (counting) {
+					if (iCount > iLimit) // count exceeded
+						runError("Instruction execution limit (" + iLimit + ") exceeded");
 				}
-				msp += n;
-				break;
-
-			// DUP: push the top of the stack
-			case DUP:
-				spush();
-				memory[msp - 1] = topm1();
-				break;
-
-			// BR: branch to the address on the top of the stack
-			case BR:
-				pc = memory[msp - 1]; // BR sets pc directly
-				spop();
-				break;
-
-			// BF: branch to address atop the stack if the next-to-the-top
-			// value is MACHINE_FALSE
-			case BF:
-				addr = memory[msp - 1];
-				spop();
-				v = memory[msp - 1];
-				// rangeCheck(v , MACHINE_FALSE, MACHINE_TRUE, "BF argument is
-				// not a Boolean value");
-				spop();
-				if (v == MACHINE_FALSE) {
-					pc = (short) addr;
-				} else {
-					// BF sets pc directly
-					pc++;
+
+				if (tracingEnabled) {
+					traceInstruction();
 				}
-				break;
 
-			// NEG: arithmetic negation of top of stack
-			case NEG:
-				memory[msp - 1] = (short) (-memory[msp - 1]);
-				if (memory[msp - 1] == UNDEFINED) {
-					runError("Arithmetic underflow - NEG operator");
-					return;
+				// Fetch and execute the next instruction
+				short opCode = memory[pc];
+
+				if (profile != null) {
+					profile.instruction(pc, opCode, msp - bottomOfStack);
 				}
-				break;
-
-			/*
-			 * ADD, SUB, MUL, DIV, EQ, LT, OR: arithmetic and logical
-			 * operations. If the top of the stack is y, and the next item down
-			 * is x, then OP (where OP=ADD, SUB, ... , OR) performs x OP y. Some
-			 * meager overflow checking is done.
-			 */
-			case ADD:
-				atemp = topm1() + top();
-				rangeCheck(atemp, MIN_INTEGER, MAX_INTEGER, "ADD operator overflow or underflow");
-				spop();
-				memory[msp - 1] = (short) atemp;
-				break;
-
-			case SUB:
-				atemp = topm1() - top();
-				rangeCheck(atemp, MIN_INTEGER, MAX_INTEGER, "SUB operator overflow or underflow");
-				spop();
-				memory[msp - 1] = (short) atemp;
-				break;
-
-			case MUL:
-				atemp = topm1() * top();
-				rangeCheck(atemp, MIN_INTEGER, MAX_INTEGER, "MUL operator overflow or underflow");
-				spop();
-				memory[msp - 1] = (short) atemp;
-				break;
-
-			case DIV:
-				atemp = 0;
-				v = memory[msp - 1];
-				spop();
-				if (v != 0) {
-					atemp = memory[msp - 1] / v;
-				} else {
-					runError("Attempt to divide by zero.\n");
+
+				int length = 0 <= opCode && opCode < Machine.INSTRUCTION_LENGTHS.length
+						? Machine.INSTRUCTION_LENGTHS[opCode] : 0;
+
+				// ILIMIT sets the counting registers
+				if (opCode == ILIMIT) {
+					this.iCount = iCount;
 				}
-				rangeCheck(atemp, MIN_INTEGER, MAX_INTEGER, "DIV operator overflow or underflow");
-				memory[msp - 1] = (short) atemp;
-				break;
-
-			case EQ:
-				spop();
-				memory[msp - 1] = (short) (memory[msp - 1] == topp1() ? MACHINE_TRUE : MACHINE_FALSE);
-				break;
-
-			case LT:
-				spop();
-				memory[msp - 1] = (short) (memory[msp - 1] < topp1() ? MACHINE_TRUE : MACHINE_FALSE);
-				break;
-
-			case OR:
-				spop();
-				rangeCheck(memory[msp - 1], MACHINE_FALSE, MACHINE_TRUE, "OR operand is not a Boolean value");
-				rangeCheck(memory[msp], MACHINE_FALSE, MACHINE_TRUE, "OR operand is not a Boolean value");
-				memory[msp - 1] = (short) ((memory[msp - 1] == MACHINE_TRUE || memory[msp] == MACHINE_TRUE)
-						? MACHINE_TRUE : MACHINE_FALSE);
-				break;
-
-			/*
-			 * SWAP: swap the top two stack items. Quite useful in implementing
-			 * other arithmetic/boolean operations efficiently
-			 */
-			case SWAP:
-				v = topm1();
-				memory[msp - 2] = memory[msp - 1];
-				memory[msp - 1] = v;
-				break;
-
-			/*
-			 * READC: machine input operation. One character of input is read,
-			 * and pushed to the top of the stack
-			 */
-			case READC:
-				spush();
-				memory[msp - 1] = (short) (inputSource.readChar() & CHARMASK);
-				break;
-
-			/*
-			 * PRINTC: print the top of the stack as a character, and pop the
-			 * stack. Used for implementing output functions.
-			 */
-			case PRINTC:
-				machineOutput.print((char) (memory[msp - 1] & CHARMASK));
-				spop();
-				break;
-
-			/**
-			 * READI: read an integer up to the next non-integer, and push this
-			 * integer to the top of the stack. See the machine description
-			 * handout for more details.
-			 */
-			case READI:
-				intInput = inputSource.readInt();
-				rangeCheck(intInput, MIN_INTEGER, MAX_INTEGER, "READI: Integer input out of range");
-				spush();
-				memory[msp - 1] = (short) intInput;
-				break;
-
-			/**
-			 * PRINTI: print the top of the stack as an integer, and pop the
-			 * stack
-			 */
-			case PRINTI:
-				machineOutput.print(memory[msp - 1]);
-				spop();
-				break;
-
-			// HALT: halt execution
-			case HALT:
-				executing = false;
-				break;
-
-			// TRON: start tracing machine execution
-			case TRON:
-				dumpMachineState("Start trace (TRON).\n", pc, msp, mlp);
-				break;
-
-			// TROFF: stop tracing machine execution
-			case TROFF:
-				tracingEnabled = false;
-				dumpMachineState("End trace (TROFF).\n", pc, msp, mlp);
-				break;
-
-			// ILIMIT V: Set instruction count limit to V
-			case ILIMIT:
-				iLimit = memory[pc + 1];
-				if (iLimit > 0) {
-					counting = true;
-					iCount = 0;
-				} else {
-					counting = false;
-					iLimit = Integer.MAX_VALUE; // set to safe value
+
+				executeInstruction(opCode, length > 1 ? memory[pc + 1] : 0, length > 2 ? memory[pc + 2] : 0);
+
+				if (opCode == ILIMIT) {
+					counting = this.counting;
+					iCount = this.iCount;
+					iLimit = this.iLimit;
 				}
-				break;
 
-			default:
-				runError("Illegal instruction code.\n");
-				break;
+				// update program counter to next instruction
+				pc += length;
+
+				// resume from the decoded form as soon as it covers pc again
+				if (code != null && 0 <= pc && pc < code.limit && code.lengths[pc] != DecodedProgram.UNDECODED) {
+					break;
+				}
+			}
+		} finally {
+			// runError throws, so keep the registers on the way out
+			this.counting = counting;
+			this.iCount = iCount;
+			this.iLimit = iLimit;
+		}
+	}
+
+	/**
+	 * Execute one instruction: the part of an instruction the classic and
+	 * the decoded loops share. The loops check the machine state before it,
+	 * pass its operands, from memory or from the decoded form, and advance
+	 * pc by the length of the instruction after it; BR and BF set pc
+	 * themselves.
+	 *
+	 * @param opCode
+	 *            the instruction
+	 * @param operand1
+	 *            its first operand, if it has one
+	 * @param operand2
+	 *            its second operand, if it has one
+	 * @throws ExecutionException
+	 *             from runError
+	 */
+	protected void executeInstruction(short opCode, short operand1, short operand2) throws ExecutionException {
+		short n, v, ll, addr;
+		int atemp;
+
+		switch (opCode) {
+		// ADDR LL on: push value of display[LL] + ON to stack
+		case ADDR:
+			ll = operand1;
+			rangeCheck(ll, 0, Machine.DISPLAY_SIZE - 1, "ADDR: Display index out of range.\n");
+			spush();
+			memory[msp - 1] = (short) (display[ll] + operand2);
+			break;
+
+		// LOAD: push the value of memory[TOP] to the stack
+		case LOAD:
+			addr = memory[msp - 1];
+			rangeCheck(addr, 0, Machine.MEMORY_SIZE - 1, "LOAD address out of range.\n");
+			if (memory[addr] == UNDEFINED) {
+				runError("Attempt to LOAD undefined value.\n");
+			} else {
+				memory[msp - 1] = memory[addr];
+			}
+			break;
+
+		// STORE: store a value on top of the stack in memory
+		case STORE:
+			v = memory[msp - 1];
+			spop();
+			addr = memory[msp - 1];
+			spop();
+			// rangeCheck(addr, 0, Machine.MEMORY_SIZE-1,
+			// Disallow stores into code area.
+			rangeCheck(addr, bottomOfStack - 1, Machine.MEMORY_SIZE - 1, "STORE address out of range.\n");
+			memory[addr] = v;
+			if (addr >= stackLimit) {
+				markDirty(addr, addr + 1);
 			}
-			// end of switch on instruction code
+			break;
+
+		// PUSH V: push V to the stack
+		case PUSH:
+			spush();
+			memory[msp - 1] = operand1;
+			break;
+
+		// PUSHMT: effectively, push MT to the top of the stack
+		case PUSHMT:
+			spush();
+			memory[msp - 1] = (short) (msp - 1);
+			break;
+
+		// SETD LL: set display[LL] to the top of the stack
+		case SETD:
+			addr = memory[msp - 1];
+			spop();
+			ll = operand1;
+			rangeCheck(ll, 0, Machine.DISPLAY_SIZE - 1, "SETD display index out of range.\n");
+			if (addr != MIN_INTEGER) { // special case - uninitialized
+				rangeCheck(addr, bottomOfStack, mlp, "SETD display entry out of range.\n");
+			}
+			displayMax = (displayMax > ll ? displayMax : ll);
+			display[ll] = addr;
+			break;
+
+		// POPN: do n pops, where n is the value on top of the stack
+		// Underflow error will be caught before next instruction
+		case POPN:
+			msp -= memory[msp - 1];
+			spop();
+			break;
+
+		// POP: pop the top of the machine stack
+		case POP:
+			spop();
+			break;
+
+		/*
+		 * DUPN: leave n copies of the next-to-the -top stack item on the
+		 * top of the stack, where n is the initial top of the stack value
+		 */
+		case DUPN:
+			n = memory[msp - 1];
+			spop();
+			v = memory[msp - 1];
+			spop();
+			rangeCheck(msp + n, bottomOfStack, mlp, "DUPN stack overflow.\n");
+			if (msp + n > stackLimit) {
+				extendStack(msp + n);
+			}
+			for (int i = msp; i <= msp - 1 + n; i++) {
+				memory[i] = v;
+			}
+			msp += n;
+			break;
+
+		// DUP: push the top of the stack
+		case DUP:
+			spush();
+			memory[msp - 1] = topm1();
+			break;
+
+		// BR: branch to the address on the top of the stack
+		case BR:
+			if (profile != null) {
+				profile.jump(pc, memory[msp - 1]);
+			}
+			pc = memory[msp - 1]; // BR sets pc directly
+			spop();
+			break;
+
+		// BF: branch to address atop the stack if the next-to-the-top
+		// value is MACHINE_FALSE
+		case BF:
+			addr = memory[msp - 1];
+			spop();
+			v = memory[msp - 1];
+			// rangeCheck(v , MACHINE_FALSE, MACHINE_TRUE, "BF argument is
+			// not a Boolean value");
+			spop();
+			if (profile != null) {
+				profile.branch(pc, addr, v == MACHINE_FALSE);
+			}
+			if (v == MACHINE_FALSE) {
+				pc = addr;
+			} else {
+				// BF sets pc directly
+				pc++;
+			}
+			break;
 
-			// update program counter to next instruction
-			pc += Machine.INSTRUCTION_LENGTHS[opCode];
+		// NEG: arithmetic negation of top of stack
+		case NEG:
+			memory[msp - 1] = (short) (-memory[msp - 1]);
+			if (memory[msp - 1] == UNDEFINED) {
+				runError("Arithmetic underflow - NEG operator");
+			}
+			break;
+
+		/*
+		 * ADD, SUB, MUL, DIV, EQ, LT, OR: arithmetic and logical
+		 * operations. If the top of the stack is y, and the next item down
+		 * is x, then OP (where OP=ADD, SUB, ... , OR) performs x OP y. Some
+		 * meager overflow checking is done.
+		 */
+		case ADD:
+			atemp = topm1() + top();
+			rangeCheck(atemp, MIN_INTEGER, MAX_INTEGER, "ADD operator overflow or underflow");
+			spop();
+			memory[msp - 1] = (short) atemp;
+			break;
+
+		case SUB:
+			atemp = topm1() - top();
+			rangeCheck(atemp, MIN_INTEGER, MAX_INTEGER, "SUB operator overflow or underflow");
+			spop();
+			memory[msp - 1] = (short) atemp;
+			break;
+
+		case MUL:
+			atemp = topm1() * top();
+			rangeCheck(atemp, MIN_INTEGER, MAX_INTEGER, "MUL operator overflow or underflow");
+			spop();
+			memory[msp - 1] = (short) atemp;
+			break;
+
+		case DIV:
+			atemp = 0;
+			v = memory[msp - 1];
+			spop();
+			if (v != 0) {
+				atemp = memory[msp - 1] / v;
+			} else {
+				runError("Attempt to divide by zero.\n");
+			}
+			rangeCheck(atemp, MIN_INTEGER, MAX_INTEGER, "DIV operator overflow or underflow");
+			memory[msp - 1] = (short) atemp;
+			break;
+
+		case EQ:
+			spop();
+			memory[msp - 1] = memory[msp - 1] == topp1() ? MACHINE_TRUE : MACHINE_FALSE;
+			break;
+
+		case LT:
+			spop();
+			memory[msp - 1] = memory[msp - 1] < topp1() ? MACHINE_TRUE : MACHINE_FALSE;
+			break;
+
+		case OR:
+			spop();
+			rangeCheck(memory[msp - 1], MACHINE_FALSE, MACHINE_TRUE, "OR operand is not a Boolean value");
+			rangeCheck(memory[msp], MACHINE_FALSE, MACHINE_TRUE, "OR operand is not a Boolean value");
+			memory[msp - 1] = (memory[msp - 1] == MACHINE_TRUE || memory[msp] == MACHINE_TRUE) ? MACHINE_TRUE
+					: MACHINE_FALSE;
+			break;
+
+		/*
+		 * SWAP: swap the top two stack items. Quite useful in implementing
+		 * other arithmetic/boolean operations efficiently
+		 */
+		case SWAP:
+			v = topm1();
+			memory[msp - 2] = memory[msp - 1];
+			memory[msp - 1] = v;
+			break;
+
+		/*
+		 * READC: machine input operation. One character of input is read,
+		 * and pushed to the top of the stack
+		 */
+		case READC:
+			spush();
+			outputBuffer.flush();
+			memory[msp - 1] = (short) (inputSource.readChar() & CHARMASK);
+			break;
+
+		/*
+		 * PRINTC: print the top of the stack as a character, and pop the
+		 * stack. Used for implementing output functions.
+		 */
+		case PRINTC:
+			outputBuffer.printChar(memory[msp - 1] & CHARMASK);
+			spop();
+			break;
+
+		/**
+		 * READI: read an integer up to the next non-integer, and push this
+		 * integer to the top of the stack. See the machine description
+		 * handout for more details.
+		 */
+		case READI:
+			outputBuffer.flush();
+			int intInput = inputSource.readInt();
+			rangeCheck(intInput, MIN_INTEGER, MAX_INTEGER, "READI: Integer input out of range");
+			spush();
+			memory[msp - 1] = (short) intInput;
+			break;
+
+		/**
+		 * PRINTI: print the top of the stack as an integer, and pop the
+		 * stack
+		 */
+		case PRINTI:
+			outputBuffer.printInt(memory[msp - 1]);
+			spop();
+			break;
+
+		// HALT: halt execution
+		case HALT:
+			executing = false;
+			break;
+
+		// TRON: start tracing machine execution
+		case TRON:
+			dumpMachineState("Start trace (TRON).\n", pc, msp, mlp);
+			break;
+
+		// TROFF: stop tracing machine execution
+		case TROFF:
+			tracingEnabled = false;
+			dumpMachineState("End trace (TROFF).\n", pc, msp, mlp);
+			break;
+
+		// ILIMIT V: Set instruction count limit to V
+		case ILIMIT:
+			iLimit = operand1;
+			if (iLimit > 0) {
+				counting = true;
+				retiredInstructions += iCount;
+				iCount = 0;
+			} else {
+				counting = false;
+				iLimit = Integer.MAX_VALUE; // set to safe value
+			}
+			break;
+
+		default:
+			runError("Illegal instruction code.\n");
+			break;
 		}
+		// end of switch on instruction code
+	}
 
-		// End interpreter main loop
+	/**
+	 * The interpreter main loop over a pre-decoded code area. Each instruction
+	 * is dispatched from its decoded form instead of being fetched from memory
+	 * and decoded again on every execution.
+	 *
+	 * Returns when the machine stops, when the program counter leaves the
+	 * decoded region, or after a branch if <code>returnAtBranches</code> is
+	 * set. The decoded region stops short of the code words a program can
+	 * write, so it stays valid for the whole run.
+	 *
+	 * If the code area has been verified, an instruction entered at its
+	 * verified stack depth leaves the next instruction at its own whenever it
+	 * is a verified exit; the state checks before the next instruction cannot
+	 * fail then and are skipped. Checking resumes at the first instruction
+	 * reached any other way, and for good once an ILIMIT, trace or profile
+	 * needs every instruction to be looked at.
+	 *
+	 * @param code
+	 *            decoded code area
+	 * @return <code>code</code>
+	 * @throws ExecutionException
+	 *             from runError
+	 */
+	protected DecodedProgram executeDecoded(DecodedProgram code) throws ExecutionException {
+		final short[] opCodes = code.opCodes;
+		final short[] operand1 = code.operand1;
+		final short[] operand2 = code.operand2;
+		final byte[] lengths = code.lengths;
+		final int limit = code.limit;
+		final byte[] fusedOps = code.fusedOps;
+		final int[] stackDepths = code.stackDepths;
+		final boolean[] verifiedExits = code.verifiedExits;
+		final int[] exitTops = code.exitTops;
+
+		boolean leave = false; // return to the caller after this instruction
+		boolean trusted = false; // entered at its verified depth
+		boolean verified = false; // the checks before this instruction cannot fail
+		// Working copies of the instruction counting registers
+		boolean counting = this.counting;
+		long iCount = this.iCount;
+		int iLimit = this.iLimit;
+
+		try {
+			while (executing) {
+				if (verified) {
+					iCount++; // Count instructions executed
+				} else {
+					// Validate current state of the machine
+					// Execute one instruction from the decoded form, leaving
+					// anything outside it to the classic loop
+					if (pc < 0 || pc >= limit || lengths[pc] == DecodedProgram.UNDECODED) {
+						break;
+					}
+
+					if (msp < bottomOfStack) {
+						runError("Run stack underflow.");
+						return code;
+					}
+
+					if (msp >= stackLimit) {
+						if (msp >= mlp) {
+							runError("Run stack overflow.");
+							return code;
+						}
+						extendStack(msp + 1);
+					}
+
+					iCount++; // Count instructions executed
+					if (counting) {
+						if (iCount > iLimit) // count exceeded
+							runError("Instruction execution limit (" + iLimit + ") exceeded");
+					}
+
+					if (tracingEnabled) {
+						traceInstruction();
+					}
+
+					if (profile != null) {
+						profile.instruction(pc, opCodes[pc], msp - bottomOfStack);
+					}
+
+					trusted = stackDepths != null && stackDepths[pc] == msp - bottomOfStack && !counting
+							&& !tracingEnabled && profile == null;
+				}
 
-		// Clean up after execution
-		dumpMachineState("End Execution.\n", pc, msp, mlp);
+				// Execute a superinstruction when its guards allow it
+				if (fusedOps != null && fusedOps[pc] != DecodedProgram.NOT_FUSED && !tracingEnabled
+						&& profile == null) {
+					int executed = executeFused(code, counting ? (int) (iLimit - iCount + 1) : Integer.MAX_VALUE);
+
+					if (executed > 0) {
+						iCount += executed - 1;
+						fusedInstructions += executed;
+						verified = false;
+
+						if (returnAtBranches) {
+							break;
+						}
+						continue;
+					}
+				}
+
+				// Fetch and execute the next instruction
+				short opCode = opCodes[pc];
+				int length = lengths[pc];
+
+				verified = trusted && verifiedExits[pc]
+						&& (exitTops[pc] == DecodedProgram.ANY_TOP || memory[msp - 1] == exitTops[pc]);
+
+				// ILIMIT sets the counting registers
+				if (opCode == ILIMIT) {
+					this.iCount = iCount;
+				}
+
+				executeInstruction(opCode, operand1[pc], operand2[pc]);
+
+				switch (opCode) {
+				case ILIMIT:
+					counting = this.counting;
+					iCount = this.iCount;
+					iLimit = this.iLimit;
+					// the limit is checked before every instruction
+					verified = false;
+					break;
+
+				case BR:
+				case BF:
+					leave = returnAtBranches;
+					break;
+
+				default:
+					break;
+				}
+
+				// update program counter to next instruction
+				pc += length;
+
+				if (leave) {
+					break;
+				}
+			}
+		} finally {
+			// runError throws, so keep the registers on the way out
+			this.counting = counting;
+			this.iCount = iCount;
+			this.iLimit = iLimit;
+		}
+
+		return code;
+	}
+
+	/**
+	 * Execute the superinstruction that starts at pc.
+	 *
+	 * Each superinstruction first checks everything the instructions it
+	 * replaces would check on the way (stack bounds, instruction limit,
+	 * addresses and undefined values). If any check would fail it changes
+	 * nothing and returns 0, and the caller executes the first instruction of
+	 * the sequence on its own so the error is reported exactly as usual.
+	 *
+	 * @param code
+	 *            decoded code area with fusion information
+	 * @param allowed
+	 *            number of instructions that may execute before the
+	 *            instruction execution limit is exceeded
+	 * @return number of instructions executed, 0 if none
+	 */
+	protected int executeFused(DecodedProgram code, int allowed) {
+		short v, addr;
+
+		switch (code.fusedOps[pc]) {
+		// ADDR LL ON; LOAD
+		case DecodedProgram.ADDR_LOAD:
+			if (allowed < 2 || msp + 1 >= stackLimit) {
+				return 0;
+			}
+
+			addr = (short) (display[code.operand1[pc]] + code.operand2[pc]);
+			if (addr < 0 || addr >= Machine.MEMORY_SIZE) {
+				return 0;
+			}
+
+			// ADDR leaves addr in memory[msp] before LOAD reads memory[addr]
+			v = (addr == msp ? addr : memory[addr]);
+			if (v == UNDEFINED) {
+				return 0;
+			}
+
+			memory[msp] = v;
+			msp++;
+			pc += 4;
+			return 2;
+
+		// PUSH addr; BF
+		case DecodedProgram.PUSH_BF:
+			if (allowed < 2 || msp + 1 >= stackLimit) {
+				return 0;
+			}
+
+			addr = code.operand1[pc];
+			memory[msp] = addr;
+			v = memory[msp - 1];
+			msp--;
+			if (v == MACHINE_FALSE) {
+				pc = addr;
+			} else {
+				pc += 3;
+			}
+			return 2;
+
+		// PUSH n; POPN
+		case DecodedProgram.PUSH_POPN:
+			if (allowed < 2 || msp + 1 >= stackLimit) {
+				return 0;
+			}
+
+			v = code.operand1[pc];
+			memory[msp] = v;
+			msp -= v;
+			pc += 3;
+			return 2;
+
+		// DUP; PUSH 0; EQ
+		case DecodedProgram.DUP_PUSH0_EQ:
+			if (allowed < 3 || msp + 2 >= stackLimit) {
+				return 0;
+			}
+
+			v = memory[msp - 1];
+			memory[msp] = (v == 0 ? MACHINE_TRUE : MACHINE_FALSE);
+			memory[msp + 1] = 0;
+			msp++;
+			pc += 4;
+			return 3;
+
+		// PUSH c; PRINTC ... PUSH c; PRINTC
+		case DecodedProgram.PRINT_STRING:
+			int pairs = code.printRuns[pc];
+			if (allowed < 2 * pairs || msp + 1 >= stackLimit) {
+				return 0;
+			}
+
+			for (int i = 0; i < pairs; i++) {
+				v = code.operand1[pc];
+				outputBuffer.printChar(v & CHARMASK);
+				memory[msp] = v;
+				pc += 3;
+			}
+			return 2 * pairs;
+
+		default:
+			return 0;
+		}
 	}
 }
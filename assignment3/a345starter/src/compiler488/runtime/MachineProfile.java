@@ -0,0 +1,376 @@
+package compiler488.runtime;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * MachineProfile: execution profile of a machine run.
+ *
+ * <p>
+ * A profiling machine reports every instruction it executes, and every
+ * branch, to its profile. The profile counts instructions per opcode and per
+ * address, counts how often each BF branched and fell through, and keeps the
+ * largest stack depth seen between instructions. Counting is a handful of
+ * array increments per instruction and creates no objects, except when a
+ * routine is entered from a new call path.
+ * </p>
+ *
+ * <p>
+ * The report can show the source line of each address, and the most
+ * executed source lines, from the line table code generation recorded.
+ * </p>
+ *
+ * <p>
+ * The profile also follows calls: a branch to the entry address of a routine
+ * (see {@link #addRoutine}) is a call, and a branch to the address after a
+ * call still active is the return from it. Instructions are charged to the
+ * chain of active routines and, within the innermost one, to the basic block
+ * (the address last branched to) they are in; calls nested more than
+ * MAX_CALL_DEPTH deep are charged to the deepest routine recorded, so deep
+ * recursion does not grow the profile. {@link #writeCollapsed} writes
+ * these counts in the collapsed stack format read by flame graph tools; with
+ * no routines known, everything is charged to <code>main</code>.
+ * </p>
+ */
+public class MachineProfile {
+	/** Rows shown in the address and branch tables of the report. */
+	public static final int REPORT_ROWS = 20;
+
+	/** Deepest call path recorded; deeper calls are charged to it. */
+	public static final int MAX_CALL_DEPTH = 128;
+
+	/** Index in opcodeCounts for words that are not instructions. */
+	private static final int ILLEGAL = Machine.INSTRUCTION_NAMES.length;
+
+	/** A routine on a call path. */
+	private static class Frame {
+		final String name;
+		final List<Frame> children = new ArrayList<Frame>();
+
+		/** Instructions executed in this routine, by basic block. */
+		long[] blockCounts = new long[64];
+
+		Frame(String name) {
+			this.name = name;
+		}
+	}
+
+	private final long[] opcodeCounts = new long[ILLEGAL + 1];
+	private long[] pcCounts = new long[1024];
+	private long[] taken = new long[1024];
+	private long[] notTaken = new long[1024];
+	private long instructions;
+	private int maxStackDepth;
+
+	/** Routine names by entry address. */
+	private final Map<Integer, String> routines = new HashMap<Integer, String>();
+
+	private Frame root;
+	private Frame current;
+
+	/** Routines on the current call path, by depth; path[0] is main. */
+	private final Frame[] path = new Frame[MAX_CALL_DEPTH + 1];
+
+	/** Return addresses of the active calls, innermost last. */
+	private int[] returns = new int[64];
+	private int depth;
+
+	/** Number of active calls returning to each address. */
+	private int[] pendingReturns = new int[1024];
+
+	/** Address of the first instruction of the current basic block. */
+	private int blockEntry;
+
+	public MachineProfile() {
+		reset();
+	}
+
+	/** Discard all counts, keeping the routine entries. */
+	public void reset() {
+		Arrays.fill(opcodeCounts, 0);
+		Arrays.fill(pcCounts, 0);
+		Arrays.fill(taken, 0);
+		Arrays.fill(notTaken, 0);
+		instructions = 0;
+		maxStackDepth = 0;
+		root = new Frame("main");
+		current = root;
+		path[0] = root;
+		Arrays.fill(pendingReturns, 0);
+		depth = 0;
+		blockEntry = 0;
+	}
+
+	/**
+	 * Name the routine starting at an address, so that branches to it are
+	 * profiled as calls.
+	 *
+	 * @param entry
+	 *            address of the first instruction of the routine
+	 * @param name
+	 *            name of the routine
+	 */
+	public void addRoutine(int entry, String name) {
+		routines.put(entry, name);
+	}
+
+	/**
+	 * Count an instruction about to execute.
+	 *
+	 * @param pc
+	 *            address of the instruction
+	 * @param opCode
+	 *            the instruction
+	 * @param stackDepth
+	 *            number of words on the run stack
+	 */
+	public void instruction(int pc, int opCode, int stackDepth) {
+		instructions++;
+		opcodeCounts[0 <= opCode && opCode < ILLEGAL ? opCode : ILLEGAL]++;
+
+		if (pc >= pcCounts.length) {
+			pcCounts = grow(pcCounts, pc);
+		}
+		pcCounts[pc]++;
+
+		if (blockEntry >= current.blockCounts.length) {
+			current.blockCounts = grow(current.blockCounts, blockEntry);
+		}
+		current.blockCounts[blockEntry]++;
+
+		if (stackDepth > maxStackDepth) {
+			maxStackDepth = stackDepth;
+		}
+	}
+
+	/**
+	 * Count a BF instruction about to execute.
+	 *
+	 * @param pc
+	 *            address of the BF
+	 * @param target
+	 *            address it branches to
+	 * @param branches
+	 *            true if it branches, false if it falls through
+	 */
+	public void branch(int pc, int target, boolean branches) {
+		if (pc >= taken.length) {
+			taken = grow(taken, pc);
+			notTaken = grow(notTaken, pc);
+		}
+
+		if (branches) {
+			taken[pc]++;
+			jump(pc, target);
+		} else {
+			notTaken[pc]++;
+			blockEntry = pc + 1;
+		}
+	}
+
+	/**
+	 * Follow a branch about to be taken: a call, a return or a jump within
+	 * the current routine.
+	 *
+	 * @param pc
+	 *            address of the branch instruction
+	 * @param target
+	 *            address it branches to
+	 */
+	public void jump(int pc, int target) {
+		blockEntry = Math.max(target, 0);
+
+		// Return from the innermost activation the target returns to
+		if (target >= 0 && target < pendingReturns.length && pendingReturns[target] > 0) {
+			while (returns[--depth] != target) {
+				pendingReturns[returns[depth]]--;
+			}
+			pendingReturns[target]--;
+			current = path[Math.min(depth, MAX_CALL_DEPTH)];
+			return;
+		}
+
+		String name = routines.get(target);
+
+		if (name != null) {
+			if (depth == returns.length) {
+				returns = Arrays.copyOf(returns, depth * 2);
+			}
+			if (pc + 1 >= pendingReturns.length) {
+				pendingReturns = Arrays.copyOf(pendingReturns, Math.max(pendingReturns.length * 2, pc + 2));
+			}
+			returns[depth++] = pc + 1;
+			pendingReturns[pc + 1]++;
+
+			if (depth <= MAX_CALL_DEPTH) {
+				current = child(current, name);
+				path[depth] = current;
+			}
+		}
+	}
+
+	private static Frame child(Frame parent, String name) {
+		for (Frame f : parent.children) {
+			if (f.name.equals(name)) {
+				return f;
+			}
+		}
+
+		Frame f = new Frame(name);
+
+		parent.children.add(f);
+		return f;
+	}
+
+	private static long[] grow(long[] counts, int index) {
+		return Arrays.copyOf(counts, Math.max(counts.length * 2, index + 1));
+	}
+
+	public long getInstructionCount() {
+		return instructions;
+	}
+
+	public long getOpcodeCount(int opCode) {
+		return opcodeCounts[0 <= opCode && opCode < ILLEGAL ? opCode : ILLEGAL];
+	}
+
+	public long getAddressCount(int pc) {
+		return pc < pcCounts.length ? pcCounts[pc] : 0;
+	}
+
+	public int getMaxStackDepth() {
+		return maxStackDepth;
+	}
+
+	/**
+	 * Write the profile as text: totals, instructions by opcode, the most
+	 * executed addresses and the most executed conditional branches.
+	 *
+	 * @param out
+	 *            stream receiving the report
+	 */
+	public void report(PrintStream out) {
+		report(out, null);
+	}
+
+	/**
+	 * Write the profile as text, with the source line of each address and
+	 * the most executed source lines if code generation recorded lines.
+	 *
+	 * @param out
+	 *            stream receiving the report
+	 * @param lines
+	 *            source line of the code at each address, or null
+	 */
+	public void report(PrintStream out, LineTable lines) {
+		boolean withLines = lines != null && !lines.isEmpty();
+
+		out.println("Profile: " + instructions + " instructions, maximum stack depth " + maxStackDepth);
+
+		out.println();
+		out.println(String.format("%-16s %14s %7s", "Opcode", "Count", "%"));
+		for (int op : byCount(opcodeCounts, opcodeCounts.length)) {
+			out.println(String.format("%-16s %14d %7.2f", op == ILLEGAL ? "(illegal)" : Machine.INSTRUCTION_NAMES[op],
+					opcodeCounts[op], percent(opcodeCounts[op], instructions)));
+		}
+
+		if (withLines) {
+			long[] lineCounts = new long[1];
+
+			for (int pc = 0; pc < pcCounts.length; pc++) {
+				int line = lines.getLine(pc);
+
+				if (pcCounts[pc] > 0 && line >= 0) {
+					if (line >= lineCounts.length) {
+						lineCounts = grow(lineCounts, line);
+					}
+					lineCounts[line] += pcCounts[pc];
+				}
+			}
+
+			out.println();
+			out.println(String.format("%-16s %14s %7s", "Source line", "Count", "%"));
+			for (int line : byCount(lineCounts, REPORT_ROWS)) {
+				out.println(String.format("%-16d %14d %7.2f", line, lineCounts[line],
+						percent(lineCounts[line], instructions)));
+			}
+		}
+
+		out.println();
+		out.println(String.format("%-16s %14s %7s", "Address", "Count", "%") + (withLines ? "  Line" : ""));
+		for (int pc : byCount(pcCounts, REPORT_ROWS)) {
+			out.println(String.format("%-16d %14d %7.2f", pc, pcCounts[pc], percent(pcCounts[pc], instructions))
+					+ lineColumn(lines, withLines, pc));
+		}
+
+		long[] branches = new long[taken.length];
+
+		for (int pc = 0; pc < branches.length; pc++) {
+			branches[pc] = taken[pc] + notTaken[pc];
+		}
+
+		out.println();
+		out.println(String.format("%-16s %14s %14s %7s", "BF address", "Branched", "Fell through", "% br")
+				+ (withLines ? "  Line" : ""));
+		for (int pc : byCount(branches, REPORT_ROWS)) {
+			out.println(String.format("%-16d %14d %14d %7.2f", pc, taken[pc], notTaken[pc],
+					percent(taken[pc], branches[pc])) + lineColumn(lines, withLines, pc));
+		}
+	}
+
+	/** The Line column of an address, or "" without lines. */
+	private static String lineColumn(LineTable lines, boolean withLines, int pc) {
+		if (!withLines) {
+			return "";
+		}
+
+		int line = lines.getLine(pc);
+
+		return line < 0 ? "  -" : "  " + line;
+	}
+
+	/**
+	 * Write the instruction counts in collapsed stack format, one line per
+	 * call path and basic block: <code>main;routine;...;@block count</code>.
+	 *
+	 * @param out
+	 *            stream receiving the stacks
+	 */
+	public void writeCollapsed(PrintStream out) {
+		writeCollapsed(out, root, root.name);
+	}
+
+	private static void writeCollapsed(PrintStream out, Frame frame, String path) {
+		for (int block = 0; block < frame.blockCounts.length; block++) {
+			if (frame.blockCounts[block] > 0) {
+				out.println(path + ";@" + block + " " + frame.blockCounts[block]);
+			}
+		}
+
+		for (Frame f : frame.children) {
+			writeCollapsed(out, f, path + ";" + f.name);
+		}
+	}
+
+	/** Indexes of the largest non-zero counts, largest first. */
+	private static List<Integer> byCount(final long[] counts, int rows) {
+		List<Integer> indexes = new ArrayList<Integer>();
+
+		for (int i = 0; i < counts.length; i++) {
+			if (counts[i] > 0) {
+				indexes.add(i);
+			}
+		}
+
+		indexes.sort((a, b) -> Long.compare(counts[b], counts[a]));
+		return indexes.subList(0, Math.min(rows, indexes.size()));
+	}
+
+	private static double percent(long part, long whole) {
+		return whole == 0 ? 0.0 : 100.0 * part / whole;
+	}
+}
@@ -0,0 +1,77 @@
+package compiler488.runtime;
+
+/**
+ * MachineSnapshot: the state of a machine after code generation, its memory
+ * image, initial registers, display and source line table, ready to be restored into any number
+ * of machines of the same kind.
+ *
+ * <p>
+ * A snapshot is immutable and may be restored by several threads at once.
+ * Restoring is copy on write: a MachineExecutor copies back only the pages
+ * written since it last restored the same snapshot, and a PagedMachine
+ * shares the snapshot's pages until it first writes to each of them.
+ * </p>
+ *
+ * @see Machine#snapshot()
+ * @see Machine#restore(MachineSnapshot)
+ */
+public final class MachineSnapshot {
+	/** Initial values of the registers. */
+	final int startPC;
+	final int startMSP;
+	final int startMLP;
+
+	/** Words of memory of the machine the snapshot was taken of. */
+	final int memorySize;
+
+	/** Display registers, MIN_INTEGER above displayMax. */
+	final int[] display;
+	final int displayMax;
+
+	/** Memory of a MachineExecutor, or null. */
+	final short[] memory;
+
+	/** Pages of <code>memory</code> holding anything but UNDEFINED. */
+	final long pages;
+
+	/** Page table of a PagedMachine, or null; its pages are never written. */
+	final int[][] pageTable;
+
+	/** Source line of the code at each address; never written. */
+	final LineTable lines;
+
+	MachineSnapshot(int startPC, int startMSP, int startMLP, int memorySize, int[] display, int displayMax,
+			short[] memory, long pages, int[][] pageTable, LineTable lines) {
+		this.startPC = startPC;
+		this.startMSP = startMSP;
+		this.startMLP = startMLP;
+		this.memorySize = memorySize;
+		this.display = display.clone();
+		this.displayMax = displayMax;
+		this.memory = memory;
+		this.pages = pages;
+		this.pageTable = pageTable;
+		this.lines = lines;
+	}
+
+	public int getStartPC() {
+		return startPC;
+	}
+
+	public int getStartMSP() {
+		return startMSP;
+	}
+
+	public int getStartMLP() {
+		return startMLP;
+	}
+
+	public int getMemorySize() {
+		return memorySize;
+	}
+
+	/** @return the source line of the code at each address */
+	public LineTable getLines() {
+		return lines;
+	}
+}
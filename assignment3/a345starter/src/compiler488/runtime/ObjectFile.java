@@ -0,0 +1,380 @@
+package compiler488.runtime;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * ObjectFile: a compiled program in the .488x object file format, which Main
+ * writes with -o and runs with -L.
+ *
+ * <p>
+ * An object file holds the code area, <code>memory[ 0 .. startMSP - 1 ]</code>,
+ * the initial registers and a table mapping code addresses to source
+ * lines. Reading maps the file and checks it; the
+ * code words are copied from the mapping straight into machine memory when
+ * the program is loaded.
+ * </p>
+ *
+ * <pre>
+ *  Layout (all ints big endian):
+ *
+ *    header   MAGIC, VERSION, flags, startPC, startMSP, startMLP,
+ *             code words, lines, CRC32 of everything after the header
+ *    code     startMSP words, 2 bytes each (4 with the WIDE flag)
+ *    lines    address, source line; in address order
+ * </pre>
+ *
+ * <p>
+ * Narrow code words are classic machine words, with UNDEFINED for an
+ * undefined word. Code from a PagedMachine is written wide if any word does
+ * not fit. With the MLP_AT_TOP flag the stack limit is the top of memory of
+ * whatever machine the program is loaded into, as PagedMachine.setMLP
+ * treats MEMORY_SIZE - 1.
+ * </p>
+ */
+public final class ObjectFile {
+	/** First int of an object file, "488X". */
+	public static final int MAGIC = 0x34383858;
+
+	public static final int VERSION = 2;
+
+	/** Suffix of object file names. */
+	public static final String SUFFIX = ".488x";
+
+	/** Bytes in the header. */
+	public static final int HEADER_SIZE = 36;
+
+	/** Flag: code words are 4 bytes. */
+	public static final int WIDE = 1;
+
+	/** Flag: startMLP is the top of memory. */
+	public static final int MLP_AT_TOP = 2;
+
+	private static final int CHECKSUM_OFFSET = 32;
+
+	/** Initial values of the registers. */
+	final int startPC;
+	final int startMSP;
+	final int startMLP;
+
+	/** WIDE and MLP_AT_TOP. */
+	final int flags;
+
+	/** The code words, from position 0. */
+	private final ByteBuffer code;
+
+	/** Source line of the code from each address on. */
+	private final LineTable lines;
+
+	/**
+	 * Make an object file of the code in a snapshot taken after code
+	 * generation.
+	 *
+	 * @param compiledCode
+	 *            the snapshot
+	 * @throws IllegalArgumentException
+	 *             the snapshot has no valid code area
+	 */
+	public ObjectFile(MachineSnapshot compiledCode) {
+		int length = compiledCode.startMSP;
+
+		if (length < 0 || length > compiledCode.memorySize) {
+			throw new IllegalArgumentException("Invalid code area end " + length);
+		}
+
+		startPC = compiledCode.startPC;
+		startMSP = length;
+		startMLP = compiledCode.startMLP;
+		lines = new LineTable(compiledCode.lines);
+
+		int flags = (startMLP == compiledCode.memorySize - 1 ? MLP_AT_TOP : 0);
+
+		if (compiledCode.memory != null) {
+			code = ByteBuffer.allocate(2 * length);
+			code.asShortBuffer().put(compiledCode.memory, 0, length);
+		} else {
+			int[] words = new int[length];
+			boolean wide = false;
+
+			for (int addr = 0; addr < length; addr++) {
+				int[] page = compiledCode.pageTable[addr / PagedMachine.PAGE_SIZE];
+
+				words[addr] = (page == null ? PagedMachine.UNDEFINED_WORD : page[addr % PagedMachine.PAGE_SIZE]);
+				wide |= words[addr] != PagedMachine.UNDEFINED_WORD
+						&& (words[addr] <= Machine.UNDEFINED || words[addr] > Short.MAX_VALUE);
+			}
+
+			if (wide) {
+				flags |= WIDE;
+				code = ByteBuffer.allocate(4 * length);
+				code.asIntBuffer().put(words);
+			} else {
+				code = ByteBuffer.allocate(2 * length);
+				for (int addr = 0; addr < length; addr++) {
+					code.putShort(2 * addr, words[addr] == PagedMachine.UNDEFINED_WORD ? Machine.UNDEFINED
+							: (short) words[addr]);
+				}
+			}
+		}
+
+		this.flags = flags;
+	}
+
+	private ObjectFile(int startPC, int startMSP, int startMLP, int flags, ByteBuffer code) {
+		this.startPC = startPC;
+		this.startMSP = startMSP;
+		this.startMLP = startMLP;
+		this.flags = flags;
+		this.code = code;
+		this.lines = new LineTable();
+	}
+
+	/**
+	 * Map and check an object file.
+	 *
+	 * @param file
+	 *            the object file
+	 * @return the object file, with its code still in the mapping
+	 * @throws IOException
+	 *             the file cannot be read, is not an object file of this
+	 *             version or is damaged
+	 */
+	public static ObjectFile read(File file) throws IOException {
+		ByteBuffer buffer;
+
+		try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			if (channel.size() > Integer.MAX_VALUE) {
+				throw new IOException(file + " is not an object file");
+			}
+			// The mapping stays valid after the channel is closed
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+
+		return decode(buffer, file.toString());
+	}
+
+	/**
+	 * Check an object file held in a buffer, such as one embedded in another
+	 * file.
+	 *
+	 * @param bytes
+	 *            the object file, from its position to its limit
+	 * @param name
+	 *            name of the object file for messages
+	 * @return the object file, with its code still in the buffer
+	 * @throws IOException
+	 *             the bytes are not an object file of this version or it is
+	 *             damaged
+	 */
+	public static ObjectFile decode(ByteBuffer bytes, String name) throws IOException {
+		ByteBuffer buffer = bytes.slice();
+
+		if (buffer.limit() < HEADER_SIZE) {
+			throw new IOException(name + " is not an object file");
+		}
+		if (buffer.getInt(0) != MAGIC) {
+			throw new IOException(name + " is not an object file");
+		}
+		if (buffer.getInt(4) != VERSION) {
+			throw new IOException(name + " is object file version " + buffer.getInt(4) + ", not " + VERSION);
+		}
+
+		CRC32 crc = new CRC32();
+
+		crc.update(buffer.duplicate().position(HEADER_SIZE));
+		if ((int) crc.getValue() != buffer.getInt(CHECKSUM_OFFSET)) {
+			throw new IOException(name + " is damaged (checksum mismatch)");
+		}
+
+		int flags = buffer.getInt(8);
+		int words = buffer.getInt(24);
+		int lineCount = buffer.getInt(28);
+		int wordBytes = (flags & WIDE) != 0 ? 4 : 2;
+
+		// No machine has more words, and the code must be in the buffer
+		if (words < 0 || words > PagedMachine.MAX_MEMORY_SIZE || words > (buffer.limit() - HEADER_SIZE) / wordBytes
+				|| lineCount < 0) {
+			throw new IOException(name + " is damaged (bad table sizes)");
+		}
+
+		int codeSize = words * wordBytes;
+
+		ByteBuffer code = buffer.duplicate().position(HEADER_SIZE).limit(HEADER_SIZE + codeSize).slice();
+		ObjectFile object = new ObjectFile(buffer.getInt(12), buffer.getInt(16), buffer.getInt(20), flags, code);
+
+		if (object.startMSP != words) {
+			throw new IOException(name + " is damaged (code size is not startMSP)");
+		}
+
+		try {
+			buffer.position(HEADER_SIZE + codeSize);
+
+			for (int i = 0; i < lineCount; i++) {
+				int addr = buffer.getInt();
+
+				object.lines.add(addr, buffer.getInt());
+			}
+		} catch (BufferUnderflowException e) {
+			throw new IOException(name + " is damaged (bad line table)");
+		}
+
+		return object;
+	}
+
+	/**
+	 * Write the object file, replacing the file if it exists.
+	 *
+	 * @param file
+	 *            the object file
+	 * @throws IOException
+	 *             the file cannot be written
+	 */
+	public void write(File file) throws IOException {
+		ByteBuffer buffer = encode();
+
+		try (FileChannel channel = new FileOutputStream(file).getChannel()) {
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	/**
+	 * Encode the object file.
+	 *
+	 * @return the bytes of the object file, from position 0 to the limit
+	 */
+	public ByteBuffer encode() {
+		int size = HEADER_SIZE + code.limit() + 8 * lines.size();
+
+		ByteBuffer buffer = ByteBuffer.allocate(size);
+
+		buffer.putInt(MAGIC);
+		buffer.putInt(VERSION);
+		buffer.putInt(flags);
+		buffer.putInt(startPC);
+		buffer.putInt(startMSP);
+		buffer.putInt(startMLP);
+		buffer.putInt(startMSP);
+		buffer.putInt(lines.size());
+		buffer.putInt(0); // checksum
+
+		buffer.put(code.duplicate().position(0));
+
+		for (int i = 0; i < lines.size(); i++) {
+			buffer.putInt(lines.getAddress(i));
+			buffer.putInt(lines.getLineAt(i));
+		}
+
+		CRC32 crc = new CRC32();
+
+		crc.update(buffer.duplicate().position(HEADER_SIZE).limit(size));
+		buffer.putInt(CHECKSUM_OFFSET, (int) crc.getValue());
+
+		return buffer.flip();
+	}
+
+	/**
+	 * Load the program into a machine, ready to run: the machine is reset,
+	 * the code words are copied into its memory and the registers are set.
+	 *
+	 * @param machine
+	 *            the machine
+	 * @throws IOException
+	 *             the program does not fit the machine
+	 */
+	public void load(BaseMachine machine) throws IOException {
+		machine.loadObject(this);
+	}
+
+	/**
+	 * Check that the code and registers fit a machine.
+	 *
+	 * @param memorySize
+	 *            words of memory of the machine
+	 * @throws IOException
+	 *             they do not fit
+	 */
+	void checkFits(int memorySize) throws IOException {
+		int mlp = startMLP(memorySize);
+
+		if (startMSP > memorySize || startPC < 0 || startPC >= memorySize || mlp < startMSP || mlp >= memorySize) {
+			throw new IOException("Program (code size " + startMSP + ", startPC " + startPC + ", startMLP " + mlp
+					+ ") does not fit a memory of " + memorySize + " words");
+		}
+	}
+
+	/** @return true iff the code words are 4 bytes */
+	boolean isWide() {
+		return (flags & WIDE) != 0;
+	}
+
+	/** @return the code words as shorts, from address 0 */
+	ShortBuffer shortWords() {
+		return code.duplicate().position(0).asShortBuffer();
+	}
+
+	/** @return the code words as ints, from address 0 */
+	IntBuffer intWords() {
+		return code.duplicate().position(0).asIntBuffer();
+	}
+
+	/**
+	 * The stack limit for a machine.
+	 *
+	 * @param memorySize
+	 *            words of memory of the machine
+	 * @return startMLP, or the top of memory with MLP_AT_TOP
+	 */
+	int startMLP(int memorySize) {
+		return (flags & MLP_AT_TOP) != 0 ? memorySize - 1 : startMLP;
+	}
+
+	/**
+	 * Record that the code from an address on comes from a source line.
+	 *
+	 * @param addr
+	 *            code address
+	 * @param line
+	 *            source line number
+	 */
+	public void addLine(int addr, int line) {
+		lines.add(addr, line);
+	}
+
+	/**
+	 * Source line of the code at an address.
+	 *
+	 * @param addr
+	 *            code address
+	 * @return the line, or -1 if the line table does not cover addr
+	 */
+	public int getLine(int addr) {
+		return lines.getLine(addr);
+	}
+
+	/** @return a copy of the line table, for a machine loading the program */
+	LineTable copyLines() {
+		return new LineTable(lines);
+	}
+
+	public int getStartPC() {
+		return startPC;
+	}
+
+	public int getStartMSP() {
+		return startMSP;
+	}
+
+	public int getStartMLP() {
+		return startMLP;
+	}
+}
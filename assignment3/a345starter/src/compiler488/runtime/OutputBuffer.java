@@ -0,0 +1,128 @@
+package compiler488.runtime;
+
+import java.io.PrintStream;
+
+/**
+ * OutputBuffer: collects the output of the PRINTC and PRINTI instructions
+ * as bytes and writes it to the machine output stream in large chunks.
+ *
+ * <p>
+ * The buffer writes itself out once it holds <code>threshold</code> bytes.
+ * The machine flushes it whenever the output has to be visible: when
+ * execution stops (HALT, runError), before READC and READI so that prompts
+ * appear before the program waits for input, and before any status or
+ * trace output so the two streams stay in order on a terminal.
+ * </p>
+ *
+ * Machine characters are 7 bit ASCII, so each character is one byte in any
+ * ASCII compatible encoding.
+ */
+final class OutputBuffer {
+	/** Default flush threshold in bytes. */
+	static final int DEFAULT_THRESHOLD = 8192;
+
+	/** Initial buffer capacity; the buffer grows up to the threshold. */
+	private static final int INITIAL_CAPACITY = 256;
+
+	/** Longest text printInt can append. */
+	private static final int MAX_INT_LENGTH = 11;
+
+	/** Stream the buffered output goes to. */
+	private final PrintStream out;
+
+	/** Number of buffered bytes that causes a flush. */
+	private final int threshold;
+
+	private byte[] bytes;
+	private int count;
+
+	/**
+	 * @param out
+	 *            stream receiving the output
+	 * @param threshold
+	 *            number of buffered bytes that causes a flush, 1 to write
+	 *            every character as soon as it is printed
+	 */
+	OutputBuffer(PrintStream out, int threshold) {
+		this.out = out;
+		this.threshold = Math.max(threshold, 1);
+		bytes = new byte[Math.min(this.threshold, INITIAL_CAPACITY) + MAX_INT_LENGTH];
+	}
+
+	/** Flush threshold of this buffer. */
+	int getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Append one character.
+	 *
+	 * @param c
+	 *            character code, 0 .. 127
+	 */
+	void printChar(int c) {
+		if (count == bytes.length) {
+			grow();
+		}
+
+		bytes[count++] = (byte) c;
+
+		if (count >= threshold) {
+			flush();
+		}
+	}
+
+	/**
+	 * Append the decimal text of an integer.
+	 *
+	 * @param value
+	 *            the integer
+	 */
+	void printInt(int value) {
+		if (count + MAX_INT_LENGTH > bytes.length) {
+			grow();
+		}
+
+		// Work with value <= 0 so that every int can be negated
+		if (value < 0) {
+			bytes[count++] = '-';
+		} else {
+			value = -value;
+		}
+
+		int first = count;
+
+		do {
+			bytes[count++] = (byte) ('0' - value % 10);
+			value /= 10;
+		} while (value != 0);
+
+		// Digits were produced least significant first
+		for (int i = first, j = count - 1; i < j; i++, j--) {
+			byte b = bytes[i];
+			bytes[i] = bytes[j];
+			bytes[j] = b;
+		}
+
+		if (count >= threshold) {
+			flush();
+		}
+	}
+
+	/** Write out everything buffered so far. */
+	void flush() {
+		if (count > 0) {
+			out.write(bytes, 0, count);
+			count = 0;
+		}
+
+		out.flush();
+	}
+
+	private void grow() {
+		byte[] larger = new byte[Math.max(bytes.length * 2, count + MAX_INT_LENGTH)];
+
+		System.arraycopy(bytes, 0, larger, 0, count);
+		bytes = larger;
+	}
+}
@@ -0,0 +1,793 @@
+package compiler488.runtime;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.ShortBuffer;
+import java.util.Arrays;
+
+/**
+ * PagedMachine: a CSC488 pseudo machine with a configurable amount of
+ * memory, from the classic MEMORY_SIZE words up to MAX_MEMORY_SIZE.
+ *
+ * <p>
+ * Memory words, addresses and registers are 32 bit ints. Memory is divided
+ * into pages of PAGE_SIZE words that are only allocated when a word in them
+ * is first written, so a large machine costs no more than the memory the
+ * program actually touches. A word on a page that was never written reads as
+ * undefined.
+ * </p>
+ *
+ * <p>
+ * The instruction set is the classic one, executed by a classic interpreter
+ * with the same checks, error messages, dumps and trace. Integer arithmetic
+ * is checked against the 32 bit range MIN_WORD .. MAX_WORD instead of
+ * MIN_INTEGER .. MAX_INTEGER, so address arithmetic works anywhere in
+ * memory. UNDEFINED_WORD marks an undefined word and is shown as UNDEFINED
+ * in dumps.
+ * </p>
+ *
+ * <p>
+ * The Machine interface addresses the first MEMORY_SIZE words with short
+ * values, so a code generator written for the classic machine works
+ * unchanged. A stack limit of MEMORY_SIZE - 1 set through it is taken to mean
+ * the top of this machine's memory. The int methods reach the whole memory.
+ * </p>
+ */
+public class PagedMachine extends BaseMachine {
+	/** Words per page, a power of two. */
+	public static final int PAGE_SIZE = 4096;
+
+	private static final int PAGE_SHIFT = 12;
+	private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+	/** Largest memory size supported. */
+	public static final int MAX_MEMORY_SIZE = 1 << 30;
+
+	/** Largest machine integer. */
+	public static final int MAX_WORD = Integer.MAX_VALUE;
+
+	/** Smallest machine integer. */
+	public static final int MIN_WORD = -Integer.MAX_VALUE;
+
+	/** Value of an undefined memory word. */
+	public static final int UNDEFINED_WORD = Integer.MIN_VALUE;
+
+	/** Number of words of memory. */
+	protected final int memorySize;
+
+	/** Hardware memory, allocated a page at a time. */
+	protected int[][] pages;
+
+	/** Number of pages allocated since the last reset or restore. */
+	protected int allocatedPages;
+
+	/**
+	 * Page table of the snapshot taken or restored last, or null. A page
+	 * that is also in this table is shared with the snapshot and is copied
+	 * before it is written.
+	 */
+	protected int[][] sharedPages;
+
+	/** Initial values of the registers. */
+	protected int startPC;
+	protected int startMSP;
+	protected int startMLP;
+
+	/** Hardware display registers. */
+	protected int[] display;
+
+	/** Index of top entry in the display (for checking, dumps.) */
+	protected int displayMax;
+
+	/** Hardware registers, see MachineExecutor. */
+	protected int pc;
+	protected int msp;
+	protected int mlp;
+	protected int bottomOfStack;
+
+	/**
+	 * @param memorySize
+	 *            words of memory, MEMORY_SIZE .. MAX_MEMORY_SIZE
+	 * @throws IllegalArgumentException
+	 *             memorySize is out of range
+	 */
+	public PagedMachine(PrintStream statusOutput, PrintStream machineOutput, InputStream machineInput,
+			int memorySize) {
+		super(statusOutput, machineOutput, machineInput);
+
+		if (memorySize < Machine.MEMORY_SIZE || memorySize > MAX_MEMORY_SIZE) {
+			throw new IllegalArgumentException("Memory size " + memorySize + " is not in range "
+					+ Machine.MEMORY_SIZE + " .. " + MAX_MEMORY_SIZE);
+		}
+
+		this.memorySize = memorySize;
+		pages = new int[(memorySize + PAGE_SIZE - 1) >>> PAGE_SHIFT][];
+		display = new int[Machine.DISPLAY_SIZE];
+		reset();
+	}
+
+	public int getMemorySize() {
+		return memorySize;
+	}
+
+	/**
+	 * Number of pages of memory in use, a measure of how much memory the last
+	 * program touched.
+	 *
+	 * @return pages allocated since the last reset
+	 */
+	public int getAllocatedPages() {
+		return allocatedPages;
+	}
+
+	public void reset() {
+		Arrays.fill(display, Machine.MIN_INTEGER);
+		displayMax = -1;
+
+		// Unallocated pages read as UNDEFINED
+		Arrays.fill(pages, null);
+		allocatedPages = 0;
+		sharedPages = null;
+
+		// Just in case...
+		store(0, Machine.HALT);
+
+		startPC = -1;
+		startMSP = -1;
+		startMLP = -1;
+		clearSourceLines();
+	}
+
+	/** Memory word at addr. */
+	protected final int load(int addr) {
+		int[] page = pages[addr >>> PAGE_SHIFT];
+
+		return page == null ? UNDEFINED_WORD : page[addr & PAGE_MASK];
+	}
+
+	/**
+	 * Set the memory word at addr, allocating its page or copying a shared
+	 * one if necessary.
+	 */
+	protected final void store(int addr, int value) {
+		int index = addr >>> PAGE_SHIFT;
+		int[] page = pages[index];
+
+		if (page == null || sharedPages != null && page == sharedPages[index]) {
+			page = allocatePage(index);
+		}
+		page[addr & PAGE_MASK] = value;
+	}
+
+	private int[] allocatePage(int index) {
+		int[] page;
+
+		if (pages[index] != null) {
+			page = pages[index].clone();
+		} else {
+			page = new int[PAGE_SIZE];
+			Arrays.fill(page, UNDEFINED_WORD);
+		}
+		pages[index] = page;
+		allocatedPages++;
+		return page;
+	}
+
+	/**
+	 * Take a snapshot sharing the pages of memory. The pages become shared
+	 * with the snapshot, so the machine copies them before writing them
+	 * again.
+	 */
+	public MachineSnapshot snapshot() {
+		sharedPages = pages.clone();
+
+		return new MachineSnapshot(startPC, startMSP, startMLP, memorySize, display, displayMax, null, 0L,
+				sharedPages, shareSourceLines());
+	}
+
+	/**
+	 * Restore a snapshot by sharing its pages, which costs one reference per
+	 * page of memory whatever the program.
+	 */
+	public void restore(MachineSnapshot snapshot) {
+		if (snapshot.pageTable == null || snapshot.memorySize != memorySize) {
+			throw new IllegalArgumentException("Snapshot is not of a PagedMachine of this memory size");
+		}
+
+		sharedPages = snapshot.pageTable;
+		System.arraycopy(sharedPages, 0, pages, 0, pages.length);
+		allocatedPages = 0;
+
+		System.arraycopy(snapshot.display, 0, display, 0, Machine.DISPLAY_SIZE);
+		displayMax = snapshot.displayMax;
+
+		startPC = snapshot.startPC;
+		startMSP = snapshot.startMSP;
+		startMLP = snapshot.startMLP;
+		useSourceLines(snapshot.lines);
+	}
+
+	/** Load a compiled program, a page at a time. */
+	void loadObject(ObjectFile object) throws IOException {
+		int length = object.startMSP;
+
+		object.checkFits(memorySize);
+		reset();
+
+		for (int start = 0; start < length; start += PAGE_SIZE) {
+			int count = Math.min(PAGE_SIZE, length - start);
+			int index = start >>> PAGE_SHIFT;
+			int[] page = (pages[index] != null ? pages[index] : allocatePage(index));
+
+			if (object.isWide()) {
+				object.intWords().position(start).get(page, 0, count);
+			} else {
+				ShortBuffer words = object.shortWords();
+
+				for (int i = 0; i < count; i++) {
+					short word = words.get(start + i);
+
+					page[i] = (word == Machine.UNDEFINED ? UNDEFINED_WORD : word);
+				}
+			}
+		}
+
+		startPC = object.startPC;
+		startMSP = object.startMSP;
+		startMLP = object.startMLP(memorySize);
+		useSourceLines(object.copyLines());
+	}
+
+	/**
+	 * Write a memory word anywhere in memory.
+	 *
+	 * <strong>Policy:</strong> Does not check value == <code>UNDEFINED_WORD</code>.
+	 *
+	 * @param addr
+	 *            memory address to write to
+	 * @param value
+	 *            value to write to memory
+	 * @throws MemoryAddressException
+	 *             incorrect memory address
+	 */
+	public void writeMemory(int addr, int value) throws MemoryAddressException {
+		if (addr < 0 || addr >= memorySize) {
+			throw new MemoryAddressException("  writeMemory: invalid address: " + addr);
+		}
+
+		store(addr, value);
+	}
+
+	/**
+	 * Read a memory word from anywhere in memory.
+	 *
+	 * @param addr
+	 *            memory address to read from
+	 * @return memory value, <code>UNDEFINED_WORD</code> if undefined
+	 * @throws MemoryAddressException
+	 *             incorrect memory address
+	 */
+	public int readMemory(int addr) throws MemoryAddressException {
+		if (addr < 0 || addr >= memorySize) {
+			throw new MemoryAddressException("  readMemory: invalid address: " + addr);
+		}
+
+		return load(addr);
+	}
+
+	public void setPC(int addr) {
+		startPC = addr;
+	}
+
+	public void setMSP(int addr) {
+		startMSP = addr;
+	}
+
+	public void setMLP(int addr) {
+		startMLP = addr;
+	}
+
+	public void writeMemory(short addr, short value) throws MemoryAddressException {
+		writeMemory((int) addr, value == Machine.UNDEFINED ? UNDEFINED_WORD : value);
+	}
+
+	/**
+	 * Read a memory word as a classic short word. Values outside the short
+	 * range are truncated.
+	 */
+	public short readMemory(short addr) throws MemoryAddressException {
+		int value = readMemory((int) addr);
+
+		return value == UNDEFINED_WORD ? Machine.UNDEFINED : (short) value;
+	}
+
+	public void setPC(short addr) {
+		startPC = addr;
+	}
+
+	public void setMSP(short addr) {
+		startMSP = addr;
+	}
+
+	public void setMLP(short addr) {
+		startMLP = addr == Machine.MEMORY_SIZE - 1 ? memorySize - 1 : addr;
+	}
+
+	/** Memory word as shown in dumps and trace. */
+	private static int dumpValue(int word) {
+		return word == UNDEFINED_WORD ? Machine.UNDEFINED : word;
+	}
+
+	/**
+	 * Dump all machine instructions.
+	 *
+	 * @param dumpSink
+	 *            PrintStream sink for the dump
+	 * @throws ExecutionException
+	 *             from formatInstruction
+	 */
+	public void dumpInstructions(PrintStream dumpSink) throws ExecutionException {
+		StringBuffer printThis = new StringBuffer(32);
+		StringBuffer temp;
+		int secondColumn = 40;
+
+		int addr = 0;
+		while (addr < bottomOfStack) {
+			int startInst = addr;
+			addr += formatInstruction(addr, printThis);
+			int endInst = addr - 1;
+			temp = new StringBuffer("");
+			temp.append("memory[ " + startInst + " .. " + endInst + " ]" + " = ");
+			temp.append(printThis);
+			// print another instruction (if any) on the same line
+			if (addr < bottomOfStack) {
+				padString(temp, secondColumn);
+				startInst = addr;
+				addr += formatInstruction(addr, printThis);
+				endInst = addr - 1;
+				dumpSink.println(temp + "memory[ " + startInst + " .. " + endInst + " ]" + " = " + printThis);
+			} else {
+				dumpSink.println(temp);
+			}
+		}
+	}
+
+	/**
+	 * Dump up to howMany words from the top of the stack.
+	 *
+	 * @param sink
+	 *            String buffer to dump to
+	 * @param howMany
+	 *            number of memory locations to dump
+	 */
+	public void dumpStack(StringBuffer sink, int howMany) {
+		if (0 <= msp && msp < memorySize) {
+			int mspmin = (msp - howMany >= 0 ? msp - howMany : 0);
+			int mspmax = msp - 1;
+
+			mspmin = (mspmin < bottomOfStack ? bottomOfStack : mspmin);
+
+			if (mspmax < mspmin) {
+				return; // nothing to dump
+			}
+
+			sink.append("memory[" + mspmin + " .. " + mspmax + "] = ");
+
+			for (int i = mspmin; i <= mspmax; i++) {
+				sink.append(dumpValue(load(i)) + "  ");
+			}
+		}
+	}
+
+	/**
+	 * Dump the registers, the active part of the display and the top 8 (or
+	 * less) entries in the stack, as MachineExecutor does.
+	 */
+	public void dumpMachineState(String msg, int pc, int msp, int mlp) {
+		StringBuffer S = new StringBuffer("\t");
+		outputBuffer.flush(); // keep program output ahead of the dump
+		statusOutput.print("\n" + msg);
+		statusOutput.print("  pc = " + pc + sourceLineOf(pc, " (line ", ")") + ", msp = " + msp + ", mlp = " + mlp
+				+ "\n");
+
+		if (displayMax >= 0) {
+			statusOutput.print("\tdisplay[0 .. " + displayMax + "] = ");
+
+			for (int i = 0; i <= displayMax; i++) {
+				statusOutput.print(display[i] + "  ");
+			}
+
+			statusOutput.print("\n");
+		}
+
+		dumpStack(S, 8);
+		statusOutput.println(S);
+	}
+
+	protected void runError(String msg) throws ExecutionException {
+		dumpMachineState("Execution Error -  " + msg + "\n", pc, msp, mlp);
+
+		throw new ExecutionException("  " + sourceLineOf(pc, "line ", ": ") + msg);
+	}
+
+	protected int formatInstruction(int addr, StringBuffer printThis) throws ExecutionException {
+		int opCode = load(addr);
+
+		if (0 <= opCode && opCode < Machine.INSTRUCTION_NAMES.length) {
+			switch (Machine.INSTRUCTION_LENGTHS[opCode]) {
+			case 0: // The lengths for BR, BF and HALT are hacks.
+			case 1:
+				printThis.replace(0, printThis.length(), Machine.INSTRUCTION_NAMES[opCode]);
+				return 1;
+
+			case 2:
+				printThis.replace(0, printThis.length(),
+						Machine.INSTRUCTION_NAMES[opCode] + " " + dumpValue(load(addr + 1)));
+				return 2;
+
+			case 3:
+				printThis.replace(0, printThis.length(), Machine.INSTRUCTION_NAMES[opCode] + " "
+						+ dumpValue(load(addr + 1)) + " " + dumpValue(load(addr + 2)));
+				return 3;
+
+			default:
+				throw new ExecutionException("  formatInstruction: Machine.INSTRUCTION_LENGTHS [" + opCode + "] = "
+						+ Machine.INSTRUCTION_LENGTHS[opCode]);
+			}
+		} else {
+			printThis.replace(0, printThis.length(), "not an instruction: " + dumpValue(opCode));
+			return 1;
+		}
+	}
+
+	/**
+	 * Trace the instruction at pc as text or as a trace record, as
+	 * MachineExecutor does.
+	 */
+	protected void traceInstruction() throws ExecutionException {
+		if (traceBuffer == null) {
+			StringBuffer printThis = new StringBuffer();
+			formatInstruction(pc, printThis);
+			printThis.insert(0, pc + ": ");
+			padString(printThis, 20);
+			dumpStack(printThis, 8);
+			outputBuffer.flush();
+			statusOutput.println(printThis);
+			return;
+		}
+
+		int opCode = load(pc);
+		int length = (0 <= opCode && opCode < Machine.INSTRUCTION_LENGTHS.length ? Machine.INSTRUCTION_LENGTHS[opCode] : 1);
+		int first = 0;
+		int count = 0;
+
+		if (0 <= msp && msp < memorySize) {
+			first = Math.max(Math.max(msp - TraceBuffer.STACK_WORDS, 0), bottomOfStack);
+			count = Math.max(msp - first, 0);
+		}
+
+		traceBuffer.begin(pc, dumpValue(opCode), length >= 2 ? dumpValue(load(pc + 1)) : 0,
+				length >= 3 ? dumpValue(load(pc + 2)) : 0, msp, first, count);
+		for (int i = 0; i < count; i++) {
+			traceBuffer.word(i, dumpValue(load(first + i)));
+		}
+		traceBuffer.end();
+	}
+
+	protected void rangeCheck(long value, long lowBound, long highBound, String msg) throws ExecutionException {
+		if (value < lowBound || value > highBound) {
+			runError(msg);
+		}
+	}
+
+	public void run() throws ExecutionException {
+		counting = false;
+		iCount = 0;
+		iLimit = Integer.MAX_VALUE;
+		retiredInstructions = 0;
+
+		// Initialize registers. Validate initial execution state.
+		mlp = startMLP;
+		rangeCheck(mlp, 0, memorySize, "Initial value of mlp out of range");
+
+		msp = startMSP;
+		rangeCheck(msp, 0, mlp - 1, "Initial value of msp out of range");
+
+		bottomOfStack = startMSP;
+
+		pc = startPC;
+		rangeCheck(pc, 0, memorySize - 1, "Initial value of pc outside memory");
+
+		if (dumpStream != null) {
+			dumpInstructions(dumpStream);
+		}
+
+		if (codeCheckEnabled) {
+			int[] code = new int[startMSP];
+
+			for (int addr = 0; addr < startMSP; addr++) {
+				code[addr] = load(addr);
+			}
+			checkCode(code, startPC);
+		}
+
+		if (executionSuppressed) {
+			statusOutput.println("Execution suppressed by control flag.\n");
+			return;
+		}
+
+		dumpMachineState("Start Execution", pc, msp, mlp);
+
+		errorOccurred = false;
+		executing = true;
+
+		inputSource = openInput();
+
+		try {
+			execute();
+		} finally {
+			outputBuffer.flush();
+			closeInput();
+		}
+
+		dumpMachineState("End Execution.\n", pc, msp, mlp);
+	}
+
+	/**
+	 * The interpreter main loop. Follows MachineExecutor.executeClassic
+	 * instruction for instruction, with int words and 32 bit arithmetic.
+	 *
+	 * @throws ExecutionException
+	 *             from runError
+	 */
+	protected void execute() throws ExecutionException {
+		while (executing) {
+			rangeCheck(pc, 0, memorySize - 1, "Program counter outside memory.\n");
+
+			if (msp < bottomOfStack) {
+				runError("Run stack underflow.");
+			}
+
+			if (msp >= mlp) {
+				runError("Run stack overflow.");
+			}
+
+			iCount++;
+			if (counting && iCount > iLimit) {
+				runError("Instruction execution limit (" + iLimit + ") exceeded");
+			}
+
+			if (tracingEnabled) {
+				traceInstruction();
+			}
+
+			int n, v, ll, addr;
+			long atemp;
+
+			int opCode = load(pc);
+
+			if (profile != null) {
+				profile.instruction(pc, opCode, msp - bottomOfStack);
+			}
+
+			switch (opCode) {
+			case ADDR:
+				ll = load(pc + 1);
+				rangeCheck(ll, 0, Machine.DISPLAY_SIZE - 1, "ADDR: Display index out of range.\n");
+				msp++;
+				store(msp - 1, display[ll] + load(pc + 2));
+				break;
+
+			case LOAD:
+				addr = load(msp - 1);
+				rangeCheck(addr, 0, memorySize - 1, "LOAD address out of range.\n");
+				v = load(addr);
+				if (v == UNDEFINED_WORD) {
+					runError("Attempt to LOAD undefined value.\n");
+				}
+				store(msp - 1, v);
+				break;
+
+			case STORE:
+				v = load(msp - 1);
+				addr = load(msp - 2);
+				msp -= 2;
+				// Disallow stores into code area.
+				rangeCheck(addr, bottomOfStack - 1, memorySize - 1, "STORE address out of range.\n");
+				store(addr, v);
+				break;
+
+			case PUSH:
+				msp++;
+				store(msp - 1, load(pc + 1));
+				break;
+
+			case PUSHMT:
+				msp++;
+				store(msp - 1, msp - 1);
+				break;
+
+			case SETD:
+				addr = load(msp - 1);
+				msp--;
+				ll = load(pc + 1);
+				rangeCheck(ll, 0, Machine.DISPLAY_SIZE - 1, "SETD display index out of range.\n");
+				if (addr != MIN_INTEGER) { // special case - uninitialized
+					rangeCheck(addr, bottomOfStack, mlp, "SETD display entry out of range.\n");
+				}
+				displayMax = (displayMax > ll ? displayMax : ll);
+				display[ll] = addr;
+				break;
+
+			// Underflow error will be caught before next instruction
+			case POPN:
+				msp -= load(msp - 1);
+				msp--;
+				break;
+
+			case POP:
+				msp--;
+				break;
+
+			case DUPN:
+				n = load(msp - 1);
+				v = load(msp - 2);
+				msp -= 2;
+				rangeCheck((long) msp + n, bottomOfStack, mlp, "DUPN stack overflow.\n");
+				for (int i = msp; i <= msp - 1 + n; i++) {
+					store(i, v);
+				}
+				msp += n;
+				break;
+
+			case DUP:
+				msp++;
+				store(msp - 1, load(msp - 2));
+				break;
+
+			case BR:
+				if (profile != null) {
+					profile.jump(pc, load(msp - 1));
+				}
+				pc = load(msp - 1); // BR sets pc directly
+				msp--;
+				break;
+
+			case BF:
+				addr = load(msp - 1);
+				v = load(msp - 2);
+				msp -= 2;
+				if (profile != null) {
+					profile.branch(pc, addr, v == MACHINE_FALSE);
+				}
+				if (v == MACHINE_FALSE) {
+					pc = addr;
+				} else {
+					// BF sets pc directly
+					pc++;
+				}
+				break;
+
+			case NEG:
+				v = -load(msp - 1);
+				store(msp - 1, v);
+				if (v == UNDEFINED_WORD) {
+					runError("Arithmetic underflow - NEG operator");
+				}
+				break;
+
+			case ADD:
+				atemp = (long) load(msp - 2) + load(msp - 1);
+				rangeCheck(atemp, MIN_WORD, MAX_WORD, "ADD operator overflow or underflow");
+				msp--;
+				store(msp - 1, (int) atemp);
+				break;
+
+			case SUB:
+				atemp = (long) load(msp - 2) - load(msp - 1);
+				rangeCheck(atemp, MIN_WORD, MAX_WORD, "SUB operator overflow or underflow");
+				msp--;
+				store(msp - 1, (int) atemp);
+				break;
+
+			case MUL:
+				atemp = (long) load(msp - 2) * load(msp - 1);
+				rangeCheck(atemp, MIN_WORD, MAX_WORD, "MUL operator overflow or underflow");
+				msp--;
+				store(msp - 1, (int) atemp);
+				break;
+
+			case DIV:
+				v = load(msp - 1);
+				msp--;
+				if (v == 0) {
+					runError("Attempt to divide by zero.\n");
+				}
+				atemp = (long) load(msp - 1) / v;
+				rangeCheck(atemp, MIN_WORD, MAX_WORD, "DIV operator overflow or underflow");
+				store(msp - 1, (int) atemp);
+				break;
+
+			case EQ:
+				msp--;
+				store(msp - 1, load(msp - 1) == load(msp) ? MACHINE_TRUE : MACHINE_FALSE);
+				break;
+
+			case LT:
+				msp--;
+				store(msp - 1, load(msp - 1) < load(msp) ? MACHINE_TRUE : MACHINE_FALSE);
+				break;
+
+			case OR:
+				msp--;
+				rangeCheck(load(msp - 1), MACHINE_FALSE, MACHINE_TRUE, "OR operand is not a Boolean value");
+				rangeCheck(load(msp), MACHINE_FALSE, MACHINE_TRUE, "OR operand is not a Boolean value");
+				store(msp - 1, (load(msp - 1) == MACHINE_TRUE || load(msp) == MACHINE_TRUE) ? MACHINE_TRUE
+						: MACHINE_FALSE);
+				break;
+
+			case SWAP:
+				v = load(msp - 2);
+				store(msp - 2, load(msp - 1));
+				store(msp - 1, v);
+				break;
+
+			case READC:
+				msp++;
+				outputBuffer.flush();
+				store(msp - 1, inputSource.readChar() & CHARMASK);
+				break;
+
+			case PRINTC:
+				outputBuffer.printChar(load(msp - 1) & CHARMASK);
+				msp--;
+				break;
+
+			case READI:
+				outputBuffer.flush();
+				v = inputSource.readInt();
+				rangeCheck(v, MIN_WORD, MAX_WORD, "READI: Integer input out of range");
+				msp++;
+				store(msp - 1, v);
+				break;
+
+			case PRINTI:
+				outputBuffer.printInt(load(msp - 1));
+				msp--;
+				break;
+
+			case HALT:
+				executing = false;
+				break;
+
+			case TRON:
+				dumpMachineState("Start trace (TRON).\n", pc, msp, mlp);
+				break;
+
+			case TROFF:
+				tracingEnabled = false;
+				dumpMachineState("End trace (TROFF).\n", pc, msp, mlp);
+				break;
+
+			case ILIMIT:
+				iLimit = load(pc + 1);
+				if (iLimit > 0) {
+					counting = true;
+					retiredInstructions += iCount;
+					iCount = 0;
+				} else {
+					counting = false;
+					iLimit = Integer.MAX_VALUE; // set to safe value
+				}
+				break;
+
+			default:
+				runError("Illegal instruction code.\n");
+				break;
+			}
+
+			pc += Machine.INSTRUCTION_LENGTHS[opCode];
+		}
+	}
+}
@@ -0,0 +1,193 @@
+package compiler488.runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * TraceBuffer: a ring of fixed size binary execution trace records, either
+ * in memory or memory mapped from a trace file.
+ *
+ * <p>
+ * A traced machine writes one record per instruction instead of formatting
+ * a line of text, so tracing costs a few stores per instruction and creates
+ * no objects. When the ring is full the oldest records are overwritten, so
+ * it always holds the last <code>capacity</code> instructions executed. The
+ * header is updated with every record, so a mapped trace file is complete
+ * even if the JVM dies. TraceDecoder turns the records back into the text
+ * trace.
+ * </p>
+ *
+ * <pre>
+ *  Layout (all ints big endian):
+ *
+ *    header   MAGIC, VERSION, RECORD_SIZE, capacity,
+ *             records written (long), 2 unused ints
+ *    records  capacity * RECORD_SIZE bytes
+ *
+ *  Record:
+ *
+ *    pc, opCode, operand1, operand2, msp,
+ *    address of the first stack word, number of stack words (0 .. 8),
+ *    unused, stack words (8 ints)
+ * </pre>
+ */
+public final class TraceBuffer {
+	/** First int of a trace, "488T". */
+	public static final int MAGIC = 0x34383854;
+
+	public static final int VERSION = 1;
+
+	/** Bytes in the header. */
+	public static final int HEADER_SIZE = 32;
+
+	/** Bytes in a record. */
+	public static final int RECORD_SIZE = 64;
+
+	/** Stack words saved per record, as many as the text trace shows. */
+	public static final int STACK_WORDS = 8;
+
+	/** Records in a trace unless another capacity is requested. */
+	public static final int DEFAULT_CAPACITY = 1 << 18;
+
+	/** Offset of the records written count in the header. */
+	static final int WRITTEN_OFFSET = 16;
+
+	/** Offset of the stack words in a record. */
+	static final int WORDS_OFFSET = 32;
+
+	private final ByteBuffer buffer;
+	private final int capacity;
+
+	/** Records written, including those overwritten. */
+	private long written;
+
+	/** Offset of the next record. */
+	private int next = HEADER_SIZE;
+
+	private TraceBuffer(ByteBuffer buffer, int capacity) {
+		this.buffer = buffer;
+		this.capacity = capacity;
+
+		buffer.putInt(0, MAGIC);
+		buffer.putInt(4, VERSION);
+		buffer.putInt(8, RECORD_SIZE);
+		buffer.putInt(12, capacity);
+		buffer.putLong(WRITTEN_OFFSET, 0);
+	}
+
+	/**
+	 * Create a trace buffer in memory.
+	 *
+	 * @param capacity
+	 *            number of records kept
+	 * @return the buffer
+	 */
+	public static TraceBuffer allocate(int capacity) {
+		return new TraceBuffer(ByteBuffer.allocate(size(capacity)), capacity);
+	}
+
+	/**
+	 * Create a trace buffer mapped from a file, replacing its contents.
+	 *
+	 * @param file
+	 *            the trace file
+	 * @param capacity
+	 *            number of records kept
+	 * @return the buffer
+	 * @throws IOException
+	 *             the file cannot be created or mapped
+	 */
+	public static TraceBuffer map(File file, int capacity) throws IOException {
+		try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+			raf.setLength(0);
+			raf.setLength(size(capacity));
+
+			// The mapping stays valid after the file is closed
+			return new TraceBuffer(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size(capacity)),
+					capacity);
+		}
+	}
+
+	private static int size(int capacity) {
+		if (capacity <= 0 || capacity > (Integer.MAX_VALUE - HEADER_SIZE) / RECORD_SIZE) {
+			throw new IllegalArgumentException("Invalid trace capacity " + capacity);
+		}
+		return HEADER_SIZE + capacity * RECORD_SIZE;
+	}
+
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * The whole trace, header included, for TraceDecoder.
+	 *
+	 * @return a read only view of the trace
+	 */
+	public ByteBuffer contents() {
+		return buffer.asReadOnlyBuffer();
+	}
+
+	/** Discard all records. */
+	public void clear() {
+		written = 0;
+		next = HEADER_SIZE;
+		buffer.putLong(WRITTEN_OFFSET, 0);
+	}
+
+	/**
+	 * Start a record. The caller then stores <code>count</code> stack words
+	 * with {@link #word} and finishes the record with {@link #end}.
+	 *
+	 * @param pc
+	 *            address of the instruction
+	 * @param opCode
+	 *            the instruction
+	 * @param operand1
+	 *            first operand, if the instruction has one
+	 * @param operand2
+	 *            second operand, if the instruction has two
+	 * @param msp
+	 *            stack pointer before the instruction
+	 * @param first
+	 *            address of the first stack word recorded
+	 * @param count
+	 *            number of stack words recorded, 0 .. STACK_WORDS
+	 */
+	public void begin(int pc, int opCode, int operand1, int operand2, int msp, int first, int count) {
+		int r = next;
+
+		buffer.putInt(r, pc);
+		buffer.putInt(r + 4, opCode);
+		buffer.putInt(r + 8, operand1);
+		buffer.putInt(r + 12, operand2);
+		buffer.putInt(r + 16, msp);
+		buffer.putInt(r + 20, first);
+		buffer.putInt(r + 24, count);
+	}
+
+	/**
+	 * Store a stack word of the current record.
+	 *
+	 * @param i
+	 *            index of the word, 0 .. count - 1
+	 * @param value
+	 *            the word
+	 */
+	public void word(int i, int value) {
+		buffer.putInt(next + WORDS_OFFSET + 4 * i, value);
+	}
+
+	/** Finish the current record. */
+	public void end() {
+		written++;
+		next += RECORD_SIZE;
+		if (next == HEADER_SIZE + capacity * RECORD_SIZE) {
+			next = HEADER_SIZE;
+		}
+		buffer.putLong(WRITTEN_OFFSET, written);
+	}
+}
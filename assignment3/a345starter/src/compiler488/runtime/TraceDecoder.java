@@ -0,0 +1,124 @@
+package compiler488.runtime;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * TraceDecoder: turns a binary execution trace written through a
+ * TraceBuffer back into the text trace the machine prints, one line per
+ * instruction, oldest first.
+ *
+ *      $ java -cp bin/ compiler488.runtime.TraceDecoder traceFile
+ *
+ * When the ring has wrapped, only the last <code>capacity</code>
+ * instructions are in the trace; a note on how many were lost goes to
+ * stderr.
+ */
+public class TraceDecoder {
+	private TraceDecoder() {
+	}
+
+	public static void main(String[] args) {
+		if (args.length != 1) {
+			System.err.println("Usage: java compiler488.runtime.TraceDecoder traceFile");
+			System.exit(1);
+		}
+
+		try (FileChannel channel = FileChannel.open(new File(args[0]).toPath(), StandardOpenOption.READ)) {
+			ByteBuffer trace = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			long lost = decode(trace, System.out);
+
+			if (lost > 0) {
+				System.err.println(lost + " earlier instructions were overwritten");
+			}
+		} catch (IOException e) {
+			System.err.println("Unable to read trace file " + args[0]);
+			System.err.println(e.getClass().getName() + ": " + e.getMessage());
+			System.exit(1);
+		}
+
+		System.out.flush();
+	}
+
+	/**
+	 * Write the text trace for every record in a trace.
+	 *
+	 * @param trace
+	 *            the trace, header included
+	 * @param out
+	 *            stream receiving the text trace
+	 * @return number of records lost because the ring wrapped
+	 * @throws IOException
+	 *             the buffer does not hold a trace
+	 */
+	public static long decode(ByteBuffer trace, PrintStream out) throws IOException {
+		if (trace.limit() < TraceBuffer.HEADER_SIZE || trace.getInt(0) != TraceBuffer.MAGIC) {
+			throw new IOException("not an execution trace");
+		}
+
+		if (trace.getInt(4) != TraceBuffer.VERSION || trace.getInt(8) != TraceBuffer.RECORD_SIZE) {
+			throw new IOException("unsupported trace version " + trace.getInt(4));
+		}
+
+		int capacity = trace.getInt(12);
+		long written = trace.getLong(TraceBuffer.WRITTEN_OFFSET);
+
+		if (capacity <= 0 || trace.limit() < TraceBuffer.HEADER_SIZE + (long) capacity * TraceBuffer.RECORD_SIZE) {
+			throw new IOException("truncated execution trace");
+		}
+
+		long lost = Math.max(written - capacity, 0);
+		StringBuffer line = new StringBuffer(128);
+
+		for (long n = lost; n < written; n++) {
+			int r = TraceBuffer.HEADER_SIZE + (int) (n % capacity) * TraceBuffer.RECORD_SIZE;
+
+			formatRecord(trace, r, line);
+			out.println(line);
+		}
+
+		return lost;
+	}
+
+	/**
+	 * Format one record exactly as the machine formats a traced instruction.
+	 */
+	private static void formatRecord(ByteBuffer trace, int r, StringBuffer line) {
+		int pc = trace.getInt(r);
+		int opCode = trace.getInt(r + 4);
+		int operand1 = trace.getInt(r + 8);
+		int operand2 = trace.getInt(r + 12);
+		int first = trace.getInt(r + 20);
+		int count = trace.getInt(r + 24);
+
+		line.setLength(0);
+		line.append(pc).append(": ");
+
+		if (0 <= opCode && opCode < Machine.INSTRUCTION_NAMES.length) {
+			line.append(Machine.INSTRUCTION_NAMES[opCode]);
+
+			if (Machine.INSTRUCTION_LENGTHS[opCode] >= 2) {
+				line.append(' ').append(operand1);
+			}
+			if (Machine.INSTRUCTION_LENGTHS[opCode] >= 3) {
+				line.append(' ').append(operand2);
+			}
+		} else {
+			line.append("not an instruction: ").append(opCode);
+		}
+
+		BaseMachine.padString(line, 20);
+
+		if (count > 0) {
+			line.append("memory[").append(first).append(" .. ").append(first + count - 1).append("] = ");
+
+			for (int i = 0; i < count; i++) {
+				line.append(trace.getInt(r + TraceBuffer.WORDS_OFFSET + 4 * i)).append("  ");
+			}
+		}
+	}
+}
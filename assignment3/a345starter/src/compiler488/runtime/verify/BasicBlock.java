@@ -0,0 +1,95 @@
+package compiler488.runtime.verify;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * BasicBlock: a run of instructions that is only entered at its first
+ * instruction and only left after its last one.
+ */
+public class BasicBlock {
+	/** Address of the first instruction. */
+	final int start;
+
+	/** First address past the last instruction. */
+	final int end;
+
+	/** Address of the last instruction. */
+	final int last;
+
+	/** Position of the block in ControlFlowGraph.getBlocks(). */
+	final int index;
+
+	/** Blocks control can pass to, in address order of the edges. */
+	final List<BasicBlock> successors = new ArrayList<BasicBlock>();
+
+	/** Blocks control can come from through a known edge. */
+	final List<BasicBlock> predecessors = new ArrayList<BasicBlock>();
+
+	/** True if the block ends in a branch to a computed address. */
+	boolean computedExit;
+
+	/** True if the block ends in a call: BR to a constant routine address. */
+	boolean callExit;
+
+	/** True if a call branches to the block. */
+	boolean routineEntry;
+
+	BasicBlock(int start, int end, int last, int index) {
+		this.start = start;
+		this.end = end;
+		this.last = last;
+		this.index = index;
+	}
+
+	public int getStart() {
+		return start;
+	}
+
+	public int getEnd() {
+		return end;
+	}
+
+	public int getLast() {
+		return last;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public List<BasicBlock> getSuccessors() {
+		return successors;
+	}
+
+	public List<BasicBlock> getPredecessors() {
+		return predecessors;
+	}
+
+	/**
+	 * Test for a block ending in BR or BF to an address only known at run
+	 * time, such as a procedure return. The computed successor is not in
+	 * <code>getSuccessors()</code>.
+	 */
+	public boolean hasComputedExit() {
+		return computedExit;
+	}
+
+	/**
+	 * Test for a block ending in a call: a BR to a constant address whose
+	 * next instruction is a taken address, where the routine returns to.
+	 */
+	public boolean hasCallExit() {
+		return callExit;
+	}
+
+	/** Test for a block some call branches to. */
+	public boolean isRoutineEntry() {
+		return routineEntry;
+	}
+
+	@Override
+	public String toString() {
+		return "block " + index + " [" + start + " .. " + (end - 1) + "]";
+	}
+}
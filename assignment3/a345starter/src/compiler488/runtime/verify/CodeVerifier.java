@@ -0,0 +1,347 @@
+package compiler488.runtime.verify;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import compiler488.runtime.Machine;
+
+/**
+ * CodeVerifier: static checks on a machine code image before it runs.
+ *
+ * <p>
+ * Builds the ControlFlowGraph of the image and computes the stack height on
+ * entry to every instruction by propagating heights along its edges from
+ * the start address, where the stack is empty. <code>PUSH n; POPN</code>
+ * and <code>PUSH n; DUPN</code> have known effects; after POPN or DUPN with
+ * a computed count the height is unknown until a known path joins it.
+ * Blocks that only a computed branch can reach (through a taken address)
+ * are entered with an unknown height.
+ * </p>
+ *
+ * <p>
+ * A routine may be called with any number of words on the stack, so calls
+ * reaching a routine entry with different heights are not a mismatch; the
+ * heights in the routine are then unknown, as are those after a call
+ * returns.
+ * </p>
+ *
+ * <p>
+ * Errors are illegal or truncated instructions, branches outside the code
+ * or into the middle of an instruction, execution running past the end of
+ * the code, stack underflow and different stack heights where paths merge.
+ * Code no path reaches is a warning, and so is any error inside it.
+ * </p>
+ *
+ * <p>
+ * A height is exact on every known path. A computed branch (a procedure
+ * return) is assumed to arrive with the height the known paths give its
+ * target, which an engine relying on the heights must check at run time.
+ * </p>
+ */
+public class CodeVerifier {
+	/** Stack height of an instruction no known path fixes the height of. */
+	public static final int UNKNOWN = -1;
+
+	/** No path reaches the block. */
+	private static final int UNREACHED = -2;
+
+	/** Known paths reach the block with different heights. */
+	private static final int CONFLICT = -3;
+
+	private final ControlFlowGraph graph;
+
+	private final List<VerificationProblem> problems = new ArrayList<VerificationProblem>();
+
+	/** Stack height on entry to each block. */
+	private final int[] entryHeights;
+
+	/** Stack height on entry to each instruction. */
+	private final int[] heights;
+
+	/** Blocks waiting to be (re)analyzed. */
+	private final int[] pending;
+	private final boolean[] queued;
+	private int pendingCount = 0;
+
+	/** Instructions that already have a stack problem reported. */
+	private final boolean[] reported;
+
+	/**
+	 * Verify a code image.
+	 *
+	 * @param code
+	 *            the code area of the machine memory, whose length is the
+	 *            first address past the code
+	 * @param startPC
+	 *            address execution starts at
+	 */
+	public CodeVerifier(int[] code, int startPC) {
+		graph = new ControlFlowGraph(code, startPC, problems);
+
+		int blocks = graph.getBlocks().size();
+
+		entryHeights = new int[blocks];
+		heights = new int[code.length];
+		pending = new int[blocks];
+		queued = new boolean[blocks];
+		reported = new boolean[code.length];
+		Arrays.fill(entryHeights, UNREACHED);
+		Arrays.fill(heights, UNKNOWN);
+
+		analyze();
+	}
+
+	private void analyze() {
+		List<BasicBlock> blocks = graph.getBlocks();
+
+		if (graph.getEntry() != null) {
+			enter(graph.getEntry(), 0);
+			propagate();
+		}
+
+		// Then what only computed branches can reach
+		for (BasicBlock block : blocks) {
+			if (entryHeights[block.index] == UNREACHED && graph.isAddressTaken(block.start)) {
+				enter(block, UNKNOWN);
+			}
+		}
+		propagate();
+
+		// Errors only matter where execution can go
+		for (int i = 0; i < problems.size(); i++) {
+			VerificationProblem problem = problems.get(i);
+
+			if (problem.isError() && !isReachable(problem.getAddress())) {
+				problems.set(i, new VerificationProblem(problem.getAddress(), false,
+						problem.getMessage() + " (unreachable)"));
+			}
+		}
+
+		// One warning for each run of unreachable blocks
+		for (int i = 0; i < blocks.size();) {
+			if (entryHeights[i] != UNREACHED) {
+				i++;
+				continue;
+			}
+
+			int start = blocks.get(i).start;
+
+			while (i < blocks.size() && entryHeights[i] == UNREACHED) {
+				i++;
+			}
+			problems.add(new VerificationProblem(start, false,
+					"unreachable code (" + start + " .. " + (blocks.get(i - 1).end - 1) + ")"));
+		}
+
+		Collections.sort(problems, (a, b) -> Integer.compare(a.getAddress(), b.getAddress()));
+	}
+
+	/** Join a height into the entry height of a block. */
+	private void enter(BasicBlock block, int height) {
+		int old = entryHeights[block.index];
+		int joined;
+
+		if (old == UNREACHED || old == UNKNOWN && height != UNREACHED) {
+			joined = height;
+		} else if (height == UNREACHED || height == UNKNOWN || old == CONFLICT || height == old) {
+			joined = old;
+		} else if (block.routineEntry) {
+			joined = CONFLICT;
+		} else {
+			problems.add(new VerificationProblem(block.start, true,
+					"stack height is " + old + " on one path here and " + height + " on another"));
+			joined = CONFLICT;
+		}
+
+		if (joined != old) {
+			entryHeights[block.index] = joined;
+
+			if (!queued[block.index]) {
+				pending[pendingCount++] = block.index;
+				queued[block.index] = true;
+			}
+		}
+	}
+
+	private void propagate() {
+		List<BasicBlock> blocks = graph.getBlocks();
+
+		while (pendingCount > 0) {
+			BasicBlock block = blocks.get(pending[--pendingCount]);
+			int height = Math.max(entryHeights[block.index], UNKNOWN);
+
+			queued[block.index] = false;
+
+			for (int addr = block.start; addr < block.end; addr = graph.nextInstruction(addr)) {
+				heights[addr] = height;
+				height = step(addr, height);
+			}
+
+			for (BasicBlock successor : block.successors) {
+				enter(successor, height);
+			}
+		}
+	}
+
+	/**
+	 * The stack height after an instruction.
+	 *
+	 * @param addr
+	 *            address of the instruction
+	 * @param height
+	 *            stack height on entry, or UNKNOWN
+	 * @return stack height on exit, or UNKNOWN
+	 */
+	private int step(int addr, int height) {
+		if (graph.isIllegal(addr)) {
+			return UNKNOWN;
+		}
+
+		int opCode = graph.getOpCode(addr);
+		int pops = 0;
+		int pushes = 0;
+		boolean known = true;
+
+		switch (opCode) {
+		case Machine.ADDR:
+		case Machine.PUSH:
+		case Machine.PUSHMT:
+		case Machine.READC:
+		case Machine.READI:
+			pushes = 1;
+			break;
+
+		case Machine.LOAD:
+		case Machine.NEG:
+			pops = 1;
+			pushes = 1;
+			break;
+
+		case Machine.STORE:
+		case Machine.BF:
+			pops = 2;
+			break;
+
+		case Machine.SETD:
+		case Machine.POP:
+		case Machine.BR:
+		case Machine.PRINTC:
+		case Machine.PRINTI:
+			pops = 1;
+			break;
+
+		case Machine.DUP:
+			pops = 1;
+			pushes = 2;
+			break;
+
+		case Machine.SWAP:
+			pops = 2;
+			pushes = 2;
+			break;
+
+		case Machine.ADD:
+		case Machine.SUB:
+		case Machine.MUL:
+		case Machine.DIV:
+		case Machine.EQ:
+		case Machine.LT:
+		case Machine.OR:
+			pops = 2;
+			pushes = 1;
+			break;
+
+		case Machine.POPN:
+		case Machine.DUPN:
+			int n = graph.pushedConstant(addr);
+
+			pops = (opCode == Machine.POPN ? 1 : 2);
+			if (n == ControlFlowGraph.NOT_CONSTANT) {
+				known = false;
+			} else if (n < 0) {
+				report(addr, Machine.INSTRUCTION_NAMES[opCode] + " count " + n + " is negative");
+				known = false;
+			} else if (opCode == Machine.POPN) {
+				pops += n;
+			} else {
+				pushes = n;
+			}
+			break;
+
+		default:
+			// HALT, TRON, TROFF and ILIMIT leave the stack alone
+			break;
+		}
+
+		if (height == UNKNOWN) {
+			return UNKNOWN;
+		}
+		if (height < pops) {
+			report(addr, "stack underflow: " + Machine.INSTRUCTION_NAMES[opCode] + " takes " + pops
+					+ " words from a stack of " + height);
+			return UNKNOWN;
+		}
+		return known ? height - pops + pushes : UNKNOWN;
+	}
+
+	/** Report a stack error once for each instruction. */
+	private void report(int addr, String message) {
+		if (!reported[addr]) {
+			reported[addr] = true;
+			problems.add(new VerificationProblem(addr, true, message));
+		}
+	}
+
+	/**
+	 * Test for an address in a block some path reaches. The start address
+	 * counts as reached even when it is bad.
+	 */
+	public boolean isReachable(int addr) {
+		if (addr == graph.getStartPC()) {
+			return true;
+		}
+		if (addr < 0 || addr >= heights.length) {
+			return false;
+		}
+		while (graph.getBlockAt(addr) == null) {
+			addr--;
+		}
+		return entryHeights[graph.getBlockAt(addr).index] != UNREACHED;
+	}
+
+	public ControlFlowGraph getGraph() {
+		return graph;
+	}
+
+	/** @return errors and warnings, in address order */
+	public List<VerificationProblem> getProblems() {
+		return Collections.unmodifiableList(problems);
+	}
+
+	/** @return true iff any of the problems is an error */
+	public boolean hasErrors() {
+		for (VerificationProblem problem : problems) {
+			if (problem.isError()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Stack height on entry to an instruction: the words between the bottom
+	 * of the stack and msp.
+	 *
+	 * @param addr
+	 *            address of an instruction
+	 * @return the height, or UNKNOWN if it is not the same on every known
+	 *         path or no path reaches the instruction
+	 */
+	public int getStackHeight(int addr) {
+		int height = heights[addr];
+
+		return height >= 0 && isReachable(addr) ? height : UNKNOWN;
+	}
+}
@@ -0,0 +1,361 @@
+package compiler488.runtime.verify;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+import compiler488.runtime.Machine;
+
+/**
+ * ControlFlowGraph: the basic blocks of a machine code image and the known
+ * edges between them.
+ *
+ * <p>
+ * The image is swept from address 0, one instruction after another, using
+ * <code>Machine.INSTRUCTION_LENGTHS</code>; BR, BF and HALT occupy one word.
+ * The sweep fixes where every instruction starts, so a branch to any other
+ * address is a branch into the middle of an instruction.
+ * </p>
+ *
+ * <p>
+ * A BR or BF immediately preceded by <code>PUSH addr</code> in the same
+ * block branches to <code>addr</code>; any other branch is to a computed
+ * address and has no edge. A PUSH of an instruction address that is not
+ * consumed by such a branch (a return address, or a constant that happens to
+ * equal one) makes the address taken: it starts a block, because a computed
+ * branch may reach it.
+ * </p>
+ *
+ * <p>
+ * A BR to a constant address whose next instruction is a taken address is a
+ * call: the taken address is where the routine returns to.
+ * </p>
+ */
+public class ControlFlowGraph {
+	/** Value of <code>pushedConstant</code> when the operand is not known. */
+	public static final int NOT_CONSTANT = Integer.MIN_VALUE;
+
+	/** The code image, <code>memory[ 0 .. limit - 1 ]</code>. */
+	final int[] code;
+
+	/** Address execution starts at. */
+	final int startPC;
+
+	/** Address of the next instruction after each instruction start. */
+	private final int[] next;
+
+	/** Address of the instruction before each instruction start, or -1. */
+	private final int[] previous;
+
+	/** True at the first word of every instruction. */
+	private final boolean[] instructionStart;
+
+	/** True at an illegal or truncated instruction. */
+	private final boolean[] illegal;
+
+	/** True at the first instruction of every block. */
+	private final boolean[] leader;
+
+	/** Instruction addresses pushed other than as a branch target. */
+	private final BitSet addressTaken = new BitSet();
+
+	/** The block starting at each address, or null. */
+	private final BasicBlock[] blockAt;
+
+	private final List<BasicBlock> blocks = new ArrayList<BasicBlock>();
+
+	/**
+	 * Build the graph of a code image.
+	 *
+	 * @param code
+	 *            the code area of the machine memory; its length is the
+	 *            first address past the code
+	 * @param startPC
+	 *            address execution starts at
+	 * @param problems
+	 *            receives the errors found while building: illegal and
+	 *            truncated instructions, bad branch targets and execution
+	 *            running past the end of the code
+	 */
+	public ControlFlowGraph(int[] code, int startPC, List<VerificationProblem> problems) {
+		int limit = code.length;
+
+		this.code = code;
+		this.startPC = startPC;
+		next = new int[limit];
+		previous = new int[limit];
+		instructionStart = new boolean[limit];
+		illegal = new boolean[limit];
+		leader = new boolean[limit];
+		blockAt = new BasicBlock[limit];
+
+		sweep(problems);
+
+		if (startPC < 0 || startPC >= limit) {
+			problems.add(new VerificationProblem(startPC, true, "execution starts outside the code"));
+		} else if (!instructionStart[startPC]) {
+			problems.add(new VerificationProblem(startPC, true,
+					"execution starts inside the instruction at " + instructionAt(startPC)));
+		} else {
+			leader[startPC] = true;
+		}
+
+		findLeaders();
+		makeBlocks();
+		makeEdges(problems);
+	}
+
+	/** Find where the instructions start and check that they are legal. */
+	private void sweep(List<VerificationProblem> problems) {
+		int limit = code.length;
+		int prev = -1;
+
+		for (int addr = 0; addr < limit; addr = next[addr]) {
+			int opCode = code[addr];
+			int length = 1;
+
+			if (opCode < 0 || opCode >= Machine.INSTRUCTION_LENGTHS.length) {
+				problems.add(new VerificationProblem(addr, true, "illegal instruction code " + opCode));
+				illegal[addr] = true;
+			} else {
+				length = Math.max(Machine.INSTRUCTION_LENGTHS[opCode], 1);
+
+				if (addr + length > limit) {
+					problems.add(new VerificationProblem(addr, true,
+							Machine.INSTRUCTION_NAMES[opCode] + " operands run past the end of the code"));
+					illegal[addr] = true;
+					length = limit - addr;
+				}
+			}
+
+			instructionStart[addr] = true;
+			previous[addr] = prev;
+			next[addr] = addr + length;
+			prev = addr;
+		}
+	}
+
+	/**
+	 * Mark the first instruction of every block: constant branch targets,
+	 * taken addresses and the instruction after every BR, BF, HALT and
+	 * illegal instruction.
+	 */
+	private void findLeaders() {
+		int limit = code.length;
+
+		for (int addr = 0; addr < limit; addr = next[addr]) {
+			if (illegal[addr] || code[addr] == Machine.HALT || isBranch(addr)) {
+				if (next[addr] < limit) {
+					leader[next[addr]] = true;
+				}
+			}
+
+			if (isBranch(addr)) {
+				int target = constantBefore(addr);
+
+				if (isInstruction(target)) {
+					leader[target] = true;
+				}
+			}
+		}
+
+		// A taken address that is a branch unconsumes the PUSH before it,
+		// which may take another address, so repeat until nothing changes
+		boolean changed = true;
+
+		while (changed) {
+			changed = false;
+
+			for (int addr = 0; addr < limit; addr = next[addr]) {
+				if (illegal[addr] || code[addr] != Machine.PUSH) {
+					continue;
+				}
+
+				int value = code[addr + 1];
+				int after = next[addr];
+				boolean consumed = after < limit && isBranch(after) && !leader[after];
+
+				if (!consumed && isInstruction(value) && !addressTaken.get(value)) {
+					addressTaken.set(value);
+					changed |= !leader[value];
+					leader[value] = true;
+				}
+			}
+		}
+	}
+
+	private void makeBlocks() {
+		int limit = code.length;
+
+		for (int addr = 0; addr < limit;) {
+			int start = addr;
+			int last = addr;
+
+			do {
+				last = addr;
+				addr = next[addr];
+			} while (addr < limit && !leader[addr]);
+
+			BasicBlock block = new BasicBlock(start, addr, last, blocks.size());
+
+			blocks.add(block);
+			blockAt[start] = block;
+		}
+	}
+
+	private void makeEdges(List<VerificationProblem> problems) {
+		for (BasicBlock block : blocks) {
+			int last = block.last;
+
+			if (illegal[last]) {
+				continue;
+			}
+
+			switch (code[last]) {
+			case Machine.HALT:
+				break;
+
+			case Machine.BF:
+				fallThrough(block, problems);
+				branch(block, problems);
+				break;
+
+			case Machine.BR:
+				branch(block, problems);
+				break;
+
+			default:
+				fallThrough(block, problems);
+				break;
+			}
+		}
+	}
+
+	private void branch(BasicBlock block, List<VerificationProblem> problems) {
+		int limit = code.length;
+		int last = block.last;
+		int target = pushedConstant(last);
+
+		if (target == NOT_CONSTANT) {
+			block.computedExit = true;
+		} else if (target < 0 || target >= limit) {
+			problems.add(new VerificationProblem(last, true,
+					"branch target " + target + " is outside the code (0 .. " + (limit - 1) + ")"));
+		} else if (!instructionStart[target]) {
+			problems.add(new VerificationProblem(last, true,
+					"branch target " + target + " is inside the instruction at " + instructionAt(target)));
+		} else {
+			addEdge(block, blockAt[target]);
+
+			if (code[last] == Machine.BR && block.end < limit && addressTaken.get(block.end)) {
+				block.callExit = true;
+				blockAt[target].routineEntry = true;
+			}
+		}
+	}
+
+	private void fallThrough(BasicBlock block, List<VerificationProblem> problems) {
+		if (block.end >= code.length) {
+			problems.add(new VerificationProblem(block.last, true, "execution runs past the end of the code"));
+		} else {
+			addEdge(block, blockAt[block.end]);
+		}
+	}
+
+	private static void addEdge(BasicBlock from, BasicBlock to) {
+		if (!from.successors.contains(to)) {
+			from.successors.add(to);
+			to.predecessors.add(from);
+		}
+	}
+
+	/** Test for a legal BR or BF at an instruction start. */
+	private boolean isBranch(int addr) {
+		return !illegal[addr] && (code[addr] == Machine.BR || code[addr] == Machine.BF);
+	}
+
+	/** Test for the start of a legal instruction. */
+	private boolean isInstruction(int addr) {
+		return 0 <= addr && addr < code.length && instructionStart[addr] && !illegal[addr];
+	}
+
+	/** The constant a PUSH right before an instruction pushes, ignoring blocks. */
+	private int constantBefore(int addr) {
+		int prev = previous[addr];
+
+		if (prev < 0 || illegal[prev] || code[prev] != Machine.PUSH) {
+			return NOT_CONSTANT;
+		}
+		return code[prev + 1];
+	}
+
+	/** Address of the instruction that holds a word of the code. */
+	private int instructionAt(int addr) {
+		while (!instructionStart[addr]) {
+			addr--;
+		}
+		return addr;
+	}
+
+	/**
+	 * The constant on top of the stack on entry to an instruction, when the
+	 * instruction before it in the same block is a PUSH.
+	 *
+	 * @param addr
+	 *            address of an instruction
+	 * @return the constant, or NOT_CONSTANT
+	 */
+	public int pushedConstant(int addr) {
+		return leader[addr] ? NOT_CONSTANT : constantBefore(addr);
+	}
+
+	/** @return first address past the code */
+	public int getLimit() {
+		return code.length;
+	}
+
+	public int getStartPC() {
+		return startPC;
+	}
+
+	/** @return the block execution starts in, or null if the start is bad */
+	public BasicBlock getEntry() {
+		return 0 <= startPC && startPC < code.length ? blockAt[startPC] : null;
+	}
+
+	/** @return the blocks in address order */
+	public List<BasicBlock> getBlocks() {
+		return Collections.unmodifiableList(blocks);
+	}
+
+	/** @return the block starting at an address, or null */
+	public BasicBlock getBlockAt(int addr) {
+		return 0 <= addr && addr < code.length ? blockAt[addr] : null;
+	}
+
+	/** @return instruction code at an instruction start */
+	public int getOpCode(int addr) {
+		return code[addr];
+	}
+
+	/** @return address of the instruction after the one at addr */
+	public int nextInstruction(int addr) {
+		return next[addr];
+	}
+
+	/** @return true iff an instruction starts at addr */
+	public boolean isInstructionStart(int addr) {
+		return 0 <= addr && addr < code.length && instructionStart[addr];
+	}
+
+	/** @return true iff the instruction at addr is illegal or truncated */
+	public boolean isIllegal(int addr) {
+		return illegal[addr];
+	}
+
+	/** @return true iff addr is pushed other than as a branch target */
+	public boolean isAddressTaken(int addr) {
+		return addressTaken.get(addr);
+	}
+}
@@ -0,0 +1,39 @@
+package compiler488.runtime.verify;
+
+/**
+ * VerificationProblem: one problem CodeVerifier found in a code image.
+ *
+ * An error means the image would fault (or behave arbitrarily) if execution
+ * reached the instruction; a warning, such as unreachable code, does not
+ * stop the image from running.
+ */
+public class VerificationProblem {
+	private final int address;
+	private final boolean error;
+	private final String message;
+
+	public VerificationProblem(int address, boolean error, String message) {
+		this.address = address;
+		this.error = error;
+		this.message = message;
+	}
+
+	/** @return address of the instruction the problem is at */
+	public int getAddress() {
+		return address;
+	}
+
+	/** @return true for an error, false for a warning */
+	public boolean isError() {
+		return error;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return (error ? "Error" : "Warning") + " at " + address + ": " + message;
+	}
+}
@@ -1,6 +1,6 @@
 package compiler488.semantics;
 
-import java.io.*;
+import compiler488.compiler.CompilationContext;
 import compiler488.symbol.SymbolTable;
 
 /**
@@ -10,15 +10,18 @@ import compiler488.symbol.SymbolTable;
  */
 public class Semantics {
 	/** Flag for tracing semantic analysis */
-	private boolean traceSemantics = false;
+	private boolean traceSemantics;
 
-	/** File sink for semantic analysis trace */
-	private String traceFile = new String();
+	/** the compilation, with its options, streams and error flag */
+	private CompilationContext context;
 
-	public FileWriter Tracer;
-	public File f;
+	/** the symbol table of the compilation */
+	private SymbolTable symbolTable;
 
-	public Semantics() {
+	public Semantics(CompilationContext context) {
+		this.context = context;
+		this.traceSemantics = context.getOptions().getTraceSemantics();
+		this.symbolTable = new SymbolTable(context);
 	}
 
 	/**
@@ -28,7 +31,7 @@ public class Semantics {
 	void Initialize() {
 		/* Initialize the symbol table */
 
-		// Symbol.Initialize();
+		symbolTable.Initialize();
 
 		/*********************************************/
 		/* Additional initialization code for the */
@@ -42,7 +45,7 @@ public class Semantics {
 	void Finalize() {
 		/* Finalize the symbol table */
 
-		// Symbol.Finalize();
+		symbolTable.Finalize();
 
 		/*********************************************/
 		/* Additional finalization code for the */
@@ -59,24 +62,8 @@ public class Semantics {
 	 */
 	void semanticAction(int actionNumber) {
 		if (traceSemantics) {
-			if (traceFile.length() > 0) {
-				// output trace to the file represented by traceFile
-				try {
-					// open the file for writing and append to it
-					File f = new File(traceFile);
-					Tracer = new FileWriter(traceFile, true);
-
-					Tracer.write("Sematics: S" + actionNumber + "\n");
-					// always be sure to close the file
-					Tracer.close();
-				} catch (IOException e) {
-					System.out.println(traceFile + " could be opened/created.  It may be in use.");
-				}
-			} else {
-				// output the trace to standard out.
-				System.out.println("Sematics: S" + actionNumber);
-			}
-
+			// output the standard trace stream
+			context.getTrace().println("Sematics: S" + actionNumber);
 		}
 
 		/*************************************************************/
@@ -86,7 +73,7 @@ public class Semantics {
 		/* FEEL FREE TO ignore or replace this procedure */
 		/*************************************************************/
 
-		System.out.println("Semantic Action: S" + actionNumber);
+		context.getOutput().println("Semantic Action: S" + actionNumber);
 	}
 
 	// ADDITIONAL FUNCTIONS TO IMPLEMENT SEMANTIC ANALYSIS GO HERE
@@ -0,0 +1,83 @@
+package compiler488.symbol;
+
+import compiler488.ast.AST;
+import compiler488.ast.type.Type;
+
+/**
+ * One binding of an identifier in the symbol table: what it names, its type,
+ * the declaration it came from and where code generation puts it.
+ *
+ * An entry declared in an inner scope shadows the binding of the same name
+ * in the enclosing scopes until its scope is left.
+ */
+public class SymbolEntry {
+	/** The name, the instance interned in the identifiers of the compilation. */
+	private final String name;
+
+	/** Id of the name in the identifiers of the compilation. */
+	final int id;
+
+	/** What the name is; one of the kinds of SymbolTable. */
+	private final int kind;
+
+	/** Type of the variable, parameter or function result; null otherwise. */
+	private final Type type;
+
+	/** The declaration of the name, or null. */
+	private final AST declaration;
+
+	/** Lexical level of the scope the name is declared in. */
+	private final int lexicalLevel;
+
+	/** Offset of the name in the activation record of its lexical level. */
+	private final int offset;
+
+	/** Depth of the scope the name is declared in, the outermost being 1. */
+	final int scopeDepth;
+
+	/** The binding of the same name this one shadows, or null. */
+	final SymbolEntry shadowed;
+
+	SymbolEntry(String name, int id, int kind, Type type, AST declaration, int lexicalLevel, int offset,
+			int scopeDepth, SymbolEntry shadowed) {
+		this.name = name;
+		this.id = id;
+		this.kind = kind;
+		this.type = type;
+		this.declaration = declaration;
+		this.lexicalLevel = lexicalLevel;
+		this.offset = offset;
+		this.scopeDepth = scopeDepth;
+		this.shadowed = shadowed;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getKind() {
+		return kind;
+	}
+
+	public Type getType() {
+		return type;
+	}
+
+	public AST getDeclaration() {
+		return declaration;
+	}
+
+	public int getLexicalLevel() {
+		return lexicalLevel;
+	}
+
+	public int getOffset() {
+		return offset;
+	}
+
+	@Override
+	public String toString() {
+		return name + ": " + SymbolTable.kindName(kind) + (type == null ? "" : " " + type) + ", level "
+				+ lexicalLevel + ", offset " + offset;
+	}
+}
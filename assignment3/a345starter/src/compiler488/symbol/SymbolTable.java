@@ -1,46 +1,363 @@
 package compiler488.symbol;
 
-import java.io.*;
+import java.io.PrintStream;
+import java.util.Arrays;
+
+import compiler488.ast.AST;
+import compiler488.ast.type.Type;
+import compiler488.compiler.CompilationContext;
+import compiler488.parser.InternTable;
 
 /**
- * Symbol Table This almost empty class is a framework for implementing a Symbol
- * Table class for the CSC488S compiler
+ * Symbol Table for the CSC488S compiler: the bindings of the identifiers in
+ * the scopes enclosing the point of the program being analysed.
+ *
+ * <p>
+ * Names are interned by the lexer in the identifiers of the compilation,
+ * an InternTable shared through the CompilationContext, and the innermost
+ * binding of each name is kept in an array indexed by its dense id, linking
+ * in turn to the binding it shadows. Looking up a name is finding its id,
+ * however deep the nesting; declare and lookup also take the id directly.
+ * The entries declared in each open scope are kept on an undo log, so
+ * leaving a scope pops just those entries and puts back the bindings they
+ * shadowed.
+ * </p>
  *
- * Each implementation can change/modify/delete this class as they see fit.
+ * <p>
+ * A major scope (the program, a function or a procedure) opens a new lexical
+ * level, with offsets starting at 0; a minor scope (a nested Scope) stays on
+ * the level around it, and its storage is given back when it is left, so
+ * sibling minor scopes share their storage. getLevelSize() is the most
+ * storage the current level has needed so far.
+ * </p>
  *
  * @author <B> PUT YOUR NAMES HERE </B>
  */
 public class SymbolTable {
+	/** Kind of a scalar variable. */
+	public static final int VARIABLE = 0;
+
+	/** Kind of an array variable. */
+	public static final int ARRAY = 1;
+
+	/** Kind of a routine parameter. */
+	public static final int PARAMETER = 2;
+
+	/** Kind of a function. */
+	public static final int FUNCTION = 3;
+
+	/** Kind of a procedure. */
+	public static final int PROCEDURE = 4;
+
+	private static final String[] KIND_NAMES = { "variable", "array", "parameter", "function", "procedure" };
+
+	/** Initial number of bindings. */
+	private static final int INITIAL_CAPACITY = 256;
+
+	/** Initial number of scopes and of entries on the undo log. */
+	private static final int INITIAL_DEPTH = 16;
+
+	/** the compilation, for its trace and dump options and streams */
+	private CompilationContext context;
+
+	/** the identifiers of the compilation, whose ids key the bindings */
+	private InternTable identifiers;
+
+	/** Flag for tracing declarations and scopes */
+	private boolean traceSymbols;
+
+	/** Flag for dumping the entries of each scope as it is left */
+	private boolean dumpSymbols;
+
+	/** Innermost binding of the name with each id, or null. */
+	private SymbolEntry[] bindings;
+
+	/** Undo log: the entries declared in the open scopes, innermost last. */
+	private SymbolEntry[] declared;
+
+	/** Number of entries on the undo log. */
+	private int declaredCount;
+
+	/** Of each open scope, the undo log size when it was entered. */
+	private int[] scopeStart;
+
+	/** Of each open scope, the next offset when it was entered. */
+	private int[] scopeOffset;
+
+	/** Of each open scope, the level size when it was entered. */
+	private int[] scopeLevelSize;
+
+	/** Of each open scope, whether it opened a lexical level. */
+	private boolean[] scopeMajor;
+
+	/** Number of open scopes. */
+	private int depth;
+
+	/** Current lexical level, -1 outside every scope. */
+	private int lexicalLevel;
+
+	/** Offset of the next entry on the current level. */
+	private int nextOffset;
+
+	/** Most storage the current level has needed. */
+	private int levelSize;
+
 	/**
 	 * Symbol Table constructor Create and initialize a symbol table
+	 *
+	 * @param context
+	 *            the compilation the table belongs to
 	 */
-	public SymbolTable() {
+	public SymbolTable(CompilationContext context) {
+		this.context = context;
+		this.identifiers = context.getIdentifiers();
+		this.traceSymbols = context.getOptions().getTraceSymbols();
+		this.dumpSymbols = context.getOptions().getDumpSymbolTable();
+		Initialize();
 	}
 
 	/**
-	 * Initialize - called once by semantic analysis at the start of compilation
-	 * May be unnecessary if constructor does all required initialization
+	 * Initialize - called once by semantic analysis at the start of
+	 * compilation; empties the table.
 	 */
 	public void Initialize() {
-		/**
-		 * Initialize the symbol table Any additional symbol table
-		 * initialization GOES HERE
-		 */
+		bindings = new SymbolEntry[Math.max(INITIAL_CAPACITY, identifiers.size())];
+		declared = new SymbolEntry[INITIAL_DEPTH];
+		declaredCount = 0;
+		scopeStart = new int[INITIAL_DEPTH];
+		scopeOffset = new int[INITIAL_DEPTH];
+		scopeLevelSize = new int[INITIAL_DEPTH];
+		scopeMajor = new boolean[INITIAL_DEPTH];
+		depth = 0;
+		lexicalLevel = -1;
+		nextOffset = 0;
+		levelSize = 0;
 	}
 
 	/**
-	 * Finalize - called once by Semantics at the end of compilation May be
-	 * unnecessary
+	 * Finalize - called once by Semantics at the end of compilation; leaves
+	 * any scopes still open.
 	 */
 	public void Finalize() {
-		/**
-		 * Additional finalization code for the symbol table class GOES HERE.
-		 *
-		 */
+		while (depth > 0) {
+			exitScope();
+		}
+	}
+
+	/**
+	 * Enter a scope.
+	 *
+	 * @param major
+	 *            true for the program or a routine body, which opens a new
+	 *            lexical level; false for a nested scope
+	 */
+	public void enterScope(boolean major) {
+		if (depth == scopeStart.length) {
+			int length = depth * 2;
+
+			scopeStart = Arrays.copyOf(scopeStart, length);
+			scopeOffset = Arrays.copyOf(scopeOffset, length);
+			scopeLevelSize = Arrays.copyOf(scopeLevelSize, length);
+			scopeMajor = Arrays.copyOf(scopeMajor, length);
+		}
+
+		scopeStart[depth] = declaredCount;
+		scopeOffset[depth] = nextOffset;
+		scopeLevelSize[depth] = levelSize;
+		scopeMajor[depth] = major;
+		depth++;
+
+		if (major) {
+			lexicalLevel++;
+			nextOffset = 0;
+			levelSize = 0;
+		}
+
+		if (traceSymbols) {
+			context.getTrace().println("Symbols: enter " + (major ? "major" : "minor") + " scope " + depth + ", level "
+					+ lexicalLevel);
+		}
 	}
 
 	/**
-	 * The rest of Symbol Table Data structures, public and private functions to
-	 * implement the Symbol Table GO HERE.
+	 * Leave the innermost scope, dropping the entries declared in it and
+	 * restoring the bindings they shadowed.
 	 */
+	public void exitScope() {
+		if (depth == 0) {
+			throw new IllegalStateException("no scope to exit");
+		}
+
+		int start = scopeStart[depth - 1];
+
+		if (traceSymbols) {
+			context.getTrace().println("Symbols: exit scope " + depth + ", level " + lexicalLevel);
+		}
+		if (dumpSymbols) {
+			dumpScope(context.getTrace(), start);
+		}
+
+		for (int i = declaredCount - 1; i >= start; i--) {
+			SymbolEntry entry = declared[i];
+
+			declared[i] = null;
+			bindings[entry.id] = entry.shadowed;
+		}
+		declaredCount = start;
+
+		depth--;
+		nextOffset = scopeOffset[depth];
+		if (scopeMajor[depth]) {
+			lexicalLevel--;
+			levelSize = scopeLevelSize[depth];
+		}
+	}
+
+	/**
+	 * Declare a name in the innermost scope, giving it the next offset of the
+	 * current lexical level.
+	 *
+	 * @param name
+	 *            the name
+	 * @param kind
+	 *            VARIABLE, ARRAY, PARAMETER, FUNCTION or PROCEDURE
+	 * @param type
+	 *            type of the variable, parameter or function result, or null
+	 * @param declaration
+	 *            the declaration of the name, or null
+	 * @param size
+	 *            words of storage the name takes on its level; 0 for routines
+	 * @return the new entry, or null if the name is already declared in the
+	 *         innermost scope
+	 */
+	public SymbolEntry declare(String name, int kind, Type type, AST declaration, int size) {
+		return declare(identifiers.internId(name), kind, type, declaration, size);
+	}
+
+	/**
+	 * Declare a name, given by its id in the identifiers of the compilation,
+	 * in the innermost scope.
+	 *
+	 * @param id
+	 *            id of the name
+	 * @param kind
+	 *            VARIABLE, ARRAY, PARAMETER, FUNCTION or PROCEDURE
+	 * @param type
+	 *            type of the variable, parameter or function result, or null
+	 * @param declaration
+	 *            the declaration of the name, or null
+	 * @param size
+	 *            words of storage the name takes on its level; 0 for routines
+	 * @return the new entry, or null if the name is already declared in the
+	 *         innermost scope
+	 */
+	public SymbolEntry declare(int id, int kind, Type type, AST declaration, int size) {
+		if (depth == 0) {
+			throw new IllegalStateException("no scope to declare " + identifiers.getString(id) + " in");
+		}
+
+		if (id >= bindings.length) {
+			bindings = Arrays.copyOf(bindings, Math.max(bindings.length * 2, identifiers.size()));
+		}
+
+		SymbolEntry outer = bindings[id];
+
+		if (outer != null && outer.scopeDepth == depth) {
+			return null;
+		}
+
+		SymbolEntry entry = new SymbolEntry(identifiers.getString(id), id, kind, type, declaration, lexicalLevel,
+				nextOffset, depth, outer);
+
+		nextOffset += size;
+		levelSize = Math.max(levelSize, nextOffset);
+		bindings[id] = entry;
+
+		if (declaredCount == declared.length) {
+			declared = Arrays.copyOf(declared, declaredCount * 2);
+		}
+		declared[declaredCount++] = entry;
+
+		if (traceSymbols) {
+			context.getTrace().println("Symbols: declare " + entry);
+		}
+		return entry;
+	}
+
+	/**
+	 * Look up the innermost binding of a name.
+	 *
+	 * @param name
+	 *            the name
+	 * @return its entry, or null if it is not declared in any open scope
+	 */
+	public SymbolEntry lookup(String name) {
+		return lookup(identifiers.getId(name));
+	}
+
+	/**
+	 * Look up the innermost binding of a name, given by its id in the
+	 * identifiers of the compilation.
+	 *
+	 * @param id
+	 *            the id, or -1 for a name never interned
+	 * @return its entry, or null if it is not declared in any open scope
+	 */
+	public SymbolEntry lookup(int id) {
+		return id >= 0 && id < bindings.length ? bindings[id] : null;
+	}
+
+	/**
+	 * Look up a name in the innermost scope only, as redeclaration checks do.
+	 *
+	 * @param name
+	 *            the name
+	 * @return its entry, or null if it is not declared in the innermost scope
+	 */
+	public SymbolEntry lookupLocal(String name) {
+		SymbolEntry entry = lookup(name);
+
+		return entry != null && entry.scopeDepth == depth ? entry : null;
+	}
+
+	/**
+	 * Intern a name in the identifiers of the compilation, so that equal
+	 * names are the same instance and can be compared by reference.
+	 *
+	 * @param name
+	 *            the name
+	 * @return the instance of the name held by the identifiers
+	 */
+	public String intern(String name) {
+		return identifiers.intern(name);
+	}
+
+	/** Current lexical level; 0 is the program, -1 outside every scope. */
+	public int getLexicalLevel() {
+		return lexicalLevel;
+	}
+
+	/** Number of open scopes. */
+	public int getScopeDepth() {
+		return depth;
+	}
+
+	/** Most storage the current lexical level has needed so far, in words. */
+	public int getLevelSize() {
+		return levelSize;
+	}
+
+	/** Name of a kind of entry. */
+	static String kindName(int kind) {
+		return kind >= 0 && kind < KIND_NAMES.length ? KIND_NAMES[kind] : "kind " + kind;
+	}
+
+	/** Print the entries of the innermost scope, in order of declaration. */
+	private void dumpScope(PrintStream out, int start) {
+		out.println("Symbol table: scope " + depth + ", level " + lexicalLevel + ", " + (declaredCount - start)
+				+ " entries, level size " + levelSize);
+		for (int i = start; i < declaredCount; i++) {
+			out.println("  " + declared[i]);
+		}
+	}
 }